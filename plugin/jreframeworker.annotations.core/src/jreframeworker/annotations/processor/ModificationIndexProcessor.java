@@ -0,0 +1,336 @@
+package jreframeworker.annotations.processor;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes a compact binary index of the modifications requested by each
+ * compiled type so the builder can discover phases and targets without
+ * parsing the class files. The index of a type is written next to its class
+ * file as a resource named after the class with a ".jref" extension.
+ *
+ * An index is written for every top level and nested type, types without
+ * modifications get an empty index. Annotations are read with the same rules
+ * as the engine identifiers, only explicitly set values are considered and an
+ * annotation missing a value the identifiers require is not indexed. The
+ * format must be kept in sync with
+ * jreframeworker.engine.identifiers.ModificationIndex, which reads it.
+ *
+ * Format: int magic, short version, UTF source class, int entry count, then
+ * each entry as byte operation, int phase, UTF target, UTF member, UTF value.
+ * Class names use "/" as the package separator.
+ */
+@SupportedAnnotationTypes("*")
+public class ModificationIndexProcessor extends AbstractProcessor {
+
+	public static final int MAGIC = 0x4A524546; // "JREF"
+	public static final short VERSION = 1;
+	public static final String INDEX_EXTENSION = ".jref";
+
+	public static final byte DEFINE_TYPE = 1;
+	public static final byte MERGE_TYPE = 2;
+	public static final byte PURGE_TYPE = 3;
+	public static final byte PURGE_METHOD = 4;
+	public static final byte PURGE_FIELD = 5;
+	public static final byte DEFINE_TYPE_VISIBILITY = 6;
+	public static final byte DEFINE_METHOD_VISIBILITY = 7;
+	public static final byte DEFINE_FIELD_VISIBILITY = 8;
+	public static final byte DEFINE_TYPE_FINALITY = 9;
+	public static final byte DEFINE_METHOD_FINALITY = 10;
+	public static final byte DEFINE_FIELD_FINALITY = 11;
+	public static final byte DEFINE_METHOD = 12;
+	public static final byte MERGE_METHOD = 13;
+	public static final byte DEFINE_FIELD = 14;
+
+	private static final String ANNOTATIONS_PACKAGE = "jreframeworker.annotations.";
+	private static final int DEFAULT_PHASE = 1;
+
+	private static class Entry {
+		private byte operation;
+		private int phase;
+		private String target;
+		private String member;
+		private String value;
+
+		public Entry(byte operation, int phase, String target, String member, String value){
+			this.operation = operation;
+			this.phase = phase;
+			this.target = target;
+			this.member = member;
+			this.value = value;
+		}
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(Element element : roundEnv.getRootElements()){
+			if(element instanceof TypeElement){
+				index((TypeElement) element);
+			}
+		}
+		// never claim the annotations, other processors may be interested
+		return false;
+	}
+
+	/**
+	 * Writes the index of the type and of its nested types, which are compiled
+	 * to class files of their own
+	 * @param type
+	 */
+	private void index(TypeElement type){
+		try {
+			writeIndex(type, getEntries(type));
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Unable to write JReFrameworker modification index: " + e.getMessage(), type);
+		}
+		for(Element member : type.getEnclosedElements()){
+			if(member instanceof TypeElement){
+				index((TypeElement) member);
+			}
+		}
+	}
+
+	private List<Entry> getEntries(TypeElement type){
+		List<Entry> entries = new LinkedList<Entry>();
+		String className = getClassName(type);
+		String superClassName = getSuperClassName(type);
+
+		// type level modifications, the merge or define type annotation determines
+		// the target and phase of the member level merges and defines
+		String memberTarget = null;
+		int memberPhase = DEFAULT_PHASE;
+		for(AnnotationMirror annotation : getAnnotations(type)){
+			String name = getAnnotationName(annotation);
+			int phase = getIntValue(annotation, "phase");
+			if(name.equals("types.DefineType")){
+				entries.add(new Entry(DEFINE_TYPE, phase, className, "", ""));
+				memberTarget = className;
+				memberPhase = phase;
+			} else if(name.equals("types.MergeType")){
+				String supertype = getTypeValue(annotation, "supertype", superClassName);
+				if(supertype == null){
+					supertype = superClassName;
+				}
+				entries.add(new Entry(MERGE_TYPE, phase, supertype, "", ""));
+				memberTarget = supertype;
+				memberPhase = phase;
+			} else if(name.equals("types.PurgeType")){
+				addEntry(entries, PURGE_TYPE, phase, getTypeValue(annotation, "type", superClassName), "", "");
+			} else if(name.equals("methods.PurgeMethod")){
+				addEntry(entries, PURGE_METHOD, phase, getTypeValue(annotation, "type", superClassName), getStringValue(annotation, "method"), "");
+			} else if(name.equals("fields.PurgeField")){
+				addEntry(entries, PURGE_FIELD, phase, getTypeValue(annotation, "type", superClassName), getStringValue(annotation, "field"), "");
+			} else if(name.equals("types.DefineTypeVisibility")){
+				addEntry(entries, DEFINE_TYPE_VISIBILITY, phase, getTypeValue(annotation, "type", superClassName), "", getStringValue(annotation, "visibility"));
+			} else if(name.equals("methods.DefineMethodVisibility")){
+				addEntry(entries, DEFINE_METHOD_VISIBILITY, phase, getTypeValue(annotation, "type", superClassName), getStringValue(annotation, "method"), getStringValue(annotation, "visibility"));
+			} else if(name.equals("fields.DefineFieldVisibility")){
+				addEntry(entries, DEFINE_FIELD_VISIBILITY, phase, getTypeValue(annotation, "type", superClassName), getStringValue(annotation, "field"), getStringValue(annotation, "visibility"));
+			} else if(name.equals("types.DefineTypeFinality")){
+				addEntry(entries, DEFINE_TYPE_FINALITY, phase, getTypeValue(annotation, "type", superClassName), "", getStringValue(annotation, "finality"));
+			} else if(name.equals("methods.DefineMethodFinality")){
+				addEntry(entries, DEFINE_METHOD_FINALITY, phase, getTypeValue(annotation, "type", superClassName), getStringValue(annotation, "method"), getStringValue(annotation, "finality"));
+			} else if(name.equals("fields.DefineFieldFinality")){
+				addEntry(entries, DEFINE_FIELD_FINALITY, phase, getTypeValue(annotation, "type", superClassName), getStringValue(annotation, "field"), getStringValue(annotation, "finality"));
+			}
+		}
+
+		// member level merges and defines
+		if(memberTarget != null){
+			for(Element member : type.getEnclosedElements()){
+				for(AnnotationMirror annotation : member.getAnnotationMirrors()){
+					String name = getAnnotationName(annotation);
+					String memberName = member.getSimpleName().toString();
+					if(name.equals("methods.DefineMethod") && member instanceof ExecutableElement){
+						entries.add(new Entry(DEFINE_METHOD, memberPhase, memberTarget, memberName, ""));
+					} else if(name.equals("methods.MergeMethod") && member instanceof ExecutableElement){
+						entries.add(new Entry(MERGE_METHOD, memberPhase, memberTarget, memberName, ""));
+					} else if(name.equals("fields.DefineField") && member.getKind() == ElementKind.FIELD){
+						entries.add(new Entry(DEFINE_FIELD, memberPhase, memberTarget, memberName, ""));
+					}
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Adds an entry if the annotation set every value the engine identifiers
+	 * require, the identifiers ignore the annotation otherwise
+	 * @param entries
+	 * @param operation
+	 * @param phase
+	 * @param target
+	 * @param member
+	 * @param value
+	 */
+	private void addEntry(List<Entry> entries, byte operation, int phase, String target, String member, String value){
+		if(target != null && member != null && value != null){
+			entries.add(new Entry(operation, phase, target, member, value));
+		}
+	}
+
+	private void writeIndex(TypeElement type, List<Entry> entries) throws IOException {
+		String className = getClassName(type);
+		String packageName = "";
+		String relativeName = className;
+		int separator = className.lastIndexOf('/');
+		if(separator != -1){
+			packageName = className.substring(0, separator).replace('/', '.');
+			relativeName = className.substring(separator + 1);
+		}
+		FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, packageName, relativeName + INDEX_EXTENSION, type);
+		DataOutputStream output = new DataOutputStream(resource.openOutputStream());
+		try {
+			output.writeInt(MAGIC);
+			output.writeShort(VERSION);
+			output.writeUTF(className);
+			output.writeInt(entries.size());
+			for(Entry entry : entries){
+				output.writeByte(entry.operation);
+				output.writeInt(entry.phase);
+				output.writeUTF(entry.target);
+				output.writeUTF(entry.member);
+				output.writeUTF(entry.value);
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Returns the JReFrameworker annotations of the type with repeated
+	 * annotation containers expanded
+	 * @param type
+	 * @return
+	 */
+	private List<AnnotationMirror> getAnnotations(TypeElement type){
+		List<AnnotationMirror> result = new LinkedList<AnnotationMirror>();
+		for(AnnotationMirror annotation : type.getAnnotationMirrors()){
+			String name = getAnnotationName(annotation);
+			if(name == null){
+				continue;
+			}
+			AnnotationValue container = getValue(annotation, "value");
+			if(container != null && container.getValue() instanceof List){
+				for(Object value : (List<?>) container.getValue()){
+					Object repeated = ((AnnotationValue) value).getValue();
+					if(repeated instanceof AnnotationMirror){
+						result.add((AnnotationMirror) repeated);
+					}
+				}
+			} else {
+				result.add(annotation);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the annotation name relative to the JReFrameworker annotations
+	 * package (example: types.MergeType) or null if the annotation is not a
+	 * JReFrameworker annotation
+	 * @param annotation
+	 * @return
+	 */
+	private String getAnnotationName(AnnotationMirror annotation){
+		TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+		String name = annotationType.getQualifiedName().toString();
+		if(name.startsWith(ANNOTATIONS_PACKAGE)){
+			return name.substring(ANNOTATIONS_PACKAGE.length());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the explicitly set value of the attribute or null, the class file
+	 * only records explicit values so defaults are not seen by the identifiers
+	 * @param annotation
+	 * @param attribute
+	 * @return
+	 */
+	private AnnotationValue getValue(AnnotationMirror annotation, String attribute){
+		Map<? extends ExecutableElement, ? extends AnnotationValue> values = annotation.getElementValues();
+		for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : values.entrySet()){
+			if(value.getKey().getSimpleName().contentEquals(attribute)){
+				return value.getValue();
+			}
+		}
+		return null;
+	}
+
+	private int getIntValue(AnnotationMirror annotation, String attribute){
+		AnnotationValue value = getValue(annotation, attribute);
+		if(value != null && value.getValue() instanceof Integer){
+			return (Integer) value.getValue();
+		}
+		return DEFAULT_PHASE;
+	}
+
+	private String getStringValue(AnnotationMirror annotation, String attribute){
+		AnnotationValue value = getValue(annotation, attribute);
+		if(value == null){
+			return null;
+		}
+		return value.getValue().toString();
+	}
+
+	/**
+	 * Returns the qualified type named by the attribute, the default type if
+	 * the attribute is empty or null if the attribute is not set
+	 * @param annotation
+	 * @param attribute
+	 * @param defaultType
+	 * @return
+	 */
+	private String getTypeValue(AnnotationMirror annotation, String attribute, String defaultType){
+		String type = getStringValue(annotation, attribute);
+		if(type == null){
+			return null;
+		}
+		if(type.equals("")){
+			return defaultType;
+		}
+		return type.replace('.', '/');
+	}
+
+	private String getClassName(TypeElement type){
+		return processingEnv.getElementUtils().getBinaryName(type).toString().replace('.', '/');
+	}
+
+	private String getSuperClassName(TypeElement type){
+		TypeMirror superclass = type.getSuperclass();
+		if(superclass.getKind() == TypeKind.DECLARED){
+			return getClassName((TypeElement) ((DeclaredType) superclass).asElement());
+		}
+		return "java/lang/Object";
+	}
+
+}
@@ -19,6 +19,10 @@ import java.lang.annotation.Target;
  * "type" should be the qualified class name, if not defined the target will be
  * the super class of the class the annotation is placed on
  * 
+ * "type" may also be a pattern to target many classes at once, where "*" matches
+ * any characters within a package segment and "**" matches any number of
+ * package segments (example: "com.example.internal.**")
+ * 
  * "finality" should be a boolean true to add or boolean false to remove the
  * final keyword
  * 
@@ -16,6 +16,10 @@ import java.lang.annotation.Target;
  * Indicates the annotated type (class, abstract class, interface) should be 
  * purged from the runtime. Ignores all other JReFrameworker annotations.
  * 
+ * "type" may also be a pattern to target many classes at once, where "*" matches
+ * any characters within a package segment and "**" matches any number of
+ * package segments (example: "com.example.internal.**")
+ * 
  * @author Ben Holland
  */
 public @interface PurgeType {
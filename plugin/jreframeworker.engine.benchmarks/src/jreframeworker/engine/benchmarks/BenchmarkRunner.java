@@ -0,0 +1,40 @@
+package jreframeworker.engine.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the engine benchmarks with the GC and allocation profiler enabled and
+ * writes the results to results/engine-benchmarks.json. Each benchmark runs
+ * in a single fork with 3 warmup and 5 measurement iterations by default.
+ * 
+ * The JMH jars are not checked in, download jmh-core, jmh-generator-annprocess
+ * (1.37) and their dependencies jopt-simple (5.0.4) and commons-math3 (3.6.1)
+ * into the lib directory of this project. The JMH annotation processor is
+ * enabled in the project settings and generates the benchmark harness into
+ * .apt_generated when the project is built.
+ * 
+ * Any JMH command line option may be passed as an argument, for example
+ * "EngineProcessBenchmark -p archiveSize=1000" runs a single benchmark class
+ * against a single archive size.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		new File("results").mkdirs();
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("results" + File.separator + "engine-benchmarks.json")
+				.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,66 @@
+package jreframeworker.engine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jreframeworker.engine.benchmarks.utils.BenchmarkArchives;
+import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.utils.LazyClassNode;
+
+/**
+ * Measures parsing and writing classes of different sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BytecodeBenchmark {
+
+	@Param({"small", "medium", "large"})
+	public String classSize;
+
+	private byte[] bytecode;
+	private ClassNode classNode;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		bytecode = BenchmarkArchives.generateBaseClass(BenchmarkArchives.getClassMethods(classSize));
+		classNode = BytecodeUtils.getClassNode(bytecode);
+	}
+
+	@Benchmark
+	public ClassNode getClassNode() {
+		return BytecodeUtils.getClassNode(bytecode);
+	}
+
+	@Benchmark
+	public LazyClassNode getLazyClassNode() {
+		return BytecodeUtils.getLazyClassNode(bytecode);
+	}
+
+	@Benchmark
+	public byte[] writeClass() throws Exception {
+		return BytecodeUtils.writeClass(classNode);
+	}
+
+	@Benchmark
+	public byte[] writeUnmodifiedLazyClass() throws Exception {
+		return BytecodeUtils.writeClass(BytecodeUtils.getLazyClassNode(bytecode));
+	}
+
+}
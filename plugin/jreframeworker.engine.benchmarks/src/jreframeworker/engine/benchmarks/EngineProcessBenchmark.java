@@ -0,0 +1,99 @@
+package jreframeworker.engine.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.benchmarks.inputs.DefineInput;
+import jreframeworker.engine.benchmarks.inputs.FinalityInput;
+import jreframeworker.engine.benchmarks.inputs.MergeInput;
+import jreframeworker.engine.benchmarks.inputs.PurgeInput;
+import jreframeworker.engine.benchmarks.inputs.VisibilityInput;
+import jreframeworker.engine.benchmarks.utils.BenchmarkArchives;
+
+/**
+ * Measures processing an input of each annotation kind against archives of
+ * different sizes. Each invocation opens a new engine on the archive, so the
+ * engine setup cost is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EngineProcessBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int archiveSize;
+
+	@Param({"purge", "finality", "visibility", "define", "merge"})
+	public String operation;
+
+	private File workingDirectory;
+	private File archive;
+	private File outputArchive;
+	private byte[] inputClass;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		workingDirectory = Files.createTempDirectory("jref-benchmark").toFile();
+		archive = new File(workingDirectory, "original.jar");
+		outputArchive = new File(workingDirectory, "modified.jar");
+		BenchmarkArchives.writeArchive(archive, archiveSize, BenchmarkArchives.SMALL_CLASS_METHODS);
+		if(operation.equals("purge")){
+			inputClass = BenchmarkArchives.readClass(PurgeInput.class);
+		} else if(operation.equals("finality")){
+			inputClass = BenchmarkArchives.readClass(FinalityInput.class);
+		} else if(operation.equals("visibility")){
+			inputClass = BenchmarkArchives.readClass(VisibilityInput.class);
+		} else if(operation.equals("define")){
+			inputClass = BenchmarkArchives.readClass(DefineInput.class);
+		} else {
+			inputClass = BenchmarkArchives.readClass(MergeInput.class);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		BenchmarkArchives.delete(workingDirectory);
+	}
+
+	@Benchmark
+	public boolean process() throws Exception {
+		Engine engine = new Engine(archive, "jref_");
+		try {
+			return engine.process(inputClass, 1);
+		} finally {
+			engine.close();
+		}
+	}
+
+	@Benchmark
+	public File processAndSave() throws Exception {
+		Engine engine = new Engine(archive, "jref_");
+		try {
+			engine.process(inputClass, 1);
+			engine.save(outputArchive);
+			return outputArchive;
+		} finally {
+			engine.close();
+		}
+	}
+
+}
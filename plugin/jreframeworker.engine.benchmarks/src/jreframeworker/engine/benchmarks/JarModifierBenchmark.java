@@ -0,0 +1,92 @@
+package jreframeworker.engine.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jreframeworker.engine.benchmarks.utils.BenchmarkArchives;
+import jreframeworker.engine.utils.JarModifier;
+
+/**
+ * Measures reading and writing archives with the JarModifier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JarModifierBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int archiveSize;
+
+	private File workingDirectory;
+	private File archive;
+	private File outputArchive;
+	private List<String> entries;
+	private JarModifier jarModifier;
+	private int nextEntry = 0;
+	private byte[] modifiedClass;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		workingDirectory = Files.createTempDirectory("jref-benchmark").toFile();
+		archive = new File(workingDirectory, "original.jar");
+		outputArchive = new File(workingDirectory, "modified.jar");
+		BenchmarkArchives.writeArchive(archive, archiveSize, BenchmarkArchives.SMALL_CLASS_METHODS);
+		jarModifier = new JarModifier(archive);
+		entries = new ArrayList<String>();
+		for(String entry : jarModifier.getJarEntrySet()){
+			if(entry.endsWith(".class")){
+				entries.add(entry);
+			}
+		}
+		modifiedClass = BenchmarkArchives.generateClass(BenchmarkArchives.TARGET_CLASS_PREFIX + 0, BenchmarkArchives.TARGET_CLASS_METHODS + 1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		jarModifier.close();
+		BenchmarkArchives.delete(workingDirectory);
+	}
+
+	@Benchmark
+	public JarModifier construct() throws Exception {
+		return new JarModifier(archive);
+	}
+
+	@Benchmark
+	public byte[] extractEntry() throws Exception {
+		// cycle through the entries so every extraction reads a different entry
+		String entry = entries.get(nextEntry);
+		nextEntry = (nextEntry + 1) % entries.size();
+		return jarModifier.extractEntry(entry);
+	}
+
+	@Benchmark
+	public File saveWithOneModifiedEntry() throws Exception {
+		JarModifier modifier = new JarModifier(archive);
+		modifier.add(BenchmarkArchives.TARGET_CLASS_PREFIX + 0 + ".class", modifiedClass, true);
+		modifier.save(outputArchive);
+		modifier.close();
+		return outputArchive;
+	}
+
+}
@@ -0,0 +1,68 @@
+package jreframeworker.engine.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.benchmarks.inputs.MergeInput;
+import jreframeworker.engine.benchmarks.utils.BenchmarkArchives;
+
+/**
+ * Measures merging a method into base classes of different sizes. The merge
+ * is private to the engine so it is measured through Engine.process against
+ * an archive that only contains the base class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MergeBenchmark {
+
+	@Param({"small", "medium", "large"})
+	public String classSize;
+
+	private File workingDirectory;
+	private File archive;
+	private byte[] inputClass;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		workingDirectory = Files.createTempDirectory("jref-benchmark").toFile();
+		archive = new File(workingDirectory, "original.jar");
+		BenchmarkArchives.writeArchive(archive, 0, BenchmarkArchives.getClassMethods(classSize));
+		inputClass = BenchmarkArchives.readClass(MergeInput.class);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		BenchmarkArchives.delete(workingDirectory);
+	}
+
+	@Benchmark
+	public boolean mergeClasses() throws Exception {
+		Engine engine = new Engine(archive, "jref_");
+		try {
+			return engine.process(inputClass, 1);
+		} finally {
+			engine.close();
+		}
+	}
+
+}
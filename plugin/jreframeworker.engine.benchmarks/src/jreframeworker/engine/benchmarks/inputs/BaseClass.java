@@ -0,0 +1,13 @@
+package jreframeworker.engine.benchmarks.inputs;
+
+/**
+ * Compile time stand in for the merge target, the benchmark archives contain
+ * a generated BaseClass with the same name and many more methods
+ */
+public class BaseClass {
+
+	public String method(){
+		return "original-method";
+	}
+	
+}
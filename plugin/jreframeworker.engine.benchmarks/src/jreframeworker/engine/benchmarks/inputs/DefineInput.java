@@ -0,0 +1,12 @@
+package jreframeworker.engine.benchmarks.inputs;
+
+import jreframeworker.annotations.types.DefineType;
+
+@DefineType
+public class DefineInput {
+
+	public String method(){
+		return "defined-method";
+	}
+	
+}
@@ -0,0 +1,7 @@
+package jreframeworker.engine.benchmarks.inputs;
+
+import jreframeworker.annotations.types.DefineTypeFinality;
+
+// targets every class of the archive
+@DefineTypeFinality(type="jreframeworker.engine.benchmarks.targets.*", finality=true)
+public class FinalityInput {}
@@ -0,0 +1,15 @@
+package jreframeworker.engine.benchmarks.inputs;
+
+import jreframeworker.annotations.methods.MergeMethod;
+import jreframeworker.annotations.types.MergeType;
+
+@MergeType
+public class MergeInput extends BaseClass {
+
+	@Override
+	@MergeMethod
+	public String method(){
+		return "merged-" + super.method();
+	}
+	
+}
@@ -0,0 +1,6 @@
+package jreframeworker.engine.benchmarks.inputs;
+
+import jreframeworker.annotations.methods.PurgeMethod;
+
+@PurgeMethod(type="jreframeworker.engine.benchmarks.targets.Target0", method="method0")
+public class PurgeInput {}
@@ -0,0 +1,174 @@
+package jreframeworker.engine.benchmarks.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import jreframeworker.engine.utils.JarModifier;
+
+/**
+ * Generates the archives and classes the benchmarks run against
+ */
+public class BenchmarkArchives {
+
+	public static final String TARGETS_PACKAGE = "jreframeworker/engine/benchmarks/targets";
+	public static final String TARGET_CLASS_PREFIX = TARGETS_PACKAGE + "/Target";
+	public static final String BASE_CLASS = "jreframeworker/engine/benchmarks/inputs/BaseClass";
+
+	// number of methods of the target and base classes
+	public static final int TARGET_CLASS_METHODS = 10;
+	public static final int SMALL_CLASS_METHODS = 10;
+	public static final int MEDIUM_CLASS_METHODS = 200;
+	public static final int LARGE_CLASS_METHODS = 5000;
+
+	/**
+	 * Returns the number of methods of a class of the given size (small, medium or large)
+	 * @param classSize
+	 * @return
+	 */
+	public static int getClassMethods(String classSize){
+		if(classSize.equals("small")){
+			return SMALL_CLASS_METHODS;
+		} else if(classSize.equals("medium")){
+			return MEDIUM_CLASS_METHODS;
+		} else if(classSize.equals("large")){
+			return LARGE_CLASS_METHODS;
+		} else {
+			throw new IllegalArgumentException("Unknown class size: " + classSize);
+		}
+	}
+
+	/**
+	 * Writes an archive of generated target classes and a base class of the
+	 * given number of methods that the benchmark inputs modify
+	 * @param archive
+	 * @param targetClasses
+	 * @param baseClassMethods
+	 * @throws IOException
+	 */
+	public static void writeArchive(File archive, int targetClasses, int baseClassMethods) throws IOException {
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(archive), JarModifier.generateEmptyManifest());
+		try {
+			for(int i=0; i<targetClasses; i++){
+				String className = TARGET_CLASS_PREFIX + i;
+				jar.putNextEntry(new JarEntry(className + ".class"));
+				jar.write(generateClass(className, TARGET_CLASS_METHODS));
+				jar.closeEntry();
+			}
+			jar.putNextEntry(new JarEntry(BASE_CLASS + ".class"));
+			jar.write(generateBaseClass(baseClassMethods));
+			jar.closeEntry();
+		} finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * Generates a class with a field and a straight line method for each index
+	 * (example: public int method0(int x){ return x * 0 + field0; })
+	 * @param className
+	 * @param methods
+	 * @return
+	 */
+	public static byte[] generateClass(String className, int methods){
+		ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		visitClass(classWriter, className, methods);
+		classWriter.visitEnd();
+		return classWriter.toByteArray();
+	}
+
+	/**
+	 * Generates the merge target, a BaseClass with the generated methods and the
+	 * String method() the merge input replaces
+	 * @param methods
+	 * @return
+	 */
+	public static byte[] generateBaseClass(int methods){
+		ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		visitClass(classWriter, BASE_CLASS, methods);
+		MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "method", "()Ljava/lang/String;", null, null);
+		methodVisitor.visitCode();
+		methodVisitor.visitLdcInsn("original-method");
+		methodVisitor.visitInsn(Opcodes.ARETURN);
+		methodVisitor.visitMaxs(0, 0);
+		methodVisitor.visitEnd();
+		classWriter.visitEnd();
+		return classWriter.toByteArray();
+	}
+
+	private static void visitClass(ClassWriter classWriter, String className, int methods){
+		classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null, "java/lang/Object", null);
+
+		MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		constructor.visitCode();
+		constructor.visitVarInsn(Opcodes.ALOAD, 0);
+		constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		constructor.visitInsn(Opcodes.RETURN);
+		constructor.visitMaxs(0, 0);
+		constructor.visitEnd();
+
+		for(int i=0; i<methods; i++){
+			FieldVisitor fieldVisitor = classWriter.visitField(Opcodes.ACC_PROTECTED, "field" + i, "I", null, null);
+			fieldVisitor.visitEnd();
+
+			MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "(I)I", null, null);
+			methodVisitor.visitCode();
+			methodVisitor.visitVarInsn(Opcodes.ILOAD, 1);
+			methodVisitor.visitLdcInsn(i);
+			methodVisitor.visitInsn(Opcodes.IMUL);
+			methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+			methodVisitor.visitFieldInsn(Opcodes.GETFIELD, className, "field" + i, "I");
+			methodVisitor.visitInsn(Opcodes.IADD);
+			methodVisitor.visitInsn(Opcodes.IRETURN);
+			methodVisitor.visitMaxs(0, 0);
+			methodVisitor.visitEnd();
+		}
+	}
+
+	/**
+	 * Returns the class file bytes of a compiled benchmark input
+	 * @param inputClass
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] readClass(Class<?> inputClass) throws IOException {
+		InputStream is = inputClass.getResourceAsStream(inputClass.getSimpleName() + ".class");
+		if(is == null){
+			throw new IOException("Missing class file for " + inputClass.getName());
+		}
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while((n = is.read(buf)) > 0){
+				baos.write(buf, 0, n);
+			}
+			return baos.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Deletes a file or directory recursively
+	 * @param file
+	 */
+	public static void delete(File file){
+		if(file.isDirectory()){
+			for(File child : file.listFiles()){
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
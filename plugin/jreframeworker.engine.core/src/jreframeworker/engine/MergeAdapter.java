@@ -83,7 +83,7 @@ public class MergeAdapter extends ClassVisitor {
 					// clear field annotations and insert the field
 					AnnotationUtils.clearFieldAnnotations(fieldNode);
 					fieldNode.accept(this);
-					Log.info("Added Field: " + fieldNode.name);
+					Log.info(() -> "Added Field: " + fieldNode.name);
 				}
 			}
 		}
@@ -127,10 +127,10 @@ public class MergeAdapter extends ClassVisitor {
 					methodNodeToMerge.invisibleAnnotations.removeAll(jrefAnnotations);
 					if(merge){
 						mergeMethod(methodNodeToMerge, qualifiedRenamedMethods);
-						Log.info("Merged Method: " + methodNodeToMerge.name);
+						Log.info(() -> "Merged Method: " + methodNodeToMerge.name);
 					} else {
 						addMethod(methodNodeToMerge);
-						Log.info("Added Method: " + methodNodeToMerge.name);
+						Log.info(() -> "Added Method: " + methodNodeToMerge.name);
 					}
 				}
 			}
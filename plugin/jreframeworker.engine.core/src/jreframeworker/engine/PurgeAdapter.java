@@ -65,7 +65,7 @@ public class PurgeAdapter extends ClassVisitor {
 				if (fieldToPurge.signature.equals(signature)) {
 					if (fieldToPurge.name.equals(name) && fieldToPurge.desc.equals(desc)) {
 						// return null in order to remove this field
-						Log.info("Purged Field: " + name);
+						Log.info(() -> "Purged Field: " + name);
 						return null;
 					}
 				}
@@ -73,7 +73,7 @@ public class PurgeAdapter extends ClassVisitor {
 				// signature was null, fall back to name and description only
 				if (fieldToPurge.name.equals(name) && fieldToPurge.desc.equals(desc)) {
 					// return null in order to remove this field
-					Log.info("Purged Field: " + name);
+					Log.info(() -> "Purged Field: " + name);
 					return null;
 				}
 			}
@@ -90,7 +90,7 @@ public class PurgeAdapter extends ClassVisitor {
 				if (methodToPurge.signature.equals(signature)) {
 					if (methodToPurge.name.equals(name) && methodToPurge.desc.equals(desc)) {
 						// return null in order to remove this method
-						Log.info("Purged Method: " + name);
+						Log.info(() -> "Purged Method: " + name);
 						return null;
 					}
 				}
@@ -98,7 +98,7 @@ public class PurgeAdapter extends ClassVisitor {
 				// signature was null, fall back to name and description only
 				if (methodToPurge.name.equals(name) && methodToPurge.desc.equals(desc)) {
 					// return null in order to remove this method
-					Log.info("Purged Method: " + name);
+					Log.info(() -> "Purged Method: " + name);
 					return null;
 				}
 			}
@@ -0,0 +1,251 @@
+package jreframeworker.engine.identifiers;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the modification index written at compile time by the
+ * jreframeworker.annotations.processor.ModificationIndexProcessor. The index
+ * summarizes the phases, targets and operations of a modification source so
+ * that the source's class file does not need to be parsed to discover them.
+ *
+ * The constants and format must be kept in sync with the annotation processor.
+ */
+public class ModificationIndex {
+
+	public static final int MAGIC = 0x4A524546; // "JREF"
+	public static final short VERSION = 1;
+	public static final String INDEX_EXTENSION = ".jref";
+
+	public static final byte DEFINE_TYPE = 1;
+	public static final byte MERGE_TYPE = 2;
+	public static final byte PURGE_TYPE = 3;
+	public static final byte PURGE_METHOD = 4;
+	public static final byte PURGE_FIELD = 5;
+	public static final byte DEFINE_TYPE_VISIBILITY = 6;
+	public static final byte DEFINE_METHOD_VISIBILITY = 7;
+	public static final byte DEFINE_FIELD_VISIBILITY = 8;
+	public static final byte DEFINE_TYPE_FINALITY = 9;
+	public static final byte DEFINE_METHOD_FINALITY = 10;
+	public static final byte DEFINE_FIELD_FINALITY = 11;
+	public static final byte DEFINE_METHOD = 12;
+	public static final byte MERGE_METHOD = 13;
+	public static final byte DEFINE_FIELD = 14;
+
+	public static class Entry {
+		private byte operation;
+		private int phase;
+		private String target;
+		private String member;
+		private String value;
+
+		public Entry(byte operation, int phase, String target, String member, String value){
+			this.operation = operation;
+			this.phase = phase;
+			this.target = target;
+			this.member = member;
+			this.value = value;
+		}
+
+		public byte getOperation(){
+			return operation;
+		}
+
+		public int getPhase(){
+			return phase;
+		}
+
+		/**
+		 * Returns the qualified target class (or class pattern) of the operation
+		 * @return
+		 */
+		public String getTarget(){
+			return target;
+		}
+
+		/**
+		 * Returns the target method or field name, or an empty string for type operations
+		 * @return
+		 */
+		public String getMember(){
+			return member;
+		}
+
+		/**
+		 * Returns the requested visibility or finality, or an empty string
+		 * @return
+		 */
+		public String getValue(){
+			return value;
+		}
+	}
+
+	private String sourceClassName;
+	private List<Entry> entries;
+
+	public ModificationIndex(String sourceClassName, List<Entry> entries){
+		this.sourceClassName = sourceClassName;
+		this.entries = entries;
+	}
+
+	/**
+	 * Returns the index file of the given class file
+	 * @param classFile
+	 * @return
+	 */
+	public static File getIndexFile(File classFile){
+		String name = classFile.getName();
+		if(name.endsWith(".class")){
+			name = name.substring(0, name.length() - ".class".length());
+		}
+		return new File(classFile.getParentFile(), name + INDEX_EXTENSION);
+	}
+
+	/**
+	 * Reads the given index file
+	 * @param indexFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static ModificationIndex read(File indexFile) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(indexFile));
+		try {
+			return read(input);
+		} finally {
+			input.close();
+		}
+	}
+
+	public static ModificationIndex read(InputStream input) throws IOException {
+		DataInputStream data = new DataInputStream(input);
+		if(data.readInt() != MAGIC){
+			throw new IOException("Not a modification index.");
+		}
+		short version = data.readShort();
+		if(version != VERSION){
+			throw new IOException("Unsupported modification index version: " + version);
+		}
+		String sourceClassName = data.readUTF();
+		int size = data.readInt();
+		List<Entry> entries = new ArrayList<Entry>(size);
+		for(int i=0; i<size; i++){
+			byte operation = data.readByte();
+			int phase = data.readInt();
+			String target = data.readUTF();
+			String member = data.readUTF();
+			String value = data.readUTF();
+			entries.add(new Entry(operation, phase, target, member, value));
+		}
+		return new ModificationIndex(sourceClassName, entries);
+	}
+
+	public String getSourceClassName(){
+		return sourceClassName;
+	}
+
+	public List<Entry> getEntries(){
+		return entries;
+	}
+
+	/**
+	 * Returns true if the source has a type level JReFrameworker annotation
+	 * @return
+	 */
+	public boolean hasTopLevelAnnotation(){
+		for(Entry entry : entries){
+			if(!isMemberOperation(entry.getOperation())){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the sorted phases of the modifications, the default phase 1 if there are none
+	 * @return
+	 */
+	public List<Integer> getSortedPhases(){
+		Set<Integer> phases = new HashSet<Integer>();
+		for(Entry entry : entries){
+			// member merges and defines share the phase of the type
+			if(!isMemberOperation(entry.getOperation())){
+				phases.add(entry.getPhase());
+			}
+		}
+		if(phases.isEmpty()){
+			phases.add(1);
+		}
+		ArrayList<Integer> phasesSorted = new ArrayList<Integer>(phases);
+		Collections.sort(phasesSorted);
+		return phasesSorted;
+	}
+
+	/**
+	 * Returns true if the source has a modification in the given phase (-1 for any phase)
+	 * @param phase
+	 * @return
+	 */
+	public boolean hasPhase(int phase){
+		for(Entry entry : entries){
+			if(phase == -1 || entry.getPhase() == phase){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the source is a define type in the given phase
+	 * @param phase
+	 * @return
+	 */
+	public boolean isDefineType(int phase){
+		for(Entry entry : entries){
+			if(entry.getOperation() == DEFINE_TYPE && entry.getPhase() == phase){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the qualified classes (or class patterns) that are the targets of
+	 * purge, finality, visibility and merge modifications in the given phase
+	 * @param phase
+	 * @return
+	 */
+	public Set<String> getTargets(int phase){
+		Set<String> targets = new HashSet<String>();
+		for(Entry entry : entries){
+			if(entry.getPhase() == phase && entry.getOperation() != DEFINE_TYPE && !isMemberOperation(entry.getOperation())){
+				targets.add(entry.getTarget());
+			}
+		}
+		return targets;
+	}
+
+	public List<Entry> getEntries(byte operation){
+		List<Entry> result = new LinkedList<Entry>();
+		for(Entry entry : entries){
+			if(entry.getOperation() == operation){
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isMemberOperation(byte operation){
+		return operation == DEFINE_METHOD || operation == MERGE_METHOD || operation == DEFINE_FIELD;
+	}
+
+}
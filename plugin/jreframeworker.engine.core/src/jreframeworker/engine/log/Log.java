@@ -1,34 +1,74 @@
 package jreframeworker.engine.log;
 
+import java.util.function.Supplier;
+
 public class Log {
-	
+
+	// TODO: enable logging after the metasploit module is made more robust
+	private static final boolean ENABLED = false;
+
+	public static boolean isInfoEnabled() {
+		return ENABLED;
+	}
+
+	public static boolean isWarningEnabled() {
+		return ENABLED;
+	}
+
 	public static void error(String message, Throwable e) {
 		log("Error", message, e);
 	}
-	
+
 	public static void warning(String message) {
 		warning(message, null);
 	}
-	
+
 	public static void warning(String message, Throwable e) {
 		log("Warning", message, e);
 	}
-	
+
+	/**
+	 * Logs a warning, the message is only built if warnings are enabled
+	 * @param message
+	 */
+	public static void warning(Supplier<String> message) {
+		if(isWarningEnabled()){
+			warning(message.get());
+		}
+	}
+
 	public static void info(String message) {
 		info(message, null);
 	}
-	
+
 	public static void info(String message, Throwable e) {
 		log("Info", message, e);
 	}
-	
+
+	/**
+	 * Logs an info message, the message is only built if info messages are enabled
+	 * @param message
+	 */
+	public static void info(Supplier<String> message) {
+		if(isInfoEnabled()){
+			info(message.get());
+		}
+	}
+
+	/**
+	 * Blocks until pending messages are written, messages are written synchronously here
+	 */
+	public static void flush() {}
+
 	public static void log(String severity, String string, Throwable e) {
-		// TODO: enable logging after the metasploit module is made more robust
-//		if(e != null){
-//			System.out.println(severity + ": " + string);
-//			e.printStackTrace();
-//		} else {
-//			System.out.println(severity + ": " + string);
-//		}
+		if(!ENABLED){
+			return;
+		}
+		if(e != null){
+			System.out.println(severity + ": " + string);
+			e.printStackTrace();
+		} else {
+			System.out.println(severity + ": " + string);
+		}
 	}
 }
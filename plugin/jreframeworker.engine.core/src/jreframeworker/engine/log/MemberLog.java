@@ -0,0 +1,78 @@
+package jreframeworker.engine.log;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Collects the per member messages of a modification and logs them when
+ * flushed. If more messages than the summary threshold were collected, a
+ * single summary line is logged for each modified class instead.
+ *
+ * Nothing is collected while info messages are disabled.
+ */
+public class MemberLog {
+
+	public static final int DEFAULT_SUMMARY_THRESHOLD = 100;
+
+	private int summaryThreshold;
+
+	// class name -> number of messages about the class
+	private Map<String,Integer> classMessageCounts = new LinkedHashMap<String,Integer>();
+
+	// messages in order, dropped once the summary threshold is exceeded
+	private List<Supplier<String>> messages = new LinkedList<Supplier<String>>();
+	private int messageCount = 0;
+
+	public MemberLog() {
+		this(DEFAULT_SUMMARY_THRESHOLD);
+	}
+
+	/**
+	 * @param summaryThreshold the number of messages above which only per class summaries are logged
+	 */
+	public MemberLog(int summaryThreshold) {
+		this.summaryThreshold = summaryThreshold;
+	}
+
+	/**
+	 * Collects a message about a modification to a member of the given class
+	 * @param className
+	 * @param message
+	 */
+	public void info(String className, Supplier<String> message) {
+		if(!Log.isInfoEnabled()){
+			return;
+		}
+		Integer count = classMessageCounts.get(className);
+		classMessageCounts.put(className, count == null ? 1 : count + 1);
+		messageCount++;
+		if(messageCount <= summaryThreshold){
+			messages.add(message);
+		} else {
+			messages.clear();
+		}
+	}
+
+	/**
+	 * Logs the collected messages, or the per class summaries if there were
+	 * too many messages to log individually
+	 */
+	public void flush() {
+		if(messageCount <= summaryThreshold){
+			for(Supplier<String> message : messages){
+				Log.info(message.get());
+			}
+		} else {
+			for(Map.Entry<String,Integer> classMessageCount : classMessageCounts.entrySet()){
+				Log.info("Modified " + classMessageCount.getValue() + " members of " + classMessageCount.getKey() + ".");
+			}
+		}
+		classMessageCounts.clear();
+		messages.clear();
+		messageCount = 0;
+	}
+
+}
@@ -0,0 +1,244 @@
+package jreframeworker.engine.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A memory bounded store of pending archive entry bytes.
+ *
+ * Recently used entries are kept on the heap. When the heap size of the
+ * stored entries exceeds the memory ceiling, the least recently used entries
+ * are released. Clean entries (bytes extracted from the archive that can be
+ * extracted again) are simply dropped, while modified entries are spilled to
+ * a scratch file and read back when they are next requested.
+ *
+ * A store may hold null values to remember that an entry does not exist.
+ */
+public class BytecodeStore {
+
+	public static final long DEFAULT_MEMORY_CEILING = 256L * 1024L * 1024L; // 256 MB
+
+	private static class Slot {
+		private byte[] bytes;
+		private boolean modified;
+		private boolean missing;
+		// location of a spilled copy of the bytes in the scratch file, -1 if none
+		private long offset = -1;
+		private int length;
+
+		public Slot(byte[] bytes, boolean modified){
+			this.bytes = bytes;
+			this.modified = modified;
+			this.missing = (bytes == null);
+			this.length = (bytes == null) ? 0 : bytes.length;
+		}
+	}
+
+	// access ordered so iteration starts at the least recently used entry
+	private LinkedHashMap<String,Slot> slots = new LinkedHashMap<String,Slot>(16, 0.75f, true);
+	private long memoryCeiling;
+	private long heapSize = 0;
+
+	private File scratchFile = null;
+	private RandomAccessFile scratch = null;
+	private long scratchSize = 0;
+
+	public BytecodeStore(){
+		this(DEFAULT_MEMORY_CEILING);
+	}
+
+	/**
+	 * @param memoryCeiling the maximum number of entry bytes to keep on the heap
+	 */
+	public BytecodeStore(long memoryCeiling){
+		this.memoryCeiling = memoryCeiling;
+	}
+
+	public long getMemoryCeiling(){
+		return memoryCeiling;
+	}
+
+	public void setMemoryCeiling(long memoryCeiling) throws IOException {
+		this.memoryCeiling = memoryCeiling;
+		trim();
+	}
+
+	/**
+	 * Returns the number of entry bytes currently held on the heap
+	 * @return
+	 */
+	public long getHeapSize(){
+		return heapSize;
+	}
+
+	/**
+	 * Returns the number of bytes written to the scratch file
+	 * @return
+	 */
+	public long getSpilledSize(){
+		return scratchSize;
+	}
+
+	public boolean contains(String entry){
+		return slots.containsKey(entry);
+	}
+
+	public boolean isModified(String entry){
+		Slot slot = slots.get(entry);
+		return slot != null && slot.modified;
+	}
+
+	/**
+	 * Returns the stored bytes of the entry, or null if the entry is not stored
+	 * or was stored as missing
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] get(String entry) throws IOException {
+		Slot slot = slots.get(entry);
+		if(slot == null || slot.missing){
+			return null;
+		}
+		if(slot.bytes == null){
+			// read back a spilled entry, the spilled copy stays valid until the entry changes
+			byte[] bytes = new byte[slot.length];
+			scratch.seek(slot.offset);
+			scratch.readFully(bytes);
+			slot.bytes = bytes;
+			heapSize += slot.length;
+			trim();
+			return bytes;
+		}
+		return slot.bytes;
+	}
+
+	/**
+	 * Returns the length of the stored bytes of the entry without reading them
+	 * @param entry
+	 * @return
+	 */
+	public int getLength(String entry){
+		Slot slot = slots.get(entry);
+		return slot == null ? 0 : slot.length;
+	}
+
+	/**
+	 * Stores unmodified bytes that can be recovered from the archive again,
+	 * clean entries are dropped instead of spilled when memory is needed
+	 * @param entry
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void putClean(String entry, byte[] bytes) throws IOException {
+		put(entry, new Slot(bytes, false));
+	}
+
+	/**
+	 * Stores modified bytes, modified entries are kept until removed
+	 * @param entry
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void putModified(String entry, byte[] bytes) throws IOException {
+		put(entry, new Slot(bytes, true));
+	}
+
+	private void put(String entry, Slot slot) throws IOException {
+		remove(entry);
+		slots.put(entry, slot);
+		heapSize += slot.length;
+		trim();
+	}
+
+	public void remove(String entry){
+		Slot slot = slots.remove(entry);
+		if(slot != null && slot.bytes != null){
+			heapSize -= slot.length;
+		}
+	}
+
+	/**
+	 * Returns the stored entries in least recently used order
+	 * @return
+	 */
+	public Set<String> getEntries(){
+		return new LinkedHashSet<String>(slots.keySet());
+	}
+
+	/**
+	 * Returns the modified entries in least recently used order
+	 * @return
+	 */
+	public Set<String> getModifiedEntries(){
+		Set<String> entries = new LinkedHashSet<String>();
+		for(Map.Entry<String,Slot> slot : slots.entrySet()){
+			if(slot.getValue().modified){
+				entries.add(slot.getKey());
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Removes all entries and deletes the scratch file
+	 * @throws IOException
+	 */
+	public void clear() throws IOException {
+		slots.clear();
+		heapSize = 0;
+		if(scratch != null){
+			scratch.close();
+			scratch = null;
+		}
+		if(scratchFile != null){
+			scratchFile.delete();
+			scratchFile = null;
+		}
+		scratchSize = 0;
+	}
+
+	/**
+	 * Releases the least recently used entries until the heap size is within
+	 * the memory ceiling
+	 * @throws IOException
+	 */
+	private void trim() throws IOException {
+		Iterator<Map.Entry<String,Slot>> iterator = slots.entrySet().iterator();
+		while(heapSize > memoryCeiling && iterator.hasNext()){
+			Slot slot = iterator.next().getValue();
+			if(slot.bytes == null){
+				continue;
+			}
+			if(!slot.modified){
+				// clean entries can be extracted again
+				iterator.remove();
+			} else {
+				if(slot.offset == -1){
+					spill(slot);
+				}
+				slot.bytes = null;
+			}
+			heapSize -= slot.length;
+		}
+	}
+
+	private void spill(Slot slot) throws IOException {
+		if(scratch == null){
+			scratchFile = File.createTempFile("jref-", ".spill");
+			scratchFile.deleteOnExit();
+			scratch = new RandomAccessFile(scratchFile, "rw");
+		}
+		scratch.seek(scratchSize);
+		scratch.write(slot.bytes);
+		slot.offset = scratchSize;
+		scratchSize += slot.length;
+	}
+
+}
@@ -1,6 +1,5 @@
 package jreframeworker.engine.utils;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -8,13 +7,17 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarException;
@@ -71,9 +74,64 @@ public class JarModifier {
 		jar.close();
 	}
 	
+	/**
+	 * Returns true if two archives have the same entries with the same
+	 * uncompressed contents. Entry timestamps and compression are ignored, so
+	 * archives saved at different times with the same entries are equal.
+	 * 
+	 * Only the names, CRC-32 checksums and sizes recorded in the central
+	 * directories are compared, no entry is inflated.
+	 * 
+	 * @param archive
+	 * @param otherArchive
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean hasSameContents(File archive, File otherArchive) throws IOException {
+		JarFile jar = new JarFile(archive, false);
+		try {
+			JarFile otherJar = new JarFile(otherArchive, false);
+			try {
+				Map<String,JarEntry> entries = getFileEntries(jar);
+				Map<String,JarEntry> otherEntries = getFileEntries(otherJar);
+				if(!entries.keySet().equals(otherEntries.keySet())){
+					return false;
+				}
+				for(JarEntry entry : entries.values()){
+					JarEntry otherEntry = otherEntries.get(entry.getName());
+					if(entry.getCrc() != otherEntry.getCrc() || entry.getSize() != otherEntry.getSize()){
+						return false;
+					}
+				}
+				return true;
+			} finally {
+				otherJar.close();
+			}
+		} finally {
+			jar.close();
+		}
+	}
+	
+	private static Map<String,JarEntry> getFileEntries(JarFile jar) {
+		Map<String,JarEntry> entries = new HashMap<String,JarEntry>();
+		Enumeration<JarEntry> enumeration = jar.entries();
+		while(enumeration.hasMoreElements()){
+			JarEntry entry = enumeration.nextElement();
+			if(!entry.isDirectory()){
+				entries.put(entry.getName(), entry);
+			}
+		}
+		return entries;
+	}
+	
 	private HashMap<String,JarEntry> jarEntries = new HashMap<String,JarEntry>();
-	private HashMap<String,byte[]> jarEntriesToAdd = new HashMap<String,byte[]>();
+	private BytecodeStore jarEntriesToAdd = new BytecodeStore(Long.MAX_VALUE);
 	private File jarFile;
+	private JarFile openJarFile = null;
+	
+	// the original archive and its inflated entries if the archive is held in memory
+	private byte[] archive = null;
+	private HashMap<String,byte[]> archiveContents = null;
 	private Manifest manifest;
 	
 	/**
@@ -124,31 +182,118 @@ public class JarModifier {
 		jar.close();
 	}
 	
+	/**
+	 * Creates a new JarModifier with the given archive held in memory. The
+	 * entries are inflated once so that repeated extractions do not scan the
+	 * archive.
+	 * 
+	 * @param archive The bytes of the archive to be modified.
+	 * 
+	 * @throws IOException
+	 */
+	public JarModifier(byte[] archive) throws IOException {
+		this.jarFile = null;
+		this.archive = archive;
+		this.archiveContents = new HashMap<String,byte[]>();
+		JarInputStream jin = new JarInputStream(new ByteArrayInputStream(archive));
+		try {
+			// the manifest is read by the stream and not returned as an entry
+			this.manifest = jin.getManifest();
+			if(manifest != null){
+				String manifestPath = META_INF + SEPERATOR + "MANIFEST.MF";
+				jarEntries.put(manifestPath, new JarEntry(manifestPath));
+			}
+			JarEntry entry = jin.getNextJarEntry();
+			while(entry != null){
+				jarEntries.put(entry.getName(), new JarEntry(entry.getName()));
+				if(!entry.isDirectory()){
+					archiveContents.put(entry.getName(), readEntry(jin));
+				}
+				entry = jin.getNextJarEntry();
+			}
+		} finally {
+			jin.close();
+		}
+	}
+	
+	/**
+	 * Returns the original archive file or null if the archive is held in memory
+	 * @return
+	 */
 	public File getJarFile(){
 		return jarFile;
 	}
 	
+	/**
+	 * Sets the maximum number of bytes of added entries to keep on the heap,
+	 * added entries beyond the ceiling are spilled to a scratch file until saved
+	 * @param memoryCeiling
+	 * @throws IOException
+	 */
+	public void setMemoryCeiling(long memoryCeiling) throws IOException {
+		jarEntriesToAdd.setMemoryCeiling(memoryCeiling);
+	}
+	
+	/**
+	 * Returns the contents of an entry of the original archive or null if the
+	 * entry does not exist. Entries are looked up through the archive's central
+	 * directory so repeated extractions do not scan the archive.
+	 * 
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
 	public byte[] extractEntry(String entry) throws IOException {
-		JarInputStream zin = new JarInputStream(new BufferedInputStream(new FileInputStream(jarFile)));
-		JarEntry currentEntry = null;
-		while ((currentEntry = zin.getNextJarEntry()) != null) {
-			if (currentEntry.getName().equals(entry)) {
-				// currentEntry.getSize() may not be accurate, so read bytes into a stream first
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				byte[] buf = new byte[4096];
-				while (true) {
-					int n = zin.read(buf);
-					if (n < 0){
-						break;
-					}
-					baos.write(buf, 0, n);
-				}
-				zin.close();
-				return baos.toByteArray();
+		if(archiveContents != null){
+			byte[] bytes = archiveContents.get(entry);
+			if(bytes != null){
+				Metrics.increment(Metrics.CLASSES_EXTRACTED);
+				Metrics.add(Metrics.BYTES_INFLATED, bytes.length);
 			}
+			return bytes;
+		}
+		if(openJarFile == null){
+			openJarFile = new JarFile(jarFile);
+		}
+		JarEntry jarEntry = openJarFile.getJarEntry(entry);
+		if(jarEntry == null){
+			return null;
+		}
+		InputStream zin = openJarFile.getInputStream(jarEntry);
+		try {
+			byte[] bytes = readEntry(zin);
+			Metrics.increment(Metrics.CLASSES_EXTRACTED);
+			Metrics.add(Metrics.BYTES_INFLATED, bytes.length);
+			return bytes;
+		} finally {
+			zin.close();
+		}
+	}
+	
+	private static byte[] readEntry(InputStream zin) throws IOException {
+		// the entry size may not be accurate, so read bytes into a stream first
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		while (true) {
+			int n = zin.read(buf);
+			if (n < 0){
+				break;
+			}
+			baos.write(buf, 0, n);
+		}
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Closes the original archive and releases the added entries
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if(openJarFile != null){
+			openJarFile.close();
+			openJarFile = null;
 		}
-		zin.close();
-		return null;
+		jarEntriesToAdd.clear();
 	}
 	
 	/**
@@ -159,6 +304,15 @@ public class JarModifier {
 		return manifest;
 	}
 	
+	/**
+	 * Returns true if the archive contains the given entry, without copying the entry set
+	 * @param entry
+	 * @return
+	 */
+	public boolean containsEntry(String entry){
+		return jarEntries.containsKey(entry);
+	}
+	
 	public HashSet<String> getJarEntrySet(){
 		HashSet<String> entryList = new HashSet<String>();
 		entryList.addAll(jarEntries.keySet());
@@ -222,7 +376,7 @@ public class JarModifier {
 			jarEntriesToAdd.remove(entry);
 			// add a new entry
 			jarEntries.put(entry, newEntry);
-			jarEntriesToAdd.put(entry, bytes);
+			jarEntriesToAdd.putModified(entry, bytes);
 		}
 	}
 	
@@ -252,7 +406,7 @@ public class JarModifier {
 			jarEntriesToAdd.remove(entry.getName());
 			// add a new entry
 			jarEntries.put(entry.getName(), newEntry);
-			jarEntriesToAdd.put(entry.getName(), bytes);
+			jarEntriesToAdd.putModified(entry.getName(), bytes);
 		}
 	}
 	
@@ -312,9 +466,9 @@ public class JarModifier {
 		entriesToRemove.clear();
 		
 		// clear the entries that may have queued to be added
-		for(Entry<String,byte[]> JarEntry : jarEntriesToAdd.entrySet()){
-			if(JarEntry.getKey().endsWith(filename)){
-				entriesToRemove.add(JarEntry.getKey());
+		for(String entryToAdd : jarEntriesToAdd.getEntries()){
+			if(entryToAdd.endsWith(filename)){
+				entriesToRemove.add(entryToAdd);
 			}
 		}
 		for(String entryToRemove : entriesToRemove){
@@ -329,6 +483,36 @@ public class JarModifier {
 	 * @throws IOException  
 	 */
 	public void save(File outputArchiveFile) throws IOException {
+		save(new FileOutputStream(outputArchiveFile));
+	}
+	
+	/**
+	 * Writes the modified output archive to a stream, the stream is closed when done
+	 * 
+	 * @param outputArchive
+	 * @throws IOException  
+	 */
+	public void save(OutputStream outputArchive) throws IOException {
+		save(outputArchive, null, Collections.<String>emptySet());
+	}
+	
+	/**
+	 * Writes the modified output archive to a stream with the given classes of
+	 * a store written over the archive, the stream is closed when done. The
+	 * classes are streamed from the store one at a time instead of being added
+	 * to this archive first, so their bytes are not held twice.
+	 * 
+	 * @param outputArchive
+	 * @param classStore a store of class bytes by class name
+	 * @param classNames the classes of the store to write
+	 * @throws IOException  
+	 */
+	public void save(OutputStream outputArchive, BytecodeStore classStore, Collection<String> classNames) throws IOException {
+		Set<String> storedEntries = new HashSet<String>();
+		for(String className : classNames){
+			storedEntries.add(className + ".class");
+		}
+		
 		// update the manifest if needed
 		if(manifest != null){
 			// unsign the manifest, signatures have changed
@@ -344,20 +528,24 @@ public class JarModifier {
 		
 		JarInputStream zin = null;
 	    JarOutputStream zout = null;
+	    long bytesInflated = 0;
+	    long bytesWritten = 0;
 	    try {
 	    	byte[] buf = new byte[1024];
-	    	zin = new JarInputStream(new FileInputStream(jarFile));
-		    zout = new JarOutputStream(new FileOutputStream(outputArchiveFile));
+	    	zin = new JarInputStream(archive != null ? new ByteArrayInputStream(archive) : new FileInputStream(jarFile));
+		    zout = new JarOutputStream(outputArchive);
 	    	JarEntry entry = zin.getNextJarEntry();
 		    while (entry != null) {
 		        // write the file to the zip depending on where it is located
 		    	// entries from files will be added later so skip those now
-		        if(jarEntries.containsKey(entry.getName()) && !jarEntriesToAdd.containsKey(entry.getName())){
+		        if(jarEntries.containsKey(entry.getName()) && !jarEntriesToAdd.contains(entry.getName()) && !storedEntries.contains(entry.getName())){
 		            // transfer the bytes from the old archive to the output archive
 		        	zout.putNextEntry(jarEntries.get(entry.getName()));
 		            int len;
 		            while ((len = zin.read(buf)) > 0) {
 		                zout.write(buf, 0, len);
+		                bytesInflated += len;
+		                bytesWritten += len;
 		            }
 		            // complete the entry
 	                zout.closeEntry();
@@ -366,24 +554,14 @@ public class JarModifier {
 		        entry = zin.getNextJarEntry();
 		    }
 		    // transfer the bytes from the saved files to the output archive
-		    for(Entry<String,byte[]> jarEntryToAdd : jarEntriesToAdd.entrySet()){
-		    	String entryName = jarEntryToAdd.getKey();
-		    	byte[] bytes = jarEntryToAdd.getValue();
-	        	InputStream fin = null;
-	        	try {
-	        		fin = new ByteArrayInputStream(bytes);
-	        		zout.putNextEntry(jarEntries.get(entryName));
-	        		int len;
-	                while ((len = fin.read(buf)) > 0) {
-	                    zout.write(buf, 0, len);
-	                }
-	                // complete the entry
-	                zout.closeEntry();
-	        	} finally {
-	        		if(fin != null){
-	        			fin.close();
-	        		}
-	        	}
+		    // spilled entries are read back one at a time
+		    for(String entryName : jarEntriesToAdd.getEntries()){
+		    	if(!storedEntries.contains(entryName)){
+		    		bytesWritten += writeEntry(zout, jarEntries.get(entryName), jarEntriesToAdd.get(entryName));
+		    	}
+		    }
+		    for(String className : classNames){
+		    	bytesWritten += writeEntry(zout, new JarEntry(className + ".class"), classStore.get(className));
 		    }
 	    } finally {
 	    	// close the streams  
@@ -392,10 +570,27 @@ public class JarModifier {
 	    	}
 	    	if(zout != null){
 	    		zout.close();
+	    	} else {
+	    		outputArchive.close();
+	    	}
+	    	Metrics.add(Metrics.BYTES_INFLATED, bytesInflated);
+	    	Metrics.add(Metrics.BYTES_WRITTEN, bytesWritten);
+	    	// release the original archive, it is reopened if more entries are extracted
+	    	if(openJarFile != null){
+	    		openJarFile.close();
+	    		openJarFile = null;
 	    	}
 	    } 
 	}
 	
+	private static int writeEntry(JarOutputStream zout, JarEntry entry, byte[] bytes) throws IOException {
+		zout.putNextEntry(entry);
+		zout.write(bytes);
+		// complete the entry
+		zout.closeEntry();
+		return bytes.length;
+	}
+	
 	/**
 	 * Returns a copy of the manifest without any seals or signatures
 	 * @param manifest
@@ -433,10 +628,10 @@ public class JarModifier {
 		for(String entry : allEntries) {
 			result.append(entry);
 			result.append(" [");
-			if(jarEntriesToAdd.containsKey(entry)){
-				result.append(jarEntriesToAdd.get(entry).length + " (bytes)");
+			if(jarEntriesToAdd.contains(entry)){
+				result.append(jarEntriesToAdd.getLength(entry) + " (bytes)");
 			} else {
-				result.append(jarFile.getAbsolutePath());
+				result.append(jarFile != null ? jarFile.getAbsolutePath() : "memory");
 			}
 			result.append("]\n");
 		}
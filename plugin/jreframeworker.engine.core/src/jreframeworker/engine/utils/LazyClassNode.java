@@ -0,0 +1,188 @@
+package jreframeworker.engine.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * A ClassNode that keeps the original class bytes and only materializes the
+ * parts of the class that are modified. The class header, fields, method
+ * signatures and annotations are read eagerly, but the instructions of a
+ * method are read only when the method is expanded.
+ *
+ * When written with toByteArray, unexpanded methods are copied from the
+ * original bytes without being parsed and frames are only computed if a
+ * method was expanded or added. Changes to the access, name or descriptor of
+ * an unexpanded method are preserved, any other change to a method requires
+ * expanding it first.
+ *
+ * Visiting the node with accept expands every method so that any visitor sees
+ * the complete class.
+ */
+public class LazyClassNode extends ClassNode {
+
+	private ClassReader classReader;
+
+	// unexpanded method -> original name and descriptor of the method
+	private Map<MethodNode,String> unexpandedMethods = new IdentityHashMap<MethodNode,String>();
+
+	public LazyClassNode(byte[] bytecode) {
+		super(Opcodes.ASM5);
+		this.classReader = new ClassReader(bytecode);
+		classReader.accept(this, ClassReader.SKIP_CODE);
+		for(MethodNode methodNode : methods){
+			unexpandedMethods.put(methodNode, methodNode.name + methodNode.desc);
+		}
+		Metrics.increment(Metrics.CLASSES_PARSED_LAZILY);
+	}
+
+	/**
+	 * Returns true if the instructions of the given method have been read
+	 * @param methodNode
+	 * @return
+	 */
+	public boolean isExpanded(MethodNode methodNode){
+		return !unexpandedMethods.containsKey(methodNode);
+	}
+
+	/**
+	 * Reads the instructions, try catch blocks and local variables of the given
+	 * method into the method node
+	 * @param methodNode
+	 */
+	public void expand(final MethodNode methodNode){
+		final String key = unexpandedMethods.remove(methodNode);
+		if(key == null){
+			return;
+		}
+		Metrics.increment(Metrics.METHODS_EXPANDED);
+		classReader.accept(new ClassVisitor(Opcodes.ASM5) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+				if(key.equals(name + desc)){
+					return new CodeVisitor(methodNode);
+				}
+				return null;
+			}
+		}, ClassReader.EXPAND_FRAMES);
+	}
+
+	/**
+	 * Expands every method of the class
+	 */
+	public void expandAll(){
+		for(MethodNode methodNode : new ArrayList<MethodNode>(unexpandedMethods.keySet())){
+			expand(methodNode);
+		}
+	}
+
+	@Override
+	public void accept(ClassVisitor classVisitor) {
+		expandAll();
+		super.accept(classVisitor);
+	}
+
+	/**
+	 * Writes the class, copying unexpanded methods from the original bytes
+	 * @return
+	 */
+	public byte[] toByteArray(){
+		// methods still in the class that can be copied as is
+		final Map<String,MethodNode> rawMethods = new HashMap<String,MethodNode>();
+		List<MethodNode> visitedMethods = new ArrayList<MethodNode>();
+		for(MethodNode methodNode : methods){
+			String key = unexpandedMethods.get(methodNode);
+			if(key != null){
+				rawMethods.put(key, methodNode);
+			} else {
+				visitedMethods.add(methodNode);
+			}
+		}
+
+		// frames only need to be computed for expanded or added methods
+		int flags = visitedMethods.isEmpty() ? 0 : (ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		final ClassWriter classWriter = new ClassWriter(classReader, flags);
+
+		// write everything but the unexpanded methods from the tree
+		List<MethodNode> allMethods = methods;
+		methods = visitedMethods;
+		try {
+			super.accept(new ClassVisitor(Opcodes.ASM5, classWriter) {
+				@Override
+				public void visitEnd() {
+					// the class is ended after the raw methods are copied
+				}
+			});
+		} finally {
+			methods = allMethods;
+		}
+
+		// returning the class writer's method visitor directly lets the reader
+		// copy the method without parsing it, the reader's signature and exceptions
+		// must be passed through as is for the copy to take place
+		classReader.accept(new ClassVisitor(Opcodes.ASM5) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+				MethodNode methodNode = rawMethods.get(name + desc);
+				if(methodNode == null){
+					return null;
+				}
+				return classWriter.visitMethod(methodNode.access, methodNode.name, methodNode.desc, signature, exceptions);
+			}
+		}, 0);
+
+		classWriter.visitEnd();
+		return classWriter.toByteArray();
+	}
+
+	/**
+	 * Forwards only the code of a method to a method node whose header was
+	 * already read
+	 */
+	private static class CodeVisitor extends MethodVisitor {
+
+		public CodeVisitor(MethodNode methodNode) {
+			super(Opcodes.ASM5, methodNode);
+		}
+
+		@Override
+		public void visitParameter(String name, int access) {}
+
+		@Override
+		public AnnotationVisitor visitAnnotationDefault() {
+			return null;
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			return null;
+		}
+
+		@Override
+		public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+			return null;
+		}
+
+		@Override
+		public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+			return null;
+		}
+
+		@Override
+		public void visitAttribute(Attribute attribute) {}
+	}
+
+}
@@ -0,0 +1,249 @@
+package jreframeworker.engine.utils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.objectweb.asm.Statistics;
+
+/**
+ * A registry of counters and timers describing the work done by the engine,
+ * including the class reader and writer statistics of the ASM fork.
+ *
+ * Each build creates its own registry and sets it as the current registry of
+ * the threads doing its work, so that concurrent builds are measured
+ * separately. The static methods record into the current registry of the
+ * calling thread, or into a shared default registry if none is set.
+ */
+public class Metrics {
+
+	// engine counters
+	public static final String CLASSES_EXTRACTED = "classes.extracted";
+	public static final String CLASSES_PARSED = "classes.parsed";
+	public static final String CLASSES_PARSED_LAZILY = "classes.parsed.lazily";
+	public static final String METHODS_EXPANDED = "methods.expanded";
+	public static final String CLASSES_WRITTEN = "classes.written";
+	public static final String BYTES_INFLATED = "bytes.inflated";
+	public static final String BYTES_WRITTEN = "bytes.written";
+	public static final String CLASSES_VERIFIED = "classes.verified";
+	public static final String METHODS_VERIFIED = "methods.verified";
+
+	// asm counters
+	public static final String READER_ACCEPTS = "asm.reader.accepts";
+	public static final String READER_EXPANDED_FRAMES_ACCEPTS = "asm.reader.accepts.expand_frames";
+	public static final String COMMON_SUPER_CLASS_CALLS = "asm.common_super_class.calls";
+	public static final String COMMON_SUPER_CLASS_CACHE_HITS = "asm.common_super_class.cache_hits";
+
+	// timers
+	public static final String PHASE_TIMER_PREFIX = "phase.";
+	public static final String OPERATION_TIMER_PREFIX = "operation.";
+	public static final String BUILD = "build";
+	public static final String FRAME_COMPUTATION = "asm.frame_computation";
+	public static final String VERIFICATION = "verification";
+
+	// operation kinds
+	public static final String PURGE = "purge";
+	public static final String FINALITY = "finality";
+	public static final String VISIBILITY = "visibility";
+	public static final String DEFINE = "define";
+	public static final String MERGE = "merge";
+	public static final String SAVE = "save";
+
+	/**
+	 * The accumulated durations of a timed activity
+	 */
+	public static class Timer {
+		private long count = 0;
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+
+		public Timer(){}
+
+		public Timer(long count, long totalNanos, long maxNanos){
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		private void record(long nanos){
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		public long getCount(){
+			return count;
+		}
+
+		public long getTotalNanos(){
+			return totalNanos;
+		}
+
+		public long getMaxNanos(){
+			return maxNanos;
+		}
+
+		public double getTotalMillis(){
+			return totalNanos / 1000000.0;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%.1fms total, %d times, %.1fms max", getTotalMillis(), count, maxNanos / 1000000.0);
+		}
+	}
+
+	/**
+	 * An immutable copy of the metrics at a point in time
+	 */
+	public static class Snapshot {
+		private Map<String,Long> counters;
+		private Map<String,Timer> timers;
+
+		private Snapshot(Map<String,Long> counters, Map<String,Timer> timers){
+			this.counters = Collections.unmodifiableMap(counters);
+			this.timers = Collections.unmodifiableMap(timers);
+		}
+
+		/**
+		 * Returns the value of the counter or zero if it was never incremented
+		 * @param counter
+		 * @return
+		 */
+		public long getCounter(String counter){
+			Long value = counters.get(counter);
+			return value == null ? 0 : value;
+		}
+
+		/**
+		 * Returns the timer or an empty timer if the activity was never timed
+		 * @param timer
+		 * @return
+		 */
+		public Timer getTimer(String timer){
+			Timer value = timers.get(timer);
+			return value == null ? new Timer() : value;
+		}
+
+		public Map<String,Long> getCounters(){
+			return counters;
+		}
+
+		public Map<String,Timer> getTimers(){
+			return timers;
+		}
+
+		/**
+		 * Returns a human readable multiline summary of the metrics
+		 */
+		@Override
+		public String toString(){
+			StringBuilder result = new StringBuilder();
+			for(Map.Entry<String,Long> counter : counters.entrySet()){
+				result.append(counter.getKey() + ": " + counter.getValue() + "\n");
+			}
+			for(Map.Entry<String,Timer> timer : timers.entrySet()){
+				result.append(timer.getKey() + ": " + timer.getValue() + "\n");
+			}
+			return result.toString();
+		}
+	}
+
+	private static final Metrics DEFAULT_METRICS = new Metrics();
+
+	private static final ThreadLocal<Metrics> currentMetrics = new ThreadLocal<Metrics>();
+
+	private TreeMap<String,Long> counters = new TreeMap<String,Long>();
+	private TreeMap<String,Timer> timers = new TreeMap<String,Timer>();
+	private Statistics statistics = new Statistics();
+
+	/**
+	 * Returns the registry the static methods record into on the current thread
+	 * @return
+	 */
+	public static Metrics current(){
+		Metrics metrics = currentMetrics.get();
+		return metrics != null ? metrics : DEFAULT_METRICS;
+	}
+
+	/**
+	 * Sets the registry the static methods and the ASM fork record into on the
+	 * current thread, null restores the default registry. The registry must be
+	 * restored when the work is done, so pooled threads do not keep it.
+	 * @param metrics
+	 * @return the registry that was set before, or null if none was set
+	 */
+	public static Metrics setCurrent(Metrics metrics){
+		Metrics previous = currentMetrics.get();
+		if(metrics == null){
+			currentMetrics.remove();
+			Statistics.setCurrent(null);
+		} else {
+			currentMetrics.set(metrics);
+			Statistics.setCurrent(metrics.statistics);
+		}
+		return previous;
+	}
+
+	public static void increment(String counter){
+		add(counter, 1);
+	}
+
+	public static void add(String counter, long delta){
+		current().addCounter(counter, delta);
+	}
+
+	/**
+	 * Records a duration of the given activity
+	 * @param timer
+	 * @param nanos
+	 */
+	public static void time(String timer, long nanos){
+		current().recordTimer(timer, nanos);
+	}
+
+	/**
+	 * Records the time elapsed since the given start time (from System.nanoTime())
+	 * @param timer
+	 * @param startNanos
+	 */
+	public static void timeSince(String timer, long startNanos){
+		time(timer, System.nanoTime() - startNanos);
+	}
+
+	private synchronized void addCounter(String counter, long delta){
+		Long value = counters.get(counter);
+		counters.put(counter, (value == null ? 0 : value) + delta);
+	}
+
+	private synchronized void recordTimer(String timer, long nanos){
+		Timer value = timers.get(timer);
+		if(value == null){
+			value = new Timer();
+			timers.put(timer, value);
+		}
+		value.record(nanos);
+	}
+
+	/**
+	 * Returns a copy of the metrics recorded into this registry
+	 * @return
+	 */
+	public synchronized Snapshot snapshot(){
+		TreeMap<String,Long> counterValues = new TreeMap<String,Long>(counters);
+		counterValues.put(READER_ACCEPTS, statistics.readerAccepts.get());
+		counterValues.put(READER_EXPANDED_FRAMES_ACCEPTS, statistics.readerExpandedFramesAccepts.get());
+		counterValues.put(COMMON_SUPER_CLASS_CALLS, statistics.commonSuperClassCalls.get());
+		counterValues.put(COMMON_SUPER_CLASS_CACHE_HITS, statistics.commonSuperClassCacheHits.get());
+		TreeMap<String,Timer> timerValues = new TreeMap<String,Timer>();
+		for(Map.Entry<String,Timer> timer : timers.entrySet()){
+			Timer value = timer.getValue();
+			timerValues.put(timer.getKey(), new Timer(value.count, value.totalNanos, value.maxNanos));
+		}
+		if(statistics.frameComputedClasses.get() > 0){
+			timerValues.put(FRAME_COMPUTATION, new Timer(statistics.frameComputedClasses.get(), statistics.frameComputationNanos.get(), statistics.frameComputationMaxNanos.get()));
+		}
+		return new Snapshot(counterValues, timerValues);
+	}
+
+}
@@ -0,0 +1,248 @@
+package jreframeworker.engine.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records a timeline of build spans and exports it in the Chrome trace event
+ * format, which can be opened with chrome://tracing, Perfetto or Speedscope.
+ *
+ * Each build creates its own trace and sets it as the current trace of the
+ * threads doing its work, so that concurrent builds record separate
+ * timelines. Recording is disabled unless a recording trace is set. While
+ * disabled, begin returns a shared span that does nothing so instrumented
+ * code does not need to check.
+ */
+public class Trace {
+
+	// span categories
+	public static final String BUILD = "build";
+	public static final String PHASE = "phase";
+	public static final String SOURCE = "source";
+	public static final String OPERATION = "operation";
+	public static final String SAVE = "save";
+
+	/**
+	 * A timed region of work on a single thread
+	 */
+	public static class Span {
+		private Trace trace;
+		private String name;
+		private String category;
+		private long threadId;
+		private String threadName;
+		private long startNanos;
+		private long endNanos = -1;
+		private Map<String,String> args = null;
+
+		private Span(Trace trace, String name, String category){
+			this.trace = trace;
+			this.name = name;
+			this.category = category;
+			Thread thread = Thread.currentThread();
+			this.threadId = thread.getId();
+			this.threadName = thread.getName();
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Attaches a value to the span that is shown when the span is selected
+		 * @param key
+		 * @param value
+		 * @return the span
+		 */
+		public Span arg(String key, Object value){
+			if(args == null){
+				args = new LinkedHashMap<String,String>();
+			}
+			args.put(key, String.valueOf(value));
+			return this;
+		}
+
+		/**
+		 * Ends the span, ending a span more than once has no effect
+		 */
+		public void end(){
+			if(endNanos == -1){
+				endNanos = System.nanoTime();
+				trace.record(this);
+			}
+		}
+	}
+
+	private static final Span DISABLED_SPAN = new Span(null, "", "") {
+		@Override
+		public Span arg(String key, Object value){
+			return this;
+		}
+
+		@Override
+		public void end(){}
+	};
+
+	private static final Trace DISABLED_TRACE = new Trace(false);
+
+	private static final ThreadLocal<Trace> currentTrace = new ThreadLocal<Trace>();
+
+	private final boolean enabled;
+	private final long originNanos = System.nanoTime();
+	private List<Span> spans = new ArrayList<Span>();
+
+	/**
+	 * Creates a trace whose timeline starts now
+	 * @param enabled false to create a trace that records nothing
+	 */
+	public Trace(boolean enabled){
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled(){
+		return enabled;
+	}
+
+	/**
+	 * Returns the trace spans are recorded into on the current thread
+	 * @return
+	 */
+	public static Trace current(){
+		Trace trace = currentTrace.get();
+		return trace != null ? trace : DISABLED_TRACE;
+	}
+
+	/**
+	 * Sets the trace spans are recorded into on the current thread, null
+	 * disables recording. The trace must be restored when the work is done,
+	 * so pooled threads do not keep it.
+	 * @param trace
+	 * @return the trace that was set before, or null if none was set
+	 */
+	public static Trace setCurrent(Trace trace){
+		Trace previous = currentTrace.get();
+		if(trace == null){
+			currentTrace.remove();
+		} else {
+			currentTrace.set(trace);
+		}
+		return previous;
+	}
+
+	/**
+	 * Starts a span of the current trace on the current thread
+	 * @param name
+	 * @param category
+	 * @return
+	 */
+	public static Span begin(String name, String category){
+		Trace trace = current();
+		if(!trace.enabled){
+			return DISABLED_SPAN;
+		}
+		return new Span(trace, name, category);
+	}
+
+	private synchronized void record(Span span){
+		spans.add(span);
+	}
+
+	/**
+	 * Returns the number of ended spans
+	 * @return
+	 */
+	public synchronized int size(){
+		return spans.size();
+	}
+
+	/**
+	 * Writes the recorded spans as a Chrome trace event JSON file
+	 * @param traceFile
+	 * @throws IOException
+	 */
+	public synchronized void write(File traceFile) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(traceFile), StandardCharsets.UTF_8);
+		try {
+			writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+			boolean first = true;
+
+			// name the threads of the timeline
+			Map<Long,String> threads = new LinkedHashMap<Long,String>();
+			for(Span span : spans){
+				if(!threads.containsKey(span.threadId)){
+					threads.put(span.threadId, span.threadName);
+				}
+			}
+			for(Map.Entry<Long,String> thread : threads.entrySet()){
+				if(!first){
+					writer.write(",");
+				}
+				first = false;
+				writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.getKey()
+						+ ",\"args\":{\"name\":" + quote(thread.getValue()) + "}}");
+			}
+
+			// complete events, timestamps and durations are in microseconds
+			for(Span span : spans){
+				if(!first){
+					writer.write(",");
+				}
+				first = false;
+				writer.write("\n{\"name\":" + quote(span.name)
+						+ ",\"cat\":" + quote(span.category)
+						+ ",\"ph\":\"X\""
+						+ ",\"ts\":" + toMicros(span.startNanos - originNanos)
+						+ ",\"dur\":" + toMicros(span.endNanos - span.startNanos)
+						+ ",\"pid\":1,\"tid\":" + span.threadId);
+				if(span.args != null){
+					writer.write(",\"args\":{");
+					boolean firstArg = true;
+					for(Map.Entry<String,String> arg : span.args.entrySet()){
+						if(!firstArg){
+							writer.write(",");
+						}
+						firstArg = false;
+						writer.write(quote(arg.getKey()) + ":" + quote(arg.getValue()));
+					}
+					writer.write("}");
+				}
+				writer.write("}");
+			}
+			writer.write("\n]}\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static String toMicros(long nanos){
+		// the trace format requires a period as the decimal separator
+		return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+	}
+
+	private static String quote(String value){
+		StringBuilder result = new StringBuilder("\"");
+		for(char c : value.toCharArray()){
+			switch(c){
+				case '"': result.append("\\\""); break;
+				case '\\': result.append("\\\\"); break;
+				case '\n': result.append("\\n"); break;
+				case '\r': result.append("\\r"); break;
+				case '\t': result.append("\\t"); break;
+				default:
+					if(c < 0x20){
+						result.append(String.format("\\u%04x", (int) c));
+					} else {
+						result.append(c);
+					}
+			}
+		}
+		return result.append("\"").toString();
+	}
+
+}
@@ -0,0 +1,228 @@
+package jreframeworker.engine.utils;
+
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Memoizes the result of processing a modification source so that archives
+ * containing identical copies of a target class can share the transformed
+ * bytecode instead of repeating the transformation for each archive.
+ *
+ * A transformation is keyed on the content of the input class, the phase and
+ * the merge renaming prefix. A recorded transformation is only reused when
+ * every archive entry it read has identical content in the reusing archive,
+ * every class name pattern it expanded matches the same classes and the class
+ * loaders used to compute the stack map frames of merged
+ * classes resolve the same class hierarchy.
+ *
+ * A cache should only be shared by engines working on the same build phase.
+ */
+public class TransformationCache {
+
+	/**
+	 * The recorded inputs and outputs of a single processed modification source
+	 */
+	public static class Transformation {
+		// entry -> content digest of the entry when it was first read (null if the entry was missing)
+		private Map<String,String> inputs = new HashMap<String,String>();
+		// class name pattern -> digest of the sorted names of the classes it matched
+		private Map<String,String> patterns = new HashMap<String,String>();
+		private Map<String,byte[]> outputs = new HashMap<String,byte[]>();
+		private Set<String> purges = new HashSet<String>();
+		private boolean processed = false;
+		private ClassLoader[] classLoaders = new ClassLoader[0];
+
+		/**
+		 * Records the content of an entry read by the transformation, entries
+		 * produced by the transformation itself are not considered inputs
+		 * @param entry
+		 * @param bytecode
+		 */
+		public void recordInput(String entry, byte[] bytecode){
+			if(!inputs.containsKey(entry) && !outputs.containsKey(entry) && !purges.contains(entry)){
+				inputs.put(entry, bytecode == null ? null : digest(bytecode));
+			}
+		}
+
+		/**
+		 * Records the classes a class name pattern matched before the
+		 * transformation modified the archive
+		 * @param pattern
+		 * @param matches
+		 */
+		public void recordPattern(String pattern, Collection<String> matches){
+			if(!patterns.containsKey(pattern)){
+				patterns.put(pattern, digest(matches));
+			}
+		}
+
+		public void recordOutput(String entry, byte[] bytecode){
+			purges.remove(entry);
+			outputs.put(entry, bytecode);
+		}
+
+		public void recordPurge(String entry){
+			outputs.remove(entry);
+			purges.add(entry);
+		}
+
+		public void setProcessed(boolean processed){
+			this.processed = processed;
+		}
+
+		public Map<String,String> getInputs(){
+			return inputs;
+		}
+
+		public Map<String,String> getPatterns(){
+			return patterns;
+		}
+
+		/**
+		 * Returns the resulting bytecode of each entry updated by the transformation.
+		 * The byte arrays are shared and must not be modified.
+		 * @return
+		 */
+		public Map<String,byte[]> getOutputs(){
+			return outputs;
+		}
+
+		public Set<String> getPurges(){
+			return purges;
+		}
+
+		public boolean isProcessed(){
+			return processed;
+		}
+
+		/**
+		 * Sets the class loaders common superclasses were resolved with
+		 * @param classLoaders
+		 */
+		public void setClassLoaders(ClassLoader[] classLoaders){
+			this.classLoaders = classLoaders;
+		}
+
+		/**
+		 * Returns true if the given class loaders resolve the same class
+		 * hierarchy as the class loaders of the transformation
+		 * @param classLoaders
+		 * @return
+		 */
+		public boolean hasClassLoaders(ClassLoader[] classLoaders){
+			if(this.classLoaders.length != classLoaders.length){
+				return false;
+			}
+			for(int i=0; i<classLoaders.length; i++){
+				if(!isEquivalent(this.classLoaders[i], classLoaders[i])){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Class loaders are equivalent if they are the same loader or load from
+		 * the same URLs with equivalent parents, builds create a new loader of
+		 * the original archive for each engine
+		 * @param a
+		 * @param b
+		 * @return
+		 */
+		private static boolean isEquivalent(ClassLoader a, ClassLoader b){
+			if(a == b){
+				return true;
+			}
+			if(!(a instanceof URLClassLoader) || b == null || a.getClass() != b.getClass()){
+				return false;
+			}
+			return Arrays.equals(((URLClassLoader) a).getURLs(), ((URLClassLoader) b).getURLs())
+					&& isEquivalent(a.getParent(), b.getParent());
+		}
+	}
+
+	private HashMap<String,List<Transformation>> transformations = new HashMap<String,List<Transformation>>();
+
+	/**
+	 * Returns the key of a transformation of the given input class
+	 * @param inputClass
+	 * @param phase
+	 * @param mergeRenamePrefix
+	 * @return
+	 */
+	public static String getKey(byte[] inputClass, int phase, String mergeRenamePrefix){
+		return digest(inputClass) + ":" + phase + ":" + mergeRenamePrefix;
+	}
+
+	/**
+	 * Returns the previously recorded transformations for the given key
+	 * @param key
+	 * @return
+	 */
+	public List<Transformation> getTransformations(String key){
+		List<Transformation> result = transformations.get(key);
+		if(result == null){
+			return new LinkedList<Transformation>();
+		}
+		return new LinkedList<Transformation>(result);
+	}
+
+	public void addTransformation(String key, Transformation transformation){
+		List<Transformation> recorded = transformations.get(key);
+		if(recorded == null){
+			recorded = new LinkedList<Transformation>();
+			transformations.put(key, recorded);
+		}
+		recorded.add(transformation);
+	}
+
+	public void clear(){
+		transformations.clear();
+	}
+
+	/**
+	 * Returns a digest of the given names that does not depend on their order
+	 * @param names
+	 * @return
+	 */
+	public static String digest(Collection<String> names){
+		StringBuilder result = new StringBuilder();
+		for(String name : new TreeSet<String>(names)){
+			result.append(name).append('\n');
+		}
+		return digest(result.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns a hex encoded SHA-1 digest of the given bytes
+	 * @param bytes
+	 * @return
+	 */
+	public static String digest(byte[] bytes){
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = messageDigest.digest(bytes);
+			StringBuilder result = new StringBuilder(hash.length * 2);
+			for(byte b : hash){
+				result.append(Character.forDigit((b >> 4) & 0xF, 16));
+				result.append(Character.forDigit(b & 0xF, 16));
+			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,427 @@
+package jreframeworker.engine.verification;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.util.Textifier;
+import org.objectweb.asm.util.TraceMethodVisitor;
+
+/**
+ * Compares two archives structurally. Class entries are compared by their
+ * class attributes, members, access flags, annotations and the instruction
+ * streams of their methods, so two archives are equal if they define the same
+ * classes regardless of constant pool order or compression. Other entries are
+ * compared byte for byte and manifests by their attributes.
+ */
+public class ArchiveComparator {
+
+	public static final String MANIFEST_ENTRY = "META-INF/MANIFEST.MF";
+
+	/**
+	 * A difference between the expected and the actual archive
+	 */
+	public static class Divergence {
+		private String entry;
+		private String location;
+		private String description;
+		private String expected;
+		private String actual;
+
+		public Divergence(String entry, String location, String description, String expected, String actual) {
+			this.entry = entry;
+			this.location = location;
+			this.description = description;
+			this.expected = expected;
+			this.actual = actual;
+		}
+
+		/**
+		 * Returns the archive entry that differs
+		 * @return
+		 */
+		public String getEntry() {
+			return entry;
+		}
+
+		/**
+		 * Returns the class, member or instruction that differs within the entry
+		 * @return
+		 */
+		public String getLocation() {
+			return location;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public String getExpected() {
+			return expected;
+		}
+
+		public String getActual() {
+			return actual;
+		}
+
+		@Override
+		public String toString() {
+			return entry + (location != null ? " [" + location + "]" : "") + ": " + description + ", expected <" + expected + "> but was <" + actual + ">";
+		}
+	}
+
+	/**
+	 * Returns the first difference between the archives in entry order or null
+	 * if the archives are structurally equal
+	 * @param expectedArchive
+	 * @param actualArchive
+	 * @return
+	 * @throws IOException
+	 */
+	public static Divergence findFirstDivergence(File expectedArchive, File actualArchive) throws IOException {
+		List<Divergence> divergences = compare(readArchive(expectedArchive), readArchive(actualArchive), 1);
+		return divergences.isEmpty() ? null : divergences.get(0);
+	}
+
+	/**
+	 * Returns the first difference between the archives in entry order or null
+	 * if the archives are structurally equal
+	 * @param expectedArchive
+	 * @param actualArchive
+	 * @return
+	 * @throws IOException
+	 */
+	public static Divergence findFirstDivergence(byte[] expectedArchive, byte[] actualArchive) throws IOException {
+		List<Divergence> divergences = compare(readArchive(expectedArchive), readArchive(actualArchive), 1);
+		return divergences.isEmpty() ? null : divergences.get(0);
+	}
+
+	/**
+	 * Returns up to the given number of differences between the archives in
+	 * entry order
+	 * @param expectedEntries archive entries to entry contents, see readArchive
+	 * @param actualEntries archive entries to entry contents, see readArchive
+	 * @param limit the maximum number of differences to report
+	 * @return
+	 */
+	public static List<Divergence> compare(Map<String,byte[]> expectedEntries, Map<String,byte[]> actualEntries, int limit) {
+		List<Divergence> divergences = new LinkedList<Divergence>();
+		TreeSet<String> entries = new TreeSet<String>(expectedEntries.keySet());
+		entries.addAll(actualEntries.keySet());
+		for(String entry : entries){
+			if(divergences.size() >= limit){
+				break;
+			}
+			byte[] expected = expectedEntries.get(entry);
+			byte[] actual = actualEntries.get(entry);
+			if(expected == null){
+				divergences.add(new Divergence(entry, null, "unexpected entry", "absent", "present"));
+			} else if(actual == null){
+				divergences.add(new Divergence(entry, null, "missing entry", "present", "absent"));
+			} else if(Arrays.equals(expected, actual)){
+				continue;
+			} else if(entry.equals(MANIFEST_ENTRY)){
+				compareManifests(entry, expected, actual, divergences);
+			} else if(entry.endsWith(".class")){
+				compareClasses(entry, expected, actual, divergences, limit);
+			} else {
+				divergences.add(new Divergence(entry, null, "resource contents differ", expected.length + " bytes", actual.length + " bytes"));
+			}
+		}
+		while(divergences.size() > limit){
+			divergences.remove(divergences.size() - 1);
+		}
+		return divergences;
+	}
+
+	/**
+	 * Reads the entries of an archive, the manifest is included as an entry
+	 * @param archive
+	 * @return archive entries to entry contents in entry order
+	 * @throws IOException
+	 */
+	public static Map<String,byte[]> readArchive(File archive) throws IOException {
+		InputStream input = new FileInputStream(archive);
+		try {
+			return readArchive(input);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads the entries of an archive, the manifest is included as an entry
+	 * @param archive
+	 * @return archive entries to entry contents in entry order
+	 * @throws IOException
+	 */
+	public static Map<String,byte[]> readArchive(byte[] archive) throws IOException {
+		return readArchive(new ByteArrayInputStream(archive));
+	}
+
+	private static Map<String,byte[]> readArchive(InputStream input) throws IOException {
+		Map<String,byte[]> entries = new TreeMap<String,byte[]>();
+		JarInputStream jar = new JarInputStream(input);
+		Manifest manifest = jar.getManifest();
+		if(manifest != null){
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			manifest.write(bytes);
+			entries.put(MANIFEST_ENTRY, bytes.toByteArray());
+		}
+		byte[] buf = new byte[4096];
+		JarEntry entry = jar.getNextJarEntry();
+		while(entry != null){
+			if(!entry.isDirectory()){
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				int n;
+				while((n = jar.read(buf)) > 0){
+					bytes.write(buf, 0, n);
+				}
+				entries.put(entry.getName(), bytes.toByteArray());
+			}
+			entry = jar.getNextJarEntry();
+		}
+		return entries;
+	}
+
+	private static void compareManifests(String entry, byte[] expected, byte[] actual, List<Divergence> divergences) {
+		try {
+			Manifest expectedManifest = new Manifest(new ByteArrayInputStream(expected));
+			Manifest actualManifest = new Manifest(new ByteArrayInputStream(actual));
+			if(!expectedManifest.getMainAttributes().equals(actualManifest.getMainAttributes())){
+				divergences.add(new Divergence(entry, "main attributes", "manifest attributes differ", expectedManifest.getMainAttributes().entrySet().toString(), actualManifest.getMainAttributes().entrySet().toString()));
+			} else if(!expectedManifest.getEntries().equals(actualManifest.getEntries())){
+				divergences.add(new Divergence(entry, "entry attributes", "manifest attributes differ", expectedManifest.getEntries().keySet().toString(), actualManifest.getEntries().keySet().toString()));
+			}
+		} catch (IOException e){
+			divergences.add(new Divergence(entry, null, "unreadable manifest", expected.length + " bytes", actual.length + " bytes"));
+		}
+	}
+
+	private static void compareClasses(String entry, byte[] expectedBytes, byte[] actualBytes, List<Divergence> divergences, int limit) {
+		ClassNode expected = readClass(expectedBytes);
+		ClassNode actual = readClass(actualBytes);
+		if(expected == null || actual == null){
+			divergences.add(new Divergence(entry, null, "unreadable class", expected == null ? "unreadable" : "readable", actual == null ? "unreadable" : "readable"));
+			return;
+		}
+		String className = expected.name;
+
+		// class attributes
+		compare(entry, className, "class version", expected.version, actual.version, divergences);
+		compare(entry, className, "class access flags", accessFlags(expected.access), accessFlags(actual.access), divergences);
+		compare(entry, className, "class name", expected.name, actual.name, divergences);
+		compare(entry, className, "class signature", expected.signature, actual.signature, divergences);
+		compare(entry, className, "superclass", expected.superName, actual.superName, divergences);
+		compare(entry, className, "interfaces", expected.interfaces, actual.interfaces, divergences);
+		compare(entry, className, "outer class", expected.outerClass, actual.outerClass, divergences);
+		compare(entry, className, "inner classes", innerClasses(expected.innerClasses), innerClasses(actual.innerClasses), divergences);
+		compare(entry, className, "class annotations", annotations(expected.visibleAnnotations, expected.invisibleAnnotations), annotations(actual.visibleAnnotations, actual.invisibleAnnotations), divergences);
+
+		// fields by name and descriptor
+		Map<String,FieldNode> expectedFields = new TreeMap<String,FieldNode>();
+		for(FieldNode field : expected.fields){
+			expectedFields.put(field.name + " " + field.desc, field);
+		}
+		Map<String,FieldNode> actualFields = new TreeMap<String,FieldNode>();
+		for(FieldNode field : actual.fields){
+			actualFields.put(field.name + " " + field.desc, field);
+		}
+		compare(entry, className, "fields", expectedFields.keySet().toString(), actualFields.keySet().toString(), divergences);
+		for(Map.Entry<String,FieldNode> expectedField : expectedFields.entrySet()){
+			FieldNode actualField = actualFields.get(expectedField.getKey());
+			if(actualField == null || divergences.size() >= limit){
+				continue;
+			}
+			String location = className + "." + expectedField.getValue().name;
+			compare(entry, location, "field access flags", accessFlags(expectedField.getValue().access), accessFlags(actualField.access), divergences);
+			compare(entry, location, "field signature", expectedField.getValue().signature, actualField.signature, divergences);
+			compare(entry, location, "field constant value", expectedField.getValue().value, actualField.value, divergences);
+			compare(entry, location, "field annotations", annotations(expectedField.getValue().visibleAnnotations, expectedField.getValue().invisibleAnnotations), annotations(actualField.visibleAnnotations, actualField.invisibleAnnotations), divergences);
+		}
+
+		// methods by name and descriptor
+		Map<String,MethodNode> expectedMethods = new TreeMap<String,MethodNode>();
+		for(MethodNode method : expected.methods){
+			expectedMethods.put(method.name + method.desc, method);
+		}
+		Map<String,MethodNode> actualMethods = new TreeMap<String,MethodNode>();
+		for(MethodNode method : actual.methods){
+			actualMethods.put(method.name + method.desc, method);
+		}
+		compare(entry, className, "methods", expectedMethods.keySet().toString(), actualMethods.keySet().toString(), divergences);
+		for(Map.Entry<String,MethodNode> expectedMethod : expectedMethods.entrySet()){
+			MethodNode actualMethod = actualMethods.get(expectedMethod.getKey());
+			if(actualMethod == null || divergences.size() >= limit){
+				continue;
+			}
+			String location = className + "." + expectedMethod.getKey();
+			compare(entry, location, "method access flags", accessFlags(expectedMethod.getValue().access), accessFlags(actualMethod.access), divergences);
+			compare(entry, location, "method signature", expectedMethod.getValue().signature, actualMethod.signature, divergences);
+			compare(entry, location, "method exceptions", expectedMethod.getValue().exceptions, actualMethod.exceptions, divergences);
+			compare(entry, location, "method annotations", annotations(expectedMethod.getValue().visibleAnnotations, expectedMethod.getValue().invisibleAnnotations), annotations(actualMethod.visibleAnnotations, actualMethod.invisibleAnnotations), divergences);
+			compareInstructions(entry, location, expectedMethod.getValue(), actualMethod, divergences);
+		}
+	}
+
+	/**
+	 * Compares the textual instruction streams of the methods and reports the
+	 * first instruction that differs
+	 */
+	private static void compareInstructions(String entry, String location, MethodNode expected, MethodNode actual, List<Divergence> divergences) {
+		List<String> expectedInstructions = getInstructions(expected);
+		List<String> actualInstructions = getInstructions(actual);
+		int length = Math.min(expectedInstructions.size(), actualInstructions.size());
+		for(int i=0; i<length; i++){
+			if(!expectedInstructions.get(i).equals(actualInstructions.get(i))){
+				divergences.add(new Divergence(entry, location + " instruction " + i, "instructions differ", expectedInstructions.get(i), actualInstructions.get(i)));
+				return;
+			}
+		}
+		if(expectedInstructions.size() != actualInstructions.size()){
+			divergences.add(new Divergence(entry, location + " instruction " + length, "instruction counts differ", Integer.toString(expectedInstructions.size()), Integer.toString(actualInstructions.size())));
+		}
+	}
+
+	/**
+	 * Returns the method's code as printed by the ASM Textifier, one trimmed
+	 * line per instruction, label, frame, try catch block or local variable
+	 * @param method
+	 * @return
+	 */
+	public static List<String> getInstructions(MethodNode method) {
+		Textifier textifier = new Textifier();
+		TraceMethodVisitor tracer = new TraceMethodVisitor(textifier);
+		method.instructions.accept(tracer);
+		for(TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks){
+			tryCatchBlock.accept(tracer);
+		}
+		if(method.localVariables != null){
+			for(LocalVariableNode localVariable : method.localVariables){
+				localVariable.accept(tracer);
+			}
+		}
+		List<String> instructions = new ArrayList<String>();
+		StringBuilder text = new StringBuilder();
+		flatten(textifier.getText(), text);
+		for(String line : text.toString().split("\n")){
+			line = line.trim();
+			if(!line.isEmpty()){
+				instructions.add(line);
+			}
+		}
+		return instructions;
+	}
+
+	private static void flatten(List<?> text, StringBuilder result) {
+		for(Object element : text){
+			if(element instanceof List){
+				flatten((List<?>) element, result);
+			} else {
+				result.append(element);
+			}
+		}
+	}
+
+	private static ClassNode readClass(byte[] bytes) {
+		try {
+			ClassNode classNode = new ClassNode();
+			new ClassReader(bytes).accept(classNode, 0);
+			return classNode;
+		} catch (RuntimeException e){
+			return null;
+		}
+	}
+
+	private static void compare(String entry, String location, String description, Object expected, Object actual, List<Divergence> divergences) {
+		if(!Objects.equals(expected, actual)){
+			divergences.add(new Divergence(entry, location, description + " differ", String.valueOf(expected), String.valueOf(actual)));
+		}
+	}
+
+	private static String accessFlags(int access) {
+		return "0x" + Integer.toHexString(access);
+	}
+
+	private static List<String> innerClasses(List<InnerClassNode> innerClasses) {
+		List<String> result = new ArrayList<String>();
+		for(InnerClassNode innerClass : innerClasses){
+			result.add(innerClass.name + " " + accessFlags(innerClass.access));
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	private static List<String> annotations(List<AnnotationNode> visibleAnnotations, List<AnnotationNode> invisibleAnnotations) {
+		List<String> result = new ArrayList<String>();
+		if(visibleAnnotations != null){
+			for(AnnotationNode annotation : visibleAnnotations){
+				result.add(annotationValue(annotation));
+			}
+		}
+		if(invisibleAnnotations != null){
+			for(AnnotationNode annotation : invisibleAnnotations){
+				result.add("invisible " + annotationValue(annotation));
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Formats an annotation value, annotation values may be nested annotations,
+	 * lists, enum values (string arrays) and primitive arrays
+	 */
+	private static String annotationValue(Object value) {
+		if(value instanceof AnnotationNode){
+			AnnotationNode annotation = (AnnotationNode) value;
+			return "@" + annotation.desc + (annotation.values != null ? annotationValue(annotation.values) : "");
+		} else if(value instanceof List){
+			StringBuilder result = new StringBuilder("[");
+			for(Object element : (List<?>) value){
+				if(result.length() > 1){
+					result.append(", ");
+				}
+				result.append(annotationValue(element));
+			}
+			return result.append("]").toString();
+		} else if(value instanceof Object[]){
+			return annotationValue(Arrays.asList((Object[]) value));
+		} else if(value != null && value.getClass().isArray()){
+			StringBuilder result = new StringBuilder("[");
+			for(int i=0; i<Array.getLength(value); i++){
+				if(i > 0){
+					result.append(", ");
+				}
+				result.append(Array.get(value, i));
+			}
+			return result.append("]").toString();
+		}
+		return String.valueOf(value);
+	}
+
+}
@@ -0,0 +1,154 @@
+package jreframeworker.engine.verification;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * The class hierarchy of an archive, resolved lazily from the headers of the
+ * archive's class entries. Classes the archive does not contain are read as
+ * resources of the fallback class loaders, classes are never loaded or
+ * initialized to answer a hierarchy question.
+ *
+ * Lookups are thread safe so that the hierarchy can be shared by the threads
+ * verifying the classes of the archive.
+ */
+public class ClassHierarchy {
+
+	/**
+	 * The hierarchy information of a single class
+	 */
+	public static class ClassInfo {
+		private String name;
+		private String superName;
+		private String[] interfaces;
+		private boolean isInterface;
+
+		public ClassInfo(String name, String superName, String[] interfaces, boolean isInterface) {
+			this.name = name;
+			this.superName = superName;
+			this.interfaces = interfaces;
+			this.isInterface = isInterface;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the internal name of the superclass or null for java/lang/Object
+		 * @return
+		 */
+		public String getSuperName() {
+			return superName;
+		}
+
+		public String[] getInterfaces() {
+			return interfaces;
+		}
+
+		public boolean isInterface() {
+			return isInterface;
+		}
+	}
+
+	// marks classes that could not be resolved
+	private static final ClassInfo UNRESOLVED = new ClassInfo(null, null, new String[0], false);
+
+	private JarFile archive;
+	private ClassLoader[] classLoaders;
+	private ConcurrentHashMap<String,ClassInfo> classes = new ConcurrentHashMap<String,ClassInfo>();
+
+	/**
+	 * @param archive the archive whose classes take precedence
+	 * @param classLoaders fallback class loaders for classes outside of the archive, the system class loader is always consulted last
+	 * @throws IOException
+	 */
+	public ClassHierarchy(File archive, ClassLoader... classLoaders) throws IOException {
+		this.archive = new JarFile(archive);
+		this.classLoaders = classLoaders;
+	}
+
+	/**
+	 * Returns the hierarchy information of the class with the given internal
+	 * name or null if the class could not be resolved
+	 * @param className
+	 * @return
+	 */
+	public ClassInfo getClassInfo(String className) {
+		ClassInfo classInfo = classes.get(className);
+		if(classInfo == null){
+			classInfo = resolve(className);
+			classes.putIfAbsent(className, classInfo);
+		}
+		return classInfo == UNRESOLVED ? null : classInfo;
+	}
+
+	/**
+	 * Releases the archive
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		archive.close();
+	}
+
+	private ClassInfo resolve(String className) {
+		String entry = className + ".class";
+		try {
+			JarEntry jarEntry = archive.getJarEntry(entry);
+			if(jarEntry != null){
+				InputStream input = archive.getInputStream(jarEntry);
+				try {
+					return readClassInfo(input);
+				} finally {
+					input.close();
+				}
+			}
+			for(ClassLoader classLoader : classLoaders){
+				ClassInfo classInfo = resolve(classLoader, entry);
+				if(classInfo != null){
+					return classInfo;
+				}
+			}
+			ClassInfo classInfo = resolve(ClassLoader.getSystemClassLoader(), entry);
+			if(classInfo != null){
+				return classInfo;
+			}
+		} catch (IOException e){
+			// treated as unresolved
+		}
+		return UNRESOLVED;
+	}
+
+	private static ClassInfo resolve(ClassLoader classLoader, String entry) throws IOException {
+		InputStream input = classLoader.getResourceAsStream(entry);
+		if(input == null){
+			return null;
+		}
+		try {
+			return readClassInfo(input);
+		} finally {
+			input.close();
+		}
+	}
+
+	private static ClassInfo readClassInfo(InputStream input) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while((n = input.read(buf)) > 0){
+			bytes.write(buf, 0, n);
+		}
+		// only the header is read, the class body is not parsed
+		ClassReader classReader = new ClassReader(bytes.toByteArray());
+		return new ClassInfo(classReader.getClassName(), classReader.getSuperName(), classReader.getInterfaces(), (classReader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+	}
+
+}
@@ -0,0 +1,74 @@
+package jreframeworker.engine.verification;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import jreframeworker.engine.verification.ArchiveComparator.Divergence;
+
+/**
+ * Runs a candidate pipeline and the reference pipeline on the same inputs and
+ * compares the output archives structurally, reporting the first divergence
+ * of the candidate output from the reference output.
+ */
+public class DifferentialVerifier {
+
+	private Pipeline reference;
+	private Pipeline candidate;
+
+	/**
+	 * Creates a verifier for outputs that were already produced by a candidate
+	 * @param reference
+	 */
+	public DifferentialVerifier(Pipeline reference) {
+		this(reference, null);
+	}
+
+	public DifferentialVerifier(Pipeline reference, Pipeline candidate) {
+		this.reference = reference;
+		this.candidate = candidate;
+	}
+
+	/**
+	 * Runs both pipelines and returns the first divergence of the candidate
+	 * output from the reference output or null if the outputs are equal
+	 * @param archive
+	 * @param inputClasses
+	 * @param phase
+	 * @return
+	 * @throws IOException
+	 */
+	public Divergence verify(File archive, List<byte[]> inputClasses, int phase) throws IOException {
+		if(candidate == null){
+			throw new IllegalStateException("No candidate pipeline to verify.");
+		}
+		File candidateOutput = File.createTempFile("jref-candidate", ".jar");
+		try {
+			candidate.run(archive, inputClasses, phase, candidateOutput);
+			return verifyOutput(archive, inputClasses, phase, candidateOutput);
+		} finally {
+			candidateOutput.delete();
+		}
+	}
+
+	/**
+	 * Runs the reference pipeline and returns the first divergence of the given
+	 * candidate output from the reference output or null if the outputs are equal
+	 * @param archive
+	 * @param inputClasses
+	 * @param phase
+	 * @param candidateOutput
+	 * @return
+	 * @throws IOException
+	 */
+	public Divergence verifyOutput(File archive, List<byte[]> inputClasses, int phase, File candidateOutput) throws IOException {
+		File referenceOutput = File.createTempFile("jref-reference", ".jar");
+		try {
+			reference.run(archive, inputClasses, phase, referenceOutput);
+			return ArchiveComparator.findFirstDivergence(referenceOutput, candidateOutput);
+		} finally {
+			referenceOutput.delete();
+		}
+	}
+
+}
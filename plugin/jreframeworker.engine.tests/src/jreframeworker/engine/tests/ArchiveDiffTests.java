@@ -0,0 +1,110 @@
+package jreframeworker.engine.tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.tests.utils.ArchiveBuilder;
+import jreframeworker.engine.tests.utils.FixtureCache;
+import jreframeworker.engine.tests.utils.TestUtilities;
+import jreframeworker.engine.verification.ArchiveDiff;
+import jreframeworker.engine.verification.ArchiveDiff.Change;
+import jreframeworker.engine.verification.ArchiveDiff.ClassDiff;
+import jreframeworker.engine.verification.ArchiveDiff.Kind;
+import jreframeworker.engine.verification.ArchiveDiff.Report;
+import junit.framework.TestCase;
+
+public class ArchiveDiffTests extends TestCase {
+
+	private String packagePrefix = "jreframeworker.engine.tests";
+	private String projectSource = new File("src" + File.separator + packagePrefix.replace(".", File.separator)).getAbsolutePath();
+	private File workingDirectory = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		workingDirectory = Files.createTempDirectory("working-directory").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestUtilities.delete(workingDirectory);
+		workingDirectory = null;
+	}
+
+	@Test
+	public void testIdenticalArchivesHaveNoChanges() throws Exception {
+		File original = writeArchive("original.jar", "public String method(){ return \"a\"; }");
+		File copy = writeArchive("copy.jar", "public String method(){ return \"a\"; }");
+		Report report = ArchiveDiff.diff(original, copy);
+		assertTrue(report.toString(), report.isEmpty());
+		// the manifest and both classes
+		assertEquals(3, report.getUnchangedEntries());
+	}
+
+	@Test
+	public void testMemberChangesAreReported() throws Exception {
+		File original = writeArchive("original.jar", "public String method(){ return \"a\"; }\n public int removed;");
+		File modified = writeArchive("modified.jar", "protected String method(){ return \"b\"; }\n public void added(){}");
+		Report report = ArchiveDiff.diff(original, modified);
+		ClassDiff classDiff = report.getChangedClass("diff/BaseClass");
+		assertNotNull(report.toString(), classDiff);
+
+		Change access = getChange(classDiff, Kind.MODIFIED, "method method()Ljava/lang/String;", "access");
+		assertTrue(access.getDescription().contains("public") && access.getDescription().contains("protected"));
+		Change code = getChange(classDiff, Kind.MODIFIED, "method method()Ljava/lang/String;", "code");
+		assertTrue(code.getDetails().contains("- LDC \"a\""));
+		assertTrue(code.getDetails().contains("+ LDC \"b\""));
+		assertNotNull(getChange(classDiff, Kind.REMOVED, "field removed:I", null));
+		assertNotNull(getChange(classDiff, Kind.ADDED, "method added()V", null));
+
+		// the manifest and the unrelated class are skipped by their checksums
+		assertNull(report.getChangedClass("diff/OtherClass"));
+		assertEquals(2, report.getUnchangedEntries());
+	}
+
+	@Test
+	public void testPreservedMergeIsReportedAsCopy() throws Exception {
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "b"));
+		String baseClass = packagePrefix.replace(".", "/") + "/inputs/b/BaseClass";
+		File original = new File(workingDirectory, "original.jar");
+		new ArchiveBuilder().addClass(baseClass, classes.get(baseClass)).write(original);
+
+		Engine engine = new Engine(original, "jref_");
+		engine.process(classes.get(packagePrefix.replace(".", "/") + "/inputs/b/MergeClass"));
+		File modified = new File(workingDirectory, "modified.jar");
+		engine.save(modified);
+		engine.close();
+
+		Report report = ArchiveDiff.diff(original, modified);
+		ClassDiff classDiff = report.getChangedClass(baseClass);
+		assertNotNull(report.toString(), classDiff);
+		Change preserved = getChange(classDiff, Kind.ADDED, "method jref_method()Ljava/lang/String;", null);
+		assertEquals("copy of method()Ljava/lang/String;", preserved.getDescription());
+		assertNotNull(getChange(classDiff, Kind.MODIFIED, "method method()Ljava/lang/String;", "code"));
+	}
+
+	private Change getChange(ClassDiff classDiff, Kind kind, String member, String description) {
+		for(Change change : classDiff.getChanges()){
+			if(change.getKind() == kind && change.getMember().equals(member)
+					&& (description == null || change.getDescription().startsWith(description))){
+				return change;
+			}
+		}
+		fail("Missing " + kind + " " + member + " in " + classDiff.getChanges());
+		return null;
+	}
+
+	private File writeArchive(String name, String members) throws Exception {
+		Map<String,String> sources = new HashMap<String,String>();
+		sources.put("diff.BaseClass", "package diff;\npublic class BaseClass {\n " + members + "\n}\n");
+		sources.put("diff.OtherClass", "package diff;\npublic class OtherClass {}\n");
+		File archive = new File(workingDirectory, name);
+		new ArchiveBuilder().addClasses(FixtureCache.getCompiledClasses(sources, new HashMap<String,byte[]>())).write(archive);
+		return archive;
+	}
+
+}
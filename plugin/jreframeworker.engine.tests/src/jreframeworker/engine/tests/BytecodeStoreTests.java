@@ -0,0 +1,140 @@
+package jreframeworker.engine.tests;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.tests.utils.ArchiveBuilder;
+import jreframeworker.engine.tests.utils.ArchiveClassLoader;
+import jreframeworker.engine.tests.utils.FixtureCache;
+import jreframeworker.engine.tests.utils.TestUtilities;
+import jreframeworker.engine.utils.BytecodeStore;
+import jreframeworker.engine.utils.JarModifier;
+import junit.framework.TestCase;
+
+public class BytecodeStoreTests extends TestCase {
+
+	private static final int MEMORY_CEILING = 100;
+	private static final int ENTRY_SIZE = 64;
+	private static final int ENTRIES = 10;
+
+	private String packagePrefix = "jreframeworker.engine.tests";
+	private String projectSource = new File("src" + File.separator + packagePrefix.replace(".", File.separator)).getAbsolutePath();
+
+	@Test
+	public void testModifiedEntriesAreSpilledLosslessly() throws Exception {
+		BytecodeStore store = new BytecodeStore(MEMORY_CEILING);
+		Map<String,byte[]> entries = getEntries();
+		try {
+			for(Map.Entry<String,byte[]> entry : entries.entrySet()){
+				store.putModified(entry.getKey(), entry.getValue().clone());
+				assertTrue(store.getHeapSize() <= MEMORY_CEILING);
+			}
+			assertTrue(store.getSpilledSize() > 0);
+			assertEquals(entries.keySet(), store.getModifiedEntries());
+
+			// read back twice, spilled entries are evicted again by the later reads
+			for(int i=0; i<2; i++){
+				for(Map.Entry<String,byte[]> entry : entries.entrySet()){
+					assertTrue(entry.getKey(), Arrays.equals(entry.getValue(), store.get(entry.getKey())));
+					assertTrue(store.getHeapSize() <= MEMORY_CEILING);
+				}
+			}
+
+			// a modified entry replaces its spilled copy
+			String replaced = entries.keySet().iterator().next();
+			byte[] replacement = new byte[ENTRY_SIZE];
+			new Random(ENTRIES).nextBytes(replacement);
+			store.putModified(replaced, replacement.clone());
+			for(Map.Entry<String,byte[]> entry : entries.entrySet()){
+				store.get(entry.getKey());
+			}
+			assertTrue(Arrays.equals(replacement, store.get(replaced)));
+		} finally {
+			store.clear();
+		}
+	}
+
+	@Test
+	public void testCleanEntriesAreDropped() throws Exception {
+		BytecodeStore store = new BytecodeStore(MEMORY_CEILING);
+		Map<String,byte[]> entries = getEntries();
+		try {
+			for(Map.Entry<String,byte[]> entry : entries.entrySet()){
+				store.putClean(entry.getKey(), entry.getValue());
+				assertTrue(store.getHeapSize() <= MEMORY_CEILING);
+			}
+			// clean entries can be extracted again so they are never spilled
+			assertEquals(0, store.getSpilledSize());
+			assertTrue(store.getModifiedEntries().isEmpty());
+			int stored = 0;
+			for(Map.Entry<String,byte[]> entry : entries.entrySet()){
+				if(store.contains(entry.getKey())){
+					assertTrue(Arrays.equals(entry.getValue(), store.get(entry.getKey())));
+					stored++;
+				}
+			}
+			assertEquals(MEMORY_CEILING / ENTRY_SIZE, stored);
+		} finally {
+			store.clear();
+		}
+	}
+
+	@Test
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void testEngineWithinMemoryCeilingMatchesUnboundedEngine() throws Exception {
+		Map<String,byte[]> classesA = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "a"));
+		Map<String,byte[]> classesB = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "b"));
+		String packagePathA = (packagePrefix + ".inputs.a").replace(".", "/");
+		String packagePathB = (packagePrefix + ".inputs.b").replace(".", "/");
+
+		File workingDirectory = Files.createTempDirectory("working-directory").toFile();
+		try {
+			File originalJar = new File(workingDirectory, "original.jar");
+			new ArchiveBuilder().addClass(packagePathA + "/BaseClass", classesA.get(packagePathA + "/BaseClass"))
+				.addClass(packagePathB + "/BaseClass", classesB.get(packagePathB + "/BaseClass"))
+				.write(originalJar);
+
+			// every clean class is dropped and extracted again when read, every
+			// modified class is spilled and read back when saved
+			File[] outputs = new File[]{ new File(workingDirectory, "bounded.jar"), new File(workingDirectory, "unbounded.jar") };
+			for(File output : outputs){
+				Engine engine = new Engine(originalJar, "jref_");
+				if(output == outputs[0]){
+					engine.setMemoryCeiling(1);
+				}
+				engine.process(classesA.get(packagePathA + "/MergeClass"));
+				engine.process(classesB.get(packagePathB + "/MergeClass"));
+				engine.save(output);
+				engine.close();
+			}
+			assertTrue(JarModifier.hasSameContents(outputs[0], outputs[1]));
+
+			ClassLoader classLoader = new ArchiveClassLoader(Files.readAllBytes(outputs[0].toPath()));
+			Class baseClassA = classLoader.loadClass(packagePrefix + ".inputs.a.BaseClass");
+			assertEquals("merge-method", baseClassA.getDeclaredMethod("method").invoke(baseClassA.newInstance()));
+			Class baseClassB = classLoader.loadClass(packagePrefix + ".inputs.b.BaseClass");
+			assertEquals("merged-original-method", baseClassB.getDeclaredMethod("method").invoke(baseClassB.newInstance()));
+		} finally {
+			TestUtilities.delete(workingDirectory);
+		}
+	}
+
+	private static Map<String,byte[]> getEntries(){
+		Random random = new Random(0);
+		Map<String,byte[]> entries = new HashMap<String,byte[]>();
+		for(int i=0; i<ENTRIES; i++){
+			byte[] bytes = new byte[ENTRY_SIZE];
+			random.nextBytes(bytes);
+			entries.put("entry" + i, bytes);
+		}
+		return entries;
+	}
+
+}
@@ -1,69 +1,59 @@
 package jreframeworker.engine.tests;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.Files;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
 import jreframeworker.engine.Engine;
+import jreframeworker.engine.identifiers.DefineIdentifier;
+import jreframeworker.engine.tests.utils.ArchiveBuilder;
+import jreframeworker.engine.tests.utils.ArchiveClassLoader;
+import jreframeworker.engine.tests.utils.FixtureCache;
 import jreframeworker.engine.tests.utils.TestUtilities;
 import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.utils.JarModifier;
 import junit.framework.TestCase;
 
 public class EngineTests extends TestCase {
 
 	private String packagePrefix = "jreframeworker.engine.tests";
 	private String projectSource = new File("src" + File.separator + packagePrefix.replace(".", File.separator)).getAbsolutePath();
-	private File workingDirectory = null;
-
-	@Override
-	protected void setUp() throws Exception {
-		workingDirectory = Files.createTempDirectory("working-directory").toFile();
-	}
-
-	@Override
-	protected void tearDown() throws Exception {
-		TestUtilities.delete(workingDirectory);
-		workingDirectory = null;
-	}
 	
 	@Test
-	@SuppressWarnings({"resource", "unchecked", "rawtypes"})
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	public void testMergeMethodReplacesOriginalMethod() throws Exception {
-		// gather sources
+		// compile sources, the compiled fixtures are shared by the tests
 		String pkg = "inputs.a";
 		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
-		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(testSourceDirectory);
 		
-		// compile sources
-		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
-		
-		// assert all class files were compiled successfully
-		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		// assert all classes were compiled successfully
+		String packagePath = (packagePrefix + "." + pkg).replace(".", "/");
+		byte[] baseClass = classes.get(packagePath + "/BaseClass");
 		assertNotNull(baseClass);
-		assertTrue(baseClass.exists());
-		File mergeClass = TestUtilities.getClassFile("MergeClass", classFiles);
+		byte[] mergeClass = classes.get(packagePath + "/MergeClass");
 		assertNotNull(mergeClass);
-		assertTrue(mergeClass.exists());
 		
 		// jar base class
-		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
-		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		byte[] originalJar = new ArchiveBuilder().addClass(packagePath + "/BaseClass", baseClass).toByteArray();
 		
 		// merge class into base class
 		String renamePrefix = "jref_";
-		Engine engine = new Engine(originalJar, renamePrefix);
-		File modifiedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "modified.jar");
-		engine.process(BytecodeUtils.writeClass(BytecodeUtils.getClassNode(mergeClass)));
+		Engine engine = new Engine("original.jar", originalJar, renamePrefix);
+		ByteArrayOutputStream modifiedJar = new ByteArrayOutputStream();
+		engine.process(mergeClass);
 		engine.save(modifiedJar);
+		engine.close();
 		
 		// execute the modified base class method
-		URL[] jarURL = { new URL("jar:file:" + modifiedJar.getCanonicalPath() + "!/") };
-		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		ClassLoader classLoader = new ArchiveClassLoader(modifiedJar.toByteArray());
 		Class modifiedBaseClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
 		Method modifiedBaseClassMethod = modifiedBaseClass.getDeclaredMethod("method");
 		Object modifiedBaseClassInstance = modifiedBaseClass.newInstance();
@@ -75,46 +65,159 @@ public class EngineTests extends TestCase {
 	}
 	
 	@Test
-	@SuppressWarnings({"resource", "unchecked", "rawtypes"})
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	public void testMergeMethodPreservesOriginalMethod() throws Exception {
-		// gather sources
+		// compile sources, the compiled fixtures are shared by the tests
 		String pkg = "inputs.b";
 		File testSourceDirectory = new File(projectSource + File.separator + pkg.replace(".", File.separator));
-		List<File> sourceFiles = TestUtilities.gatherTestSources(testSourceDirectory);
-		
-		// compile sources
-		List<File> classFiles = TestUtilities.compileSources(sourceFiles, workingDirectory);
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(testSourceDirectory);
 		
-		// assert all class files were compiled successfully
-		File baseClass = TestUtilities.getClassFile("BaseClass", classFiles);
+		// assert all classes were compiled successfully
+		String packagePath = (packagePrefix + "." + pkg).replace(".", "/");
+		byte[] baseClass = classes.get(packagePath + "/BaseClass");
 		assertNotNull(baseClass);
-		assertTrue(baseClass.exists());
-		File mergeClass = TestUtilities.getClassFile("MergeClass", classFiles);
+		byte[] mergeClass = classes.get(packagePath + "/MergeClass");
 		assertNotNull(mergeClass);
-		assertTrue(mergeClass.exists());
 		
 		// jar base class
-		File originalJar = new File(workingDirectory.getAbsolutePath() + File.separator + "original.jar");
-		TestUtilities.jarFiles(workingDirectory, originalJar, (packagePrefix + "." + pkg), baseClass);
+		byte[] originalJar = new ArchiveBuilder().addClass(packagePath + "/BaseClass", baseClass).toByteArray();
 		
 		// merge class into base class
 		String renamePrefix = "jref_";
-		Engine engine = new Engine(originalJar, renamePrefix);
-		File modifiedJar = new File(workingDirectory.getAbsolutePath() + File.separator + "modified.jar");
-		engine.process(BytecodeUtils.writeClass(BytecodeUtils.getClassNode(mergeClass)));
+		Engine engine = new Engine("original.jar", originalJar, renamePrefix);
+		ByteArrayOutputStream modifiedJar = new ByteArrayOutputStream();
+		engine.process(mergeClass);
 		engine.save(modifiedJar);
+		engine.close();
 		
 		// execute the modified base class method
-		URL[] jarURL = { new URL("jar:file:" + modifiedJar.getCanonicalPath() + "!/") };
-		ClassLoader classLoader = new URLClassLoader(jarURL, null); // important: set parent class loader to null!
+		ClassLoader classLoader = new ArchiveClassLoader(modifiedJar.toByteArray());
 		Class modifiedBaseClass = classLoader.loadClass(packagePrefix + "." + pkg + "." + "BaseClass");
 		Method modifiedBaseClassMethod = modifiedBaseClass.getDeclaredMethod("method");
 		Object modifiedBaseClassInstance = modifiedBaseClass.newInstance();
-		Object result = modifiedBaseClassMethod.invoke(modifiedBaseClassInstance);	
+		Object result = modifiedBaseClassMethod.invoke(modifiedBaseClassInstance);
 		
 		// assert expected behavior is observed
 		// the replaced method should return merge-method
 		assertEquals("merged-original-method", result);
 	}
 
+	@Test
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void testSaveCarriesUntouchedEntriesForward() throws Exception {
+		Map<String,byte[]> classesA = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "a"));
+		Map<String,byte[]> classesB = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "b"));
+		String packagePathA = (packagePrefix + ".inputs.a").replace(".", "/");
+		String packagePathB = (packagePrefix + ".inputs.b").replace(".", "/");
+		
+		File workingDirectory = Files.createTempDirectory("working-directory").toFile();
+		try {
+			File originalJar = new File(workingDirectory, "original.jar");
+			new ArchiveBuilder().addClass(packagePathA + "/BaseClass", classesA.get(packagePathA + "/BaseClass"))
+				.addClass(packagePathB + "/BaseClass", classesB.get(packagePathB + "/BaseClass"))
+				.write(originalJar);
+			
+			// the previous output contains the modification of the first package only
+			Engine engine = new Engine(originalJar, "jref_");
+			engine.process(classesA.get(packagePathA + "/MergeClass"));
+			assertTrue(engine.getTouchedEntries().contains(packagePathA + "/BaseClass"));
+			File previousJar = new File(workingDirectory, "previous.jar");
+			engine.save(previousJar);
+			engine.close();
+			
+			// process only the second package and carry the first forward
+			engine = new Engine(originalJar, "jref_");
+			engine.process(classesB.get(packagePathB + "/MergeClass"));
+			Set<String> touchedEntries = engine.getTouchedEntries();
+			assertFalse(touchedEntries.contains(packagePathA + "/BaseClass"));
+			File modifiedJar = new File(workingDirectory, "modified.jar");
+			engine.save(modifiedJar, previousJar, touchedEntries);
+			engine.close();
+			
+			ClassLoader classLoader = new ArchiveClassLoader(Files.readAllBytes(modifiedJar.toPath()));
+			Class baseClassA = classLoader.loadClass(packagePrefix + ".inputs.a.BaseClass");
+			assertEquals("merge-method", baseClassA.getDeclaredMethod("method").invoke(baseClassA.newInstance()));
+			Class baseClassB = classLoader.loadClass(packagePrefix + ".inputs.b.BaseClass");
+			assertEquals("merged-original-method", baseClassB.getDeclaredMethod("method").invoke(baseClassB.newInstance()));
+		} finally {
+			TestUtilities.delete(workingDirectory);
+		}
+	}
+
+	@Test
+	public void testFingerprintIgnoresDebugInformation() throws Exception {
+		String source = "package fingerprint;\n@jreframeworker.annotations.types.MergeType\npublic class MergeClass extends Object {\n public String method(){ return \"a\"; }\n}\n";
+		String reformatted = source.replace("{\n", "{\n // a comment\n\n");
+		String changed = source.replace("\"a\"", "\"b\"");
+		byte[] original = compile(source);
+		byte[] recompiled = compile(reformatted);
+		assertFalse(Arrays.equals(original, recompiled));
+		assertEquals(BytecodeUtils.getFingerprint(BytecodeUtils.getClassNode(original)), BytecodeUtils.getFingerprint(BytecodeUtils.getClassNode(recompiled)));
+		assertFalse(BytecodeUtils.getFingerprint(BytecodeUtils.getClassNode(original)).equals(BytecodeUtils.getFingerprint(BytecodeUtils.getClassNode(compile(changed)))));
+	}
+	
+	@Test
+	public void testSameContentsIgnoresEntryTimestamps() throws Exception {
+		String packagePath = (packagePrefix + ".inputs.a").replace(".", "/");
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "a"));
+		File workingDirectory = Files.createTempDirectory("working-directory").toFile();
+		try {
+			File originalJar = new File(workingDirectory, "original.jar");
+			new ArchiveBuilder().addClass(packagePath + "/BaseClass", classes.get(packagePath + "/BaseClass")).write(originalJar);
+			
+			// saving stamps the entries with the current time
+			File savedJar = new File(workingDirectory, "saved.jar");
+			new JarModifier(originalJar).save(savedJar);
+			assertFalse(Arrays.equals(Files.readAllBytes(originalJar.toPath()), Files.readAllBytes(savedJar.toPath())));
+			assertTrue(JarModifier.hasSameContents(originalJar, savedJar));
+			
+			File modifiedJar = new File(workingDirectory, "modified.jar");
+			JarModifier modifier = new JarModifier(originalJar);
+			modifier.add(packagePath + "/MergeClass.class", classes.get(packagePath + "/MergeClass"), true);
+			modifier.save(modifiedJar);
+			assertFalse(JarModifier.hasSameContents(originalJar, modifiedJar));
+			
+			// an entry with the same name and size but different contents
+			byte[] baseClass = classes.get(packagePath + "/BaseClass");
+			byte[] changedClass = Arrays.copyOf(baseClass, baseClass.length);
+			changedClass[changedClass.length - 1]++;
+			File changedJar = new File(workingDirectory, "changed.jar");
+			new ArchiveBuilder().addClass(packagePath + "/BaseClass", changedClass).write(changedJar);
+			assertFalse(JarModifier.hasSameContents(originalJar, changedJar));
+		} finally {
+			TestUtilities.delete(workingDirectory);
+		}
+	}
+	
+	@Test
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void testBareDefineTypeIsDefined() throws Exception {
+		// a define type without annotation values has no values in the class file
+		Map<String,String> sources = new HashMap<String,String>();
+		sources.put("define.DefinedClass", "package define;\n@jreframeworker.annotations.types.DefineType\npublic class DefinedClass {\n public String method(){ return \"defined\"; }\n}\n");
+		byte[] definedClass = FixtureCache.getCompiledClasses(sources, new HashMap<String,byte[]>()).get("define/DefinedClass");
+		DefineIdentifier.DefineTypeAnnotation defineTypeAnnotation = new DefineIdentifier(BytecodeUtils.getClassNode(definedClass)).getDefineTypeAnnotation();
+		assertNotNull(defineTypeAnnotation);
+		assertEquals(1, defineTypeAnnotation.getPhase());
+
+		String packagePath = (packagePrefix + ".inputs.a").replace(".", "/");
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "a"));
+		byte[] originalJar = new ArchiveBuilder().addClass(packagePath + "/BaseClass", classes.get(packagePath + "/BaseClass")).toByteArray();
+		Engine engine = new Engine("original.jar", originalJar, "jref_");
+		assertTrue(engine.process(definedClass, 1));
+		ByteArrayOutputStream modifiedJar = new ByteArrayOutputStream();
+		engine.save(modifiedJar);
+		engine.close();
+
+		ClassLoader classLoader = new ArchiveClassLoader(modifiedJar.toByteArray());
+		Class modifiedDefinedClass = classLoader.loadClass("define.DefinedClass");
+		assertEquals("defined", modifiedDefinedClass.getDeclaredMethod("method").invoke(modifiedDefinedClass.newInstance()));
+	}
+
+	private byte[] compile(String source) throws Exception {
+		Map<String,String> sources = new HashMap<String,String>();
+		sources.put("fingerprint.MergeClass", source);
+		return FixtureCache.getCompiledClasses(sources, new HashMap<String,byte[]>()).get("fingerprint/MergeClass");
+	}
+
 }
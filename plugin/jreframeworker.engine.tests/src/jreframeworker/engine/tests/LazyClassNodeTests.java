@@ -0,0 +1,147 @@
+package jreframeworker.engine.tests;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import jreframeworker.engine.tests.utils.ArchiveBuilder;
+import jreframeworker.engine.tests.utils.ArchiveClassLoader;
+import jreframeworker.engine.tests.utils.FixtureCache;
+import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.utils.LazyClassNode;
+import junit.framework.TestCase;
+
+/**
+ * Writes lazily read classes after the kinds of changes the engine makes and
+ * checks that the written classes are valid
+ */
+public class LazyClassNodeTests extends TestCase {
+
+	private static final String CLASS_NAME = "lazy/LazyClass";
+
+	@Test
+	public void testUntouchedMethodsAreCopiedRaw() throws Exception {
+		byte[] original = getLazyClass();
+		LazyClassNode classNode = BytecodeUtils.getLazyClassNode(original);
+		byte[] written = classNode.toByteArray();
+		for(MethodNode methodNode : classNode.methods){
+			assertFalse(methodNode.name, classNode.isExpanded(methodNode));
+		}
+		assertValid(written);
+		assertEquals(getCode(original), getCode(written));
+		assertEquals("first", invoke(written, "first"));
+		assertEquals("second", invoke(written, "second"));
+	}
+
+	@Test
+	public void testAccessChangeOfUnexpandedMethod() throws Exception {
+		LazyClassNode classNode = BytecodeUtils.getLazyClassNode(getLazyClass());
+		MethodNode methodNode = getMethod(classNode, "second");
+		methodNode.access = (methodNode.access & ~Opcodes.ACC_PUBLIC) | Opcodes.ACC_PROTECTED | Opcodes.ACC_FINAL;
+		byte[] written = classNode.toByteArray();
+		assertFalse(classNode.isExpanded(methodNode));
+		assertValid(written);
+
+		MethodNode writtenMethod = getMethod(BytecodeUtils.getClassNode(written), "second");
+		assertEquals(Opcodes.ACC_PROTECTED | Opcodes.ACC_FINAL, writtenMethod.access);
+		Method method = loadClass(written).getDeclaredMethod("second");
+		assertTrue(Modifier.isProtected(method.getModifiers()));
+		assertTrue(Modifier.isFinal(method.getModifiers()));
+	}
+
+	@Test
+	public void testExpandedMethodIsModified() throws Exception {
+		LazyClassNode classNode = BytecodeUtils.getLazyClassNode(getLazyClass());
+		MethodNode methodNode = getMethod(classNode, "first");
+		classNode.expand(methodNode);
+		assertTrue(classNode.isExpanded(methodNode));
+		assertFalse(classNode.isExpanded(getMethod(classNode, "second")));
+		for(AbstractInsnNode instruction : methodNode.instructions.toArray()){
+			if(instruction instanceof LdcInsnNode && "first".equals(((LdcInsnNode) instruction).cst)){
+				((LdcInsnNode) instruction).cst = "modified";
+			}
+		}
+		byte[] written = classNode.toByteArray();
+		assertValid(written);
+		assertEquals("modified", invoke(written, "first"));
+		assertEquals("second", invoke(written, "second"));
+	}
+
+	@Test
+	public void testRemovedMethodIsNotWritten() throws Exception {
+		LazyClassNode classNode = BytecodeUtils.getLazyClassNode(getLazyClass());
+		classNode.methods.remove(getMethod(classNode, "second"));
+		byte[] written = classNode.toByteArray();
+		assertValid(written);
+		assertNull(getMethod(BytecodeUtils.getClassNode(written), "second"));
+		assertEquals("first", invoke(written, "first"));
+	}
+
+	private byte[] getLazyClass() throws Exception {
+		Map<String,String> sources = new HashMap<String,String>();
+		sources.put("lazy.LazyClass", "package lazy;\n"
+				+ "public class LazyClass {\n"
+				+ " public String first(){ StringBuilder result = new StringBuilder(); for(int i=0; i<1; i++){ result.append(\"first\"); } return result.toString(); }\n"
+				+ " public String second(){ try { return \"second\"; } catch (RuntimeException e){ return null; } }\n"
+				+ "}\n");
+		return FixtureCache.getCompiledClasses(sources, new HashMap<String,byte[]>()).get(CLASS_NAME);
+	}
+
+	private static MethodNode getMethod(ClassNode classNode, String name){
+		for(MethodNode methodNode : classNode.methods){
+			if(methodNode.name.equals(name)){
+				return methodNode;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the code attributes of the methods of a class
+	 * @param bytecode
+	 * @return
+	 */
+	private static Map<String,String> getCode(byte[] bytecode){
+		Map<String,String> code = new HashMap<String,String>();
+		for(MethodNode methodNode : BytecodeUtils.getClassNode(bytecode).methods){
+			StringBuilder instructions = new StringBuilder();
+			for(AbstractInsnNode instruction : methodNode.instructions.toArray()){
+				instructions.append(instruction.getOpcode()).append(' ');
+			}
+			code.put(methodNode.name + methodNode.desc, instructions.toString() + methodNode.tryCatchBlocks.size());
+		}
+		return code;
+	}
+
+	private static void assertValid(byte[] bytecode){
+		StringWriter errors = new StringWriter();
+		CheckClassAdapter.verify(new ClassReader(bytecode), LazyClassNodeTests.class.getClassLoader(), false, new PrintWriter(errors));
+		assertEquals("", errors.toString());
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Class loadClass(byte[] bytecode) throws Exception {
+		ClassLoader classLoader = new ArchiveClassLoader(new ArchiveBuilder().addClass(CLASS_NAME, bytecode).toByteArray());
+		return classLoader.loadClass(CLASS_NAME.replace('/', '.'));
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Object invoke(byte[] bytecode, String methodName) throws Exception {
+		Class loadedClass = loadClass(bytecode);
+		return loadedClass.getDeclaredMethod(methodName).invoke(loadedClass.newInstance());
+	}
+
+}
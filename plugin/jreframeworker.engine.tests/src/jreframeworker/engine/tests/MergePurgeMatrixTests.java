@@ -0,0 +1,90 @@
+package jreframeworker.engine.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.tests.utils.ArchiveBuilder;
+import jreframeworker.engine.tests.utils.ArchiveClassLoader;
+import jreframeworker.engine.tests.utils.FixtureCache;
+import junit.framework.TestCase;
+
+/**
+ * Runs every combination of merge and purge scenarios against an in memory
+ * base class. Sources, archives and the modified archive never touch the
+ * disk and compiled fixtures are shared between scenarios and test runs.
+ */
+public class MergePurgeMatrixTests extends TestCase {
+
+	private static final String BASE_CLASS = "matrix.BaseClass";
+	private static final String[] ACCESS_MODIFIERS = { "public", "protected" };
+
+	@Test
+	public void testMergeAndPurgeMatrix() throws Exception {
+		for(String access : ACCESS_MODIFIERS){
+			for(boolean preserveOriginal : new boolean[]{ false, true }){
+				for(boolean purgeOther : new boolean[]{ false, true }){
+					runScenario(access, preserveOriginal, purgeOther);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void runScenario(String access, boolean preserveOriginal, boolean purgeOther) throws Exception {
+		String scenario = access + (preserveOriginal ? " preserve" : " replace") + (purgeOther ? " purge" : "");
+
+		// compile the base class and the modifications against it
+		Map<String,String> baseSources = new HashMap<String,String>();
+		baseSources.put(BASE_CLASS, "package matrix;\n"
+				+ "public class BaseClass {\n"
+				+ "	" + access + " String method(){ return \"original\"; }\n"
+				+ "	public String other(){ return \"other\"; }\n"
+				+ "	public String call(){ return method(); }\n"
+				+ "}\n");
+		Map<String,byte[]> baseClasses = FixtureCache.getCompiledClasses(baseSources, new HashMap<String,byte[]>());
+
+		Map<String,String> modificationSources = new HashMap<String,String>();
+		modificationSources.put("matrix.modifications.MergeClass", "package matrix.modifications;\n"
+				+ "@jreframeworker.annotations.types.MergeType\n"
+				+ "public class MergeClass extends matrix.BaseClass {\n"
+				+ "	@jreframeworker.annotations.methods.MergeMethod\n"
+				+ "	@Override\n"
+				+ "	" + access + " String method(){ return " + (preserveOriginal ? "\"merged-\" + super.method()" : "\"merged\"") + "; }\n"
+				+ "}\n");
+		if(purgeOther){
+			modificationSources.put("matrix.modifications.PurgeClass", "package matrix.modifications;\n"
+					+ "@jreframeworker.annotations.methods.PurgeMethod(type=\"" + BASE_CLASS + "\", method=\"other\")\n"
+					+ "public class PurgeClass {}\n");
+		}
+		Map<String,byte[]> modifications = FixtureCache.getCompiledClasses(modificationSources, baseClasses);
+
+		// modify the archive
+		byte[] originalJar = new ArchiveBuilder().addClasses(baseClasses).toByteArray();
+		Engine engine = new Engine("original.jar", originalJar, "jref_");
+		for(byte[] modification : modifications.values()){
+			assertTrue(scenario, engine.process(modification));
+		}
+		ByteArrayOutputStream modifiedJar = new ByteArrayOutputStream();
+		engine.save(modifiedJar);
+		engine.close();
+
+		// execute the modified base class
+		ClassLoader classLoader = new ArchiveClassLoader(modifiedJar.toByteArray());
+		Class modifiedBaseClass = classLoader.loadClass(BASE_CLASS);
+		Object instance = modifiedBaseClass.newInstance();
+		Object result = modifiedBaseClass.getMethod("call").invoke(instance);
+		assertEquals(scenario, preserveOriginal ? "merged-original" : "merged", result);
+
+		boolean hasOther = false;
+		for(Method method : modifiedBaseClass.getDeclaredMethods()){
+			hasOther |= method.getName().equals("other");
+		}
+		assertEquals(scenario, !purgeOther, hasOther);
+	}
+
+}
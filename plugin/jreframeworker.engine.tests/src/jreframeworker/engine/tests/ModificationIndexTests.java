@@ -0,0 +1,105 @@
+package jreframeworker.engine.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.objectweb.asm.tree.ClassNode;
+
+import jreframeworker.annotations.processor.ModificationIndexProcessor;
+import jreframeworker.engine.identifiers.DefineFinalityIdentifier;
+import jreframeworker.engine.identifiers.DefineIdentifier;
+import jreframeworker.engine.identifiers.DefineVisibilityIdentifier;
+import jreframeworker.engine.identifiers.MergeIdentifier;
+import jreframeworker.engine.identifiers.ModificationIndex;
+import jreframeworker.engine.identifiers.PurgeIdentifier;
+import jreframeworker.engine.tests.utils.InMemoryCompiler;
+import jreframeworker.engine.utils.BytecodeUtils;
+import junit.framework.TestCase;
+
+/**
+ * Compares the compile time modification index with the modifications the
+ * engine identifiers find in the compiled class files
+ */
+public class ModificationIndexTests extends TestCase {
+
+	private static final int MAX_PHASE = 3;
+
+	@Test
+	public void testIndexMatchesEngineIdentification() throws Exception {
+		Map<String,String> sources = new HashMap<String,String>();
+		sources.put("index.Base", "package index;\n"
+				+ "public class Base { public String method(){ return \"base\"; } }\n");
+		sources.put("index.Other", "package index;\n"
+				+ "public class Other {}\n");
+		sources.put("index.Modifications", "package index;\n"
+				+ "@jreframeworker.annotations.types.MergeType(phase=2)\n"
+				+ "@jreframeworker.annotations.types.DefineTypeFinality(type=\"a.B\", finality=false)\n"
+				// the identifiers ignore a purge without an explicit type
+				+ "@jreframeworker.annotations.methods.PurgeMethod(method=\"other\")\n"
+				+ "@jreframeworker.annotations.fields.PurgeField(type=\"x.Y\", field=\"f\")\n"
+				+ "@jreframeworker.annotations.fields.PurgeField(type=\"x.Z\", field=\"g\")\n"
+				+ "public class Modifications extends Base {\n"
+				+ "	@jreframeworker.annotations.methods.MergeMethod\n"
+				+ "	public String method(){ return \"merged\"; }\n"
+				+ "	@jreframeworker.annotations.types.PurgeType(phase=3, type=\"x.*\")\n"
+				+ "	@jreframeworker.annotations.methods.DefineMethodVisibility(type=\"\", method=\"method\", visibility=\"public\")\n"
+				+ "	public static class Nested extends Other {}\n"
+				+ "	@jreframeworker.annotations.types.DefineType(phase=2)\n"
+				+ "	public static class Defined {}\n"
+				+ "}\n");
+		InMemoryCompiler compiler = new InMemoryCompiler().setProcessors(new ModificationIndexProcessor());
+		Map<String,byte[]> classes = compiler.compileSources(sources);
+		Map<String,byte[]> indexes = compiler.getResources();
+
+		// nested types are indexed like top level types
+		for(String className : Arrays.asList("index/Modifications", "index/Modifications$Nested", "index/Modifications$Defined")){
+			byte[] indexBytes = indexes.get(className + ModificationIndex.INDEX_EXTENSION);
+			assertNotNull(className, indexBytes);
+			ModificationIndex index = ModificationIndex.read(new ByteArrayInputStream(indexBytes));
+			ClassNode classNode = BytecodeUtils.getClassNode(classes.get(className));
+			for(int phase=1; phase<=MAX_PHASE; phase++){
+				assertEquals(className + " phase " + phase, getIdentifiedTargets(classNode, phase), index.getTargets(phase));
+				assertEquals(className + " phase " + phase, isIdentifiedDefineType(classNode, phase), index.isDefineType(phase));
+			}
+		}
+
+		ModificationIndex index = ModificationIndex.read(new ByteArrayInputStream(indexes.get("index/Modifications.jref")));
+		assertEquals(new HashSet<String>(Arrays.asList("a/B", "x/Y", "x/Z")), index.getTargets(1));
+		assertEquals(new HashSet<String>(Arrays.asList("index/Base")), index.getTargets(2));
+		index = ModificationIndex.read(new ByteArrayInputStream(indexes.get("index/Modifications$Nested.jref")));
+		assertEquals(new HashSet<String>(Arrays.asList("index/Other")), index.getTargets(1));
+		assertEquals(new HashSet<String>(Arrays.asList("x/*")), index.getTargets(3));
+	}
+
+	/**
+	 * Returns the targets the engine processes in the phase, the targets the
+	 * builder finds when a source has no index
+	 * @param classNode
+	 * @param phase
+	 * @return
+	 * @throws IOException
+	 */
+	private Set<String> getIdentifiedTargets(ClassNode classNode, int phase) throws IOException {
+		Set<String> targets = new HashSet<String>();
+		targets.addAll(PurgeIdentifier.getPurgeTargets(classNode, phase));
+		targets.addAll(DefineFinalityIdentifier.getFinalityTargets(classNode, phase));
+		targets.addAll(DefineVisibilityIdentifier.getVisibilityTargets(classNode, phase));
+		MergeIdentifier.MergeTypeAnnotation mergeTypeAnnotation = new MergeIdentifier(classNode).getMergeTypeAnnotation();
+		if(mergeTypeAnnotation != null && mergeTypeAnnotation.getPhase() == phase){
+			targets.add(mergeTypeAnnotation.getSupertype());
+		}
+		return targets;
+	}
+
+	private boolean isIdentifiedDefineType(ClassNode classNode, int phase){
+		DefineIdentifier.DefineTypeAnnotation defineTypeAnnotation = new DefineIdentifier(classNode).getDefineTypeAnnotation();
+		return defineTypeAnnotation != null && defineTypeAnnotation.getPhase() == phase;
+	}
+
+}
@@ -0,0 +1,101 @@
+package jreframeworker.engine.tests;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import org.junit.Test;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.tests.utils.ArchiveBuilder;
+import jreframeworker.engine.tests.utils.FixtureCache;
+import jreframeworker.engine.tests.utils.TestUtilities;
+import jreframeworker.engine.utils.TransformationCache;
+import junit.framework.TestCase;
+
+public class TransformationCacheTests extends TestCase {
+
+	private String packagePrefix = "jreframeworker.engine.tests";
+	private String projectSource = new File("src" + File.separator + packagePrefix.replace(".", File.separator)).getAbsolutePath();
+	private File workingDirectory = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		workingDirectory = Files.createTempDirectory("working-directory").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestUtilities.delete(workingDirectory);
+		workingDirectory = null;
+	}
+
+	@Test
+	public void testTransformationIsNotReusedAcrossClassHierarchies() throws Exception {
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "b"));
+		String packagePath = (packagePrefix + ".inputs.b").replace(".", "/");
+		byte[] mergeClass = classes.get(packagePath + "/MergeClass");
+		File originalJar = new File(workingDirectory, "original.jar");
+		new ArchiveBuilder().addClass(packagePath + "/BaseClass", classes.get(packagePath + "/BaseClass")).write(originalJar);
+
+		TransformationCache transformationCache = new TransformationCache();
+		String key = TransformationCache.getKey(mergeClass, 1, "jref_");
+		URL[] urls = new URL[]{ originalJar.toURI().toURL() };
+
+		// the common superclasses of merged classes resolve through the loaders of the engine
+		process(originalJar, transformationCache, mergeClass, new ClassLoader[]{ getClass().getClassLoader() });
+		assertEquals(1, transformationCache.getTransformations(key).size());
+		process(originalJar, transformationCache, mergeClass, new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(urls) });
+		assertEquals(2, transformationCache.getTransformations(key).size());
+
+		// a new loader of the same archive resolves the same hierarchy
+		process(originalJar, transformationCache, mergeClass, new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(urls) });
+		assertEquals(2, transformationCache.getTransformations(key).size());
+	}
+
+	@Test
+	public void testPatternTargetsAreMatchedInEachArchive() throws Exception {
+		Map<String,String> targetSources = new HashMap<String,String>();
+		for(String name : new String[]{ "A", "B", "C" }){
+			targetSources.put("x." + name, "package x;\npublic class " + name + " {}\n");
+		}
+		Map<String,byte[]> targets = FixtureCache.getCompiledClasses(targetSources, new HashMap<String,byte[]>());
+		Map<String,String> purgeSources = new HashMap<String,String>();
+		purgeSources.put("purge.PurgeClasses", "package purge;\n"
+				+ "@jreframeworker.annotations.types.PurgeType(type=\"x.*\")\n"
+				+ "public class PurgeClasses {}\n");
+		byte[] purgeClass = FixtureCache.getCompiledClasses(purgeSources, targets).get("purge/PurgeClasses");
+
+		// the same pattern matches a different set of classes in each archive
+		File firstJar = new File(workingDirectory, "first.jar");
+		new ArchiveBuilder().addClass("x/A", targets.get("x/A")).addClass("x/B", targets.get("x/B")).write(firstJar);
+		File secondJar = new File(workingDirectory, "second.jar");
+		new ArchiveBuilder().addClasses(targets).write(secondJar);
+
+		TransformationCache transformationCache = new TransformationCache();
+		File firstOutput = process(firstJar, transformationCache, purgeClass, new ClassLoader[]{ getClass().getClassLoader() });
+		File secondOutput = process(secondJar, transformationCache, purgeClass, new ClassLoader[]{ getClass().getClassLoader() });
+		for(File output : new File[]{ firstOutput, secondOutput }){
+			try(ZipFile archive = new ZipFile(output)){
+				for(String name : new String[]{ "A", "B", "C" }){
+					assertNull(output.getName() + " x/" + name, archive.getEntry("x/" + name + ".class"));
+				}
+			}
+		}
+	}
+
+	private File process(File originalJar, TransformationCache transformationCache, byte[] inputClass, ClassLoader[] classLoaders) throws Exception {
+		Engine engine = new Engine(originalJar, "jref_", classLoaders);
+		engine.setTransformationCache(transformationCache);
+		engine.process(inputClass, 1);
+		File output = new File(workingDirectory, "modified-" + originalJar.getName());
+		engine.save(output);
+		engine.close();
+		return output;
+	}
+
+}
@@ -0,0 +1,168 @@
+package jreframeworker.engine.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.tests.utils.ArchiveBuilder;
+import jreframeworker.engine.tests.utils.FixtureCache;
+import jreframeworker.engine.tests.utils.TestUtilities;
+import jreframeworker.engine.utils.TransformationCache;
+import jreframeworker.engine.verification.ArchiveComparator.Divergence;
+import jreframeworker.engine.verification.BytecodeVerifier;
+import jreframeworker.engine.verification.BytecodeVerifier.VerificationError;
+import jreframeworker.engine.verification.DifferentialVerifier;
+import jreframeworker.engine.verification.Pipeline;
+import jreframeworker.engine.verification.ReferencePipeline;
+import junit.framework.TestCase;
+
+public class VerificationTests extends TestCase {
+
+	private String packagePrefix = "jreframeworker.engine.tests";
+	private String projectSource = new File("src" + File.separator + packagePrefix.replace(".", File.separator)).getAbsolutePath();
+	private File workingDirectory = null;
+
+	@Override
+	protected void setUp() throws Exception {
+		workingDirectory = Files.createTempDirectory("working-directory").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestUtilities.delete(workingDirectory);
+		workingDirectory = null;
+	}
+
+	/**
+	 * A candidate engine configured like the builder configures its engines
+	 */
+	private static class CachingPipeline implements Pipeline {
+		private String mergeRenamePrefix;
+
+		public CachingPipeline(String mergeRenamePrefix) {
+			this.mergeRenamePrefix = mergeRenamePrefix;
+		}
+
+		@Override
+		public void run(File archive, List<byte[]> inputClasses, int phase, File output) throws IOException {
+			Engine engine = new Engine(archive, mergeRenamePrefix);
+			engine.setTransformationCache(new TransformationCache());
+			engine.setMemoryCeiling(1024);
+			for(byte[] inputClass : inputClasses){
+				engine.process(inputClass, phase);
+			}
+			engine.save(output);
+			engine.close();
+		}
+	}
+
+	@Test
+	public void testEquivalentCandidateDoesNotDiverge() throws Exception {
+		DifferentialVerifier verifier = new DifferentialVerifier(new ReferencePipeline("jref_"), new CachingPipeline("jref_"));
+		Divergence divergence = verifier.verify(getOriginalJar(), getInputClasses(), 1);
+		assertNull(divergence);
+	}
+
+	@Test
+	public void testDivergentCandidateReportsFirstDivergence() throws Exception {
+		// renaming the preserved base method differently changes the merged class members
+		DifferentialVerifier verifier = new DifferentialVerifier(new ReferencePipeline("jref_"), new CachingPipeline("renamed_"));
+		Divergence divergence = verifier.verify(getOriginalJar(), getInputClasses(), 1);
+		assertNotNull(divergence);
+		assertEquals(packagePrefix.replace(".", "/") + "/inputs/b/BaseClass.class", divergence.getEntry());
+		assertEquals("methods differ", divergence.getDescription());
+		assertTrue(divergence.getExpected().contains("jref_method"));
+		assertTrue(divergence.getActual().contains("renamed_method"));
+	}
+
+	@Test
+	public void testMergedClassVerifies() throws Exception {
+		File originalJar = getOriginalJar();
+		Engine engine = new Engine(originalJar, "jref_");
+		for(byte[] inputClass : getInputClasses()){
+			engine.process(inputClass);
+		}
+		File modifiedJar = new File(workingDirectory, "modified.jar");
+		engine.save(modifiedJar);
+		engine.close();
+
+		BytecodeVerifier verifier = new BytecodeVerifier();
+		List<VerificationError> errors = verifier.verify(originalJar, modifiedJar, engine.getModificationEntries());
+		assertTrue(errors.toString(), errors.isEmpty());
+		errors = verifier.load(modifiedJar, engine.getModificationEntries(), getClass().getClassLoader());
+		assertTrue(errors.toString(), errors.isEmpty());
+	}
+
+	@Test
+	public void testBrokenMethodIsReported() throws Exception {
+		File originalJar = new File(workingDirectory, "original.jar");
+		new ArchiveBuilder().addClass("broken/Broken", getBrokenClass(false)).write(originalJar);
+		File modifiedJar = new File(workingDirectory, "modified.jar");
+		new ArchiveBuilder().addClass("broken/Broken", getBrokenClass(true)).write(modifiedJar);
+		HashSet<String> modifiedClasses = new HashSet<String>(Arrays.asList("broken/Broken"));
+
+		BytecodeVerifier verifier = new BytecodeVerifier();
+		List<VerificationError> errors = verifier.verify(originalJar, modifiedJar, modifiedClasses);
+		assertEquals(1, errors.size());
+		assertEquals("broken/Broken", errors.get(0).getClassName());
+		assertEquals("method()Ljava/lang/String;", errors.get(0).getMethod());
+
+		errors = verifier.load(modifiedJar, modifiedClasses, getClass().getClassLoader());
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).getMessage().startsWith("VerifyError"));
+	}
+
+	/**
+	 * Generates a class whose method returns a string or, when broken, an int
+	 * from a method declared to return a string
+	 * @param broken
+	 * @return
+	 */
+	private byte[] getBrokenClass(boolean broken) {
+		ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "broken/Broken", null, "java/lang/Object", null);
+		MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		constructor.visitCode();
+		constructor.visitVarInsn(Opcodes.ALOAD, 0);
+		constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		constructor.visitInsn(Opcodes.RETURN);
+		constructor.visitMaxs(0, 0);
+		constructor.visitEnd();
+		MethodVisitor method = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "method", "()Ljava/lang/String;", null, null);
+		method.visitCode();
+		if(broken){
+			method.visitInsn(Opcodes.ICONST_1);
+		} else {
+			method.visitLdcInsn("original");
+		}
+		method.visitInsn(Opcodes.ARETURN);
+		method.visitMaxs(0, 0);
+		method.visitEnd();
+		classWriter.visitEnd();
+		return classWriter.toByteArray();
+	}
+
+	private File getOriginalJar() throws IOException {
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "b"));
+		String baseClass = packagePrefix.replace(".", "/") + "/inputs/b/BaseClass";
+		File originalJar = new File(workingDirectory, "original.jar");
+		new ArchiveBuilder().addClass(baseClass, classes.get(baseClass)).write(originalJar);
+		return originalJar;
+	}
+
+	private List<byte[]> getInputClasses() throws IOException {
+		Map<String,byte[]> classes = FixtureCache.getCompiledClasses(new File(projectSource + File.separator + "inputs" + File.separator + "b"));
+		return Arrays.asList(classes.get(packagePrefix.replace(".", "/") + "/inputs/b/MergeClass"));
+	}
+
+}
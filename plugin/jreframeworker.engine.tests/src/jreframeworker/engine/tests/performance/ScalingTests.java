@@ -0,0 +1,241 @@
+package jreframeworker.engine.tests.performance;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jreframeworker.engine.Engine;
+import jreframeworker.engine.tests.utils.CorpusGenerator;
+import jreframeworker.engine.tests.utils.TestUtilities;
+import jreframeworker.engine.utils.JarModifier;
+import junit.framework.TestCase;
+import junit.framework.TestResult;
+
+/**
+ * Runs engine operations at increasing sizes and fits the growth rate of the
+ * running time, failing if an operation grows faster than roughly n log n.
+ *
+ * The growth exponent is the slope of a least squares fit of log(time) against
+ * log(size). Between the smallest and largest sizes n log n has an exponent of
+ * about 1.1 and a quadratic operation an exponent of 2, so the limit leaves
+ * room for timing noise while still catching quadratic paths.
+ *
+ * The tests take over a minute and are excluded from the default test run,
+ * run them with -Djreframeworker.performance=true to opt in.
+ */
+public class ScalingTests extends TestCase {
+
+	// archive sizes in class entries
+	private static final int[] ARCHIVE_SIZES = { 1000, 4000, 16000, 64000 };
+
+	// number of modified classes of each kind, the archive grows with the modifications
+	private static final int[] MODIFICATION_COUNTS = { 10, 100, 1000 };
+	private static final int CLASSES_PER_MODIFICATION = 16;
+
+	private static final double MAX_GROWTH_EXPONENT = 1.4;
+
+	// the fastest of the repetitions is measured to filter out GC pauses and other noise
+	private static final int REPETITIONS = 3;
+
+	private static final long SEED = 42;
+
+	// the system property that opts in to the performance tests
+	public static final String PERFORMANCE_PROPERTY = "jreframeworker.performance";
+
+	// modification kinds by the name prefix of the generated modification classes
+	private static final String[] MODIFICATION_KINDS = { "Merge", "Defined", "Purge", "Visibility", "Finality" };
+
+	private File workingDirectory = null;
+
+	@Override
+	public void run(TestResult result) {
+		if(Boolean.getBoolean(PERFORMANCE_PROPERTY)){
+			super.run(result);
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		workingDirectory = Files.createTempDirectory("working-directory").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TestUtilities.delete(workingDirectory);
+		workingDirectory = null;
+	}
+
+	@Test
+	public void testArchiveOperationsScale() throws Exception {
+		double[] openTimes = new double[ARCHIVE_SIZES.length];
+		double[] extractTimes = new double[ARCHIVE_SIZES.length];
+		double[] saveTimes = new double[ARCHIVE_SIZES.length];
+
+		// warm up the class loading and the JIT on the smallest archive
+		measureArchiveOperations(ARCHIVE_SIZES[0], new double[1], new double[1], new double[1], 0);
+
+		for(int i=0; i<ARCHIVE_SIZES.length; i++){
+			measureArchiveOperations(ARCHIVE_SIZES[i], openTimes, extractTimes, saveTimes, i);
+		}
+
+		assertScales("open", ARCHIVE_SIZES, openTimes);
+		assertScales("extractEntry", ARCHIVE_SIZES, extractTimes);
+		assertScales("save", ARCHIVE_SIZES, saveTimes);
+	}
+
+	@Test
+	public void testModificationsScale() throws Exception {
+		Map<String,double[]> times = new LinkedHashMap<String,double[]>();
+		for(String kind : MODIFICATION_KINDS){
+			times.put(kind, new double[MODIFICATION_COUNTS.length]);
+		}
+
+		// warm up the class loading and the JIT on the smallest corpus
+		Map<String,double[]> warmupTimes = new LinkedHashMap<String,double[]>();
+		for(String kind : MODIFICATION_KINDS){
+			warmupTimes.put(kind, new double[1]);
+		}
+		measureModifications(MODIFICATION_COUNTS[0], warmupTimes, 0);
+
+		for(int i=0; i<MODIFICATION_COUNTS.length; i++){
+			measureModifications(MODIFICATION_COUNTS[i], times, i);
+		}
+
+		for(Map.Entry<String,double[]> kindTimes : times.entrySet()){
+			assertScales(kindTimes.getKey(), MODIFICATION_COUNTS, kindTimes.getValue());
+		}
+	}
+
+	private void measureArchiveOperations(int classes, double[] openTimes, double[] extractTimes, double[] saveTimes, int index) throws Exception {
+		CorpusGenerator corpus = new CorpusGenerator(SEED)
+				.setClasses(classes)
+				.setPackages(classes / 250)
+				.setFieldsPerClass(2)
+				.setMethodsPerClass(2)
+				.setMethodSize(4)
+				.setInnerClassesPerClass(0);
+		File archive = new File(workingDirectory, "archive-" + classes + ".jar");
+		corpus.writeTargetJar(archive);
+		List<String> classEntries = new ArrayList<String>();
+		for(String className : corpus.getClassNames()){
+			classEntries.add(className + ".class");
+		}
+		File output = new File(workingDirectory, "output-" + classes + ".jar");
+
+		openTimes[index] = Double.MAX_VALUE;
+		extractTimes[index] = Double.MAX_VALUE;
+		saveTimes[index] = Double.MAX_VALUE;
+		for(int r=0; r<REPETITIONS; r++){
+			long start = System.nanoTime();
+			Engine engine = new Engine(archive, "jref_");
+			openTimes[index] = Math.min(openTimes[index], System.nanoTime() - start);
+			start = System.nanoTime();
+			engine.save(output);
+			saveTimes[index] = Math.min(saveTimes[index], System.nanoTime() - start);
+			engine.close();
+
+			JarModifier jarModifier = new JarModifier(archive);
+			start = System.nanoTime();
+			for(String classEntry : classEntries){
+				assertNotNull(jarModifier.extractEntry(classEntry));
+			}
+			extractTimes[index] = Math.min(extractTimes[index], System.nanoTime() - start);
+			jarModifier.close();
+		}
+
+		archive.delete();
+		output.delete();
+	}
+
+	private void measureModifications(int modifications, Map<String,double[]> times, int index) throws Exception {
+		CorpusGenerator corpus = new CorpusGenerator(SEED)
+				.setClasses(modifications * CLASSES_PER_MODIFICATION)
+				.setPackages(Math.max(1, modifications / 16))
+				.setFieldsPerClass(2)
+				.setMethodsPerClass(2)
+				.setMethodSize(4)
+				.setInnerClassesPerClass(0)
+				.setModificationsPerKind(modifications);
+		File corpusDirectory = new File(workingDirectory, "corpus-" + modifications);
+		File archive = new File(corpusDirectory, "archive.jar");
+		corpusDirectory.mkdirs();
+		corpus.writeTargetJar(archive);
+		List<File> sourceFiles = corpus.writeModificationSources(new File(corpusDirectory, "src"));
+		List<File> classFiles = TestUtilities.compileSources(sourceFiles, new File(corpusDirectory, "bin"), Arrays.asList(archive));
+
+		for(String kind : MODIFICATION_KINDS){
+			List<byte[]> inputClasses = new LinkedList<byte[]>();
+			for(File classFile : classFiles){
+				if(classFile.getName().contains(kind)){
+					inputClasses.add(Files.readAllBytes(classFile.toPath()));
+				}
+			}
+			assertFalse("No " + kind + " modifications were generated", inputClasses.isEmpty());
+
+			double time = Double.MAX_VALUE;
+			for(int r=0; r<REPETITIONS; r++){
+				Engine engine = new Engine(archive, "jref_");
+				long start = System.nanoTime();
+				for(byte[] inputClass : inputClasses){
+					assertTrue(engine.process(inputClass));
+				}
+				time = Math.min(time, System.nanoTime() - start);
+				engine.close();
+			}
+			times.get(kind)[index] = time;
+		}
+
+		TestUtilities.delete(corpusDirectory);
+	}
+
+	/**
+	 * Fails if the fitted growth exponent of the running times exceeds the limit
+	 * @param operation
+	 * @param sizes
+	 * @param times
+	 */
+	private static void assertScales(String operation, int[] sizes, double[] times){
+		double exponent = getGrowthExponent(sizes, times);
+		StringBuilder measurements = new StringBuilder();
+		for(int i=0; i<sizes.length; i++){
+			measurements.append(String.format(Locale.ROOT, " %d: %.2f ms", sizes[i], times[i] / 1000000.0));
+		}
+		String message = String.format(Locale.ROOT, "%s grows with exponent %.2f (limit %.2f),%s", operation, exponent, MAX_GROWTH_EXPONENT, measurements);
+		assertTrue(message, exponent <= MAX_GROWTH_EXPONENT);
+	}
+
+	/**
+	 * Returns the slope of the least squares line through (log(size), log(time))
+	 * @param sizes
+	 * @param times
+	 * @return
+	 */
+	private static double getGrowthExponent(int[] sizes, double[] times){
+		int n = sizes.length;
+		double meanX = 0;
+		double meanY = 0;
+		for(int i=0; i<n; i++){
+			meanX += Math.log(sizes[i]);
+			meanY += Math.log(Math.max(1, times[i]));
+		}
+		meanX /= n;
+		meanY /= n;
+		double covariance = 0;
+		double variance = 0;
+		for(int i=0; i<n; i++){
+			double dx = Math.log(sizes[i]) - meanX;
+			covariance += dx * (Math.log(Math.max(1, times[i])) - meanY);
+			variance += dx * dx;
+		}
+		return covariance / variance;
+	}
+
+}
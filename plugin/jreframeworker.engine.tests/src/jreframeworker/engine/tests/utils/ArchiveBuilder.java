@@ -0,0 +1,82 @@
+package jreframeworker.engine.tests.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Builds a test archive in memory that an Engine can be created from directly.
+ * Entries are written in name order with a fixed time so that equal contents
+ * always produce equal archives.
+ */
+public class ArchiveBuilder {
+
+	// fixed entry time (1980-01-01) so archives are reproducible
+	private static final long ENTRY_TIME = 315532800000L;
+
+	private Map<String,byte[]> entries = new TreeMap<String,byte[]>();
+
+	/**
+	 * Adds a class by its internal name (example: a/b/C)
+	 * @param className
+	 * @param bytes
+	 * @return
+	 */
+	public ArchiveBuilder addClass(String className, byte[] bytes){
+		return addEntry(className + ".class", bytes);
+	}
+
+	/**
+	 * Adds classes keyed by their internal names
+	 * @param classes
+	 * @return
+	 */
+	public ArchiveBuilder addClasses(Map<String,byte[]> classes){
+		for(Map.Entry<String,byte[]> clazz : classes.entrySet()){
+			addClass(clazz.getKey(), clazz.getValue());
+		}
+		return this;
+	}
+
+	public ArchiveBuilder addEntry(String entry, byte[] bytes){
+		entries.put(entry, bytes);
+		return this;
+	}
+
+	/**
+	 * Returns the bytes of the archive with an empty manifest
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] toByteArray() throws IOException {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		JarOutputStream jar = new JarOutputStream(archive, TestUtilities.generateEmptyManifest());
+		try {
+			for(Map.Entry<String,byte[]> entry : entries.entrySet()){
+				JarEntry jarEntry = new JarEntry(entry.getKey());
+				jarEntry.setTime(ENTRY_TIME);
+				jar.putNextEntry(jarEntry);
+				jar.write(entry.getValue());
+				jar.closeEntry();
+			}
+		} finally {
+			jar.close();
+		}
+		return archive.toByteArray();
+	}
+
+	/**
+	 * Writes the archive to a file, for code paths that need an archive on disk
+	 * @param archive
+	 * @throws IOException
+	 */
+	public void write(File archive) throws IOException {
+		Files.write(archive.toPath(), toByteArray());
+	}
+
+}
@@ -0,0 +1,52 @@
+package jreframeworker.engine.tests.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+/**
+ * Loads the classes of an archive held in memory, such as an archive an
+ * Engine saved to a stream. The parent class loader is the bootstrap class
+ * loader so classes are never resolved from the test classpath instead.
+ */
+public class ArchiveClassLoader extends ClassLoader {
+
+	private Map<String,byte[]> classes = new HashMap<String,byte[]>();
+
+	public ArchiveClassLoader(byte[] archive) throws IOException {
+		super(null); // important: set parent class loader to null!
+		JarInputStream jar = new JarInputStream(new ByteArrayInputStream(archive));
+		try {
+			JarEntry entry = jar.getNextJarEntry();
+			byte[] buf = new byte[4096];
+			while(entry != null){
+				if(entry.getName().endsWith(".class")){
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					int n;
+					while((n = jar.read(buf)) > 0){
+						bytes.write(buf, 0, n);
+					}
+					String className = entry.getName().substring(0, entry.getName().length() - ".class".length()).replace('/', '.');
+					classes.put(className, bytes.toByteArray());
+				}
+				entry = jar.getNextJarEntry();
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		byte[] bytes = classes.get(name);
+		if(bytes == null){
+			throw new ClassNotFoundException(name);
+		}
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+
+}
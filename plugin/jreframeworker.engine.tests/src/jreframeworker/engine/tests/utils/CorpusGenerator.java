@@ -0,0 +1,459 @@
+package jreframeworker.engine.tests.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates a synthetic target archive and matching JReFrameworker
+ * modification sources for stress tests and scaling benchmarks.
+ *
+ * Target classes are written with the ASM ClassWriter and arranged in
+ * inheritance chains of the configured depth. Each class has fields, methods
+ * of a configurable size and static inner classes. Modification sources are
+ * written as annotated Java source files that merge, define, purge and change
+ * the visibility and finality of the targets across the configured number of
+ * phases. Every modification targets a different class, and classes are only
+ * purged or made final if no other class extends them, so the modified archive
+ * stays loadable.
+ *
+ * The output depends only on the configuration. Each class is generated from
+ * its own random stream derived from the seed, so a class is identical across
+ * corpora of different sizes and archives are byte for byte reproducible.
+ */
+public class CorpusGenerator {
+
+	public static final String CORPUS_PACKAGE = "corpus";
+	public static final String MODIFICATIONS_PACKAGE = CORPUS_PACKAGE + ".modifications";
+
+	// fixed entry time (1980-01-01) so archives are reproducible
+	private static final long ENTRY_TIME = 315532800000L;
+
+	private static final String[] FIELD_DESCRIPTORS = { "I", "J", "Ljava/lang/String;" };
+	private static final int[] ARITHMETIC_OPCODES = { Opcodes.IADD, Opcodes.ISUB, Opcodes.IMUL, Opcodes.IXOR, Opcodes.IAND, Opcodes.IOR };
+
+	private long seed = 0;
+	private int classes = 100;
+	private int packages = 4;
+	private int fieldsPerClass = 4;
+	private int methodsPerClass = 8;
+	private int methodSize = 16;
+	private int inheritanceDepth = 3;
+	private int innerClassesPerClass = 1;
+	private int phases = 1;
+	private int modificationsPerKind = 4;
+
+	public CorpusGenerator(long seed){
+		this.seed = seed;
+	}
+
+	public CorpusGenerator setClasses(int classes){
+		this.classes = classes;
+		return this;
+	}
+
+	public CorpusGenerator setPackages(int packages){
+		this.packages = Math.max(1, packages);
+		return this;
+	}
+
+	public CorpusGenerator setFieldsPerClass(int fieldsPerClass){
+		this.fieldsPerClass = fieldsPerClass;
+		return this;
+	}
+
+	public CorpusGenerator setMethodsPerClass(int methodsPerClass){
+		this.methodsPerClass = methodsPerClass;
+		return this;
+	}
+
+	/**
+	 * Sets the number of arithmetic operations in each generated method body
+	 * @param methodSize
+	 * @return
+	 */
+	public CorpusGenerator setMethodSize(int methodSize){
+		this.methodSize = methodSize;
+		return this;
+	}
+
+	/**
+	 * Sets the length of the inheritance chains, 1 means every class extends Object
+	 * @param inheritanceDepth
+	 * @return
+	 */
+	public CorpusGenerator setInheritanceDepth(int inheritanceDepth){
+		this.inheritanceDepth = Math.max(1, inheritanceDepth);
+		return this;
+	}
+
+	public CorpusGenerator setInnerClassesPerClass(int innerClassesPerClass){
+		this.innerClassesPerClass = innerClassesPerClass;
+		return this;
+	}
+
+	public CorpusGenerator setPhases(int phases){
+		this.phases = Math.max(1, phases);
+		return this;
+	}
+
+	/**
+	 * Sets the number of modification sources generated for each kind of modification
+	 * @param modificationsPerKind
+	 * @return
+	 */
+	public CorpusGenerator setModificationsPerKind(int modificationsPerKind){
+		this.modificationsPerKind = modificationsPerKind;
+		return this;
+	}
+
+	/**
+	 * Returns the qualified internal name of a target class (example: corpus/p1/C5)
+	 * @param index
+	 * @return
+	 */
+	public String getClassName(int index){
+		return CORPUS_PACKAGE + "/p" + (index % packages) + "/C" + index;
+	}
+
+	public String getInnerClassName(int index, int innerIndex){
+		return getClassName(index) + "$I" + innerIndex;
+	}
+
+	/**
+	 * Returns the index of the superclass of a target class or -1 if the class extends Object
+	 * @param index
+	 * @return
+	 */
+	public int getSuperClassIndex(int index){
+		return (index % inheritanceDepth == 0) ? -1 : index - 1;
+	}
+
+	/**
+	 * Returns true if no target class extends the given class
+	 * @param index
+	 * @return
+	 */
+	public boolean isLeafClass(int index){
+		return index == classes - 1 || getSuperClassIndex(index + 1) != index;
+	}
+
+	/**
+	 * Returns the internal names of every class in the target archive
+	 * @return
+	 */
+	public List<String> getClassNames(){
+		List<String> classNames = new ArrayList<String>();
+		for(int i=0; i<classes; i++){
+			classNames.add(getClassName(i));
+			for(int j=0; j<innerClassesPerClass; j++){
+				classNames.add(getInnerClassName(i, j));
+			}
+		}
+		return classNames;
+	}
+
+	/**
+	 * Writes the target archive
+	 * @param outputJar
+	 * @throws IOException
+	 */
+	public void writeTargetJar(File outputJar) throws IOException {
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(outputJar));
+		try {
+			// the manifest is written by hand so that its entry time is fixed as well
+			Manifest manifest = TestUtilities.generateEmptyManifest();
+			putEntry(jar, "META-INF/MANIFEST.MF");
+			manifest.write(jar);
+			jar.closeEntry();
+			for(int i=0; i<classes; i++){
+				putEntry(jar, getClassName(i) + ".class");
+				jar.write(generateClass(i));
+				jar.closeEntry();
+				for(int j=0; j<innerClassesPerClass; j++){
+					putEntry(jar, getInnerClassName(i, j) + ".class");
+					jar.write(generateInnerClass(i, j));
+					jar.closeEntry();
+				}
+			}
+		} finally {
+			jar.close();
+		}
+	}
+
+	private static void putEntry(JarOutputStream jar, String name) throws IOException {
+		JarEntry entry = new JarEntry(name);
+		entry.setTime(ENTRY_TIME);
+		jar.putNextEntry(entry);
+	}
+
+	/**
+	 * Generates the bytecode of a target class
+	 * @param index
+	 * @return
+	 */
+	public byte[] generateClass(int index){
+		Random random = new Random(seed * 1000003L + index);
+		String className = getClassName(index);
+		int superClassIndex = getSuperClassIndex(index);
+		String superName = superClassIndex == -1 ? "java/lang/Object" : getClassName(superClassIndex);
+
+		ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+		classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null, superName, null);
+		for(int j=0; j<innerClassesPerClass; j++){
+			classWriter.visitInnerClass(getInnerClassName(index, j), className, "I" + j, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+		}
+		for(int j=0; j<fieldsPerClass; j++){
+			int access = random.nextBoolean() ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PROTECTED;
+			String desc = FIELD_DESCRIPTORS[random.nextInt(FIELD_DESCRIPTORS.length)];
+			classWriter.visitField(access, "f" + j, desc, null, null).visitEnd();
+		}
+		visitConstructor(classWriter, superName);
+		for(int j=0; j<methodsPerClass; j++){
+			int access = isPublicMethod(index, j) ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PROTECTED;
+			visitArithmeticMethod(classWriter, access, "m" + j, random);
+		}
+		classWriter.visitEnd();
+		return classWriter.toByteArray();
+	}
+
+	/**
+	 * Returns true if the method of a target class is public, otherwise it is
+	 * protected. Methods are never private so that subclasses and merges can
+	 * override them, and the access is shared by every class of an inheritance
+	 * chain so that no override reduces the visibility of the method.
+	 * @param index
+	 * @param method
+	 * @return
+	 */
+	public boolean isPublicMethod(int index, int method){
+		int chainRootIndex = index - (index % inheritanceDepth);
+		return new Random((seed * 1000003L + chainRootIndex) * 131L + method).nextBoolean();
+	}
+
+	/**
+	 * Generates the bytecode of a static inner class of a target class
+	 * @param index
+	 * @param innerIndex
+	 * @return
+	 */
+	public byte[] generateInnerClass(int index, int innerIndex){
+		Random random = new Random((seed * 1000003L + index) * 31L + innerIndex + 1);
+		String outerClassName = getClassName(index);
+		String className = getInnerClassName(index, innerIndex);
+
+		ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+		classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null, "java/lang/Object", null);
+		classWriter.visitInnerClass(className, outerClassName, "I" + innerIndex, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+		visitConstructor(classWriter, "java/lang/Object");
+		visitArithmeticMethod(classWriter, Opcodes.ACC_PUBLIC, "n" + innerIndex, random);
+		classWriter.visitEnd();
+		return classWriter.toByteArray();
+	}
+
+	private static void visitConstructor(ClassWriter classWriter, String superName){
+		MethodVisitor methodVisitor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		methodVisitor.visitCode();
+		methodVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+		methodVisitor.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+		methodVisitor.visitInsn(Opcodes.RETURN);
+		methodVisitor.visitMaxs(0, 0);
+		methodVisitor.visitEnd();
+	}
+
+	/**
+	 * Visits an int method(int x) that applies a random sequence of arithmetic
+	 * operations to x and returns the absolute value of the result
+	 */
+	private void visitArithmeticMethod(ClassWriter classWriter, int access, String name, Random random){
+		MethodVisitor methodVisitor = classWriter.visitMethod(access, name, "(I)I", null, null);
+		methodVisitor.visitCode();
+		methodVisitor.visitVarInsn(Opcodes.ILOAD, 1);
+		methodVisitor.visitVarInsn(Opcodes.ISTORE, 2);
+		for(int k=0; k<methodSize; k++){
+			methodVisitor.visitVarInsn(Opcodes.ILOAD, 2);
+			methodVisitor.visitLdcInsn(random.nextInt(1 << 20));
+			methodVisitor.visitInsn(ARITHMETIC_OPCODES[random.nextInt(ARITHMETIC_OPCODES.length)]);
+			methodVisitor.visitVarInsn(Opcodes.ISTORE, 2);
+		}
+		Label positive = new Label();
+		methodVisitor.visitVarInsn(Opcodes.ILOAD, 2);
+		methodVisitor.visitJumpInsn(Opcodes.IFGE, positive);
+		methodVisitor.visitVarInsn(Opcodes.ILOAD, 2);
+		methodVisitor.visitInsn(Opcodes.INEG);
+		methodVisitor.visitVarInsn(Opcodes.ISTORE, 2);
+		methodVisitor.visitLabel(positive);
+		methodVisitor.visitVarInsn(Opcodes.ILOAD, 2);
+		methodVisitor.visitInsn(Opcodes.IRETURN);
+		methodVisitor.visitMaxs(0, 0);
+		methodVisitor.visitEnd();
+	}
+
+	/**
+	 * Writes the annotated modification sources into the given source directory.
+	 * Fewer sources are written if there are not enough distinct target classes.
+	 * @param sourceDirectory the root of the source tree
+	 * @return the written source files
+	 * @throws IOException
+	 */
+	public List<File> writeModificationSources(File sourceDirectory) throws IOException {
+		Random random = new Random(seed ^ 0x5DEECE66DL);
+
+		// each modification targets a different class, shuffled deterministically
+		LinkedList<Integer> targets = new LinkedList<Integer>();
+		LinkedList<Integer> leafTargets = new LinkedList<Integer>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		for(int i=0; i<classes; i++){
+			indexes.add(i);
+		}
+		Collections.shuffle(indexes, random);
+		for(int index : indexes){
+			if(isLeafClass(index)){
+				leafTargets.add(index);
+			} else {
+				targets.add(index);
+			}
+		}
+
+		List<File> sourceFiles = new LinkedList<File>();
+		for(int k=0; k<modificationsPerKind; k++){
+			// cycle through the phases so that every phase is used
+			int phase = 1 + (k % phases);
+			String suffix = Integer.toString(k);
+
+			Integer target = next(targets, leafTargets);
+			if(target != null){
+				sourceFiles.add(writeMergeSource(sourceDirectory, "MergeC" + target, target, random.nextInt(Math.max(1, methodsPerClass)), phase));
+			}
+
+			sourceFiles.add(writeDefineSource(sourceDirectory, random.nextInt(packages), "Defined" + suffix, phase));
+
+			target = next(leafTargets, null);
+			if(target != null && methodsPerClass > 0){
+				String annotation = "@PurgeMethod(phase=" + phase + ", type=\"" + getQualifiedName(target) + "\", method=\"m" + random.nextInt(methodsPerClass) + "\")";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "PurgeMethod" + suffix, "jreframeworker.annotations.methods.PurgeMethod", annotation));
+			}
+			target = next(leafTargets, null);
+			if(target != null && fieldsPerClass > 0){
+				String annotation = "@PurgeField(type=\"" + getQualifiedName(target) + "\", field=\"f" + random.nextInt(fieldsPerClass) + "\")";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "PurgeField" + suffix, "jreframeworker.annotations.fields.PurgeField", annotation));
+			}
+			target = next(leafTargets, null);
+			if(target != null){
+				String annotation = "@PurgeType(phase=" + phase + ", type=\"" + getQualifiedName(target) + "\")";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "PurgeType" + suffix, "jreframeworker.annotations.types.PurgeType", annotation));
+			}
+
+			target = next(targets, leafTargets);
+			if(target != null && methodsPerClass > 0){
+				String annotation = "@DefineMethodVisibility(phase=" + phase + ", type=\"" + getQualifiedName(target) + "\", method=\"m" + random.nextInt(methodsPerClass) + "\", visibility=\"public\")";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "MethodVisibility" + suffix, "jreframeworker.annotations.methods.DefineMethodVisibility", annotation));
+			}
+			target = next(targets, leafTargets);
+			if(target != null && fieldsPerClass > 0){
+				String annotation = "@DefineFieldVisibility(phase=" + phase + ", type=\"" + getQualifiedName(target) + "\", field=\"f" + random.nextInt(fieldsPerClass) + "\", visibility=\"public\")";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "FieldVisibility" + suffix, "jreframeworker.annotations.fields.DefineFieldVisibility", annotation));
+			}
+
+			target = next(leafTargets, null);
+			if(target != null){
+				String annotation = "@DefineTypeFinality(phase=" + phase + ", type=\"" + getQualifiedName(target) + "\", finality=true)";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "TypeFinality" + suffix, "jreframeworker.annotations.types.DefineTypeFinality", annotation));
+			}
+			target = next(leafTargets, null);
+			if(target != null && methodsPerClass > 0){
+				String annotation = "@DefineMethodFinality(phase=" + phase + ", type=\"" + getQualifiedName(target) + "\", method=\"m" + random.nextInt(methodsPerClass) + "\", finality=true)";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "MethodFinality" + suffix, "jreframeworker.annotations.methods.DefineMethodFinality", annotation));
+			}
+			target = next(targets, leafTargets);
+			if(target != null && fieldsPerClass > 0){
+				String annotation = "@DefineFieldFinality(phase=" + phase + ", type=\"" + getQualifiedName(target) + "\", field=\"f" + random.nextInt(fieldsPerClass) + "\", finality=true)";
+				sourceFiles.add(writeAnnotatedSource(sourceDirectory, "FieldFinality" + suffix, "jreframeworker.annotations.fields.DefineFieldFinality", annotation));
+			}
+		}
+		return sourceFiles;
+	}
+
+	/**
+	 * Removes the next target from the preferred targets, or from the fallback
+	 * targets if there are no preferred targets left
+	 */
+	private static Integer next(LinkedList<Integer> targets, LinkedList<Integer> fallbackTargets){
+		if(!targets.isEmpty()){
+			return targets.removeFirst();
+		}
+		if(fallbackTargets != null && !fallbackTargets.isEmpty()){
+			return fallbackTargets.removeFirst();
+		}
+		return null;
+	}
+
+	private String getQualifiedName(int index){
+		return getClassName(index).replace("/", ".");
+	}
+
+	private File writeMergeSource(File sourceDirectory, String simpleName, int target, int method, int phase) throws IOException {
+		// merged methods keep the access of the method they replace
+		boolean isPublic = isPublicMethod(target, method);
+		StringBuilder source = new StringBuilder();
+		source.append("package " + MODIFICATIONS_PACKAGE + ";\n\n");
+		source.append("import jreframeworker.annotations.methods.MergeMethod;\n");
+		source.append("import jreframeworker.annotations.types.MergeType;\n\n");
+		source.append("@MergeType(phase=" + phase + ")\n");
+		source.append("public class " + simpleName + " extends " + getQualifiedName(target) + " {\n\n");
+		source.append("\t@MergeMethod\n");
+		source.append("\t@Override\n");
+		source.append("\t" + (isPublic ? "public" : "protected") + " int m" + method + "(int x){\n");
+		source.append("\t\treturn super.m" + method + "(x) + 1;\n");
+		source.append("\t}\n\n");
+		source.append("}\n");
+		return writeSource(sourceDirectory, MODIFICATIONS_PACKAGE, simpleName, source.toString());
+	}
+
+	private File writeDefineSource(File sourceDirectory, int pkg, String simpleName, int phase) throws IOException {
+		String packageName = CORPUS_PACKAGE + ".p" + pkg;
+		StringBuilder source = new StringBuilder();
+		source.append("package " + packageName + ";\n\n");
+		source.append("import jreframeworker.annotations.types.DefineType;\n\n");
+		source.append("@DefineType(phase=" + phase + ")\n");
+		source.append("public class " + simpleName + " {\n\n");
+		source.append("\tpublic int m(int x){\n");
+		source.append("\t\treturn x + 1;\n");
+		source.append("\t}\n\n");
+		source.append("}\n");
+		return writeSource(sourceDirectory, packageName, simpleName, source.toString());
+	}
+
+	private File writeAnnotatedSource(File sourceDirectory, String simpleName, String annotationClass, String annotation) throws IOException {
+		StringBuilder source = new StringBuilder();
+		source.append("package " + MODIFICATIONS_PACKAGE + ";\n\n");
+		source.append("import " + annotationClass + ";\n\n");
+		source.append(annotation + "\n");
+		source.append("public class " + simpleName + " {}\n");
+		return writeSource(sourceDirectory, MODIFICATIONS_PACKAGE, simpleName, source.toString());
+	}
+
+	private static File writeSource(File sourceDirectory, String packageName, String simpleName, String source) throws IOException {
+		File packageDirectory = new File(sourceDirectory, packageName.replace(".", File.separator));
+		packageDirectory.mkdirs();
+		File sourceFile = new File(packageDirectory, simpleName + ".java");
+		Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		return sourceFile;
+	}
+
+}
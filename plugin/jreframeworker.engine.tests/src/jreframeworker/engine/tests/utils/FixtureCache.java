@@ -0,0 +1,87 @@
+package jreframeworker.engine.tests.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Caches compiled test fixtures for the lifetime of the test run so that test
+ * methods sharing inputs only compile them once. A fixture is recompiled if
+ * one of its source files changed since it was cached.
+ */
+public class FixtureCache {
+
+	private static Map<String,Map<String,byte[]>> compiledFixtures = new HashMap<String,Map<String,byte[]>>();
+
+	/**
+	 * Returns the compiled classes of the Java sources in the given directory
+	 * keyed by internal name, the returned map must not be modified
+	 * @param sourceDirectory
+	 * @return
+	 * @throws IOException
+	 */
+	public static Map<String,byte[]> getCompiledClasses(File sourceDirectory) throws IOException {
+		return getCompiledClasses(TestUtilities.gatherTestSources(sourceDirectory));
+	}
+
+	/**
+	 * Returns the compiled classes of the given sources keyed by internal name,
+	 * the returned map must not be modified
+	 * @param sourceFiles
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized Map<String,byte[]> getCompiledClasses(List<File> sourceFiles) throws IOException {
+		String key = getKey(sourceFiles);
+		Map<String,byte[]> classes = compiledFixtures.get(key);
+		if(classes == null){
+			classes = Collections.unmodifiableMap(new InMemoryCompiler().compile(sourceFiles));
+			compiledFixtures.put(key, classes);
+		}
+		return classes;
+	}
+
+	/**
+	 * Returns the compiled classes of the given in memory sources compiled
+	 * against the given in memory classes, the returned map must not be modified
+	 * @param sources qualified class names to source code
+	 * @param classpathClasses internal class names to class bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public static synchronized Map<String,byte[]> getCompiledClasses(Map<String,String> sources, Map<String,byte[]> classpathClasses) throws IOException {
+		StringBuilder key = new StringBuilder(new TreeMap<String,String>(sources).toString());
+		for(Map.Entry<String,byte[]> classpathClass : new TreeMap<String,byte[]>(classpathClasses).entrySet()){
+			key.append(classpathClass.getKey()).append("@").append(Arrays.hashCode(classpathClass.getValue()));
+		}
+		Map<String,byte[]> classes = compiledFixtures.get(key.toString());
+		if(classes == null){
+			classes = Collections.unmodifiableMap(new InMemoryCompiler().addClasspathClasses(classpathClasses).compileSources(sources));
+			compiledFixtures.put(key.toString(), classes);
+		}
+		return classes;
+	}
+
+	/**
+	 * Releases the cached fixtures
+	 */
+	public static synchronized void clear(){
+		compiledFixtures.clear();
+	}
+
+	private static String getKey(List<File> sourceFiles){
+		List<String> sources = new ArrayList<String>();
+		for(File sourceFile : sourceFiles){
+			sources.add(sourceFile.getAbsolutePath() + "@" + sourceFile.lastModified());
+		}
+		Collections.sort(sources);
+		return sources.toString();
+	}
+
+}
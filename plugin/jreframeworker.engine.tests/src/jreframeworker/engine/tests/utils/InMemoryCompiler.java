@@ -0,0 +1,288 @@
+package jreframeworker.engine.tests.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles test sources without touching the disk. Class files are written
+ * to byte arrays and classes held in memory (for example the classes of an
+ * in memory target archive) can be compiled against in addition to the test
+ * classpath.
+ *
+ * Compiled classes are keyed by their internal names (example: a/b/C$D).
+ * Resources generated by annotation processors are kept in memory as well and
+ * are keyed by their path relative to the class output (example: a/b/C.jref).
+ */
+public class InMemoryCompiler {
+
+	private Map<String,byte[]> classpathClasses = new TreeMap<String,byte[]>();
+	private List<Processor> processors = null;
+	private Map<String,byte[]> resources = new TreeMap<String,byte[]>();
+
+	/**
+	 * Adds classes held in memory to the compilation classpath
+	 * @param classes internal class names to class bytes
+	 * @return
+	 */
+	public InMemoryCompiler addClasspathClasses(Map<String,byte[]> classes){
+		classpathClasses.putAll(classes);
+		return this;
+	}
+
+	/**
+	 * Runs the given annotation processors instead of the processors
+	 * discovered on the classpath
+	 * @param processors
+	 * @return
+	 */
+	public InMemoryCompiler setProcessors(Processor... processors){
+		this.processors = Arrays.asList(processors);
+		return this;
+	}
+
+	/**
+	 * Returns the resources generated by annotation processors during the last
+	 * compilation keyed by their path relative to the class output
+	 * @return
+	 */
+	public Map<String,byte[]> getResources(){
+		return resources;
+	}
+
+	/**
+	 * Compiles the source files
+	 * @param sourceFiles
+	 * @return the compiled classes keyed by internal name
+	 * @throws IOException
+	 */
+	public Map<String,byte[]> compile(List<File> sourceFiles) throws IOException {
+		JavaCompiler javaCompiler = getCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fileManager = javaCompiler.getStandardFileManager(diagnostics, Locale.ENGLISH, Charset.forName("UTF-8"));
+		List<JavaFileObject> compilationUnits = new LinkedList<JavaFileObject>();
+		for(JavaFileObject compilationUnit : fileManager.getJavaFileObjectsFromFiles(sourceFiles)){
+			compilationUnits.add(compilationUnit);
+		}
+		return compile(javaCompiler, fileManager, diagnostics, compilationUnits);
+	}
+
+	/**
+	 * Compiles sources held in memory
+	 * @param sources qualified class names (example: a.b.C) to source code
+	 * @return the compiled classes keyed by internal name
+	 * @throws IOException
+	 */
+	public Map<String,byte[]> compileSources(Map<String,String> sources) throws IOException {
+		JavaCompiler javaCompiler = getCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fileManager = javaCompiler.getStandardFileManager(diagnostics, Locale.ENGLISH, Charset.forName("UTF-8"));
+		List<JavaFileObject> compilationUnits = new LinkedList<JavaFileObject>();
+		for(Map.Entry<String,String> source : sources.entrySet()){
+			compilationUnits.add(new SourceFileObject(source.getKey(), source.getValue()));
+		}
+		return compile(javaCompiler, fileManager, diagnostics, compilationUnits);
+	}
+
+	private Map<String,byte[]> compile(JavaCompiler javaCompiler, StandardJavaFileManager standardFileManager, DiagnosticCollector<JavaFileObject> diagnostics, List<JavaFileObject> compilationUnits) throws IOException {
+		List<String> options = new ArrayList<String>();
+		options.add("-source");
+		options.add("1.8");
+		options.add("-target");
+		options.add("1.8");
+		options.add("-nowarn");
+
+		InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager, classpathClasses);
+		try {
+			JavaCompiler.CompilationTask task = javaCompiler.getTask(null, fileManager, diagnostics, options, null, compilationUnits);
+			if(processors != null){
+				task.setProcessors(processors);
+			}
+			task.call();
+		} finally {
+			fileManager.close();
+		}
+		resources = fileManager.getResources();
+
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if(diagnostic.getKind() == Diagnostic.Kind.ERROR){
+				throw new RuntimeException(String.format("Error on line %d in %s: %s", diagnostic.getLineNumber(), diagnostic.getSource(), diagnostic.getMessage(Locale.ENGLISH)));
+			}
+		}
+		return fileManager.getCompiledClasses();
+	}
+
+	private static JavaCompiler getCompiler(){
+		JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+		if(javaCompiler == null){
+			throw new RuntimeException("Could not find Java compiler.");
+		}
+		return javaCompiler;
+	}
+
+	/**
+	 * Writes compiled classes to byte arrays and lists the in memory classpath
+	 * classes alongside the classes of the test classpath
+	 */
+	private static class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+		private Map<String,byte[]> classpathClasses;
+		private Map<String,ByteArrayOutputStream> compiledClasses = new TreeMap<String,ByteArrayOutputStream>();
+		private Map<String,ByteArrayOutputStream> resources = new TreeMap<String,ByteArrayOutputStream>();
+
+		public InMemoryFileManager(StandardJavaFileManager fileManager, Map<String,byte[]> classpathClasses) {
+			super(fileManager);
+			this.classpathClasses = classpathClasses;
+		}
+
+		public Map<String,byte[]> getCompiledClasses(){
+			Map<String,byte[]> classes = new TreeMap<String,byte[]>();
+			for(Map.Entry<String,ByteArrayOutputStream> compiledClass : compiledClasses.entrySet()){
+				classes.put(compiledClass.getKey(), compiledClass.getValue().toByteArray());
+			}
+			return classes;
+		}
+
+		public Map<String,byte[]> getResources(){
+			Map<String,byte[]> result = new TreeMap<String,byte[]>();
+			for(Map.Entry<String,ByteArrayOutputStream> resource : resources.entrySet()){
+				result.put(resource.getKey(), resource.getValue().toByteArray());
+			}
+			return result;
+		}
+
+		@Override
+		public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling) throws IOException {
+			if(location != StandardLocation.CLASS_OUTPUT){
+				return super.getFileForOutput(location, packageName, relativeName, sibling);
+			}
+			final String path = packageName.isEmpty() ? relativeName : packageName.replace('.', '/') + "/" + relativeName;
+			return new SimpleJavaFileObject(URI.create("memory:///" + path), Kind.OTHER) {
+				@Override
+				public OutputStream openOutputStream() {
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					resources.put(path, output);
+					return output;
+				}
+			};
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling) throws IOException {
+			if(kind != Kind.CLASS){
+				return super.getJavaFileForOutput(location, className, kind, sibling);
+			}
+			final String internalName = className.replace('.', '/');
+			return new SimpleJavaFileObject(URI.create("memory:///" + internalName + Kind.CLASS.extension), Kind.CLASS) {
+				@Override
+				public OutputStream openOutputStream() {
+					ByteArrayOutputStream output = new ByteArrayOutputStream();
+					compiledClasses.put(internalName, output);
+					return output;
+				}
+			};
+		}
+
+		@Override
+		public Iterable<JavaFileObject> list(Location location, String packageName, Set<Kind> kinds, boolean recurse) throws IOException {
+			Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+			if(location != StandardLocation.CLASS_PATH || !kinds.contains(Kind.CLASS) || classpathClasses.isEmpty()){
+				return files;
+			}
+			List<JavaFileObject> result = new LinkedList<JavaFileObject>();
+			for(JavaFileObject file : files){
+				result.add(file);
+			}
+			String packagePrefix = packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/";
+			for(Map.Entry<String,byte[]> classpathClass : classpathClasses.entrySet()){
+				String internalName = classpathClass.getKey();
+				if(!internalName.startsWith(packagePrefix)){
+					continue;
+				}
+				if(recurse || internalName.indexOf('/', packagePrefix.length()) == -1){
+					result.add(new ClassFileObject(internalName, classpathClass.getValue()));
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public String inferBinaryName(Location location, JavaFileObject file) {
+			if(file instanceof ClassFileObject){
+				return ((ClassFileObject) file).getBinaryName();
+			}
+			return super.inferBinaryName(location, file);
+		}
+
+		@Override
+		public boolean isSameFile(FileObject a, FileObject b) {
+			if(a instanceof ClassFileObject || b instanceof ClassFileObject){
+				return a.equals(b);
+			}
+			return super.isSameFile(a, b);
+		}
+	}
+
+	private static class SourceFileObject extends SimpleJavaFileObject {
+
+		private String source;
+
+		public SourceFileObject(String qualifiedClassName, String source) {
+			super(URI.create("memory:///" + qualifiedClassName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	private static class ClassFileObject extends SimpleJavaFileObject {
+
+		private String internalName;
+		private byte[] bytes;
+
+		public ClassFileObject(String internalName, byte[] bytes) {
+			super(URI.create("memory:///" + internalName + Kind.CLASS.extension), Kind.CLASS);
+			this.internalName = internalName;
+			this.bytes = bytes;
+		}
+
+		public String getBinaryName(){
+			return internalName.replace('/', '.');
+		}
+
+		@Override
+		public InputStream openInputStream() {
+			return new ByteArrayInputStream(bytes);
+		}
+	}
+
+}
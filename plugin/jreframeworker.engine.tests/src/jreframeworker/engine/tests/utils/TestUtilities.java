@@ -158,6 +158,66 @@ public class TestUtilities {
 		return classFiles;
 	}
 	
+	/**
+	 * Compiles the sources against the given classpath entries (in addition to
+	 * the test classpath) and returns the class files written to the output
+	 * directory, including the class files of nested classes
+	 * @param sourceFiles
+	 * @param outputDirectory
+	 * @param classpath
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<File> compileSources(List<File> sourceFiles, File outputDirectory, List<File> classpath) throws IOException {
+		JavaCompiler javaCompiler = ToolProvider.getSystemJavaCompiler();
+		
+		if(javaCompiler == null){
+			throw new RuntimeException("Could not find Java compiler.");
+		}
+		
+		StringBuilder classpathOption = new StringBuilder(System.getProperty("java.class.path"));
+		for(File classpathEntry : classpath){
+			classpathOption.append(File.pathSeparator).append(classpathEntry.getAbsolutePath());
+		}
+		outputDirectory.mkdirs();
+		List<String> options = new ArrayList<String>();
+		options.add("-source");
+		options.add("1.8");
+		options.add("-target");
+		options.add("1.8");
+		options.add("-nowarn");
+		options.add("-classpath");
+		options.add(classpathOption.toString());
+		options.add("-d");
+		options.add(outputDirectory.getAbsolutePath());
+		
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fileManager = javaCompiler.getStandardFileManager(diagnostics, Locale.ENGLISH, Charset.forName("UTF-8"));
+		Iterable<? extends JavaFileObject> compilationUnits = fileManager.getJavaFileObjectsFromFiles(sourceFiles);
+		javaCompiler.getTask(null, fileManager, diagnostics, options, null, compilationUnits).call();
+		fileManager.close();
+		
+		for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if(diagnostic.getKind() == Diagnostic.Kind.ERROR){
+				throw new RuntimeException(String.format("Error on line %d in %s: %s", diagnostic.getLineNumber(), diagnostic.getSource(), diagnostic.getMessage(Locale.ENGLISH)));
+			}
+		}
+		
+		List<File> classFiles = new LinkedList<File>();
+		gatherClassFiles(outputDirectory, classFiles);
+		return classFiles;
+	}
+	
+	private static void gatherClassFiles(File file, List<File> classFiles){
+		if(file.isDirectory()){
+			for(File child : file.listFiles()){
+				gatherClassFiles(child, classFiles);
+			}
+		} else if(file.getName().endsWith(".class")){
+			classFiles.add(file);
+		}
+	}
+	
 	public static File getClassFile(String className, List<File> classFiles){
 		for(File classFile : classFiles){
 			if(classFile.getName().endsWith(className + ".class")){
@@ -1,9 +1,11 @@
 package jreframeworker.engine;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.OutputStream;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
@@ -36,14 +38,22 @@ import jreframeworker.engine.identifiers.JREFAnnotationIdentifier;
 import jreframeworker.engine.identifiers.MergeIdentifier;
 import jreframeworker.engine.identifiers.MergeIdentifier.MergeMethodAnnotation;
 import jreframeworker.engine.identifiers.MergeIdentifier.MergeTypeAnnotation;
+import jreframeworker.engine.identifiers.ModificationIndex;
 import jreframeworker.engine.identifiers.PurgeIdentifier;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeFieldAnnotation;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeMethodAnnotation;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeTypeAnnotation;
 import jreframeworker.engine.log.Log;
+import jreframeworker.engine.log.MemberLog;
 import jreframeworker.engine.utils.AnnotationUtils;
+import jreframeworker.engine.utils.BytecodeStore;
 import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.utils.ClassNameTrie;
 import jreframeworker.engine.utils.JarModifier;
+import jreframeworker.engine.utils.Metrics;
+import jreframeworker.engine.utils.Trace;
+import jreframeworker.engine.utils.TransformationCache;
+import jreframeworker.engine.utils.TransformationCache.Transformation;
 
 public class Engine {
 
@@ -79,25 +89,28 @@ public class Engine {
 	private JarModifier jarModifier;
 	private ClassLoader[] classLoaders = new ClassLoader[]{ getClass().getClassLoader() };
 	
-	private static class Bytecode {
-		private byte[] bytecode;
-		
-		public Bytecode(byte[] bytecode){
-			this.bytecode = bytecode;
-		}
-		
-		public byte[] getBytecode(){
-			return bytecode;
-		}
-	}
-	
-	private HashMap<String,Bytecode> bytecodeCache = new HashMap<String,Bytecode>();
+	// extracted entries are kept clean so they can be evicted and extracted again
+	private BytecodeStore bytecodeCache = new BytecodeStore();
 	private Set<String> purgedEntries = new HashSet<String>();
+	
+	private ClassNameTrie classNameTrie = null;
+	private TransformationCache transformationCache = null;
+	private Transformation currentTransformation = null;
+	
+	// per member messages of the input class being processed
+	private MemberLog memberLog = new MemberLog();
+	
+	// entries read, updated or purged by the input class being processed
+	private Set<String> touchedEntries = new HashSet<String>();
 
 	public String getJarName(){
 		return jarName;
 	}
 	
+	/**
+	 * Returns the original archive file or null if the archive is held in memory
+	 * @return
+	 */
 	public File getOriginalJar(){
 		return jarModifier.getJarFile();
 	}
@@ -107,7 +120,16 @@ public class Engine {
 	}
 	
 	public Set<String> getModificationEntries(){
-		return new HashSet<String>(bytecodeCache.keySet());
+		return new HashSet<String>(bytecodeCache.getModifiedEntries());
+	}
+	
+	/**
+	 * Returns the class entries read, updated or purged while processing the
+	 * most recent input class, the footprint of the input in this archive
+	 * @return
+	 */
+	public Set<String> getTouchedEntries(){
+		return new HashSet<String>(touchedEntries);
 	}
 	
 	public Engine(File jar, String mergeRenamePrefix) throws JarException, IOException {
@@ -117,6 +139,20 @@ public class Engine {
 		this.originalEntries = new HashSet<String>(jarModifier.getJarEntrySet());
 	}
 	
+	/**
+	 * Creates an engine for an archive held in memory
+	 * @param jarName the name of the archive used when reporting modifications
+	 * @param jar the bytes of the archive
+	 * @param mergeRenamePrefix
+	 * @throws IOException
+	 */
+	public Engine(String jarName, byte[] jar, String mergeRenamePrefix) throws IOException {
+		this.mergeRenamePrefix = mergeRenamePrefix;
+		this.jarModifier = new JarModifier(jar);
+		this.jarName = jarName;
+		this.originalEntries = new HashSet<String>(jarModifier.getJarEntrySet());
+	}
+	
 	public Engine(File jar, String mergeRenamePrefix, ClassLoader[] classLoaders) throws JarException, IOException {
 		this(jar, mergeRenamePrefix);
 		this.classLoaders = classLoaders;
@@ -126,17 +162,137 @@ public class Engine {
 		this.classLoaders = classLoaders;
 	}
 	
+	/**
+	 * Sets the maximum number of pending class bytes to keep on the heap, least
+	 * recently used classes beyond the ceiling are evicted or spilled to disk
+	 * @param memoryCeiling the ceiling in bytes
+	 * @throws IOException
+	 */
+	public void setMemoryCeiling(long memoryCeiling) throws IOException {
+		bytecodeCache.setMemoryCeiling(memoryCeiling);
+		jarModifier.setMemoryCeiling(memoryCeiling);
+	}
+	
+	/**
+	 * Sets the number of member modifications an input class may log
+	 * individually, above which only a summary per modified class is logged
+	 * @param summaryThreshold
+	 */
+	public void setLogSummaryThreshold(int summaryThreshold){
+		memberLog.flush();
+		memberLog = new MemberLog(summaryThreshold);
+	}
+	
+	/**
+	 * Releases the pending class bytes and any scratch files of the engine
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		memberLog.flush();
+		Log.flush();
+		bytecodeCache.clear();
+		jarModifier.close();
+	}
+	
+	/**
+	 * Sets a cache of transformations shared with the engines of other archives
+	 * in the same build phase. When set, processing an input class whose
+	 * transformation was already computed against identical target classes
+	 * reuses the previously transformed bytecode.
+	 * 
+	 * @param transformationCache The shared cache or null to disable sharing
+	 */
+	public void setTransformationCache(TransformationCache transformationCache){
+		this.transformationCache = transformationCache;
+	}
+	
+	/**
+	 * Returns the sorted set of classes in the original archive matching the
+	 * given qualified class name pattern, excluding classes that have already
+	 * been purged. See {@link ClassNameTrie} for the supported wildcards.
+	 * 
+	 * @param pattern
+	 * @return
+	 */
+	public Set<String> getMatchingClasses(String pattern){
+		if(classNameTrie == null){
+			classNameTrie = ClassNameTrie.fromArchiveEntries(originalEntries);
+		}
+		Set<String> matches = classNameTrie.match(pattern);
+		matches.removeAll(purgedEntries);
+		return matches;
+	}
+	
+	/**
+	 * Expands a type annotation target into the set of classes it targets. A
+	 * qualified class name without wildcards is returned as is.
+	 * @param className
+	 * @return
+	 */
+	private Set<String> getTypeTargets(String className){
+		if(!ClassNameTrie.isPattern(className)){
+			Set<String> targets = new HashSet<String>();
+			targets.add(className);
+			return targets;
+		}
+		Set<String> targets = getMatchingClasses(className);
+		if(currentTransformation != null){
+			// the expanded targets depend on the classes of the archive, not only on the entries read
+			currentTransformation.recordPattern(className, getMatchingClassesBeforeTransformation(className));
+		}
+		if(targets.isEmpty()){
+			Log.warning("Type pattern " + className + " did not match any classes in " + jarName);
+		} else {
+			Log.info("Type pattern " + className + " matched " + targets.size() + " classes in " + jarName);
+		}
+		return targets;
+	}
+	
+	/**
+	 * Returns the classes matching the pattern before the current transformation
+	 * purged any of them, which is what a reusing archive must match
+	 * @param pattern
+	 * @return
+	 */
+	private Set<String> getMatchingClassesBeforeTransformation(String pattern){
+		Set<String> matches = classNameTrie.match(pattern);
+		Iterator<String> iterator = matches.iterator();
+		while(iterator.hasNext()){
+			String match = iterator.next();
+			if(purgedEntries.contains(match) && !currentTransformation.getPurges().contains(match)){
+				iterator.remove();
+			}
+		}
+		return matches;
+	}
+	
+	/**
+	 * Returns the class of the given entry, method instructions are only read
+	 * if a method is expanded so header changes do not parse method bodies
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
 	private ClassNode getBytecode(String entry) throws IOException {
-		return BytecodeUtils.getClassNode(getRawBytecode(entry));
+		return BytecodeUtils.getLazyClassNode(getRawBytecode(entry));
 	}
 	
 	private byte[] getRawBytecode(String entry) throws IOException {
-		if(bytecodeCache.containsKey(entry)){
-			return bytecodeCache.get(entry).getBytecode();
+		byte[] bytecode = loadRawBytecode(entry);
+		touchedEntries.add(entry);
+		if(currentTransformation != null){
+			currentTransformation.recordInput(entry, bytecode);
+		}
+		return bytecode;
+	}
+	
+	private byte[] loadRawBytecode(String entry) throws IOException {
+		if(bytecodeCache.contains(entry)){
+			return bytecodeCache.get(entry);
 		} else {
 			String qualifiedClassFilename = entry + ".class";
 			byte[] bytecode = jarModifier.extractEntry(qualifiedClassFilename);
-			bytecodeCache.put(entry, new Bytecode(bytecode));
+			bytecodeCache.putClean(entry, bytecode);
 			return bytecode;
 		}
 	}
@@ -144,6 +300,10 @@ public class Engine {
 	private void purgeBytecode(String entry){
 		bytecodeCache.remove(entry);
 		purgedEntries.add(entry);
+		touchedEntries.add(entry);
+		if(currentTransformation != null){
+			currentTransformation.recordPurge(entry);
+		}
 	}
 	
 	private void updateBytecode(String entry, ClassNode classNode) throws IOException {
@@ -151,7 +311,11 @@ public class Engine {
 	}
 	
 	private void updateBytecode(String entry, byte[] bytecode) throws IOException {
-		bytecodeCache.put(entry, new Bytecode(bytecode));
+		bytecodeCache.putModified(entry, bytecode);
+		touchedEntries.add(entry);
+		if(currentTransformation != null){
+			currentTransformation.recordOutput(entry, bytecode);
+		}
 	}
 	
 //	public void addUnprocessed(byte[] inputClass) throws IOException {
@@ -173,7 +337,13 @@ public class Engine {
 	 * @throws IOException
 	 */
 	public boolean process(ClassNode inputClassNode, int phase) throws IOException {
-		byte[] inputClass = BytecodeUtils.writeClass(inputClassNode);
+		byte[] inputClass;
+		ClassLoaders.setClassLoaders(classLoaders);
+		try {
+			inputClass = BytecodeUtils.writeClass(inputClassNode);
+		} finally {
+			ClassLoaders.clearClassLoaders();
+		}
 		return process(inputClass, phase);
 	}
 	
@@ -185,29 +355,139 @@ public class Engine {
 	 * @throws IOException
 	 */
 	public boolean process(byte[] inputClass, int phase) throws IOException {
-		// set the ASM class loaders to be used to process this input
-		ClassLoaders.setClassLoaders(classLoaders);
+		touchedEntries.clear();
+		if(transformationCache == null){
+			return processInputClass(inputClass, phase);
+		}
+		
+		// reuse the result of an identical transformation made to another archive
+		String key = TransformationCache.getKey(inputClass, phase, mergeRenamePrefix);
+		for(Transformation transformation : transformationCache.getTransformations(key)){
+			if(isReusable(transformation)){
+				touchedEntries.addAll(transformation.getInputs().keySet());
+				for(Entry<String,byte[]> output : transformation.getOutputs().entrySet()){
+					updateBytecode(output.getKey(), output.getValue());
+				}
+				for(String purge : transformation.getPurges()){
+					purgeBytecode(purge);
+				}
+				Log.info("Reused transformation of " + transformation.getOutputs().size() + " classes in " + jarName);
+				return transformation.isProcessed();
+			}
+		}
 		
+		// record the transformation so it may be shared with other archives
+		currentTransformation = new Transformation();
+		currentTransformation.setClassLoaders(classLoaders);
+		try {
+			boolean processed = processInputClass(inputClass, phase);
+			currentTransformation.setProcessed(processed);
+			transformationCache.addTransformation(key, currentTransformation);
+			return processed;
+		} finally {
+			currentTransformation = null;
+		}
+	}
+	
+	/**
+	 * Process the annotations of the class for the given phase, the compile time
+	 * modification index of the class is used to skip classes without
+	 * modifications in the phase without parsing them
+	 * @param inputClass
+	 * @param phase
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean process(byte[] inputClass, int phase, ModificationIndex index) throws IOException {
+		if(index != null && !index.hasPhase(phase)){
+			touchedEntries.clear();
+			return false;
+		}
+		return process(inputClass, phase);
+	}
+
+	/**
+	 * Returns true if every entry read by the recorded transformation has
+	 * identical content in this archive, every pattern it expanded matches the
+	 * same classes and merged classes would be written against the same class
+	 * hierarchy
+	 * @param transformation
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean isReusable(Transformation transformation) throws IOException {
+		if(!transformation.hasClassLoaders(classLoaders)){
+			return false;
+		}
+		for(Entry<String,String> pattern : transformation.getPatterns().entrySet()){
+			if(!pattern.getValue().equals(TransformationCache.digest(getMatchingClasses(pattern.getKey())))){
+				return false;
+			}
+		}
+		for(Entry<String,String> input : transformation.getInputs().entrySet()){
+			byte[] bytecode = loadRawBytecode(input.getKey());
+			if(bytecode == null || input.getValue() == null){
+				if(bytecode != null || input.getValue() != null){
+					return false;
+				}
+			} else if(!input.getValue().equals(TransformationCache.digest(bytecode))){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private boolean processInputClass(byte[] inputClass, int phase) throws IOException {
+		// set the ASM class loaders to be used to process this input, the loaders
+		// are released afterwards so a pooled thread does not keep their archives open
+		ClassLoaders.setClassLoaders(classLoaders);
+		try {
+			return processAnnotations(inputClass, phase);
+		} finally {
+			ClassLoaders.clearClassLoaders();
+		}
+	}
+	
+	private boolean processAnnotations(byte[] inputClass, int phase) throws IOException {
 		boolean processed = false;
 		ClassNode classNode = BytecodeUtils.getClassNode(inputClass);
 		
 		if(phase == -1){
-			Log.info("Processing input class: " + classNode.name + "...");
+			Log.info(() -> "Processing input class: " + classNode.name + "...");
 		} else {
-			Log.info("Processing phase " + phase + " of input class: " + classNode.name + "...");
+			Log.info(() -> "Processing phase " + phase + " of input class: " + classNode.name + "...");
 		}
 		
 		// make requested method and field purges
-		PurgeIdentifier purgeIdentifier = new PurgeIdentifier(classNode);
-		processed |= purge(purgeIdentifier, phase);
+		long start = System.nanoTime();
+		Trace.Span span = beginOperationSpan(Metrics.PURGE, classNode.name, phase);
+		try {
+			PurgeIdentifier purgeIdentifier = new PurgeIdentifier(classNode);
+			processed |= purge(purgeIdentifier, phase);
+		} finally {
+			endOperation(Metrics.PURGE, start, span);
+		}
 		
 		// set finality
-		DefineFinalityIdentifier defineFinalityIdentifier = new DefineFinalityIdentifier(classNode);
-		processed |= setFinality(defineFinalityIdentifier, phase);
+		start = System.nanoTime();
+		span = beginOperationSpan(Metrics.FINALITY, classNode.name, phase);
+		try {
+			DefineFinalityIdentifier defineFinalityIdentifier = new DefineFinalityIdentifier(classNode);
+			processed |= setFinality(defineFinalityIdentifier, phase);
+		} finally {
+			endOperation(Metrics.FINALITY, start, span);
+		}
 		
 		// set visibility modifiers
-		DefineVisibilityIdentifier defineVisibilityIdentifier = new DefineVisibilityIdentifier(classNode);
-		processed |= setVisibility(defineVisibilityIdentifier, phase);
+		start = System.nanoTime();
+		span = beginOperationSpan(Metrics.VISIBILITY, classNode.name, phase);
+		try {
+			DefineVisibilityIdentifier defineVisibilityIdentifier = new DefineVisibilityIdentifier(classNode);
+			processed |= setVisibility(defineVisibilityIdentifier, phase);
+		} finally {
+			endOperation(Metrics.VISIBILITY, start, span);
+		}
 		
 		// TODO: address innerclasses, classNode.innerClasses, could these even be found from class files? they would be different files...
 		if(classNode.invisibleAnnotations != null){
@@ -219,13 +499,19 @@ public class Engine {
 				if(checker.isDefineTypeAnnotation()){
 					DefineIdentifier defineIdentifier = new DefineIdentifier(classNode);
 					if(phase == -1 || defineIdentifier.getDefineTypeAnnotation().getPhase() == phase){
-						String qualifiedClassFilename = qualifiedClassName + ".class";
-						if(jarModifier.getJarEntrySet().contains(qualifiedClassFilename)){
-							updateBytecode(classNode.name, inputClass);
-							Log.info("Replaced: " + qualifiedClassName + " in " + jarModifier.getJarFile().getName());
-						} else {
-							updateBytecode(classNode.name, inputClass);
-							Log.info("Inserted: " + qualifiedClassName + " into " + jarModifier.getJarFile().getName());
+						start = System.nanoTime();
+						span = beginOperationSpan(Metrics.DEFINE, classNode.name, phase);
+						try {
+							String qualifiedClassFilename = qualifiedClassName + ".class";
+							if(jarModifier.containsEntry(qualifiedClassFilename)){
+								updateBytecode(classNode.name, inputClass);
+								Log.info(() -> "Replaced: " + qualifiedClassName + " in " + jarName);
+							} else {
+								updateBytecode(classNode.name, inputClass);
+								Log.info(() -> "Inserted: " + qualifiedClassName + " into " + jarName);
+							}
+						} finally {
+							endOperation(Metrics.DEFINE, start, span);
 						}
 						processed = true;
 					}
@@ -233,20 +519,38 @@ public class Engine {
 					MergeIdentifier mergeIdentifier = new MergeIdentifier(classNode);
 					MergeTypeAnnotation mergeTypeAnnotation = mergeIdentifier.getMergeTypeAnnotation();
 					if(phase == -1 || mergeTypeAnnotation.getPhase() == phase){
-						String qualifiedParentClassName = mergeTypeAnnotation.getSupertype();
-						byte[] baseClass = getRawBytecode(qualifiedParentClassName);
-						byte[] mergedClass = mergeClasses(baseClass, inputClass);
-						updateBytecode(qualifiedParentClassName, mergedClass);
-						Log.info("Merged: " + qualifiedClassName + " into " + qualifiedParentClassName + " in " + jarModifier.getJarFile().getName());
+						start = System.nanoTime();
+						span = beginOperationSpan(Metrics.MERGE, classNode.name, phase);
+						try {
+							String qualifiedParentClassName = mergeTypeAnnotation.getSupertype();
+							byte[] baseClass = getRawBytecode(qualifiedParentClassName);
+							byte[] mergedClass = mergeClasses(baseClass, inputClass);
+							updateBytecode(qualifiedParentClassName, mergedClass);
+							Log.info(() -> "Merged: " + qualifiedClassName + " into " + qualifiedParentClassName + " in " + jarName);
+						} finally {
+							endOperation(Metrics.MERGE, start, span);
+						}
 						processed = true;
 					}
 				}
 			}
 		}
 		
+		memberLog.flush();
 		return processed;
 	}
 	
+	private Trace.Span beginOperationSpan(String operation, String inputClassName, int phase){
+		return Trace.begin(operation + " " + inputClassName, Trace.OPERATION)
+				.arg("target", jarName)
+				.arg("phase", phase);
+	}
+	
+	private static void endOperation(String operation, long start, Trace.Span span){
+		Metrics.timeSince(Metrics.OPERATION_TIMER_PREFIX + operation, start);
+		span.end();
+	}
+	
 	/**
 	 * Process all annotations regardless of phase
 	 * @param inputClass
@@ -262,37 +566,15 @@ public class Engine {
 		// purge types
 		for(PurgeTypeAnnotation purgeTypeAnnotation : purgeIdentifier.getPurgeTypeAnnotations()){
 			if(phase == -1 || purgeTypeAnnotation.getPhase() == phase){
-				String className = purgeTypeAnnotation.getClassName();
-				if(className.contains("$")){
-					// deal with outer class references to inner class files first
-					String baseClassName = className.substring(0, className.lastIndexOf("$"));
-					ClassNode baseClassNode = getBytecode(baseClassName);
-					List<InnerClassNode> innerClassNodesToRemove = new LinkedList<InnerClassNode>();
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-							innerClassNodesToRemove.add(innerClassNode);
-						}
-					}
-					for(InnerClassNode innerClassNodeToRemove : innerClassNodesToRemove){
-						baseClassNode.innerClasses.remove(innerClassNodeToRemove);
-						Log.info("Purged " + baseClassName + " reference to " + innerClassNodeToRemove.name + " inner class.");
-					}
-					updateBytecode(baseClassName, BytecodeUtils.writeClass(baseClassNode));
-
-					// deal with the inner class file directly
-					String innerClassName = className;
-					purgeBytecode(innerClassName);
-					Log.info("Purged " + innerClassName + " inner class.");
-					processed = true;
-				} else {
-					// simple case no inner classes
-					ClassNode baseClassNode = getBytecode(className);
-					if(baseClassNode != null){
-						Log.info("Purged " + baseClassNode.name + " class.");
+				Set<String> classNames = getTypeTargets(purgeTypeAnnotation.getClassName());
+				for(String className : classNames){
+					if(className.contains("$") && classNames.contains(className.substring(0, className.lastIndexOf("$")))){
+						// the outer class is purged in the same batch, so there is no outer class reference left to update
 						purgeBytecode(className);
+						memberLog.info(className, () -> "Purged " + className + " inner class.");
 						processed = true;
 					} else {
-						Log.warning("Could not locate base class.", new RuntimeException("Missing base class"));
+						processed |= purgeType(className);
 					}
 				}
 			}
@@ -303,25 +585,22 @@ public class Engine {
 				// final is not a valid modifier for initializers so no need to consider that case
 				String className = purgeMethodAnnotation.getClassName();
 				ClassNode classNode = getBytecode(className);
+				// removing the method from the tree leaves the remaining methods unparsed
+				List<MethodNode> methodsToPurge = new LinkedList<MethodNode>();
 				for (Object o : classNode.methods) {
 					MethodNode methodNode = (MethodNode) o;
 					if(methodNode.name.equals(purgeMethodAnnotation.getMethodName())){
-						ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-						PurgeAdapter purgeAdapter = new PurgeAdapter(classWriter, methodNode);
-						ClassReader purgedBaseClassReader = new ClassReader(BytecodeUtils.writeClass(classNode));
-						purgedBaseClassReader.accept(purgeAdapter, ClassReader.EXPAND_FRAMES);
-						byte[] purgedClassBytes = classWriter.toByteArray();
-						classNode = BytecodeUtils.getClassNode(purgedClassBytes);
-						updateBytecode(classNode.name, purgedClassBytes);
-						processed = true;
-						
-						updateBytecode(className, classNode);
-						processed = true;
-						
-						Log.info("Purged " + classNode.name + "." + methodNode.name + " method.");
-						processed = true;
+						methodsToPurge.add(methodNode);
 					}
 				}
+				for(MethodNode methodNode : methodsToPurge){
+					classNode.methods.remove(methodNode);
+					memberLog.info(className, () -> "Purged " + classNode.name + "." + methodNode.name + " method.");
+				}
+				if(!methodsToPurge.isEmpty()){
+					updateBytecode(className, classNode);
+					processed = true;
+				}
 			}
 		}
 		// purge fields
@@ -332,19 +611,11 @@ public class Engine {
 				for (Object o : classNode.fields) {
 					FieldNode fieldNode = (FieldNode) o;
 					if(fieldNode.name.equals(purgeFieldAnnotation.getFieldName())){
-						ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-						PurgeAdapter purgeAdapter = new PurgeAdapter(classWriter, fieldNode);
-						ClassReader purgedBaseClassReader = new ClassReader(BytecodeUtils.writeClass(classNode));
-						purgedBaseClassReader.accept(purgeAdapter, ClassReader.EXPAND_FRAMES);
-						byte[] purgedClassBytes = classWriter.toByteArray();
-						classNode = BytecodeUtils.getClassNode(purgedClassBytes);
-						updateBytecode(classNode.name, purgedClassBytes);
-						processed = true;
-						
+						classNode.fields.remove(fieldNode);
 						updateBytecode(className, classNode);
 						processed = true;
 						
-						Log.info("Purged " + classNode.name + "." + fieldNode.name + " field.");
+						memberLog.info(className, () -> "Purged " + classNode.name + "." + fieldNode.name + " field.");
 						break; // should only be one match
 					}
 				}
@@ -353,6 +624,49 @@ public class Engine {
 		return processed;
 	}
 	
+	/**
+	 * Purges a single type and any outer class reference to it
+	 * @param className
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean purgeType(String className) throws IOException {
+		boolean processed = false;
+		if(className.contains("$")){
+			// deal with outer class references to inner class files first
+			String baseClassName = className.substring(0, className.lastIndexOf("$"));
+			ClassNode baseClassNode = getBytecode(baseClassName);
+			List<InnerClassNode> innerClassNodesToRemove = new LinkedList<InnerClassNode>();
+			for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
+				if(innerClassNode.name.equals(className)){
+					innerClassNodesToRemove.add(innerClassNode);
+				}
+			}
+			for(InnerClassNode innerClassNodeToRemove : innerClassNodesToRemove){
+				baseClassNode.innerClasses.remove(innerClassNodeToRemove);
+				memberLog.info(className, () -> "Purged " + baseClassName + " reference to " + innerClassNodeToRemove.name + " inner class.");
+			}
+			updateBytecode(baseClassName, BytecodeUtils.writeClass(baseClassNode));
+
+			// deal with the inner class file directly
+			String innerClassName = className;
+			purgeBytecode(innerClassName);
+			memberLog.info(className, () -> "Purged " + innerClassName + " inner class.");
+			processed = true;
+		} else {
+			// simple case no inner classes
+			ClassNode baseClassNode = getBytecode(className);
+			if(baseClassNode != null){
+				memberLog.info(className, () -> "Purged " + baseClassNode.name + " class.");
+				purgeBytecode(className);
+				processed = true;
+			} else {
+				Log.warning("Could not locate base class.", new RuntimeException("Missing base class"));
+			}
+		}
+		return processed;
+	}
+	
 	@SuppressWarnings("unused")
 	private static String getAccessModifiers(int access){
 		LinkedList<String> modifiers = new LinkedList<String>();
@@ -431,80 +745,10 @@ public class Engine {
 		// update types
 		for(DefineTypeVisibilityAnnotation defineTypeVisibilityAnnotation : defineVisibilityIdentifier.getTargetTypes()){
 			if(phase == -1 || defineTypeVisibilityAnnotation.getPhase() == phase){
-				String className = defineTypeVisibilityAnnotation.getClassName();
-				if(className.contains("$")){
-					// deal with outer class references to inner class files first
-					String baseClassName = className.substring(0, className.lastIndexOf("$"));
-					ClassNode baseClassNode = getBytecode(baseClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-							if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set outer class attributes for " + innerClassNode.name + " class to be public.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set outer class attributes for " + innerClassNode.name + " class to be protected.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set outer class attributes for " + innerClassNode.name + " class to be private.");
-							} else {
-								// should never happen
-								throw new RuntimeException("Missing visibility modifier");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(baseClassName, baseClassNode);
-					
-					// deal with the inner class file directly
-					String innerClassName = className;
-					baseClassNode = getBytecode(innerClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-							if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set " + innerClassNode.name + " inner class to be public.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set " + innerClassNode.name + " inner class to be protected.");
-							} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set " + innerClassNode.name + " inner class to be private.");
-							} else {
-								// should never happen
-								throw new RuntimeException("Missing visibility modifier");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(innerClassName, baseClassNode);
-				} else {
-					// simple case no inner classes
-					ClassNode baseClassNode = getBytecode(className);
-//					Log.info("Pre Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-					baseClassNode.access = baseClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
-					if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
-						baseClassNode.access = baseClassNode.access | Opcodes.ACC_PUBLIC;
-						Log.info("Set " + baseClassNode.name + " class to be public.");
-					} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
-						baseClassNode.access = baseClassNode.access | Opcodes.ACC_PROTECTED;
-						Log.info("Set " + baseClassNode.name + " class to be protected.");
-					} else if(defineTypeVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
-						baseClassNode.access = baseClassNode.access | Opcodes.ACC_PRIVATE;
-						Log.info("Set " + baseClassNode.name + " class to be private.");
-					} else {
-						// should never happen
-						throw new RuntimeException("Missing visibility modifier");
-					}
-//					Log.info("Post Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-					updateBytecode(className, baseClassNode);
+				for(String className : getTypeTargets(defineTypeVisibilityAnnotation.getClassName())){
+					setTypeVisibility(className, defineTypeVisibilityAnnotation.getVisibility());
+					processed = true;
 				}
-				
-				processed = true;
 			}
 		}
 		// update methods
@@ -525,13 +769,13 @@ public class Engine {
 							methodNode.access = methodNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
 							if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
 								methodNode.access = methodNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set " + methodNode.name + " initializer to be public.");
+								memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " initializer to be public.");
 							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
 								methodNode.access = methodNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set " + methodNode.name + " initializer to be protected.");
+								memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " initializer to be protected.");
 							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
 								methodNode.access = methodNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set " + methodNode.name + " initializer to be private.");
+								memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " initializer to be private.");
 							} else {
 								// should never happen
 								throw new RuntimeException("Missing visibility modifier");
@@ -542,13 +786,13 @@ public class Engine {
 							methodNode.access = methodNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
 							if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
 								methodNode.access = methodNode.access | Opcodes.ACC_PUBLIC;
-								Log.info("Set " + methodNode.name + " static initializer to be public.");
+								memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " static initializer to be public.");
 							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
 								methodNode.access = methodNode.access | Opcodes.ACC_PROTECTED;
-								Log.info("Set " + methodNode.name + " static initializer to be protected.");
+								memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " static initializer to be protected.");
 							} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
 								methodNode.access = methodNode.access | Opcodes.ACC_PRIVATE;
-								Log.info("Set " + methodNode.name + " static initializer to be private.");
+								memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " static initializer to be private.");
 							} else {
 								// should never happen
 								throw new RuntimeException("Missing visibility modifier");
@@ -562,13 +806,13 @@ public class Engine {
 						methodNode.access = methodNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
 						if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
 							methodNode.access = methodNode.access | Opcodes.ACC_PUBLIC;
-							Log.info("Set " + methodNode.name + " method to be public.");
+							memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " method to be public.");
 						} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
 							methodNode.access = methodNode.access | Opcodes.ACC_PROTECTED;
-							Log.info("Set " + methodNode.name + " method to be protected.");
+							memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " method to be protected.");
 						} else if(defineMethodVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
 							methodNode.access = methodNode.access | Opcodes.ACC_PRIVATE;
-							Log.info("Set " + methodNode.name + " method to be private.");
+							memberLog.info(qualifiedClassName, () -> "Set " + methodNode.name + " method to be private.");
 						} else {
 							// should never happen
 							throw new RuntimeException("Missing visibility modifier");
@@ -594,13 +838,13 @@ public class Engine {
 						fieldNode.access = fieldNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
 						if(defineFieldVisibilityAnnotation.getVisibility() == Visibility.PUBLIC){
 							fieldNode.access = fieldNode.access | Opcodes.ACC_PUBLIC;
-							Log.info("Set " + fieldNode.name + " field to be public.");
+							memberLog.info(className, () -> "Set " + fieldNode.name + " field to be public.");
 						} else if(defineFieldVisibilityAnnotation.getVisibility() == Visibility.PROTECTED){
 							fieldNode.access = fieldNode.access | Opcodes.ACC_PROTECTED;
-							Log.info("Set " + fieldNode.name + " field to be protected.");
+							memberLog.info(className, () -> "Set " + fieldNode.name + " field to be protected.");
 						} else if(defineFieldVisibilityAnnotation.getVisibility() == Visibility.PRIVATE){
 							fieldNode.access = fieldNode.access | Opcodes.ACC_PRIVATE;
-							Log.info("Set " + fieldNode.name + " field to be private.");
+							memberLog.info(className, () -> "Set " + fieldNode.name + " field to be private.");
 						} else {
 							// should never happen
 							throw new RuntimeException("Missing visibility modifier");
@@ -616,6 +860,86 @@ public class Engine {
 		return processed;
 	}
 
+	/**
+	 * Sets the visibility of a single type and any outer class reference to it
+	 * @param className
+	 * @param visibility
+	 * @throws IOException
+	 */
+	private void setTypeVisibility(String className, Visibility visibility) throws IOException {
+		if(className.contains("$")){
+			// deal with outer class references to inner class files first
+			String baseClassName = className.substring(0, className.lastIndexOf("$"));
+			ClassNode baseClassNode = getBytecode(baseClassName);
+			for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
+				if(innerClassNode.name.equals(className)){
+//					Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+					innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
+					if(visibility == Visibility.PUBLIC){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_PUBLIC;
+						memberLog.info(className, () -> "Set outer class attributes for " + innerClassNode.name + " class to be public.");
+					} else if(visibility == Visibility.PROTECTED){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_PROTECTED;
+						memberLog.info(className, () -> "Set outer class attributes for " + innerClassNode.name + " class to be protected.");
+					} else if(visibility == Visibility.PRIVATE){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_PRIVATE;
+						memberLog.info(className, () -> "Set outer class attributes for " + innerClassNode.name + " class to be private.");
+					} else {
+						// should never happen
+						throw new RuntimeException("Missing visibility modifier");
+					}
+//					Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+				}
+			}
+			updateBytecode(baseClassName, baseClassNode);
+			
+			// deal with the inner class file directly
+			String innerClassName = className;
+			baseClassNode = getBytecode(innerClassName);
+			for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
+				if(innerClassNode.name.equals(className)){
+//					Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+					innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
+					if(visibility == Visibility.PUBLIC){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_PUBLIC;
+						memberLog.info(className, () -> "Set " + innerClassNode.name + " inner class to be public.");
+					} else if(visibility == Visibility.PROTECTED){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_PROTECTED;
+						memberLog.info(className, () -> "Set " + innerClassNode.name + " inner class to be protected.");
+					} else if(visibility == Visibility.PRIVATE){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_PRIVATE;
+						memberLog.info(className, () -> "Set " + innerClassNode.name + " inner class to be private.");
+					} else {
+						// should never happen
+						throw new RuntimeException("Missing visibility modifier");
+					}
+//					Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+				}
+			}
+			updateBytecode(innerClassName, baseClassNode);
+		} else {
+			// simple case no inner classes
+			ClassNode baseClassNode = getBytecode(className);
+//			Log.info("Pre Access Modifiers: " + getAccessModifiers(baseClassNode.access));
+			baseClassNode.access = baseClassNode.access & (~Opcodes.ACC_PUBLIC & ~Opcodes.ACC_PROTECTED & ~Opcodes.ACC_PRIVATE);
+			if(visibility == Visibility.PUBLIC){
+				baseClassNode.access = baseClassNode.access | Opcodes.ACC_PUBLIC;
+				memberLog.info(className, () -> "Set " + baseClassNode.name + " class to be public.");
+			} else if(visibility == Visibility.PROTECTED){
+				baseClassNode.access = baseClassNode.access | Opcodes.ACC_PROTECTED;
+				memberLog.info(className, () -> "Set " + baseClassNode.name + " class to be protected.");
+			} else if(visibility == Visibility.PRIVATE){
+				baseClassNode.access = baseClassNode.access | Opcodes.ACC_PRIVATE;
+				memberLog.info(className, () -> "Set " + baseClassNode.name + " class to be private.");
+			} else {
+				// should never happen
+				throw new RuntimeException("Missing visibility modifier");
+			}
+//			Log.info("Post Access Modifiers: " + getAccessModifiers(baseClassNode.access));
+			updateBytecode(className, baseClassNode);
+		}
+	}
+	
 	/**
 	 * Sets the finality bit for for types, methods, and fields as defined by the annotation system
 	 * @param defineFinalityIdentifier
@@ -628,62 +952,8 @@ public class Engine {
 		// update types
 		for(DefineTypeFinalityAnnotation defineTypeFinalityAnnotation : defineFinalityIdentifier.getTargetTypes()){
 			if(phase == -1 || defineTypeFinalityAnnotation.getPhase() == phase){
-				String className = defineTypeFinalityAnnotation.getClassName();
-				if(className.contains("$")){
-					// deal with outer class references to inner class files first
-					String baseClassName = className.substring(0, className.lastIndexOf("$"));
-					ClassNode baseClassNode = getBytecode(baseClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							if(defineTypeFinalityAnnotation.getFinality()){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_FINAL;
-								Log.info("Set " + innerClassNode.name + " class to be final.");
-							} else {
-								innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_FINAL);
-								Log.info("Set " + innerClassNode.name + " class to be non-final.");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(baseClassName, baseClassNode);
-					
-					// deal with the inner class file directly
-					String innerClassName = className;
-					baseClassNode = getBytecode(innerClassName);
-					for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
-						if(innerClassNode.name.equals(className)){
-//							Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-							if(defineTypeFinalityAnnotation.getFinality()){
-								innerClassNode.access = innerClassNode.access | Opcodes.ACC_FINAL;
-								Log.info("Set " + innerClassNode.name + " class to be final.");
-							} else {
-								innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_FINAL);
-								Log.info("Set " + innerClassNode.name + " class to be non-final.");
-							}
-//							Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
-						}
-					}
-					updateBytecode(innerClassName, baseClassNode);
-					processed = true;
-				} else {
-					// simple case no inner classes
-					ClassNode baseClassNode = getBytecode(className);
-					if(baseClassNode != null){
-//						Log.info("Pre Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-						if(defineTypeFinalityAnnotation.getFinality()){
-							baseClassNode.access = baseClassNode.access | Opcodes.ACC_FINAL;
-							Log.info("Set " + baseClassNode.name + " class to be final.");
-						} else {
-							baseClassNode.access = baseClassNode.access & (~Opcodes.ACC_FINAL);
-							Log.info("Set " + baseClassNode.name + " class to be non-final.");
-						}
-//						Log.info("Post Access Modifiers: " + getAccessModifiers(baseClassNode.access));
-						updateBytecode(className, baseClassNode);
-						processed = true;
-					} else {
-						Log.warning("Could not locate base class.", new RuntimeException("Missing base class"));
-					}
+				for(String className : getTypeTargets(defineTypeFinalityAnnotation.getClassName())){
+					processed |= setTypeFinality(className, defineTypeFinalityAnnotation.getFinality());
 				}
 			}
 		}
@@ -699,10 +969,10 @@ public class Engine {
 //						Log.info("Pre Access Modifiers: " + getAccessModifiers(methodNode.access));
 						if(defineMethodFinalityAnnotation.getFinality()){
 							methodNode.access = methodNode.access | Opcodes.ACC_FINAL;
-							Log.info("Set " + methodNode.name + " method to be final.");
+							memberLog.info(className, () -> "Set " + methodNode.name + " method to be final.");
 						} else {
 							methodNode.access = methodNode.access & (~Opcodes.ACC_FINAL);
-							Log.info("Set " + methodNode.name + " method to be non-final.");
+							memberLog.info(className, () -> "Set " + methodNode.name + " method to be non-final.");
 						}
 //						Log.info("Post Access Modifiers: " + getAccessModifiers(methodNode.access));
 						updateBytecode(className, baseClassNode);
@@ -722,10 +992,10 @@ public class Engine {
 //						Log.info("Pre Access Modifiers: " + getAccessModifiers(fieldNode.access));
 						if(defineFieldFinalityAnnotation.getFinality()){
 							fieldNode.access = fieldNode.access | Opcodes.ACC_FINAL;
-							Log.info("Set " + fieldNode.name + " field to be final.");
+							memberLog.info(className, () -> "Set " + fieldNode.name + " field to be final.");
 						} else {
 							fieldNode.access = fieldNode.access & (~Opcodes.ACC_FINAL);
-							Log.info("Set " + fieldNode.name + " field to be non-final.");
+							memberLog.info(className, () -> "Set " + fieldNode.name + " field to be non-final.");
 						}
 //						Log.info("Post Access Modifiers: " + getAccessModifiers(fieldNode.access));
 						updateBytecode(className, baseClassNode);
@@ -738,14 +1008,146 @@ public class Engine {
 		return processed;
 	}
 
+	/**
+	 * Sets the finality of a single type and any outer class reference to it
+	 * @param className
+	 * @param finality
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean setTypeFinality(String className, boolean finality) throws IOException {
+		boolean processed = false;
+		if(className.contains("$")){
+			// deal with outer class references to inner class files first
+			String baseClassName = className.substring(0, className.lastIndexOf("$"));
+			ClassNode baseClassNode = getBytecode(baseClassName);
+			for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
+				if(innerClassNode.name.equals(className)){
+//					Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+					if(finality){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_FINAL;
+						memberLog.info(className, () -> "Set " + innerClassNode.name + " class to be final.");
+					} else {
+						innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_FINAL);
+						memberLog.info(className, () -> "Set " + innerClassNode.name + " class to be non-final.");
+					}
+//					Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+				}
+			}
+			updateBytecode(baseClassName, baseClassNode);
+			
+			// deal with the inner class file directly
+			String innerClassName = className;
+			baseClassNode = getBytecode(innerClassName);
+			for(InnerClassNode innerClassNode : baseClassNode.innerClasses){
+				if(innerClassNode.name.equals(className)){
+//					Log.info("Pre Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+					if(finality){
+						innerClassNode.access = innerClassNode.access | Opcodes.ACC_FINAL;
+						memberLog.info(className, () -> "Set " + innerClassNode.name + " class to be final.");
+					} else {
+						innerClassNode.access = innerClassNode.access & (~Opcodes.ACC_FINAL);
+						memberLog.info(className, () -> "Set " + innerClassNode.name + " class to be non-final.");
+					}
+//					Log.info("Post Access Modifiers: " + getAccessModifiers(innerClassNode.access));
+				}
+			}
+			updateBytecode(innerClassName, baseClassNode);
+			processed = true;
+		} else {
+			// simple case no inner classes
+			ClassNode baseClassNode = getBytecode(className);
+			if(baseClassNode != null){
+//				Log.info("Pre Access Modifiers: " + getAccessModifiers(baseClassNode.access));
+				if(finality){
+					baseClassNode.access = baseClassNode.access | Opcodes.ACC_FINAL;
+					memberLog.info(className, () -> "Set " + baseClassNode.name + " class to be final.");
+				} else {
+					baseClassNode.access = baseClassNode.access & (~Opcodes.ACC_FINAL);
+					memberLog.info(className, () -> "Set " + baseClassNode.name + " class to be non-final.");
+				}
+//				Log.info("Post Access Modifiers: " + getAccessModifiers(baseClassNode.access));
+				updateBytecode(className, baseClassNode);
+				processed = true;
+			} else {
+				Log.warning("Could not locate base class.", new RuntimeException("Missing base class"));
+			}
+		}
+		return processed;
+	}
+	
 	public void save(File outputFile) throws IOException {
-		for(String entry : purgedEntries){
-			jarModifier.remove(entry + ".class");
+		save(new FileOutputStream(outputFile), outputFile.getName());
+	}
+	
+	/**
+	 * Writes the modified archive to a stream, the stream is closed when done
+	 * @param output
+	 * @throws IOException
+	 */
+	public void save(OutputStream output) throws IOException {
+		save(output, jarName);
+	}
+	
+	/**
+	 * Writes the given class entries as processed by this engine over a
+	 * previous output of the archive, every other entry is carried forward from
+	 * the previous output unchanged. Entries that were purged or that do not
+	 * exist in the original archive are removed. The previous output must not
+	 * be the output file.
+	 * @param outputFile
+	 * @param previousOutput
+	 * @param entries
+	 * @throws IOException
+	 */
+	public void save(File outputFile, File previousOutput, Set<String> entries) throws IOException {
+		long start = System.nanoTime();
+		Trace.Span span = Trace.begin("save " + outputFile.getName(), Trace.SAVE)
+				.arg("target", jarName)
+				.arg("entries", entries.size());
+		JarModifier previous = null;
+		try {
+			previous = new JarModifier(previousOutput);
+			List<String> modifiedEntries = new LinkedList<String>();
+			for(String entry : entries){
+				String qualifiedClassFilename = entry + ".class";
+				byte[] bytecode = null;
+				if(bytecodeCache.isModified(entry)){
+					// streamed from the store when the output is written
+					modifiedEntries.add(entry);
+					continue;
+				} else if(!purgedEntries.contains(entry)){
+					bytecode = jarModifier.extractEntry(qualifiedClassFilename);
+				}
+				if(bytecode != null){
+					previous.add(qualifiedClassFilename, bytecode, true);
+				} else {
+					previous.remove(qualifiedClassFilename);
+				}
+			}
+			previous.save(new FileOutputStream(outputFile), bytecodeCache, modifiedEntries);
+		} finally {
+			if(previous != null){
+				previous.close();
+			}
+			endOperation(Metrics.SAVE, start, span);
 		}
-		for(Entry<String,Bytecode> entry : bytecodeCache.entrySet()){
-			jarModifier.add(entry.getKey() + ".class", entry.getValue().getBytecode(), true);
+	}
+	
+	private void save(OutputStream output, String outputName) throws IOException {
+		long start = System.nanoTime();
+		Trace.Span span = Trace.begin("save " + outputName, Trace.SAVE)
+				.arg("target", jarName);
+		try {
+			for(String entry : purgedEntries){
+				jarModifier.remove(entry + ".class");
+			}
+			// unmodified entries are copied from the original archive and the
+			// modified entries are streamed from the store
+			jarModifier.save(output, bytecodeCache, bytecodeCache.getModifiedEntries());
+		} finally {
+			endOperation(Metrics.SAVE, start, span);
 		}
-		jarModifier.save(outputFile);
 	}
 	
 	private byte[] mergeClasses(byte[] baseClass, byte[] classToMerge) throws IOException {
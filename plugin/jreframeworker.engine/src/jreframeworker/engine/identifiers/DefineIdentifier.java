@@ -123,9 +123,10 @@ public class DefineIdentifier {
 		        	phaseValue = (int) value;
 		        }
 		    }
-		    if(classNode != null){
-		    	targetType = new DefineTypeAnnotation(phaseValue, classNode);
-		    }
+		}
+		// a bare @DefineType has no annotation values
+		if(classNode != null){
+			targetType = new DefineTypeAnnotation(phaseValue, classNode);
 		}
 	}
 
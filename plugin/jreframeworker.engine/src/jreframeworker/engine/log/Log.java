@@ -1,5 +1,10 @@
 package jreframeworker.engine.log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
@@ -11,10 +16,25 @@ import jreframeworker.engine.Activator;
 
 /**
  * Centralized logging for Eclipse plugins.
+ *
+ * Messages below the log level are discarded before they are built. Messages
+ * are handed to the Eclipse log in batches by a background thread so that the
+ * engine does not wait on the log while transforming classes, errors are
+ * flushed before returning.
  */
 public class Log {
 	private static ILog log;
-	
+
+	private static final int MAX_BATCH_SIZE = 256;
+
+	private static volatile int level = Status.INFO;
+
+	private static final LinkedBlockingQueue<IStatus> pendingMessages = new LinkedBlockingQueue<IStatus>();
+	private static final Object flushLock = new Object();
+	private static long queuedMessages = 0;
+	private static long writtenMessages = 0;
+	private static Thread writer = null;
+
 	static {
 		BundleContext context = Activator.getDefault().getBundle().getBundleContext();
 		if (context != null) {
@@ -22,34 +42,125 @@ public class Log {
 			log = Platform.getLog(bundle);
 		}
 	}
-	
+
+	/**
+	 * Sets the lowest severity that is logged (Status.INFO, Status.WARNING or Status.ERROR)
+	 * @param severity
+	 */
+	public static void setLevel(int severity) {
+		level = severity;
+	}
+
+	public static boolean isEnabled(int severity) {
+		return severity >= level;
+	}
+
+	public static boolean isInfoEnabled() {
+		return isEnabled(Status.INFO);
+	}
+
+	public static boolean isWarningEnabled() {
+		return isEnabled(Status.WARNING);
+	}
+
 	public static void error(String message, Throwable e) {
 		log(Status.ERROR, message, e);
+		flush();
 	}
-	
+
 	public static void warning(String message) {
 		warning(message, null);
 	}
-	
+
 	public static void warning(String message, Throwable e) {
 		log(Status.WARNING, message, e);
 	}
-	
+
+	/**
+	 * Logs a warning, the message is only built if warnings are enabled
+	 * @param message
+	 */
+	public static void warning(Supplier<String> message) {
+		if(isWarningEnabled()){
+			warning(message.get());
+		}
+	}
+
 	public static void info(String message) {
 		info(message, null);
 	}
-	
+
 	public static void info(String message, Throwable e) {
 		log(Status.INFO, message, e);
 	}
-	
+
+	/**
+	 * Logs an info message, the message is only built if info messages are enabled
+	 * @param message
+	 */
+	public static void info(Supplier<String> message) {
+		if(isInfoEnabled()){
+			info(message.get());
+		}
+	}
+
 	public static void log(int severity, String string, Throwable e) {
+		if(!isEnabled(severity)){
+			return;
+		}
 		if(log == null){
 			System.err.println(string + "\n" + e);
 		} else {
 			IStatus status = new Status(severity, Activator.PLUGIN_ID, string, e);
-			log.log(status);
+			synchronized (flushLock) {
+				queuedMessages++;
+				if(writer == null){
+					writer = new Thread(Log::writeMessages, "JReFrameworker Engine Log");
+					writer.setDaemon(true);
+					writer.start();
+				}
+			}
+			pendingMessages.add(status);
+		}
+	}
+
+	/**
+	 * Blocks until every message logged so far has been written to the Eclipse log
+	 */
+	public static void flush() {
+		synchronized (flushLock) {
+			while(writtenMessages < queuedMessages){
+				try {
+					flushLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
 		}
 	}
-}
 
+	private static void writeMessages() {
+		List<IStatus> batch = new ArrayList<IStatus>(MAX_BATCH_SIZE);
+		while(true){
+			try {
+				batch.add(pendingMessages.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			pendingMessages.drainTo(batch, MAX_BATCH_SIZE - 1);
+			for(IStatus status : batch){
+				try {
+					log.log(status);
+				} catch (Throwable t){
+					System.err.println(status.getMessage() + "\n" + t);
+				}
+			}
+			synchronized (flushLock) {
+				writtenMessages += batch.size();
+				flushLock.notifyAll();
+			}
+			batch.clear();
+		}
+	}
+}
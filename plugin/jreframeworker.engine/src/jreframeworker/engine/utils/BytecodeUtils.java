@@ -4,8 +4,13 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 
+import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 
 public class BytecodeUtils {
@@ -17,6 +22,10 @@ public class BytecodeUtils {
 	 * @throws IOException
 	 */
 	public static byte[] writeClass(ClassNode classNode) throws IOException {
+		Metrics.increment(Metrics.CLASSES_WRITTEN);
+		if(classNode instanceof LazyClassNode){
+			return ((LazyClassNode) classNode).toByteArray();
+		}
 		ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
 		classNode.accept(classWriter);
         return classWriter.toByteArray();
@@ -43,7 +52,60 @@ public class BytecodeUtils {
 		ClassReader classReader = new ClassReader(bytes);
 		ClassNode classNode = new ClassNode();
 		classReader.accept(classNode, ClassReader.EXPAND_FRAMES);
+		Metrics.increment(Metrics.CLASSES_PARSED);
 		return classNode;
 	}
 	
+	/**
+	 * Reads a bytecode class file into a ClassNode object that only reads
+	 * method instructions on demand, see LazyClassNode
+	 * @param bytes
+	 * @return
+	 */
+	public static LazyClassNode getLazyClassNode(byte[] bytes) {
+		return new LazyClassNode(bytes);
+	}
+	
+	/**
+	 * Returns a digest of the semantically relevant content of a class: the
+	 * class header, the annotations that select the modifications, their
+	 * phases and targets, and the members with their code. Source file names,
+	 * line numbers, local variable names, stack map frames and non-standard
+	 * attributes are excluded, so recompiling a source after a comment or
+	 * formatting change produces the same fingerprint.
+	 * @param classNode
+	 * @return
+	 */
+	public static String getFingerprint(ClassNode classNode) {
+		ClassWriter classWriter = new ClassWriter(0);
+		classNode.accept(new ClassVisitor(Opcodes.ASM5, classWriter) {
+			@Override
+			public void visitSource(String source, String debug) {}
+			
+			@Override
+			public void visitAttribute(Attribute attribute) {}
+			
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+				return new MethodVisitor(Opcodes.ASM5, super.visitMethod(access, name, desc, signature, exceptions)) {
+					@Override
+					public void visitLineNumber(int line, Label start) {}
+					
+					@Override
+					public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {}
+					
+					@Override
+					public void visitParameter(String name, int access) {}
+					
+					@Override
+					public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {}
+					
+					@Override
+					public void visitAttribute(Attribute attribute) {}
+				};
+			}
+		});
+		return TransformationCache.digest(classWriter.toByteArray());
+	}
+	
 }
@@ -0,0 +1,165 @@
+package jreframeworker.engine.utils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * A prefix trie of qualified class names (example: java/lang/Object) split
+ * into package segments, used to expand class name patterns against the
+ * classes of an archive without scanning every entry.
+ *
+ * Patterns use "/" as the package separator and support the wildcards "*"
+ * (any characters within a single segment), "?" (any single character within
+ * a segment) and "**" (zero or more whole segments). For example
+ * "com/example/internal/**" matches every class under the com.example.internal
+ * package and its subpackages.
+ */
+public class ClassNameTrie {
+
+	private static class Node {
+		private HashMap<String,Node> children = new HashMap<String,Node>();
+		private boolean isClass = false;
+	}
+
+	private static final String ANY_SEGMENTS = "**";
+
+	private Node root = new Node();
+	private int size = 0;
+
+	/**
+	 * Creates a trie of the class entries (entries ending in .class) of an archive
+	 * @param entries
+	 * @return
+	 */
+	public static ClassNameTrie fromArchiveEntries(Collection<String> entries){
+		ClassNameTrie trie = new ClassNameTrie();
+		for(String entry : entries){
+			if(entry.endsWith(".class")){
+				trie.add(entry.substring(0, entry.length() - ".class".length()));
+			}
+		}
+		return trie;
+	}
+
+	/**
+	 * Returns true if the given qualified class name contains wildcards
+	 * @param className
+	 * @return
+	 */
+	public static boolean isPattern(String className){
+		return className.indexOf('*') != -1 || className.indexOf('?') != -1;
+	}
+
+	/**
+	 * Adds a qualified class name to the trie
+	 * @param className
+	 */
+	public void add(String className){
+		Node node = root;
+		for(String segment : className.split("/")){
+			Node child = node.children.get(segment);
+			if(child == null){
+				child = new Node();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		if(!node.isClass){
+			node.isClass = true;
+			size++;
+		}
+	}
+
+	public boolean contains(String className){
+		Node node = root;
+		for(String segment : className.split("/")){
+			node = node.children.get(segment);
+			if(node == null){
+				return false;
+			}
+		}
+		return node.isClass;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Returns the sorted set of class names matching the given pattern. A pattern
+	 * without wildcards matches only the identical class name.
+	 * @param pattern
+	 * @return
+	 */
+	public Set<String> match(String pattern){
+		String[] segments = pattern.split("/");
+		Pattern[] compiledSegments = new Pattern[segments.length];
+		for(int i=0; i<segments.length; i++){
+			if(!segments[i].equals(ANY_SEGMENTS) && isPattern(segments[i])){
+				compiledSegments[i] = compileSegment(segments[i]);
+			}
+		}
+		Set<String> matches = new TreeSet<String>();
+		match(root, "", segments, compiledSegments, 0, matches);
+		return matches;
+	}
+
+	private void match(Node node, String prefix, String[] segments, Pattern[] compiledSegments, int index, Set<String> matches){
+		if(index == segments.length){
+			if(node.isClass){
+				matches.add(prefix);
+			}
+			return;
+		}
+		String segment = segments[index];
+		if(segment.equals(ANY_SEGMENTS)){
+			// zero segments
+			match(node, prefix, segments, compiledSegments, index + 1, matches);
+			// one or more segments
+			for(Entry<String,Node> child : node.children.entrySet()){
+				match(child.getValue(), append(prefix, child.getKey()), segments, compiledSegments, index, matches);
+			}
+		} else if(compiledSegments[index] != null){
+			for(Entry<String,Node> child : node.children.entrySet()){
+				if(compiledSegments[index].matcher(child.getKey()).matches()){
+					match(child.getValue(), append(prefix, child.getKey()), segments, compiledSegments, index + 1, matches);
+				}
+			}
+		} else {
+			// literal segments are a direct lookup
+			Node child = node.children.get(segment);
+			if(child != null){
+				match(child, append(prefix, segment), segments, compiledSegments, index + 1, matches);
+			}
+		}
+	}
+
+	private static String append(String prefix, String segment){
+		return prefix.isEmpty() ? segment : (prefix + "/" + segment);
+	}
+
+	private static Pattern compileSegment(String segment){
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for(char c : segment.toCharArray()){
+			if(c == '*' || c == '?'){
+				if(literal.length() > 0){
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? "[^/]*" : "[^/]");
+			} else {
+				literal.append(c);
+			}
+		}
+		if(literal.length() > 0){
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+}
@@ -0,0 +1,573 @@
+package jreframeworker.engine.verification;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Reports what changed between an original and a modified archive.
+ *
+ * Entries are first matched by the CRC and size recorded in the archive
+ * directories, so unchanged entries are skipped without being read. Changed
+ * classes are compared member by member using the hash of each method's
+ * instructions, and only changed methods are diffed instruction by
+ * instruction using the ASM Textifier. Debug information and stack map frames
+ * are ignored, so recompiling or rewriting a class without changing its
+ * structure is not reported as a change.
+ *
+ * Usage: java jreframeworker.engine.verification.ArchiveDiff original.jar modified.jar
+ */
+public class ArchiveDiff {
+
+	/**
+	 * The maximum number of diff lines reported for a single method
+	 */
+	public static final int MAX_INSTRUCTION_DIFF_LINES = 50;
+
+	/**
+	 * Methods with more instruction pairs than this are reported as replaced
+	 * instead of being diffed line by line
+	 */
+	private static final long MAX_INSTRUCTION_DIFF_CELLS = 4000000L;
+
+	public static enum Kind {
+		ADDED, REMOVED, RENAMED, MODIFIED
+	}
+
+	/**
+	 * A change to a class or one of its members
+	 */
+	public static class Change {
+		private Kind kind;
+		private String member;
+		private String description;
+		private List<String> details;
+
+		public Change(Kind kind, String member, String description, List<String> details) {
+			this.kind = kind;
+			this.member = member;
+			this.description = description;
+			this.details = details;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * Returns "class", "field name:descriptor" or "method namedescriptor"
+		 * @return
+		 */
+		public String getMember() {
+			return member;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Returns the instruction diff lines of a modified method, prefixed
+		 * with "- " for removed and "+ " for added instructions
+		 * @return
+		 */
+		public List<String> getDetails() {
+			return details;
+		}
+
+		@Override
+		public String toString() {
+			return kind.name().toLowerCase() + " " + member + (description != null ? " (" + description + ")" : "");
+		}
+	}
+
+	/**
+	 * The changes to a class present in both archives
+	 */
+	public static class ClassDiff {
+		private String name;
+		private List<Change> changes = new LinkedList<Change>();
+
+		public ClassDiff(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<Change> getChanges() {
+			return changes;
+		}
+	}
+
+	/**
+	 * The differences between two archives, entries are sorted by name
+	 */
+	public static class Report {
+		private String original;
+		private String modified;
+		private int unchangedEntries = 0;
+		private int rewrittenClasses = 0;
+		private List<String> addedEntries = new ArrayList<String>();
+		private List<String> removedEntries = new ArrayList<String>();
+		private List<String> changedEntries = new ArrayList<String>();
+		private List<ClassDiff> changedClasses = new ArrayList<ClassDiff>();
+
+		public Report(String original, String modified) {
+			this.original = original;
+			this.modified = modified;
+		}
+
+		/**
+		 * Returns the number of entries skipped because their checksums match
+		 * @return
+		 */
+		public int getUnchangedEntries() {
+			return unchangedEntries;
+		}
+
+		/**
+		 * Returns the number of classes whose bytes differ without any
+		 * structural change, for example because the constant pool was reordered
+		 * @return
+		 */
+		public int getRewrittenClasses() {
+			return rewrittenClasses;
+		}
+
+		public List<String> getAddedEntries() {
+			return addedEntries;
+		}
+
+		public List<String> getRemovedEntries() {
+			return removedEntries;
+		}
+
+		/**
+		 * Returns the changed entries that are not classes, or that could not be parsed as classes
+		 * @return
+		 */
+		public List<String> getChangedEntries() {
+			return changedEntries;
+		}
+
+		public List<ClassDiff> getChangedClasses() {
+			return changedClasses;
+		}
+
+		/**
+		 * Returns the diff of the given class or null if the class did not change
+		 * @param className internal name of the class
+		 * @return
+		 */
+		public ClassDiff getChangedClass(String className) {
+			for(ClassDiff classDiff : changedClasses){
+				if(classDiff.getName().equals(className)){
+					return classDiff;
+				}
+			}
+			return null;
+		}
+
+		public boolean isEmpty() {
+			return addedEntries.isEmpty() && removedEntries.isEmpty() && changedEntries.isEmpty() && changedClasses.isEmpty();
+		}
+
+		/**
+		 * Returns a one line summary of the report
+		 * @return
+		 */
+		public String getSummary() {
+			return modified + ": " + changedClasses.size() + " changed classes, " + addedEntries.size() + " added, "
+					+ removedEntries.size() + " removed and " + changedEntries.size() + " changed entries, "
+					+ unchangedEntries + " unchanged entries";
+		}
+
+		/**
+		 * Writes the report in a compact text format
+		 * @param output
+		 */
+		public void write(PrintStream output) {
+			output.println("--- " + original);
+			output.println("+++ " + modified);
+			output.println(getSummary());
+			for(String entry : addedEntries){
+				output.println("+ " + entry);
+			}
+			for(String entry : removedEntries){
+				output.println("- " + entry);
+			}
+			for(String entry : changedEntries){
+				output.println("~ " + entry);
+			}
+			for(ClassDiff classDiff : changedClasses){
+				output.println("~ " + classDiff.getName());
+				for(Change change : classDiff.getChanges()){
+					output.println("\t" + change);
+					for(String detail : change.getDetails()){
+						output.println("\t\t" + detail);
+					}
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream output = new PrintStream(bytes);
+			write(output);
+			output.flush();
+			return bytes.toString();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2){
+			System.err.println("Usage: ArchiveDiff <original archive> <modified archive>");
+			System.exit(2);
+		}
+		Report report = diff(new File(args[0]), new File(args[1]));
+		report.write(System.out);
+		System.exit(report.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Computes the structural differences between two archives
+	 * @param originalArchive
+	 * @param modifiedArchive
+	 * @return
+	 * @throws IOException
+	 */
+	public static Report diff(File originalArchive, File modifiedArchive) throws IOException {
+		Report report = new Report(originalArchive.getName(), modifiedArchive.getName());
+		JarFile original = new JarFile(originalArchive);
+		JarFile modified = new JarFile(modifiedArchive);
+		try {
+			Map<String,JarEntry> originalEntries = getEntries(original);
+			Map<String,JarEntry> modifiedEntries = getEntries(modified);
+			for(Map.Entry<String,JarEntry> entry : originalEntries.entrySet()){
+				if(!modifiedEntries.containsKey(entry.getKey())){
+					report.removedEntries.add(entry.getKey());
+				}
+			}
+			for(Map.Entry<String,JarEntry> entry : modifiedEntries.entrySet()){
+				String name = entry.getKey();
+				JarEntry originalEntry = originalEntries.get(name);
+				JarEntry modifiedEntry = entry.getValue();
+				if(originalEntry == null){
+					report.addedEntries.add(name);
+				} else if(isUnchanged(originalEntry, modifiedEntry)){
+					report.unchangedEntries++;
+				} else {
+					byte[] originalBytes = readEntry(original, originalEntry);
+					byte[] modifiedBytes = readEntry(modified, modifiedEntry);
+					if(Arrays.equals(originalBytes, modifiedBytes)){
+						report.unchangedEntries++;
+					} else if(name.endsWith(".class")){
+						ClassDiff classDiff = diff(originalBytes, modifiedBytes);
+						if(classDiff == null){
+							report.changedEntries.add(name);
+						} else if(classDiff.getChanges().isEmpty()){
+							report.rewrittenClasses++;
+						} else {
+							report.changedClasses.add(classDiff);
+						}
+					} else {
+						report.changedEntries.add(name);
+					}
+				}
+			}
+		} finally {
+			original.close();
+			modified.close();
+		}
+		return report;
+	}
+
+	/**
+	 * Computes the structural differences between two versions of a class
+	 * @param originalClass
+	 * @param modifiedClass
+	 * @return the changes or null if either class could not be parsed
+	 */
+	public static ClassDiff diff(byte[] originalClass, byte[] modifiedClass) {
+		ClassNode original = readClass(originalClass);
+		ClassNode modified = readClass(modifiedClass);
+		if(original == null || modified == null){
+			return null;
+		}
+		ClassDiff classDiff = new ClassDiff(modified.name);
+		List<Change> changes = classDiff.getChanges();
+
+		// class attributes
+		compare(changes, "class", "version", original.version, modified.version);
+		compare(changes, "class", "access", accessFlags(original.access), accessFlags(modified.access));
+		compare(changes, "class", "name", original.name, modified.name);
+		compare(changes, "class", "signature", original.signature, modified.signature);
+		compare(changes, "class", "super class", original.superName, modified.superName);
+		compare(changes, "class", "interfaces", original.interfaces, modified.interfaces);
+
+		// fields
+		Map<String,FieldNode> originalFields = new HashMap<String,FieldNode>();
+		for(FieldNode field : original.fields){
+			originalFields.put(field.name + ":" + field.desc, field);
+		}
+		Map<String,FieldNode> modifiedFields = new HashMap<String,FieldNode>();
+		for(FieldNode field : modified.fields){
+			modifiedFields.put(field.name + ":" + field.desc, field);
+		}
+		for(FieldNode field : original.fields){
+			String key = field.name + ":" + field.desc;
+			FieldNode modifiedField = modifiedFields.get(key);
+			if(modifiedField == null){
+				changes.add(new Change(Kind.REMOVED, "field " + key, null, new LinkedList<String>()));
+			} else {
+				compare(changes, "field " + key, "access", accessFlags(field.access), accessFlags(modifiedField.access));
+				compare(changes, "field " + key, "signature", field.signature, modifiedField.signature);
+				compare(changes, "field " + key, "value", field.value, modifiedField.value);
+			}
+		}
+		for(FieldNode field : modified.fields){
+			String key = field.name + ":" + field.desc;
+			if(!originalFields.containsKey(key)){
+				changes.add(new Change(Kind.ADDED, "field " + key, accessFlags(field.access), new LinkedList<String>()));
+			}
+		}
+
+		// methods are matched by signature and compared by the hash of their instructions
+		Map<String,MethodNode> originalMethods = new HashMap<String,MethodNode>();
+		Map<String,List<String>> originalInstructions = new HashMap<String,List<String>>();
+		for(MethodNode method : original.methods){
+			originalMethods.put(method.name + method.desc, method);
+			originalInstructions.put(method.name + method.desc, ArchiveComparator.getInstructions(method));
+		}
+		Map<String,MethodNode> modifiedMethods = new HashMap<String,MethodNode>();
+		for(MethodNode method : modified.methods){
+			modifiedMethods.put(method.name + method.desc, method);
+		}
+		for(MethodNode method : original.methods){
+			String key = method.name + method.desc;
+			MethodNode modifiedMethod = modifiedMethods.get(key);
+			if(modifiedMethod == null){
+				// a removed method whose code was kept under another name was renamed
+				String renamedTo = null;
+				for(MethodNode addedMethod : modified.methods){
+					if(!originalMethods.containsKey(addedMethod.name + addedMethod.desc) && isSameCode(method, addedMethod, originalInstructions.get(key))){
+						renamedTo = addedMethod.name + addedMethod.desc;
+						break;
+					}
+				}
+				if(renamedTo == null){
+					changes.add(new Change(Kind.REMOVED, "method " + key, null, new LinkedList<String>()));
+				}
+				continue;
+			}
+			compare(changes, "method " + key, "access", accessFlags(method.access), accessFlags(modifiedMethod.access));
+			compare(changes, "method " + key, "signature", method.signature, modifiedMethod.signature);
+			compare(changes, "method " + key, "exceptions", method.exceptions, modifiedMethod.exceptions);
+			List<String> instructions = originalInstructions.get(key);
+			List<String> modifiedInstructions = ArchiveComparator.getInstructions(modifiedMethod);
+			if(instructions.hashCode() != modifiedInstructions.hashCode() || !instructions.equals(modifiedInstructions)){
+				changes.add(new Change(Kind.MODIFIED, "method " + key, "code", diffInstructions(instructions, modifiedInstructions)));
+			}
+		}
+		for(MethodNode method : modified.methods){
+			String key = method.name + method.desc;
+			if(originalMethods.containsKey(key)){
+				continue;
+			}
+			// report where the code of an added method came from
+			String description = accessFlags(method.access);
+			for(MethodNode originalMethod : original.methods){
+				if(isSameCode(originalMethod, method, originalInstructions.get(originalMethod.name + originalMethod.desc))){
+					String originalKey = originalMethod.name + originalMethod.desc;
+					description = (modifiedMethods.containsKey(originalKey) ? "copy of " : "renamed from ") + originalKey;
+					break;
+				}
+			}
+			Kind kind = description.startsWith("renamed") ? Kind.RENAMED : Kind.ADDED;
+			changes.add(new Change(kind, "method " + key, description, new LinkedList<String>()));
+		}
+		return classDiff;
+	}
+
+	/**
+	 * Returns true if the methods have the same descriptor and instructions
+	 */
+	private static boolean isSameCode(MethodNode originalMethod, MethodNode method, List<String> originalInstructions) {
+		if(!originalMethod.desc.equals(method.desc) || originalMethod.instructions.size() != method.instructions.size()){
+			return false;
+		}
+		if(originalMethod.instructions.size() == 0){
+			// abstract and native methods carry no code to match
+			return false;
+		}
+		return originalInstructions.equals(ArchiveComparator.getInstructions(method));
+	}
+
+	/**
+	 * Returns the lines of a minimal line diff of two instruction listings
+	 * @param original
+	 * @param modified
+	 * @return
+	 */
+	private static List<String> diffInstructions(List<String> original, List<String> modified) {
+		List<String> lines = new LinkedList<String>();
+
+		// skip the common prefix and suffix
+		int start = 0;
+		while(start < original.size() && start < modified.size() && original.get(start).equals(modified.get(start))){
+			start++;
+		}
+		int originalEnd = original.size();
+		int modifiedEnd = modified.size();
+		while(originalEnd > start && modifiedEnd > start && original.get(originalEnd - 1).equals(modified.get(modifiedEnd - 1))){
+			originalEnd--;
+			modifiedEnd--;
+		}
+		int n = originalEnd - start;
+		int m = modifiedEnd - start;
+
+		if((long) n * (long) m > MAX_INSTRUCTION_DIFF_CELLS){
+			lines.add("replaced " + n + " lines with " + m + " lines");
+			return lines;
+		}
+
+		// longest common subsequence of the remaining lines
+		int[][] lcs = new int[n + 1][m + 1];
+		for(int i=n-1; i>=0; i--){
+			for(int j=m-1; j>=0; j--){
+				if(original.get(start + i).equals(modified.get(start + j))){
+					lcs[i][j] = lcs[i+1][j+1] + 1;
+				} else {
+					lcs[i][j] = Math.max(lcs[i+1][j], lcs[i][j+1]);
+				}
+			}
+		}
+		int i = 0;
+		int j = 0;
+		int omitted = 0;
+		while(i < n || j < m){
+			String line = null;
+			if(i < n && j < m && original.get(start + i).equals(modified.get(start + j))){
+				i++;
+				j++;
+			} else if(j < m && (i == n || lcs[i][j+1] >= lcs[i+1][j])){
+				line = "+ " + modified.get(start + j++);
+			} else {
+				line = "- " + original.get(start + i++);
+			}
+			if(line != null){
+				if(lines.size() < MAX_INSTRUCTION_DIFF_LINES){
+					lines.add(line);
+				} else {
+					omitted++;
+				}
+			}
+		}
+		if(omitted > 0){
+			lines.add("... " + omitted + " more lines");
+		}
+		return lines;
+	}
+
+	private static void compare(List<Change> changes, String member, String attribute, Object original, Object modified) {
+		if(!Objects.equals(original, modified)){
+			changes.add(new Change(Kind.MODIFIED, member, attribute + " " + original + " -> " + modified, new LinkedList<String>()));
+		}
+	}
+
+	private static String accessFlags(int access) {
+		StringBuilder flags = new StringBuilder();
+		if((access & Opcodes.ACC_PUBLIC) != 0){
+			flags.append("public ");
+		}
+		if((access & Opcodes.ACC_PRIVATE) != 0){
+			flags.append("private ");
+		}
+		if((access & Opcodes.ACC_PROTECTED) != 0){
+			flags.append("protected ");
+		}
+		if((access & Opcodes.ACC_STATIC) != 0){
+			flags.append("static ");
+		}
+		if((access & Opcodes.ACC_FINAL) != 0){
+			flags.append("final ");
+		}
+		if((access & Opcodes.ACC_ABSTRACT) != 0){
+			flags.append("abstract ");
+		}
+		if((access & Opcodes.ACC_INTERFACE) != 0){
+			flags.append("interface ");
+		}
+		return flags.append("0x" + Integer.toHexString(access)).toString();
+	}
+
+	/**
+	 * Two entries are unchanged if the checksums and sizes recorded in the
+	 * archive directories match
+	 */
+	private static boolean isUnchanged(JarEntry original, JarEntry modified) {
+		return original.getCrc() != -1 && original.getSize() != -1
+				&& original.getCrc() == modified.getCrc()
+				&& original.getSize() == modified.getSize();
+	}
+
+	private static Map<String,JarEntry> getEntries(JarFile jar) {
+		Map<String,JarEntry> entries = new TreeMap<String,JarEntry>();
+		Enumeration<JarEntry> enumeration = jar.entries();
+		while(enumeration.hasMoreElements()){
+			JarEntry entry = enumeration.nextElement();
+			if(!entry.isDirectory()){
+				entries.put(entry.getName(), entry);
+			}
+		}
+		return entries;
+	}
+
+	private static ClassNode readClass(byte[] bytes) {
+		try {
+			ClassNode classNode = new ClassNode();
+			new ClassReader(bytes).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			return classNode;
+		} catch (RuntimeException e){
+			return null;
+		}
+	}
+
+	private static byte[] readEntry(JarFile jar, JarEntry entry) throws IOException {
+		InputStream input = jar.getInputStream(entry);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while((n = input.read(buf)) > 0){
+				bytes.write(buf, 0, n);
+			}
+			return bytes.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+}
@@ -0,0 +1,325 @@
+package jreframeworker.engine.verification;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicValue;
+
+import jreframeworker.engine.utils.Metrics;
+
+/**
+ * Verifies the modified classes of an archive after a build phase so that
+ * broken modifications are reported before the modified runtime is loaded.
+ *
+ * Each modified class is analyzed with the ASM Analyzer and a SimpleVerifier
+ * that resolves types from the modified archive's own class hierarchy. Classes
+ * are verified in parallel and by default only the methods whose code differs
+ * from the original archive are analyzed, so the cost is proportional to the
+ * edit. Optionally each modified class is also defined and linked in an
+ * isolated class loader so that the JVM verifier reports any VerifyError.
+ */
+public class BytecodeVerifier {
+
+	/**
+	 * A problem found in a modified class
+	 */
+	public static class VerificationError {
+		private String className;
+		private String method;
+		private String message;
+
+		public VerificationError(String className, String method, String message) {
+			this.className = className;
+			this.method = method;
+			this.message = message;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * Returns the name and descriptor of the method or null if the problem is not specific to a method
+		 * @return
+		 */
+		public String getMethod() {
+			return method;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return className + (method != null ? "." + method : "") + ": " + message;
+		}
+	}
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean changedMethodsOnly = true;
+	private ClassLoader[] classLoaders = new ClassLoader[0];
+
+	/**
+	 * Sets the number of classes verified concurrently
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Sets whether only methods whose code differs from the original archive
+	 * are analyzed (the default), or every method of a modified class
+	 * @param changedMethodsOnly
+	 */
+	public void setChangedMethodsOnly(boolean changedMethodsOnly) {
+		this.changedMethodsOnly = changedMethodsOnly;
+	}
+
+	/**
+	 * Sets the class loaders used to resolve classes outside of the archive,
+	 * such as the classes of the runtime or of other target archives
+	 * @param classLoaders
+	 */
+	public void setClassLoaders(ClassLoader... classLoaders) {
+		this.classLoaders = classLoaders;
+	}
+
+	/**
+	 * Analyzes the modified classes of the modified archive
+	 * @param originalArchive the archive before the modifications, used to find changed methods
+	 * @param modifiedArchive
+	 * @param modifiedClasses internal names of the modified classes
+	 * @return the problems found sorted by class name
+	 * @throws IOException
+	 */
+	public List<VerificationError> verify(File originalArchive, File modifiedArchive, Set<String> modifiedClasses) throws IOException {
+		long start = System.nanoTime();
+		final ClassHierarchy hierarchy = new ClassHierarchy(modifiedArchive, classLoaders);
+		final JarFile original = originalArchive != null ? new JarFile(originalArchive) : null;
+		final JarFile modified = new JarFile(modifiedArchive);
+		// the workers record into the metrics of the calling build
+		final Metrics metrics = Metrics.current();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, modifiedClasses.size())));
+		try {
+			// tasks are gathered in class name order so the report is deterministic
+			Map<String,Future<List<VerificationError>>> results = new HashMap<String,Future<List<VerificationError>>>();
+			TreeSet<String> sortedClasses = new TreeSet<String>(modifiedClasses);
+			for(final String className : sortedClasses){
+				results.put(className, executor.submit(new Callable<List<VerificationError>>() {
+					@Override
+					public List<VerificationError> call() throws Exception {
+						Metrics.setCurrent(metrics);
+						try {
+							byte[] modifiedClass = readEntry(modified, className + ".class");
+							if(modifiedClass == null){
+								// purged after it was modified
+								return new LinkedList<VerificationError>();
+							}
+							byte[] originalClass = original != null ? readEntry(original, className + ".class") : null;
+							return verifyClass(hierarchy, modifiedClass, originalClass);
+						} finally {
+							Metrics.setCurrent(null);
+						}
+					}
+				}));
+			}
+			List<VerificationError> errors = new ArrayList<VerificationError>();
+			for(String className : sortedClasses){
+				try {
+					errors.addAll(results.get(className).get());
+				} catch (ExecutionException e) {
+					errors.add(new VerificationError(className, null, "Unable to verify class: " + e.getCause()));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Verification was interrupted", e);
+				}
+			}
+			return errors;
+		} finally {
+			executor.shutdownNow();
+			modified.close();
+			if(original != null){
+				original.close();
+			}
+			hierarchy.close();
+			Metrics.timeSince(Metrics.VERIFICATION, start);
+		}
+	}
+
+	/**
+	 * Analyzes the methods of a modified class that differ from the original class
+	 * @param hierarchy the class hierarchy of the modified archive
+	 * @param modifiedClass
+	 * @param originalClass the class before it was modified or null if the class is new
+	 * @return
+	 */
+	public List<VerificationError> verifyClass(ClassHierarchy hierarchy, byte[] modifiedClass, byte[] originalClass) {
+		List<VerificationError> errors = new LinkedList<VerificationError>();
+		ClassNode classNode = new ClassNode();
+		new ClassReader(modifiedClass).accept(classNode, ClassReader.SKIP_DEBUG);
+
+		Map<String,List<String>> originalInstructions = new HashMap<String,List<String>>();
+		if(changedMethodsOnly && originalClass != null){
+			ClassNode originalClassNode = new ClassNode();
+			new ClassReader(originalClass).accept(originalClassNode, ClassReader.SKIP_DEBUG);
+			for(MethodNode method : originalClassNode.methods){
+				originalInstructions.put(method.name + method.desc, ArchiveComparator.getInstructions(method));
+			}
+		}
+
+		List<Type> interfaces = new ArrayList<Type>();
+		for(String interfaceName : classNode.interfaces){
+			interfaces.add(Type.getObjectType(interfaceName));
+		}
+		Type superClass = classNode.superName == null ? null : Type.getObjectType(classNode.superName);
+		boolean isInterface = (classNode.access & Opcodes.ACC_INTERFACE) != 0;
+
+		for(MethodNode method : classNode.methods){
+			if((method.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0){
+				continue;
+			}
+			List<String> instructions = originalInstructions.get(method.name + method.desc);
+			if(instructions != null && instructions.equals(ArchiveComparator.getInstructions(method))){
+				// the code of the method was not changed
+				continue;
+			}
+			HierarchyVerifier verifier = new HierarchyVerifier(hierarchy, Type.getObjectType(classNode.name), superClass, interfaces, isInterface);
+			Analyzer<BasicValue> analyzer = new Analyzer<BasicValue>(verifier);
+			try {
+				analyzer.analyze(classNode.name, method);
+			} catch (AnalyzerException e){
+				errors.add(new VerificationError(classNode.name, method.name + method.desc, e.getMessage()));
+			} catch (RuntimeException e){
+				errors.add(new VerificationError(classNode.name, method.name + method.desc, e.toString()));
+			}
+			Metrics.increment(Metrics.METHODS_VERIFIED);
+		}
+		Metrics.increment(Metrics.CLASSES_VERIFIED);
+		return errors;
+	}
+
+	/**
+	 * Defines and links each modified class in its own class loader, other
+	 * classes are loaded from the modified archive and then the given parent
+	 * class loader. Classes are linked without being initialized. Classes in
+	 * packages that may only be defined by the bootstrap class loader (java.*)
+	 * are skipped.
+	 * @param modifiedArchive
+	 * @param modifiedClasses internal names of the modified classes
+	 * @param parent
+	 * @return the classes that failed to load sorted by class name
+	 * @throws IOException
+	 */
+	public List<VerificationError> load(File modifiedArchive, Set<String> modifiedClasses, ClassLoader parent) throws IOException {
+		long start = System.nanoTime();
+		List<VerificationError> errors = new ArrayList<VerificationError>();
+		URLClassLoader archiveClassLoader = new URLClassLoader(new URL[]{ modifiedArchive.toURI().toURL() }, parent);
+		JarFile modified = new JarFile(modifiedArchive);
+		try {
+			for(String className : new TreeSet<String>(modifiedClasses)){
+				if(className.startsWith("java/")){
+					continue;
+				}
+				byte[] modifiedClass = readEntry(modified, className + ".class");
+				if(modifiedClass == null){
+					continue;
+				}
+				IsolatedClassLoader isolatedClassLoader = new IsolatedClassLoader(className.replace('/', '.'), modifiedClass, archiveClassLoader);
+				try {
+					Class<?> clazz = isolatedClassLoader.loadClass(className.replace('/', '.'));
+					// reflecting on the declared methods links and verifies the class without initializing it
+					clazz.getDeclaredMethods();
+				} catch (VerifyError e){
+					errors.add(new VerificationError(className, null, "VerifyError: " + e.getMessage()));
+				} catch (LinkageError e){
+					errors.add(new VerificationError(className, null, e.toString()));
+				} catch (ClassNotFoundException | SecurityException e){
+					errors.add(new VerificationError(className, null, e.toString()));
+				}
+			}
+		} finally {
+			modified.close();
+			archiveClassLoader.close();
+			Metrics.timeSince(Metrics.VERIFICATION, start);
+		}
+		return errors;
+	}
+
+	/**
+	 * Defines a single class itself and delegates every other class to the parent
+	 */
+	private static class IsolatedClassLoader extends ClassLoader {
+		private String className;
+		private byte[] bytes;
+
+		public IsolatedClassLoader(String className, byte[] bytes, ClassLoader parent) {
+			super(parent);
+			this.className = className;
+			this.bytes = bytes;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if(!name.equals(className)){
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> clazz = findLoadedClass(name);
+				if(clazz == null){
+					clazz = defineClass(name, bytes, 0, bytes.length);
+				}
+				if(resolve){
+					resolveClass(clazz);
+				}
+				return clazz;
+			}
+		}
+	}
+
+	private static byte[] readEntry(JarFile jar, String entry) throws IOException {
+		JarEntry jarEntry = jar.getJarEntry(entry);
+		if(jarEntry == null){
+			return null;
+		}
+		InputStream input = jar.getInputStream(jarEntry);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while((n = input.read(buf)) > 0){
+				bytes.write(buf, 0, n);
+			}
+			return bytes.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+}
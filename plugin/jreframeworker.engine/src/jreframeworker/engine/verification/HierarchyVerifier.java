@@ -0,0 +1,95 @@
+package jreframeworker.engine.verification;
+
+import java.util.List;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.analysis.SimpleVerifier;
+
+import jreframeworker.engine.verification.ClassHierarchy.ClassInfo;
+
+/**
+ * A SimpleVerifier that answers type questions from an archive's class
+ * hierarchy instead of loading classes with Class.forName
+ */
+public class HierarchyVerifier extends SimpleVerifier {
+
+	private ClassHierarchy hierarchy;
+
+	public HierarchyVerifier(ClassHierarchy hierarchy, Type currentClass, Type currentSuperClass, List<Type> currentClassInterfaces, boolean isInterface) {
+		super(Opcodes.ASM5, currentClass, currentSuperClass, currentClassInterfaces, isInterface);
+		this.hierarchy = hierarchy;
+	}
+
+	@Override
+	protected boolean isInterface(Type type) {
+		if(type.getSort() != Type.OBJECT){
+			return false;
+		}
+		return getClassInfo(type).isInterface();
+	}
+
+	@Override
+	protected Type getSuperClass(Type type) {
+		if(type.getSort() != Type.OBJECT){
+			return Type.getObjectType("java/lang/Object");
+		}
+		String superName = getClassInfo(type).getSuperName();
+		return superName == null ? null : Type.getObjectType(superName);
+	}
+
+	@Override
+	protected boolean isAssignableFrom(Type type, Type other) {
+		if(type.equals(other)){
+			return true;
+		}
+		if(type.getSort() == Type.ARRAY){
+			if(other.getSort() != Type.ARRAY){
+				return false;
+			}
+			Type elementType = Type.getType(type.getDescriptor().substring(1));
+			Type otherElementType = Type.getType(other.getDescriptor().substring(1));
+			if(elementType.getSort() < Type.ARRAY || otherElementType.getSort() < Type.ARRAY){
+				// primitive arrays are only assignable from the same primitive array
+				return elementType.equals(otherElementType);
+			}
+			return isAssignableFrom(elementType, otherElementType);
+		}
+		if(type.getSort() != Type.OBJECT || other.getSort() < Type.ARRAY){
+			return false;
+		}
+		String className = type.getInternalName();
+		if(className.equals("java/lang/Object")){
+			return true;
+		}
+		if(other.getSort() == Type.ARRAY){
+			return className.equals("java/lang/Cloneable") || className.equals("java/io/Serializable");
+		}
+		// like the JVM verifier, interface types accept any object
+		if(isInterface(type)){
+			return true;
+		}
+		Type superClass = other;
+		while(superClass != null){
+			if(superClass.equals(type)){
+				return true;
+			}
+			superClass = getSuperClass(superClass);
+		}
+		return false;
+	}
+
+	@Override
+	protected Class<?> getClass(Type type) {
+		throw new UnsupportedOperationException("Classes are resolved from the archive hierarchy: " + type);
+	}
+
+	private ClassInfo getClassInfo(Type type) {
+		ClassInfo classInfo = hierarchy.getClassInfo(type.getInternalName());
+		if(classInfo == null){
+			throw new IllegalStateException("Unable to resolve class " + type.getInternalName());
+		}
+		return classInfo;
+	}
+
+}
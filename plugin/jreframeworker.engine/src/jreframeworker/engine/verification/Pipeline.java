@@ -0,0 +1,25 @@
+package jreframeworker.engine.verification;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A way of modifying an archive with the input classes of a build phase. The
+ * reference pipeline is the plain Engine, candidate pipelines are new or
+ * optimized implementations that must produce structurally equal archives.
+ */
+public interface Pipeline {
+
+	/**
+	 * Modifies the archive with the input classes in the given order and writes
+	 * the modified archive to the output file
+	 * @param archive
+	 * @param inputClasses
+	 * @param phase
+	 * @param output
+	 * @throws IOException
+	 */
+	public void run(File archive, List<byte[]> inputClasses, int phase, File output) throws IOException;
+
+}
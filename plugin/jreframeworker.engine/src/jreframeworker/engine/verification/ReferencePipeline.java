@@ -0,0 +1,43 @@
+package jreframeworker.engine.verification;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import jreframeworker.engine.Engine;
+
+/**
+ * The reference pipeline, a single Engine that processes every input class
+ * without a modification index, shared transformations or a memory ceiling
+ */
+public class ReferencePipeline implements Pipeline {
+
+	private String mergeRenamePrefix;
+	private ClassLoader[] classLoaders;
+
+	/**
+	 * @param mergeRenamePrefix
+	 * @param classLoaders the class loaders used to resolve common superclasses, none for the engine defaults
+	 */
+	public ReferencePipeline(String mergeRenamePrefix, ClassLoader... classLoaders) {
+		this.mergeRenamePrefix = mergeRenamePrefix;
+		this.classLoaders = classLoaders;
+	}
+
+	@Override
+	public void run(File archive, List<byte[]> inputClasses, int phase, File output) throws IOException {
+		Engine engine = new Engine(archive, mergeRenamePrefix);
+		try {
+			if(classLoaders.length > 0){
+				engine.setClassLoaders(classLoaders);
+			}
+			for(byte[] inputClass : inputClasses){
+				engine.process(inputClass, phase);
+			}
+			engine.save(output);
+		} finally {
+			engine.close();
+		}
+	}
+
+}
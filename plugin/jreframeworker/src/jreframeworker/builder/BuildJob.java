@@ -0,0 +1,279 @@
+package jreframeworker.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+import jreframeworker.core.BuildFile;
+import jreframeworker.core.IncrementalBuilder;
+import jreframeworker.core.IncrementalBuilder.DeltaSource;
+import jreframeworker.core.IncrementalBuilder.DeltaSource.Delta;
+import jreframeworker.core.IncrementalBuilder.IncrementalBuilderException;
+import jreframeworker.core.JReFrameworkerProject;
+import jreframeworker.log.Log;
+
+/**
+ * Runs the engine work of the builds of a project in the background, so the
+ * workspace build only collects the changed sources and is not blocked while
+ * large target archives are rewritten.
+ *
+ * The job holds a rule for the build directory of the project and for each
+ * target archive instead of a workspace rule, so builds of independent
+ * projects and targets run concurrently. Changes reported while the job is
+ * waiting or running are coalesced into its next run. After each run the
+ * written files are refreshed and the classpath is updated in a short
+ * workspace job.
+ */
+public class BuildJob extends Job {
+
+	// gives successive workspace builds a chance to coalesce
+	private static final long COALESCING_DELAY = 250;
+
+	private JReFrameworkerProject jrefProject;
+	private IncrementalBuilder incrementalBuilder;
+
+	// the work reported since the last run, guarded by the job
+	private Map<File,DeltaSource> pendingSources = new LinkedHashMap<File,DeltaSource>();
+	private boolean pendingTargetUpdate = false;
+
+	// the build outputs not yet published to the workspace, guarded by the job
+	private Set<File> unpublishedFiles = new HashSet<File>();
+	private Map<String,File> unpublishedLibraries = new HashMap<String,File>();
+	private Job publishJob;
+
+	public BuildJob(JReFrameworkerProject jrefProject, IncrementalBuilder incrementalBuilder) {
+		super("Building JReFrameworker Project: " + jrefProject.getProject().getName());
+		this.jrefProject = jrefProject;
+		this.incrementalBuilder = incrementalBuilder;
+		this.publishJob = new PublishJob();
+		addJobChangeListener(new JobChangeAdapter() {
+			@Override
+			public void done(IJobChangeEvent event) {
+				// changes reported while the job was running, a canceled build waits for the next change
+				if(event.getResult().getSeverity() != IStatus.CANCEL){
+					scheduleIfIdle();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds changed sources to the next build, replacing the earlier pending
+	 * changes of the same sources
+	 * @param sourceDeltas
+	 */
+	public void enqueue(Set<DeltaSource> sourceDeltas) {
+		synchronized (this) {
+			for(DeltaSource source : sourceDeltas){
+				addPendingSource(source);
+			}
+		}
+		scheduleIfIdle();
+	}
+
+	/**
+	 * Brings the outputs up to date with the targets of the build file before
+	 * the pending sources of the next build are processed
+	 */
+	public void enqueueTargetUpdate() {
+		synchronized (this) {
+			pendingTargetUpdate = true;
+		}
+		scheduleIfIdle();
+	}
+
+	/**
+	 * Discards the pending changes and waits for a running build to finish
+	 * @throws InterruptedException
+	 */
+	public void cancelAndJoin() throws InterruptedException {
+		synchronized (this) {
+			pendingSources.clear();
+			pendingTargetUpdate = false;
+		}
+		cancel();
+		join();
+	}
+
+	private void addPendingSource(DeltaSource source) {
+		DeltaSource pendingSource = pendingSources.remove(source.getSourceFile());
+		DeltaSource mergedSource = pendingSource != null ? merge(pendingSource, source) : source;
+		if(mergedSource != null){
+			pendingSources.put(source.getSourceFile(), mergedSource);
+		}
+	}
+
+	/**
+	 * Returns the change of a source equivalent to an earlier pending change
+	 * followed by a later change, or null if the changes cancel out
+	 * @param earlier
+	 * @param later
+	 * @return
+	 */
+	private static DeltaSource merge(DeltaSource earlier, DeltaSource later) {
+		if(earlier.getDelta() == Delta.ADDED){
+			if(later.getDelta() == Delta.REMOVED){
+				// the source was never built
+				return null;
+			}
+			return new DeltaSource(later.getSourceFile(), later.getClassNode(), later.getModificationIndex(), Delta.ADDED);
+		} else if(earlier.getDelta() == Delta.REMOVED && later.getDelta() == Delta.ADDED){
+			// the built source was replaced
+			return new DeltaSource(later.getSourceFile(), later.getClassNode(), later.getModificationIndex(), Delta.MODIFIED);
+		}
+		return later;
+	}
+
+	private synchronized void scheduleIfIdle() {
+		if(getState() != Job.NONE || (pendingSources.isEmpty() && !pendingTargetUpdate)){
+			// a waiting or sleeping job picks up the pending changes when it runs
+			return;
+		}
+		setRule(getBuildRule());
+		schedule(COALESCING_DELAY);
+	}
+
+	/**
+	 * Returns a rule for the build directory of the project and for each target
+	 * @return
+	 */
+	private ISchedulingRule getBuildRule() {
+		List<ISchedulingRule> rules = new LinkedList<ISchedulingRule>();
+		rules.add(BuildSchedulingRule.forBuildDirectory(jrefProject.getBuildDirectory()));
+		try {
+			for(BuildFile.Target target : jrefProject.getBuildFile().getTargets()){
+				rules.add(BuildSchedulingRule.forTarget(target.getName()));
+			}
+		} catch (Exception e){
+			Log.warning("Unable to read build targets of " + jrefProject.getProject().getName(), e);
+		}
+		return MultiRule.combine(rules.toArray(new ISchedulingRule[rules.size()]));
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		Set<DeltaSource> sourceDeltas;
+		boolean targetUpdate;
+		synchronized (this) {
+			sourceDeltas = new HashSet<DeltaSource>(pendingSources.values());
+			targetUpdate = pendingTargetUpdate;
+			pendingSources.clear();
+			pendingTargetUpdate = false;
+		}
+		if(monitor.isCanceled()){
+			// keep the changes for the next build, ahead of the changes reported since
+			synchronized (this) {
+				Map<File,DeltaSource> laterSources = new LinkedHashMap<File,DeltaSource>(pendingSources);
+				pendingSources.clear();
+				for(DeltaSource source : sourceDeltas){
+					pendingSources.put(source.getSourceFile(), source);
+				}
+				for(DeltaSource source : laterSources.values()){
+					addPendingSource(source);
+				}
+				pendingTargetUpdate |= targetUpdate;
+			}
+			return Status.CANCEL_STATUS;
+		}
+
+		if(targetUpdate){
+			try {
+				if(!incrementalBuilder.updateTargets(monitor)){
+					Log.warning("Targets of " + jrefProject.getProject().getName() + " are unknown, clean the project to rebuild.");
+				}
+			} catch (IncrementalBuilderException e) {
+				Log.error("Error updating JReFrameworker project targets", e);
+			}
+		}
+		// sources whose class files changed since they were processed are
+		// reprocessed even if the change was not reported yet
+		if(!sourceDeltas.isEmpty() || incrementalBuilder.hasModifiedSources()){
+			try {
+				incrementalBuilder.build(sourceDeltas, monitor);
+			} catch (IncrementalBuilderException e) {
+				Log.error("Error Building JReFrameworker Project", e);
+			}
+		}
+
+		// hand the outputs of this run to the workspace
+		synchronized (this) {
+			unpublishedFiles.addAll(incrementalBuilder.getModifiedFiles());
+			unpublishedLibraries.putAll(incrementalBuilder.getRestoredLibraries());
+		}
+		incrementalBuilder.clearModifiedFiles();
+		incrementalBuilder.clearRestoredLibraries();
+		publishJob.schedule();
+
+		monitor.done();
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Refreshes the files written by the builds and points the classpath at
+	 * the modified libraries
+	 */
+	private class PublishJob extends WorkspaceJob {
+
+		public PublishJob() {
+			super("Updating JReFrameworker Project Classpath: " + jrefProject.getProject().getName());
+			// updating the classpath may touch the external folders project of the Java model
+			setRule(ResourcesPlugin.getWorkspace().getRoot());
+			setSystem(true);
+		}
+
+		@Override
+		public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
+			Set<File> modifiedFiles;
+			Map<String,File> updatedLibraries;
+			synchronized (BuildJob.this) {
+				modifiedFiles = new HashSet<File>(unpublishedFiles);
+				updatedLibraries = new HashMap<String,File>(unpublishedLibraries);
+				unpublishedFiles.clear();
+				unpublishedLibraries.clear();
+			}
+			if(modifiedFiles.isEmpty() && updatedLibraries.isEmpty()){
+				return Status.OK_STATUS;
+			}
+
+			// refresh only the files written by the build instead of the whole project
+			jrefProject.refresh(modifiedFiles);
+
+			// if the build phase directory does not exist then nothing was done during the phase
+			File buildDirectory = jrefProject.getBuildDirectory();
+			try {
+				if(buildDirectory.exists()){
+					// unchanged libraries are passed as well, their classpath entries may
+					// have been reset to the original libraries since the last build
+					for(File file : buildDirectory.listFiles()){
+						if(file.getName().endsWith(".jar")){
+							updatedLibraries.put(file.getName(), file);
+						}
+					}
+				}
+				jrefProject.updateProjectLibraries(updatedLibraries);
+			} catch (IOException e) {
+				Log.warning("Unable to update project classpath", e);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+}
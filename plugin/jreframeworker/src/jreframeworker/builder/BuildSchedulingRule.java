@@ -0,0 +1,71 @@
+package jreframeworker.builder;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+/**
+ * A scheduling rule for a resource of a build that is not a workspace
+ * resource, such as a target archive or the build directory of a project.
+ * Rules for the same resource conflict, so builds that share a resource are
+ * serialized while all other builds run concurrently and without holding
+ * workspace locks.
+ */
+public class BuildSchedulingRule implements ISchedulingRule {
+
+	private String resource;
+
+	private BuildSchedulingRule(String resource) {
+		this.resource = resource;
+	}
+
+	/**
+	 * Returns the rule for the engines modifying a target archive
+	 * @param targetName
+	 * @return
+	 */
+	public static BuildSchedulingRule forTarget(String targetName) {
+		return new BuildSchedulingRule("target:" + targetName);
+	}
+
+	/**
+	 * Returns the rule for the outputs written to a project build directory
+	 * @param buildDirectory
+	 * @return
+	 */
+	public static BuildSchedulingRule forBuildDirectory(File buildDirectory) {
+		return new BuildSchedulingRule("directory:" + buildDirectory.getAbsolutePath());
+	}
+
+	@Override
+	public boolean contains(ISchedulingRule rule) {
+		return this == rule || equals(rule);
+	}
+
+	@Override
+	public boolean isConflicting(ISchedulingRule rule) {
+		return equals(rule);
+	}
+
+	@Override
+	public int hashCode() {
+		return resource.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		return resource.equals(((BuildSchedulingRule) obj).resource);
+	}
+
+	@Override
+	public String toString() {
+		return resource;
+	}
+
+}
@@ -2,11 +2,20 @@ package jreframeworker.builder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
@@ -22,8 +31,9 @@ import jreframeworker.core.BuilderUtils;
 import jreframeworker.core.IncrementalBuilder;
 import jreframeworker.core.IncrementalBuilder.DeltaSource;
 import jreframeworker.core.IncrementalBuilder.DeltaSource.Delta;
-import jreframeworker.core.IncrementalBuilder.IncrementalBuilderException;
 import jreframeworker.core.JReFrameworkerProject;
+import jreframeworker.core.SourceResolutionCache;
+import jreframeworker.core.SourceResolutionCache.Resolution;
 import jreframeworker.engine.utils.BytecodeUtils;
 import jreframeworker.log.Log;
 
@@ -33,24 +43,38 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 
 	private IncrementalBuilder incrementalBuilder;
 	
+	// runs the engine work of the builds in the background
+	private BuildJob buildJob;
+	
+	// sources changed since the build state of the last session was saved,
+	// null if no build state was restored
+	private Set<DeltaSource> restoredSourceDeltas = null;
+	
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see org.eclipse.core.internal.events.InternalBuilder#build(int,java.util.Map, org.eclipse.core.runtime.IProgressMonitor)
 	 */
 	@SuppressWarnings("rawtypes")
-	protected IProject[] build(int kind, Map args, IProgressMonitor monitor) throws CoreException {
+	protected IProject[] build(final int kind, Map args, IProgressMonitor monitor) throws CoreException {
+		boolean restoredBuildState = true;
 		if(incrementalBuilder == null){
 			JReFrameworkerProject jrefProject = getJReFrameworkerProject();
 			if(jrefProject != null){
 				incrementalBuilder = new IncrementalBuilder(getJReFrameworkerProject());
+				buildJob = new BuildJob(jrefProject, incrementalBuilder);
+				// the first build of a session continues from the build state of the last session
+				restoredSourceDeltas = incrementalBuilder.restoreState();
+				restoredBuildState = restoredSourceDeltas != null;
 			} else {
 				Log.warning(getProject().getName() + " is not a valid JReFrameworker project!");
 				return null;
 			}
 		}
 		
-		if (kind == FULL_BUILD) {
+		// the workspace build only collects the changed sources, the engines run
+		// in a background job that refreshes its outputs and updates the classpath
+		if (kind == FULL_BUILD || !restoredBuildState) {
 			fullBuild(monitor);
 		} else {
 			IResourceDelta delta = getDelta(getProject());
@@ -65,29 +89,46 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 	}
 	
 	protected void clean(IProgressMonitor monitor) throws CoreException {
+		getProject().getWorkspace().run(new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				cleanProject(monitor);
+			}
+		}, getProject(), IWorkspace.AVOID_UPDATE, monitor);
+	}
+	
+	private void cleanProject(IProgressMonitor monitor) throws CoreException {
 		// reset the incremental builder and purge files and build state from the project
 		JReFrameworkerProject jrefProject = getJReFrameworkerProject();
 		if(jrefProject != null){
 			monitor.beginTask("Cleaning: " + jrefProject.getProject().getName(), 1);
 			Log.info("Cleaning: " + jrefProject.getProject().getName());
 			
+			// the outputs of a running build are discarded
+			if(buildJob != null){
+				try {
+					buildJob.cancelAndJoin();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
 			incrementalBuilder = new IncrementalBuilder(jrefProject);
+			buildJob = new BuildJob(jrefProject, incrementalBuilder);
+			incrementalBuilder.clearState();
+			restoredSourceDeltas = null;
 			
 			// clear the Java compiler error markers (these will be fixed and restored if they remain after building phases)
 //			jrefProject.getProject().deleteMarkers(JavaCore.ERROR, true, IProject.DEPTH_INFINITE);
 			jrefProject.getProject().deleteMarkers(IJavaModelMarker.JAVA_MODEL_PROBLEM_MARKER, true, IProject.DEPTH_INFINITE);
 
-			jrefProject.disableJavaBuilder();
 			try {
+				// cleaning restores the original classpath and refreshes the build directory
 				jrefProject.clean();
-				jrefProject.restoreOriginalClasspathEntries(); 
 			} catch (Exception e) {
 				Log.error("Error cleaning " + jrefProject.getProject().getName(), e);
 			}
-			jrefProject.enableJavaBuilder();
 			
 			this.forgetLastBuiltState();
-			jrefProject.refresh();
 			
 			monitor.worked(1);
 		} else {
@@ -100,38 +141,78 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 		monitor.beginTask("Full Build: " + jrefProject.getProject().getName(), 1);
 		Log.info("Full Build: " + jrefProject.getProject().getName());
 		
+		// a full build processes every source anyway
+		restoredSourceDeltas = null;
+		
 		// discover class files to process and filter out
 		// the compilation units with build errors
 		Set<DeltaSource> sourcesToProcess = new HashSet<DeltaSource>();
+		final SourceResolutionCache sourceResolutions = SourceResolutionCache.getCache(jrefProject);
 		ICompilationUnit[] compilationUnits = BuilderUtils.getSourceCompilationUnits(jrefProject.getJavaProject());
-		for(ICompilationUnit compilationUnit : compilationUnits){
-			try {
-				File sourceFile = compilationUnit.getCorrespondingResource().getLocation().toFile().getCanonicalFile();
-				File classFile = BuilderUtils.getCorrespondingClassFile(jrefProject, sourceFile);
-				if(classFile.exists()){
-					if(!BuilderUtils.hasSevereProblems(compilationUnit)){
-						ClassNode classNode = BytecodeUtils.getClassNode(classFile);
-						if(BuilderUtils.hasTopLevelAnnotation(classNode)){
-							// in a full build all sources are added deltas
-							DeltaSource source = new DeltaSource(sourceFile, classNode, Delta.ADDED);
-							sourcesToProcess.add(source);
+		ExecutorService executor = SourceResolutionCache.getExecutor();
+		List<Future<DeltaSource>> results = new ArrayList<Future<DeltaSource>>(compilationUnits.length);
+		try {
+			// class files are resolved and parsed in parallel and gathered
+			// in compilation unit order so the build is deterministic
+			for(ICompilationUnit compilationUnit : compilationUnits){
+				final File sourceFile = compilationUnit.getCorrespondingResource().getLocation().toFile().getCanonicalFile();
+				// unchanged sources keep their resolution from earlier builds
+				final Resolution currentResolution = sourceResolutions.getCurrentResolution(sourceFile);
+				final File classFile;
+				final boolean severeProblems;
+				if(currentResolution == null){
+					// markers and the Java model are only read on the build thread
+					classFile = BuilderUtils.getCorrespondingClassFile(jrefProject, sourceFile);
+					severeProblems = BuilderUtils.hasSevereProblems(compilationUnit);
+				} else {
+					classFile = currentResolution.getClassFile();
+					severeProblems = false;
+				}
+				results.add(executor.submit(new Callable<DeltaSource>() {
+					@Override
+					public DeltaSource call() throws Exception {
+						Resolution resolution = currentResolution;
+						if(resolution == null){
+							resolution = sourceResolutions.resolveSource(sourceFile, classFile, severeProblems);
+						}
+						if(resolution == null || !resolution.isModificationSource()){
+							return null;
 						}
+						// in a full build all sources are added deltas
+						ClassNode classNode = BytecodeUtils.getClassNode(resolution.getClassFile());
+						return new DeltaSource(sourceFile, classNode, resolution.getModificationIndex(), Delta.ADDED);
 					}
+				}));
+			}
+			for(Future<DeltaSource> result : results){
+				DeltaSource source = result.get();
+				if(source != null){
+					sourcesToProcess.add(source);
 				}
-			} catch (IOException e) {
-				Log.error("Error resolving compilation units", e);
-				return;
+			}
+		} catch (IOException e) {
+			Log.error("Error resolving compilation units", e);
+			return;
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof CoreException){
+				throw (CoreException) e.getCause();
+			}
+			Log.error("Error resolving compilation units", e.getCause());
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Log.warning("Full build was interrupted", e);
+			return;
+		} finally {
+			// the executor is shared, only the tasks of this build are stopped
+			for(Future<DeltaSource> result : results){
+				result.cancel(true);
 			}
 		}
 		
-		try {
-			// build the project
-			if(!sourcesToProcess.isEmpty()){
-				incrementalBuilder.build(sourcesToProcess, monitor);
-				updateBuildClasspath(jrefProject);
-			}
-		} catch (IncrementalBuilderException e) {
-			Log.error("Error Building JReFrameworker Project", e);
+		// build the project
+		if(!sourcesToProcess.isEmpty()){
+			buildJob.enqueue(sourcesToProcess);
 		}
 		
 		// OLD CODE....just keeping for posterity...until cleaned up
@@ -186,59 +267,37 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 	 */
 	protected void incrementalBuild(IResourceDelta delta, IProgressMonitor monitor) throws CoreException {
 		Log.info("Incremental Build");
-		boolean incrementalBuildChangesMade = false;
 		JReFrameworkerProject jrefProject = incrementalBuilder.getJReFrameworkerProject();
 		BuildDeltaVisitor deltaVisitor = new BuildDeltaVisitor(jrefProject);
 		delta.accept(deltaVisitor);
 		if(!deltaVisitor.getDeltaBuildFilesToProcess().isEmpty()){
-			// TODO: this could be improved to just detect changes to individual libraries...but too much work for now...
-			// changes to the build file require a full build
-			clean(monitor);
-			fullBuild(monitor);
-			return;
-		} else {
-			// process incremental changes
-			Set<DeltaSource> sourceDeltas = deltaVisitor.getDeltaSourcesToProcess();
-			if(!sourceDeltas.isEmpty()){
-				try {
-					incrementalBuilder.build(sourceDeltas, monitor);
-					incrementalBuildChangesMade = true;
-				} catch (IncrementalBuilderException e) {
-					Log.error("Error incrementally building JReFrameworker project", e);
-				}
+			// changes to the build file only require building the added targets and
+			// dropping the removed targets, unless the targets of the outputs are unknown.
+			// build file changes are rare, so the builds already reported are finished first
+			try {
+				buildJob.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+			if(!incrementalBuilder.canUpdateTargets()){
+				cleanProject(monitor);
+				fullBuild(monitor);
+				return;
+			}
+			buildJob.enqueueTargetUpdate();
 		}
 		
-		if(incrementalBuildChangesMade){
-			updateBuildClasspath(jrefProject);
+		// process incremental changes, including the changes made since the last session
+		Set<DeltaSource> sourceDeltas = deltaVisitor.getDeltaSourcesToProcess();
+		if(restoredSourceDeltas != null){
+			sourceDeltas.addAll(restoredSourceDeltas);
+			restoredSourceDeltas = null;
 		}
-	}
-
-	private void updateBuildClasspath(JReFrameworkerProject jrefProject) throws CoreException {
-		// make sure we are working with the latest files
-		jrefProject.refresh();
-		
-		// remove the java nature to prevent the Java builder from running until we are ready
-		// if the build phase directory is null or does not exist then nothing was done during the phase
-		File buildDirectory = jrefProject.getBuildDirectory();
-		if(buildDirectory.exists()){
-			jrefProject.disableJavaBuilder();
-			for(File file : buildDirectory.listFiles()){
-				if(file.getName().endsWith(".jar")){
-					File modifiedLibrary = file;
-					try {
-						jrefProject.updateProjectLibrary(modifiedLibrary.getName(), modifiedLibrary);
-					} catch (IOException e) {
-						Log.warning("Unable to update project classpath", e);
-					}
-				}
-			}
-			// restore the java nature
-			jrefProject.enableJavaBuilder();
-			jrefProject.refresh();
+		if(!sourceDeltas.isEmpty()){
+			buildJob.enqueue(sourceDeltas);
 		}
 	}
-	
+
 	private static class BuildDeltaVisitor implements IResourceDeltaVisitor {
 		
 		private static class DeltaBuildFile {
@@ -264,28 +323,13 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 		private JReFrameworkerProject jrefProject;
 		private Set<DeltaSource> deltaSourcesToProcess = new HashSet<DeltaSource>();
 		private Set<DeltaBuildFile> buildFilesToProcess = new HashSet<DeltaBuildFile>();
-		private Set<File> resolvedFiles = new HashSet<File>();
+		
+		// only the files in the delta are resolved, unchanged files keep their resolution
+		private SourceResolutionCache sourceResolutions;
 		
 		public BuildDeltaVisitor(JReFrameworkerProject jrefProject){
 			this.jrefProject = jrefProject;
-			ICompilationUnit[] compilationUnits = BuilderUtils.getSourceCompilationUnits(jrefProject.getJavaProject());
-			for(ICompilationUnit compilationUnit : compilationUnits){
-				try {
-					File sourceFile = compilationUnit.getCorrespondingResource().getLocation().toFile().getCanonicalFile();
-					File classFile = BuilderUtils.getCorrespondingClassFile(jrefProject, sourceFile);
-					if(classFile.exists()){
-						if(!BuilderUtils.hasSevereProblems(compilationUnit)){
-							ClassNode classNode = BytecodeUtils.getClassNode(classFile);
-							if(BuilderUtils.hasTopLevelAnnotation(classNode)){
-								resolvedFiles.add(sourceFile);
-								resolvedFiles.add(classFile);
-							}
-						}
-					}
-				} catch (IOException | CoreException e) {
-					throw new IllegalArgumentException("Error resolving compilation units", e);
-				}
-			}
+			this.sourceResolutions = SourceResolutionCache.getCache(jrefProject);
 		}
 		
 		public Set<DeltaSource> getDeltaSourcesToProcess(){
@@ -304,7 +348,8 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 				if(!relativeResourcePath.isEmpty()){ 
 					String resourcePath = jrefProject.getProject().getLocation().toFile().getCanonicalPath() + File.separator + relativeResourcePath;
 					File resource = new File(resourcePath);
-					if(resource.exists() && resource.isFile()){
+					boolean removed = delta.getKind() == IResourceDelta.REMOVED && delta.getResource().getType() == IResource.FILE;
+					if((resource.exists() && resource.isFile()) || removed){
 						
 						String changeType = "Added: ";
 						switch (delta.getKind()) {
@@ -321,59 +366,54 @@ public class JReFrameworkerBuilder extends IncrementalProjectBuilder {
 						Log.info(changeType + resource.getName());
 						
 						if(resource.getName().equals(BuildFile.XML_BUILD_FILENAME)){
-							buildFilesToProcess.add(new DeltaBuildFile(resource, delta));
+							if(!removed){
+								buildFilesToProcess.add(new DeltaBuildFile(resource, delta));
+							}
 						} else if(resource.getName().endsWith(".java") || resource.getName().endsWith(".class")){
-							if(resolvedFiles.contains(resource)){
-								// convert IResourceDelta to SourceDelta.Delta types
-								Delta sourceDeltaType = Delta.ADDED;
-								switch (delta.getKind()) {
-								case IResourceDelta.ADDED:
-									sourceDeltaType = Delta.ADDED;
-									break;
-								case IResourceDelta.CHANGED:
-									sourceDeltaType = Delta.MODIFIED;
-									break;
-								case IResourceDelta.REMOVED:
-									sourceDeltaType = Delta.REMOVED;
-									break;
-								}
-								
-								// construct DeltaSource objects for each case
-								switch (delta.getKind()) {
-								case IResourceDelta.ADDED:
-								case IResourceDelta.CHANGED:
+							// convert IResourceDelta to SourceDelta.Delta types
+							Delta sourceDeltaType = Delta.ADDED;
+							switch (delta.getKind()) {
+							case IResourceDelta.ADDED:
+								sourceDeltaType = Delta.ADDED;
+								break;
+							case IResourceDelta.CHANGED:
+								sourceDeltaType = Delta.MODIFIED;
+								break;
+							case IResourceDelta.REMOVED:
+								sourceDeltaType = Delta.REMOVED;
+								break;
+							}
+							
+							// construct DeltaSource objects for each case
+							switch (delta.getKind()) {
+							case IResourceDelta.ADDED:
+							case IResourceDelta.CHANGED:
+								try {
+									Resolution resolution;
 									if(resource.getName().endsWith(".java")){
-										try {
-											File sourceFile = resource;
-											File classFile = BuilderUtils.getCorrespondingClassFile(jrefProject, sourceFile);
-											ClassNode classNode = BytecodeUtils.getClassNode(classFile);
-											deltaSourcesToProcess.add(new IncrementalBuilder.DeltaSource(sourceFile, classNode, sourceDeltaType));
-										} catch (Exception e){
-											throw new IllegalArgumentException("Unable to process source: " + resource.getName(), e);
-										}
-									} else if(resource.getName().endsWith(".class")){
-										try {
-											File classFile = resource;
-											ClassNode classNode = BytecodeUtils.getClassNode(classFile);
-											File sourceFile = BuilderUtils.getCorrespondingSourceFile(jrefProject, classFile);
-											deltaSourcesToProcess.add(new IncrementalBuilder.DeltaSource(sourceFile, classNode, sourceDeltaType));
-										} catch (Exception e){
-											throw new IllegalArgumentException("Unable to process source: " + resource.getName(), e);
-										}
+										resolution = sourceResolutions.resolveSource(resource);
+									} else {
+										resolution = sourceResolutions.resolveClass(resource);
 									}
-									break;
-								case IResourceDelta.REMOVED:
-									// a removed source won't have a corresponding class file
-									if(resource.getName().endsWith(".java")){
-										try {
-											File sourceFile = resource;
-											deltaSourcesToProcess.add(new IncrementalBuilder.DeltaSource(sourceFile, sourceDeltaType));
-										} catch (Exception e){
-											throw new IllegalArgumentException("Unable to process source: " + resource.getName(), e);
-										}
+									if(resolution != null && resolution.isModificationSource()){
+										ClassNode classNode = BytecodeUtils.getClassNode(resolution.getClassFile());
+										deltaSourcesToProcess.add(new IncrementalBuilder.DeltaSource(resolution.getSourceFile(), classNode, resolution.getModificationIndex(), sourceDeltaType));
+									}
+								} catch (Exception e){
+									throw new IllegalArgumentException("Unable to process source: " + resource.getName(), e);
+								}
+								break;
+							case IResourceDelta.REMOVED:
+								// a removed source won't have a corresponding class file,
+								// so its last resolution tells if it was a modification source
+								if(resource.getName().endsWith(".java")){
+									Resolution resolution = sourceResolutions.getResolution(resource);
+									if(resolution != null && resolution.isModificationSource()){
+										deltaSourcesToProcess.add(new IncrementalBuilder.DeltaSource(resource, sourceDeltaType));
 									}
-									break;
+									sourceResolutions.invalidate(resource);
 								}
+								break;
 							}
 						}
 					}
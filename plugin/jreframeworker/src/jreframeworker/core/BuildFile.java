@@ -37,6 +37,14 @@ public class BuildFile {
 		this.jrefXMLFile = jrefXMLFile;
 	}
 	
+	/**
+	 * Returns the jreframeworker.xml file
+	 * @return
+	 */
+	public File getFile(){
+		return jrefXMLFile;
+	}
+	
 	/**
 	 * A build file is equivalent to an object if it is representing the same file
 	 */
@@ -83,6 +91,43 @@ public class BuildFile {
 		}
 		
 		public abstract boolean isRuntime();
+		
+		/**
+		 * Targets are equivalent if they are of the same kind and have the same name
+		 */
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((name == null) ? 0 : name.hashCode());
+			result = prime * result + (isRuntime() ? 1231 : 1237);
+			return result;
+		}
+		
+		/**
+		 * Targets are equivalent if they are of the same kind and have the same name
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Target other = (Target) obj;
+			if (name == null) {
+				if (other.name != null)
+					return false;
+			} else if (!name.equals(other.name))
+				return false;
+			return true;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
 	}
 	
 	/**
@@ -101,6 +146,33 @@ public class BuildFile {
 		public String getLibraryPath(){
 			return path;
 		}
+		
+		/**
+		 * Library targets are equivalent if they have the same name and path
+		 */
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = super.hashCode();
+			result = prime * result + ((path == null) ? 0 : path.hashCode());
+			return result;
+		}
+		
+		/**
+		 * Library targets are equivalent if they have the same name and path
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!super.equals(obj))
+				return false;
+			LibraryTarget other = (LibraryTarget) obj;
+			if (path == null) {
+				if (other.path != null)
+					return false;
+			} else if (!path.equals(other.path))
+				return false;
+			return true;
+		}
 
 		@Override
 		public boolean isRuntime() {
@@ -0,0 +1,375 @@
+package jreframeworker.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * The state of the incremental builder persisted between IDE sessions in the
+ * project's .jref directory, so the first build of a session can be
+ * incremental. The state records the targets that were built, the processed
+ * sources with their phases, class file hashes and bytecode fingerprints, the
+ * classes each source touched, and the size, timestamp and hash of each build
+ * input and phase checkpoint. Paths are stored relative to the project.
+ */
+public class BuildState {
+
+	public static final int MAGIC = 0x4A524553; // "JRES"
+	public static final short VERSION = 4;
+
+	/**
+	 * A processed source and the phases it was processed in
+	 */
+	public static class SourceState {
+		private File sourceFile;
+		private File classFile;
+		private String classHash;
+		private String fingerprint;
+		private List<Integer> phases;
+
+		public SourceState(File sourceFile, File classFile, String classHash, String fingerprint, List<Integer> phases) {
+			this.sourceFile = sourceFile;
+			this.classFile = classFile;
+			this.classHash = classHash;
+			this.fingerprint = fingerprint;
+			this.phases = phases;
+		}
+
+		public File getSourceFile() {
+			return sourceFile;
+		}
+
+		public File getClassFile() {
+			return classFile;
+		}
+
+		public String getClassHash() {
+			return classHash;
+		}
+
+		/**
+		 * Returns the fingerprint of the semantically relevant bytecode of the class
+		 * @return
+		 */
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		public List<Integer> getPhases() {
+			return phases;
+		}
+	}
+
+	/**
+	 * A file the build read or wrote, such as a target library or phase jar
+	 */
+	public static class Checkpoint {
+		private File file;
+		private long size;
+		private long lastModified;
+		private String hash;
+
+		public Checkpoint(File file, long size, long lastModified, String hash) {
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Records the current content of the file
+		 * @param file
+		 * @return
+		 * @throws IOException
+		 */
+		public static Checkpoint create(File file) throws IOException {
+			return new Checkpoint(file, file.length(), file.lastModified(), hash(file));
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		/**
+		 * Returns true if the file was not touched since the checkpoint was created
+		 * @return
+		 */
+		public boolean isCurrent() {
+			return file.exists() && file.length() == size && file.lastModified() == lastModified;
+		}
+
+		/**
+		 * Returns true if the file still has the recorded content, the file is
+		 * only hashed if its size or timestamp changed
+		 * @return
+		 */
+		public boolean isValid() {
+			if(isCurrent()){
+				return true;
+			}
+			try {
+				return file.exists() && file.length() == size && hash(file).equals(hash);
+			} catch (IOException e){
+				return false;
+			}
+		}
+	}
+
+	private String buildFileHash;
+	private int currentPhase;
+	private Set<BuildFile.Target> targets;
+	private List<SourceState> sources;
+	private ProvenanceGraph provenance;
+	private List<Checkpoint> checkpoints;
+
+	public BuildState(String buildFileHash, int currentPhase, Set<BuildFile.Target> targets, List<SourceState> sources, ProvenanceGraph provenance, List<Checkpoint> checkpoints) {
+		this.buildFileHash = buildFileHash;
+		this.currentPhase = currentPhase;
+		this.targets = targets;
+		this.sources = sources;
+		this.provenance = provenance;
+		this.checkpoints = checkpoints;
+	}
+
+	/**
+	 * Returns the hash of the build file the state was built with
+	 * @return
+	 */
+	public String getBuildFileHash() {
+		return buildFileHash;
+	}
+
+	public int getCurrentPhase() {
+		return currentPhase;
+	}
+
+	/**
+	 * Returns the targets the outputs were built for
+	 * @return
+	 */
+	public Set<BuildFile.Target> getTargets() {
+		return targets;
+	}
+
+	public List<SourceState> getSources() {
+		return sources;
+	}
+
+	/**
+	 * Returns the classes each processed source touched in each phase and target
+	 * @return
+	 */
+	public ProvenanceGraph getProvenance() {
+		return provenance;
+	}
+
+	public List<Checkpoint> getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * Writes the state to the given file
+	 * @param stateFile
+	 * @param projectRoot
+	 * @throws IOException
+	 */
+	public void write(File stateFile, File projectRoot) throws IOException {
+		stateFile.getParentFile().mkdirs();
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stateFile)));
+		try {
+			data.writeInt(MAGIC);
+			data.writeShort(VERSION);
+			data.writeUTF(buildFileHash);
+			data.writeInt(currentPhase);
+			data.writeInt(targets.size());
+			for(BuildFile.Target target : targets){
+				data.writeUTF(target.getName());
+				data.writeBoolean(target.isRuntime());
+				data.writeUTF(target.isRuntime() ? "" : ((BuildFile.LibraryTarget) target).getLibraryPath());
+			}
+			data.writeInt(sources.size());
+			for(SourceState source : sources){
+				data.writeUTF(relativize(projectRoot, source.sourceFile));
+				data.writeUTF(relativize(projectRoot, source.classFile));
+				data.writeUTF(source.classHash);
+				data.writeUTF(source.fingerprint);
+				data.writeInt(source.phases.size());
+				for(int phase : source.phases){
+					data.writeInt(phase);
+				}
+			}
+			Set<File> provenanceSources = provenance.getSources();
+			data.writeInt(provenanceSources.size());
+			for(File sourceFile : provenanceSources){
+				Map<Integer,Map<String,Set<String>>> footprint = provenance.getFootprint(sourceFile);
+				data.writeUTF(relativize(projectRoot, sourceFile));
+				data.writeInt(footprint.size());
+				for(Entry<Integer,Map<String,Set<String>>> phase : footprint.entrySet()){
+					data.writeInt(phase.getKey());
+					data.writeInt(phase.getValue().size());
+					for(Entry<String,Set<String>> archive : phase.getValue().entrySet()){
+						data.writeUTF(archive.getKey());
+						data.writeInt(archive.getValue().size());
+						for(String className : archive.getValue()){
+							data.writeUTF(className);
+						}
+					}
+				}
+			}
+			data.writeInt(checkpoints.size());
+			for(Checkpoint checkpoint : checkpoints){
+				data.writeUTF(relativize(projectRoot, checkpoint.file));
+				data.writeLong(checkpoint.size);
+				data.writeLong(checkpoint.lastModified);
+				data.writeUTF(checkpoint.hash);
+			}
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Reads the state from the given file
+	 * @param stateFile
+	 * @param projectRoot
+	 * @return
+	 * @throws IOException if the file is not a build state of this version
+	 */
+	public static BuildState read(File stateFile, File projectRoot) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+		try {
+			if(data.readInt() != MAGIC){
+				throw new IOException("Not a build state.");
+			}
+			short version = data.readShort();
+			if(version != VERSION){
+				throw new IOException("Unsupported build state version: " + version);
+			}
+			String buildFileHash = data.readUTF();
+			int currentPhase = data.readInt();
+			int targetCount = data.readInt();
+			Set<BuildFile.Target> targets = new HashSet<BuildFile.Target>();
+			for(int i=0; i<targetCount; i++){
+				String name = data.readUTF();
+				boolean runtime = data.readBoolean();
+				String path = data.readUTF();
+				targets.add(runtime ? new BuildFile.RuntimeTarget(name) : new BuildFile.LibraryTarget(name, path));
+			}
+			int sourceCount = data.readInt();
+			List<SourceState> sources = new ArrayList<SourceState>(sourceCount);
+			for(int i=0; i<sourceCount; i++){
+				File sourceFile = resolve(projectRoot, data.readUTF());
+				File classFile = resolve(projectRoot, data.readUTF());
+				String classHash = data.readUTF();
+				String fingerprint = data.readUTF();
+				int phaseCount = data.readInt();
+				List<Integer> phases = new LinkedList<Integer>();
+				for(int j=0; j<phaseCount; j++){
+					phases.add(data.readInt());
+				}
+				sources.add(new SourceState(sourceFile, classFile, classHash, fingerprint, phases));
+			}
+			int provenanceCount = data.readInt();
+			ProvenanceGraph provenance = new ProvenanceGraph();
+			for(int i=0; i<provenanceCount; i++){
+				File sourceFile = resolve(projectRoot, data.readUTF());
+				int phaseCount = data.readInt();
+				for(int j=0; j<phaseCount; j++){
+					int phase = data.readInt();
+					int archiveCount = data.readInt();
+					for(int k=0; k<archiveCount; k++){
+						String archive = data.readUTF();
+						provenance.reset(sourceFile, phase, archive);
+						int classCount = data.readInt();
+						Set<String> classes = new HashSet<String>();
+						for(int l=0; l<classCount; l++){
+							classes.add(data.readUTF());
+						}
+						provenance.add(sourceFile, phase, archive, classes);
+					}
+				}
+			}
+			int checkpointCount = data.readInt();
+			List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(checkpointCount);
+			for(int i=0; i<checkpointCount; i++){
+				File file = resolve(projectRoot, data.readUTF());
+				long size = data.readLong();
+				long lastModified = data.readLong();
+				String hash = data.readUTF();
+				checkpoints.add(new Checkpoint(file, size, lastModified, hash));
+			}
+			return new BuildState(buildFileHash, currentPhase, targets, sources, provenance, checkpoints);
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Returns the hex encoded SHA-1 hash of the file contents or an empty string if the file does not exist
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static String hash(File file) throws IOException {
+		if(!file.exists()){
+			return "";
+		}
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+			InputStream input = new BufferedInputStream(new FileInputStream(file));
+			try {
+				byte[] buf = new byte[65536];
+				int n;
+				while((n = input.read(buf)) > 0){
+					messageDigest.update(buf, 0, n);
+				}
+			} finally {
+				input.close();
+			}
+			StringBuilder hash = new StringBuilder();
+			for(byte b : messageDigest.digest()){
+				hash.append(String.format("%02x", b));
+			}
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e){
+			throw new IOException(e);
+		}
+	}
+
+	private static String relativize(File projectRoot, File file) {
+		String root = projectRoot.getAbsolutePath() + File.separator;
+		String path = file.getAbsolutePath();
+		if(path.startsWith(root)){
+			path = path.substring(root.length());
+		}
+		return path.replace(File.separatorChar, '/');
+	}
+
+	private static File resolve(File projectRoot, String path) {
+		File file = new File(path.replace('/', File.separatorChar));
+		if(file.isAbsolute()){
+			return file;
+		}
+		return new File(projectRoot, path.replace('/', File.separatorChar));
+	}
+
+}
@@ -34,13 +34,23 @@ import jreframeworker.engine.identifiers.DefineVisibilityIdentifier.DefineTypeVi
 import jreframeworker.engine.identifiers.JREFAnnotationIdentifier;
 import jreframeworker.engine.identifiers.MergeIdentifier;
 import jreframeworker.engine.identifiers.MergeIdentifier.MergeTypeAnnotation;
+import jreframeworker.engine.identifiers.ModificationIndex;
 import jreframeworker.engine.identifiers.PurgeIdentifier;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeFieldAnnotation;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeMethodAnnotation;
 import jreframeworker.engine.identifiers.PurgeIdentifier.PurgeTypeAnnotation;
+import jreframeworker.log.Log;
 
 public class BuilderUtils {
 
+	// guards the reads of each modification index, index files are striped over the locks
+	private static final Object[] INDEX_LOCKS = new Object[32];
+	static {
+		for(int i=0; i<INDEX_LOCKS.length; i++){
+			INDEX_LOCKS[i] = new Object();
+		}
+	}
+
 	/**
 	 * Returns a collection of K_SOURCE Compilation units in the project's package fragments
 	 * Reference: https://www.eclipse.org/forums/index.php/t/68072/
@@ -136,6 +146,38 @@ public class BuilderUtils {
 		return classFile;
 	}
 	
+	/**
+	 * Returns the compile time modification index of the given class file or
+	 * null if the index is missing or was not regenerated since the source file
+	 * was last modified (for example if annotation processing is disabled)
+	 * 
+	 * May be called from any thread. Reads of an index are serialized and the
+	 * index is only written by the compiler, so an index regenerated while it
+	 * was read is detected by its timestamp and length and is not returned.
+	 * @param sourceFile
+	 * @param classFile
+	 * @return
+	 */
+	public static final ModificationIndex getModificationIndex(File sourceFile, File classFile) {
+		File indexFile = ModificationIndex.getIndexFile(classFile);
+		synchronized (INDEX_LOCKS[(indexFile.hashCode() & 0x7FFFFFFF) % INDEX_LOCKS.length]) {
+			long indexModified = indexFile.lastModified();
+			long indexLength = indexFile.length();
+			if(indexFile.exists() && indexModified >= sourceFile.lastModified()){
+				try {
+					ModificationIndex index = ModificationIndex.read(indexFile);
+					if(indexFile.lastModified() == indexModified && indexFile.length() == indexLength){
+						return index;
+					}
+					Log.warning("Modification index: " + indexFile.getName() + " changed while it was read, reading class file instead.");
+				} catch (IOException e) {
+					Log.warning("Unable to read modification index: " + indexFile.getName() + ", reading class file instead.");
+				}
+			}
+		}
+		return null;
+	}
+	
 	public static int getLastBuildPhase(JReFrameworkerProject jrefProject) throws IOException {
 		int phase=1;
 		while(getBuildPhaseDirectory(jrefProject, phase).exists()){
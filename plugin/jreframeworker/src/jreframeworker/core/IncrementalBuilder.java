@@ -1,12 +1,17 @@
 package jreframeworker.core;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +27,8 @@ import org.objectweb.asm.tree.ClassNode;
 import org.xml.sax.SAXException;
 
 import jreframeworker.common.RuntimeUtils;
+import jreframeworker.core.BuildState.Checkpoint;
+import jreframeworker.core.BuildState.SourceState;
 import jreframeworker.engine.Engine;
 import jreframeworker.engine.identifiers.DefineFinalityIdentifier;
 import jreframeworker.engine.identifiers.DefineIdentifier;
@@ -29,7 +36,21 @@ import jreframeworker.engine.identifiers.DefineIdentifier.DefineTypeAnnotation;
 import jreframeworker.engine.identifiers.DefineVisibilityIdentifier;
 import jreframeworker.engine.identifiers.MergeIdentifier;
 import jreframeworker.engine.identifiers.MergeIdentifier.MergeTypeAnnotation;
+import jreframeworker.engine.identifiers.ModificationIndex;
 import jreframeworker.engine.identifiers.PurgeIdentifier;
+import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.engine.utils.ClassNameTrie;
+import jreframeworker.engine.utils.JarModifier;
+import jreframeworker.engine.utils.Metrics;
+import jreframeworker.engine.utils.Trace;
+import jreframeworker.engine.utils.TransformationCache;
+import jreframeworker.engine.verification.ArchiveComparator.Divergence;
+import jreframeworker.engine.verification.ArchiveDiff;
+import jreframeworker.engine.verification.ArchiveDiff.Report;
+import jreframeworker.engine.verification.BytecodeVerifier;
+import jreframeworker.engine.verification.BytecodeVerifier.VerificationError;
+import jreframeworker.engine.verification.DifferentialVerifier;
+import jreframeworker.engine.verification.ReferencePipeline;
 import jreframeworker.log.Log;
 import jreframeworker.ui.PreferencesPage;
 
@@ -37,17 +58,30 @@ public class IncrementalBuilder {
 	
 	public static final int DEFAULT_BUILD_PHASE = 1;
 	
+	public static final String BUILD_TRACE_FILENAME = "build-trace.json";
+	public static final String BUILD_STATE_FILENAME = "build-state";
+	
+	// the number of reloaded classes of processed sources kept during a build
+	private static final int CLASS_NODE_CACHE_CAPACITY = 32;
+	
 	public static abstract class Source {
 		protected File sourceFile;
 		protected ClassNode classNode;
+		protected ModificationIndex modificationIndex;
+		private String fingerprint = null;
 		
 		public Source(File sourceFile, ClassNode classNode){
+			this(sourceFile, classNode, null);
+		}
+		
+		public Source(File sourceFile, ClassNode classNode, ModificationIndex modificationIndex){
 			try {
 				this.sourceFile = sourceFile.getCanonicalFile();
 			} catch (Exception e){
 				throw new IllegalArgumentException(e);
 			}
 			this.classNode = classNode;
+			this.modificationIndex = modificationIndex;
 		}
 		
 		public File getSourceFile() {
@@ -58,6 +92,95 @@ public class IncrementalBuilder {
 			return classNode;
 		}
 		
+		/**
+		 * Returns the internal name of the class of the source or null if the source has no class
+		 * @return
+		 */
+		public String getClassName(){
+			return (classNode == null) ? null : classNode.name;
+		}
+		
+		/**
+		 * Returns the classes and type patterns the source modifies in the given phase
+		 * @param phase
+		 * @return
+		 * @throws IOException
+		 */
+		public Set<String> getTargets(int phase) throws IOException {
+			return getTargets(classNode, modificationIndex, phase);
+		}
+		
+		/**
+		 * Returns true if the source defines or replaces a type in every target in the given phase
+		 * @param phase
+		 * @return
+		 * @throws IOException
+		 */
+		public boolean isDefineType(int phase) throws IOException {
+			return isDefineType(classNode, modificationIndex, phase);
+		}
+		
+		protected static Set<String> getTargets(ClassNode classNode, ModificationIndex modificationIndex, int phase) throws IOException {
+			if(modificationIndex != null){
+				// the compile time index already lists the targets of the phase
+				return modificationIndex.getTargets(phase);
+			}
+			Set<String> targets = new HashSet<String>();
+			if(classNode == null){
+				return targets;
+			}
+			// the engine processes every annotation of the source for the phase
+			if(BuilderUtils.hasPurgeModification(classNode)){
+				targets.addAll(PurgeIdentifier.getPurgeTargets(classNode, phase));
+			}
+			if(BuilderUtils.hasFinalityModification(classNode)){
+				targets.addAll(DefineFinalityIdentifier.getFinalityTargets(classNode, phase));
+			}
+			if(BuilderUtils.hasVisibilityModification(classNode)){
+				targets.addAll(DefineVisibilityIdentifier.getVisibilityTargets(classNode, phase));
+			}
+			if(BuilderUtils.hasMergeTypeModification(classNode)){
+				MergeTypeAnnotation mergeTypeAnnotation = new MergeIdentifier(classNode).getMergeTypeAnnotation();
+				if(mergeTypeAnnotation.getPhase() == phase){
+					// merge into each target jar that contains the merge target
+					targets.add(mergeTypeAnnotation.getSupertype());
+				}
+			}
+			return targets;
+		}
+		
+		protected static boolean isDefineType(ClassNode classNode, ModificationIndex modificationIndex, int phase) throws IOException {
+			if(modificationIndex != null){
+				return modificationIndex.isDefineType(phase);
+			}
+			if(classNode == null || !BuilderUtils.hasDefineTypeModification(classNode)){
+				return false;
+			}
+			DefineTypeAnnotation defineTypeAnnotation = new DefineIdentifier(classNode).getDefineTypeAnnotation();
+			return defineTypeAnnotation.getPhase() == phase;
+		}
+		
+		/**
+		 * Returns the compile time modification index of the source or null if
+		 * the source did not have an up to date index
+		 * @return
+		 */
+		public ModificationIndex getModificationIndex(){
+			return modificationIndex;
+		}
+		
+		/**
+		 * Returns the fingerprint of the semantically relevant bytecode of the
+		 * source or an empty string if the source has no class
+		 * @return
+		 */
+		public String getFingerprint(){
+			if(fingerprint == null){
+				fingerprint = (classNode == null) ? "" : BytecodeUtils.getFingerprint(classNode);
+			}
+			return fingerprint;
+		}
+		
 		public abstract List<Integer> getSortedPhases();
 		
 		/**
@@ -80,7 +203,8 @@ public class IncrementalBuilder {
 				return true;
 			if (obj == null)
 				return false;
-			if (getClass() != obj.getClass())
+			// delta sources and processed sources of the same file are equivalent
+			if (!(obj instanceof Source))
 				return false;
 			Source other = (Source) obj;
 			if (sourceFile == null) {
@@ -93,13 +217,127 @@ public class IncrementalBuilder {
 		
 	}
 	
+	/**
+	 * A compact summary of a processed source that outlives the build: the
+	 * source and class file, the fingerprint of the processed class, its
+	 * phases and its targets in each phase. The class itself is not retained,
+	 * it is reloaded from the class file when the source is reprocessed, so
+	 * the hash of the processed class file is kept to detect when the class
+	 * file no longer holds the processed class.
+	 */
 	public static class ProcessedSource extends Source {
 		
+		private ClassNodeCache classNodeCache;
+		private File classFile;
+		private Checkpoint classCheckpoint;
+		private String className;
+		private String fingerprint;
 		private List<Integer> phases;
 		
-		public ProcessedSource(File sourceFile, ClassNode classNode, List<Integer> phases) {
-			super(sourceFile, classNode);
+		// phase -> classes and type patterns modified in the phase
+		private Map<Integer,Set<String>> targets = new HashMap<Integer,Set<String>>();
+		private Set<Integer> defineTypePhases = new HashSet<Integer>();
+		
+		/**
+		 * Summarizes a processed source
+		 * @param classNodeCache the cache of the builder the class is reloaded through
+		 * @param sourceFile
+		 * @param classCheckpoint the checkpoint of the processed class file, null if the source was removed
+		 * @param classNode the class to summarize, it is not retained
+		 * @param modificationIndex
+		 * @param phases
+		 * @param fingerprint the fingerprint of the processed class
+		 */
+		private ProcessedSource(ClassNodeCache classNodeCache, File sourceFile, Checkpoint classCheckpoint, ClassNode classNode, ModificationIndex modificationIndex, List<Integer> phases, String fingerprint) {
+			super(sourceFile, null, modificationIndex);
+			this.classNodeCache = classNodeCache;
+			this.classCheckpoint = classCheckpoint;
+			this.classFile = (classCheckpoint != null) ? classCheckpoint.getFile() : null;
 			this.phases = phases;
+			this.fingerprint = fingerprint;
+			if(classNode != null){
+				className = classNode.name;
+				try {
+					for(int phase : phases){
+						targets.put(phase, getTargets(classNode, modificationIndex, phase));
+						if(isDefineType(classNode, modificationIndex, phase)){
+							defineTypePhases.add(phase);
+						}
+					}
+				} catch (IOException e) {
+					throw new IllegalArgumentException("Unable to recover build targets.");
+				}
+			}
+		}
+		
+		/**
+		 * Returns the class file the class is reloaded from or null if the source was removed
+		 * @return
+		 */
+		public File getClassFile() {
+			return classFile;
+		}
+		
+		/**
+		 * Returns the hash of the class file the source was processed from or
+		 * null if the source was removed
+		 * @return
+		 */
+		public String getClassHash() {
+			return (classCheckpoint != null) ? classCheckpoint.getHash() : null;
+		}
+		
+		/**
+		 * Returns true if the class file no longer holds the processed class,
+		 * the class file is only hashed if its size or timestamp changed
+		 * @return
+		 */
+		public boolean isClassFileModified() {
+			return classCheckpoint != null && !classCheckpoint.isValid();
+		}
+		
+		/**
+		 * Reloads the class of the source from its class file, recently
+		 * reloaded classes are shared through a small cache
+		 * @throws IllegalStateException if the class file was modified since the source was processed
+		 */
+		@Override
+		public ClassNode getClassNode(){
+			if(classFile == null){
+				return null;
+			}
+			ClassNode classNode;
+			try {
+				classNode = classNodeCache.get(classFile);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to reload class of " + sourceFile.getName(), e);
+			}
+			// checked after loading so the returned class is never newer than the check
+			if(isClassFileModified()){
+				throw new IllegalStateException("Class file of " + sourceFile.getName() + " was modified since the source was processed");
+			}
+			return classNode;
+		}
+		
+		@Override
+		public String getClassName(){
+			return className;
+		}
+		
+		@Override
+		public String getFingerprint(){
+			return fingerprint;
+		}
+		
+		@Override
+		public Set<String> getTargets(int phase){
+			Set<String> phaseTargets = targets.get(phase);
+			return (phaseTargets == null) ? new HashSet<String>() : new HashSet<String>(phaseTargets);
+		}
+		
+		@Override
+		public boolean isDefineType(int phase){
+			return defineTypePhases.contains(phase);
 		}
 
 		@Override
@@ -113,6 +351,49 @@ public class IncrementalBuilder {
 		}
 	}
 	
+	/**
+	 * A small cache of the classes reloaded for processed sources, so that a
+	 * source reprocessed in several phases and targets is parsed once. Entries
+	 * are reloaded if their class file changed.
+	 */
+	private static class ClassNodeCache {
+		
+		private static class CachedClass {
+			private ClassNode classNode;
+			private long lastModified;
+			private long length;
+		}
+		
+		private Map<File,CachedClass> classes;
+		
+		public ClassNodeCache(final int capacity) {
+			classes = new LinkedHashMap<File,CachedClass>(16, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<File,CachedClass> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+		
+		public synchronized ClassNode get(File classFile) throws IOException {
+			CachedClass cachedClass = classes.get(classFile);
+			if(cachedClass == null || cachedClass.lastModified != classFile.lastModified() || cachedClass.length != classFile.length()){
+				cachedClass = new CachedClass();
+				cachedClass.lastModified = classFile.lastModified();
+				cachedClass.length = classFile.length();
+				cachedClass.classNode = BytecodeUtils.getClassNode(classFile);
+				classes.put(classFile, cachedClass);
+			}
+			return cachedClass.classNode;
+		}
+		
+		public synchronized void clear() {
+			classes.clear();
+		}
+	}
+	
 	public static class DeltaSource extends Source {
 		
 		public static enum Delta {
@@ -127,7 +408,11 @@ public class IncrementalBuilder {
 		}
 		
 		public DeltaSource(File sourceFile, ClassNode classNode, Delta delta){
-			super(sourceFile, classNode);
+			this(sourceFile, classNode, null, delta);
+		}
+		
+		public DeltaSource(File sourceFile, ClassNode classNode, ModificationIndex modificationIndex, Delta delta){
+			super(sourceFile, classNode, modificationIndex);
 			this.delta = delta;
 			if(delta == Delta.REMOVED && classNode != null){
 				throw new IllegalArgumentException("Removed source should not contain class nodes.");
@@ -135,7 +420,11 @@ public class IncrementalBuilder {
 				throw new IllegalArgumentException("Added or Modified sources must contain class nodes.");
 			}
 			try {
-				this.phases = BuilderUtils.getSortedBuildPhases(classNode);
+				if(modificationIndex != null){
+					this.phases = modificationIndex.getSortedPhases();
+				} else {
+					this.phases = BuilderUtils.getSortedBuildPhases(classNode);
+				}
 			} catch (IOException e) {
 				throw new IllegalArgumentException("Unable to recover build phases.");
 			}
@@ -145,8 +434,15 @@ public class IncrementalBuilder {
 			return delta;
 		}
 		
-		public ProcessedSource getProcessedSource(){
-			return new ProcessedSource(getSourceFile(), getClassNode(), getSortedPhases());
+		/**
+		 * Returns the summary of the source once it is processed
+		 * @param classNodeCache the cache of the builder the class is reloaded through
+		 * @param classFile the class file of the source
+		 * @return
+		 * @throws IOException
+		 */
+		private ProcessedSource getProcessedSource(ClassNodeCache classNodeCache, File classFile) throws IOException {
+			return new ProcessedSource(classNodeCache, getSourceFile(), Checkpoint.create(classFile), getClassNode(), getModificationIndex(), getSortedPhases(), getFingerprint());
 		}
 
 		@Override
@@ -186,6 +482,30 @@ public class IncrementalBuilder {
 	private int currentPhase = DEFAULT_BUILD_PHASE;
 	private Set<ProcessedSource> processedSources = new HashSet<ProcessedSource>();
 	
+	// the classes reloaded for the processed sources of this builder
+	private ClassNodeCache classNodeCache = new ClassNodeCache(CLASS_NODE_CACHE_CAPACITY);
+	
+	// the input classes processed by each engine of the current phase, only
+	// recorded if the output is verified against the reference pipeline
+	private Map<Engine,List<byte[]>> engineInputs = null;
+	
+	// the files written by builds since the workspace was last refreshed
+	private Set<File> modifiedFiles = new HashSet<File>();
+	
+	// the original libraries of removed targets to restore on the classpath
+	private Map<String,File> restoredLibraries = new HashMap<String,File>();
+	
+	// the target libraries read by the first phase and the checkpoints of
+	// the build outputs, persisted with the processed sources
+	private Set<File> inputFiles = new HashSet<File>();
+	private Map<File,Checkpoint> checkpoints = new HashMap<File,Checkpoint>();
+	
+	// the targets of the current build outputs, null if unknown
+	private Set<BuildFile.Target> builtTargets = null;
+	
+	// the classes each processed source touched in each phase and target
+	private ProvenanceGraph provenance = new ProvenanceGraph();
+	
 	public IncrementalBuilder(JReFrameworkerProject jrefProject){
 		this.jrefProject = jrefProject;
 	}
@@ -193,12 +513,49 @@ public class IncrementalBuilder {
 	public JReFrameworkerProject getJReFrameworkerProject(){
 		return jrefProject;
 	}
+	
+	/**
+	 * Returns the files written by builds since the modified files were last
+	 * cleared, so that only these files need to be refreshed in the workspace
+	 * @return
+	 */
+	public Set<File> getModifiedFiles(){
+		return new HashSet<File>(modifiedFiles);
+	}
+	
+	public void clearModifiedFiles(){
+		modifiedFiles.clear();
+	}
+	
+	/**
+	 * Returns the original libraries of removed targets that should replace
+	 * their modified libraries on the classpath, keyed by jar name
+	 * @return
+	 */
+	public Map<String,File> getRestoredLibraries(){
+		return new HashMap<String,File>(restoredLibraries);
+	}
+	
+	public void clearRestoredLibraries(){
+		restoredLibraries.clear();
+	}
 
 	public void build(Set<DeltaSource> sourceDeltas, IProgressMonitor monitor) throws IncrementalBuilderException {
+		sourceDeltas = addModifiedSources(sourceDeltas);
+		sourceDeltas = removeUnchangedSources(sourceDeltas);
 		if(sourceDeltas.isEmpty()){
 			// nothing to do
 			return;
 		}
+		// collect the metrics and trace of this build only, builds of other
+		// projects record into their own on their own threads
+		Metrics metrics = new Metrics();
+		Trace trace = new Trace(PreferencesPage.isBuildTraceEnabled());
+		Metrics previousMetrics = Metrics.setCurrent(metrics);
+		Trace previousTrace = Trace.setCurrent(trace);
+		long buildStart = System.nanoTime();
+		Trace.Span buildSpan = Trace.begin("build " + jrefProject.getProject().getName(), Trace.BUILD)
+				.arg("deltas", sourceDeltas.size());
 		try {
 			// first figure out if we need to revert to a previous build phase
 			// reverts can occur when a class file is modified or removed or added
@@ -206,6 +563,9 @@ public class IncrementalBuilder {
 			// modified case: a phase is changed or the class is changed and the phase needs to be reprocessed
 			// removed case: a phase should not have been run
 			Set<Source> staleSources = new HashSet<Source>();
+			Set<BuildFile.Target> targets = jrefProject.getBuildFile().getTargets();
+			// phases are only rebuilt in full if the footprints of the sources are unknown
+			boolean dependencyDriven = targets.equals(builtTargets) && !PreferencesPage.isOutputVerificationEnabled();
 			for(DeltaSource source : sourceDeltas){
 				// first consider modified or removed sources
 				if(source.getDelta() == DeltaSource.Delta.MODIFIED || source.getDelta() == DeltaSource.Delta.REMOVED){
@@ -217,6 +577,7 @@ public class IncrementalBuilder {
 					for(ProcessedSource processedSource : processedSources){
 						if(source.equals(processedSource)){
 							phaseFound = true;
+							dependencyDriven &= provenance.contains(processedSource.getSourceFile(), processedSource.phases);
 							// current phase should be the earliest phase of the previously processed source
 							currentPhase = Math.min(currentPhase, processedSource.phases.get(0));
 							// if the source is modified also consider the earlier phase in the modification
@@ -238,9 +599,15 @@ public class IncrementalBuilder {
 				}
 			}
 			
-			// remove stale sources
+			// remove stale sources, the classes they touched are rebuilt
+			Map<File,Map<Integer,Map<String,Set<String>>>> staleFootprints = new HashMap<File,Map<Integer,Map<String,Set<String>>>>();
 			for(Source source : staleSources){
 				processedSources.remove(source);
+				Map<Integer,Map<String,Set<String>>> footprint = provenance.getFootprint(source.getSourceFile());
+				if(footprint != null){
+					staleFootprints.put(source.getSourceFile(), footprint);
+				}
+				provenance.remove(source.getSourceFile());
 			}
 			
 			// figure out which sources need to reprocessed
@@ -254,10 +621,18 @@ public class IncrementalBuilder {
 				}
 			}
 			
+			for(Source source : sourcesToProcess){
+				dependencyDriven &= provenance.contains(source.getSourceFile(), source.getSortedPhases());
+			}
+			
 			// add any new or modified sources to the list of sources to be processed
+			Set<Source> changedSources = new HashSet<Source>();
 			for(DeltaSource source : sourceDeltas){
 				if(source.getDelta() == DeltaSource.Delta.ADDED || source.getDelta() == DeltaSource.Delta.MODIFIED){
+					// replace the previously processed version of an added source
+					sourcesToProcess.remove(source);
 					sourcesToProcess.add(source);
+					changedSources.add(source);
 				}
 			}
 			
@@ -276,6 +651,10 @@ public class IncrementalBuilder {
 			}
 			
 			// starting from the current phase process every phase in the set of sources to process
+			if(dependencyDriven){
+				Log.info("Rebuilding the classes affected by " + sourceDeltas.size() + " changed source" + (sourceDeltas.size() > 1 ? "s" : "") + " from phase " + currentPhase + ".");
+			}
+			Map<String,Set<String>> invalidatedClasses = new HashMap<String,Set<String>>();
 			int lastPhase = sortedPhases.getLast();
 			while(currentPhase <= lastPhase){
 				boolean isFirstPhase = (currentPhase == DEFAULT_BUILD_PHASE);
@@ -290,77 +669,420 @@ public class IncrementalBuilder {
 				}
 				
 				// build the phase targets
-				buildPhase(phaseSources, currentPhase, isFirstPhase, isLastPhase, monitor);
+				long phaseStart = System.nanoTime();
+				Trace.Span phaseSpan = Trace.begin("phase " + currentPhase, Trace.PHASE).arg("sources", phaseSources.size());
+				try {
+					if(dependencyDriven){
+						buildPhaseIncrementally(phaseSources, changedSources, staleFootprints, invalidatedClasses, targets, currentPhase, isFirstPhase, isLastPhase, monitor);
+					} else {
+						buildPhase(phaseSources, targets, currentPhase, isFirstPhase, isLastPhase, monitor);
+					}
+				} finally {
+					phaseSpan.end();
+				}
+				Metrics.timeSince(Metrics.PHASE_TIMER_PREFIX + currentPhase, phaseStart);
 				
 				currentPhase++;
 			}
+			builtTargets = targets;
 			
 			// record the processed phases for the next incremental build
 			for(Source source : sourcesToProcess){
 				// processed sources are already recorded as processed
 				// just need to add the delta sources as processed sources
 				if(source instanceof DeltaSource){
-					processedSources.add(((DeltaSource) source).getProcessedSource());
+					File classFile = BuilderUtils.getCorrespondingClassFile(jrefProject, source.getSourceFile());
+					ProcessedSource processedSource = ((DeltaSource) source).getProcessedSource(classNodeCache, classFile);
+					processedSources.remove(processedSource);
+					processedSources.add(processedSource);
 				}
 			}
+			
+			// persist the build state for the next session
+			saveState();
+			
+			// summarize where the build spent its time
+			Metrics.timeSince(Metrics.BUILD, buildStart);
+			Log.info("Build metrics:\n" + metrics.snapshot());
 		} catch (Throwable t){
+			// the outputs may not match the recorded state anymore
+			provenance.clear();
+			clearState();
 			throw new IncrementalBuilderException("Error building sources", t);
+		} finally {
+			// reloaded classes are not retained between builds
+			classNodeCache.clear();
+			buildSpan.end();
+			writeBuildTrace(trace);
+			Metrics.setCurrent(previousMetrics);
+			Trace.setCurrent(previousTrace);
 		}
 	}
-
-	private void buildPhase(Set<Source> phaseSources, int currentPhase, boolean isFirstPhase, boolean isLastPhase, IProgressMonitor monitor) throws JarException, SAXException, IOException, ParserConfigurationException, CoreException, IncrementalBuilderException {
-		// map class entries to and initial modification engine sets
-		Map<String, Set<Engine>> engineMap = new HashMap<String, Set<Engine>>();
-		Set<Engine> allEngines = new HashSet<Engine>();
-
-		// initialize the modification engines
-		// if its the first phase then we are just initializing with the original jars
-		// if its after the first phase then we are initializing with the last build phase jars
-		BuildFile buildFile = jrefProject.getBuildFile();
-		if(isFirstPhase){
-			for(BuildFile.Target target : buildFile.getTargets()) {
-				// classpath has been restored, these are all the original jars
-				File originalJar = RuntimeUtils.getClasspathJar(target.getName(), jrefProject);
-				if (originalJar != null && originalJar.exists()) {
-					Engine engine = new Engine(originalJar, PreferencesPage.getMergeRenamingPrefix());
-					allEngines.add(engine);
-					for(String entry : engine.getOriginalEntries()){
-						entry = entry.replace(".class", "");
-						if(engineMap.containsKey(entry)){
-							engineMap.get(entry).add(engine);
-						} else {
-							Set<Engine> engines = new HashSet<Engine>();
-							engines.add(engine);
-							engineMap.put(entry, engines);
-						}
+	
+	/**
+	 * Returns the source deltas without the modified sources whose bytecode is
+	 * semantically unchanged, such as after a comment or formatting change.
+	 * A later reprocess of a skipped source reloads the recompiled class, so
+	 * that it uses its debug information.
+	 * @param sourceDeltas
+	 * @return
+	 */
+	private Set<DeltaSource> removeUnchangedSources(Set<DeltaSource> sourceDeltas){
+		Set<DeltaSource> changedSources = new HashSet<DeltaSource>();
+		for(DeltaSource source : sourceDeltas){
+			if(source.getDelta() == DeltaSource.Delta.MODIFIED){
+				ProcessedSource processedSource = null;
+				for(ProcessedSource candidate : processedSources){
+					if(candidate.equals(source)){
+						processedSource = candidate;
+						break;
 					}
-				} else {
-					Log.warning("Original Jar not found: " + target.getName());
+				}
+				if(processedSource != null && processedSource.getClassFile() != null 
+						&& processedSource.getFingerprint().equals(source.getFingerprint())){
+					// the recompiled class file is now the processed class file
+					Checkpoint classCheckpoint;
+					try {
+						classCheckpoint = Checkpoint.create(processedSource.getClassFile());
+					} catch (IOException e){
+						Log.warning("Unable to hash class file of " + source.getSourceFile().getName(), e);
+						changedSources.add(source);
+						continue;
+					}
+					processedSources.remove(processedSource);
+					processedSources.add(new ProcessedSource(classNodeCache, source.getSourceFile(), classCheckpoint, source.getClassNode(), source.getModificationIndex(), processedSource.getSortedPhases(), source.getFingerprint()));
+					Log.info("Skipped semantically unchanged source: " + source.getSourceFile().getName());
+					continue;
 				}
 			}
-		} else {
-			for(BuildFile.Target target : buildFile.getTargets()) {
-				File phaseJar = BuilderUtils.getBuildPhaseJar(target.getName(), jrefProject, currentPhase-1);
-				if(!phaseJar.exists()){
-					phaseJar = RuntimeUtils.getClasspathJar(target.getName(), jrefProject);
-				}
-				if (phaseJar != null && phaseJar.exists()) {
-					Engine engine = new Engine(phaseJar, PreferencesPage.getMergeRenamingPrefix());
-					allEngines.add(engine);
-					for(String entry : engine.getOriginalEntries()){
-						entry = entry.replace(".class", "");
-						if(engineMap.containsKey(entry)){
-							engineMap.get(entry).add(engine);
-						} else {
-							Set<Engine> engines = new HashSet<Engine>();
-							engines.add(engine);
-							engineMap.put(entry, engines);
+			changedSources.add(source);
+		}
+		return changedSources;
+	}
+	
+	/**
+	 * Returns the source deltas with a modification for each processed source
+	 * whose class file no longer holds the processed class, even if the change
+	 * was not reported, so that a processed source is never reprocessed with a
+	 * class it was not processed with
+	 * @param sourceDeltas
+	 * @return
+	 */
+	private Set<DeltaSource> addModifiedSources(Set<DeltaSource> sourceDeltas){
+		Set<DeltaSource> modifiedSources = new HashSet<DeltaSource>(sourceDeltas);
+		for(ProcessedSource source : processedSources){
+			if(!sourceDeltas.contains(source) && source.isClassFileModified() && source.getClassFile().exists()){
+				try {
+					ClassNode classNode = BytecodeUtils.getClassNode(source.getClassFile());
+					ModificationIndex modificationIndex = BuilderUtils.getModificationIndex(source.getSourceFile(), source.getClassFile());
+					modifiedSources.add(new DeltaSource(source.getSourceFile(), classNode, modificationIndex, DeltaSource.Delta.MODIFIED));
+					Log.info("Class file changed since it was processed: " + source.getSourceFile().getName());
+				} catch (IOException e){
+					Log.warning("Unable to reload modified class file of " + source.getSourceFile().getName(), e);
+				}
+			}
+		}
+		return modifiedSources;
+	}
+	
+	/**
+	 * Returns true if a processed source's class file no longer holds the
+	 * class it was processed with, the next build reprocesses the source
+	 * @return
+	 */
+	public boolean hasModifiedSources(){
+		for(ProcessedSource source : processedSources){
+			if(source.isClassFileModified()){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if the targets of the current outputs are known, so that
+	 * changes to the targets of the build file can be built incrementally
+	 * @return
+	 */
+	public boolean canUpdateTargets(){
+		return builtTargets != null;
+	}
+	
+	/**
+	 * Brings the build outputs up to date with the targets of the build file.
+	 * The outputs of removed targets are dropped and their original libraries
+	 * are recorded to be restored on the classpath, and added targets are
+	 * built through every processed phase without rebuilding the outputs of
+	 * the targets that did not change.
+	 * @param monitor
+	 * @return false if the targets of the current outputs are unknown and a full build is required
+	 * @throws IncrementalBuilderException
+	 */
+	public boolean updateTargets(IProgressMonitor monitor) throws IncrementalBuilderException {
+		if(!canUpdateTargets()){
+			return false;
+		}
+		// the engines record into metrics of their own, not into those of other builds
+		Metrics previousMetrics = Metrics.setCurrent(new Metrics());
+		try {
+			Set<BuildFile.Target> targets = jrefProject.getBuildFile().getTargets();
+			Set<BuildFile.Target> addedTargets = new HashSet<BuildFile.Target>(targets);
+			addedTargets.removeAll(builtTargets);
+			Set<BuildFile.Target> removedTargets = new HashSet<BuildFile.Target>(builtTargets);
+			removedTargets.removeAll(targets);
+			
+			// drop the outputs of removed targets and restore their libraries on the classpath
+			int lastPhase = BuilderUtils.getLastBuildPhase(jrefProject);
+			File projectBuildDirectory = jrefProject.getBuildDirectory();
+			Map<String,File> originalLibraries = new HashMap<String,File>();
+			for(BuildFile.Target target : removedTargets){
+				Log.info("Removed target: " + target.getName());
+				provenance.removeArchive(target.getName());
+				List<File> outputs = new LinkedList<File>();
+				for(int phase=DEFAULT_BUILD_PHASE; phase<=lastPhase; phase++){
+					File phaseJar = BuilderUtils.getBuildPhaseJar(target.getName(), jrefProject, phase);
+					outputs.add(phaseJar);
+					outputs.add(new File(phaseJar.getParentFile(), phaseJar.getName() + ".diff"));
+				}
+				outputs.add(new File(projectBuildDirectory, target.getName()));
+				for(File output : outputs){
+					if(output.exists()){
+						output.delete();
+						modifiedFiles.add(output);
+					}
+				}
+				if(!target.isRuntime()){
+					String libraryPath = ((BuildFile.LibraryTarget) target).getLibraryPath();
+					File library = new File(libraryPath);
+					if(!library.exists()){
+						library = jrefProject.getProject().getFile(libraryPath).getLocation().toFile();
+					}
+					if(library.exists()){
+						originalLibraries.put(target.getName(), library);
+					}
+				}
+			}
+			// the classpath is updated by the caller, outside of the build
+			restoredLibraries.putAll(originalLibraries);
+			
+			// build only the added targets through the phases of the processed
+			// sources, a source whose class file changed since it was processed
+			// is left to the next build which reprocesses it for every target
+			Set<ProcessedSource> unmodifiedSources = new HashSet<ProcessedSource>();
+			for(ProcessedSource source : processedSources){
+				if(!source.isClassFileModified()){
+					unmodifiedSources.add(source);
+				}
+			}
+			if(!addedTargets.isEmpty() && !unmodifiedSources.isEmpty()){
+				Log.info("Added targets: " + addedTargets);
+				Set<Integer> phases = new HashSet<Integer>();
+				for(ProcessedSource source : unmodifiedSources){
+					phases.addAll(source.getSortedPhases());
+				}
+				int firstPhase = Collections.min(phases);
+				int lastProcessedPhase = Collections.max(phases);
+				for(int phase=firstPhase; phase<=lastProcessedPhase; phase++){
+					Set<Source> phaseSources = new HashSet<Source>();
+					for(ProcessedSource source : unmodifiedSources){
+						if(source.getSortedPhases().contains(phase)){
+							phaseSources.add(source);
 						}
 					}
+					boolean isFirstPhase = (phase == DEFAULT_BUILD_PHASE);
+					boolean isLastPhase = (phase == lastProcessedPhase);
+					buildPhase(phaseSources, addedTargets, phase, isFirstPhase, isLastPhase, monitor);
+				}
+			}
+			
+			builtTargets = targets;
+			saveState();
+			return true;
+		} catch (Throwable t){
+			provenance.clear();
+			clearState();
+			throw new IncrementalBuilderException("Error updating targets", t);
+		} finally {
+			classNodeCache.clear();
+			Metrics.setCurrent(previousMetrics);
+		}
+	}
+	
+	/**
+	 * Restores the builder state persisted by the last build. The state is
+	 * only restored if the build file, the target libraries and the phase
+	 * outputs are unchanged. Sources whose class files changed or that were
+	 * removed since the state was saved are returned as deltas so that the
+	 * next build brings them up to date.
+	 * @return the sources changed since the state was saved or null if there is no valid state
+	 */
+	public Set<DeltaSource> restoreState(){
+		try {
+			File projectRoot = jrefProject.getProject().getLocation().toFile().getCanonicalFile();
+			File stateFile = getStateFile();
+			if(!stateFile.exists()){
+				return null;
+			}
+			BuildState state = BuildState.read(stateFile, projectRoot);
+			if(!state.getBuildFileHash().equals(BuildState.hash(jrefProject.getBuildFile().getFile()))){
+				Log.info("Build file changed, discarding build state.");
+				return null;
+			}
+			Map<File,Checkpoint> restoredCheckpoints = new HashMap<File,Checkpoint>();
+			for(Checkpoint checkpoint : state.getCheckpoints()){
+				if(!checkpoint.isValid()){
+					Log.info("Build checkpoint changed, discarding build state: " + checkpoint.getFile().getName());
+					return null;
+				}
+				restoredCheckpoints.put(checkpoint.getFile(), checkpoint);
+			}
+			Set<ProcessedSource> restoredSources = new HashSet<ProcessedSource>();
+			Set<DeltaSource> changedSources = new HashSet<DeltaSource>();
+			for(SourceState source : state.getSources()){
+				File sourceFile = source.getSourceFile();
+				File classFile = source.getClassFile();
+				if(!sourceFile.exists()){
+					// the source was removed since the last session
+					restoredSources.add(new ProcessedSource(classNodeCache, sourceFile, null, null, null, source.getPhases(), source.getFingerprint()));
+					changedSources.add(new DeltaSource(sourceFile, DeltaSource.Delta.REMOVED));
+				} else if(!classFile.exists()){
+					Log.info("Class file of " + sourceFile.getName() + " is missing, discarding build state.");
+					return null;
 				} else {
-					Log.warning("Phase Jar not found: " + target.getName());
+					ClassNode classNode = BytecodeUtils.getClassNode(classFile);
+					ModificationIndex modificationIndex = BuilderUtils.getModificationIndex(sourceFile, classFile);
+					Checkpoint classCheckpoint = Checkpoint.create(classFile);
+					if(!classCheckpoint.getHash().equals(source.getClassHash()) && !BytecodeUtils.getFingerprint(classNode).equals(source.getFingerprint())){
+						// the source was modified since the last session, the restored
+						// source keeps the hash of the class it was processed with
+						classCheckpoint = new Checkpoint(classFile, -1, -1, source.getClassHash());
+						changedSources.add(new DeltaSource(sourceFile, classNode, modificationIndex, DeltaSource.Delta.MODIFIED));
+					}
+					// the restored source keeps the fingerprint of the class it was processed with
+					restoredSources.add(new ProcessedSource(classNodeCache, sourceFile, classCheckpoint, classNode, modificationIndex, source.getPhases(), source.getFingerprint()));
 				}
 			}
+			processedSources = restoredSources;
+			currentPhase = state.getCurrentPhase();
+			builtTargets = state.getTargets();
+			provenance = state.getProvenance();
+			checkpoints = restoredCheckpoints;
+			Log.info("Restored build state of " + restoredSources.size() + " processed sources, " + changedSources.size() + " changed since the last build.");
+			return changedSources;
+		} catch (Exception e){
+			Log.warning("Unable to restore build state", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Deletes the persisted build state
+	 */
+	public void clearState(){
+		try {
+			File stateFile = getStateFile();
+			if(stateFile.exists()){
+				stateFile.delete();
+			}
+		} catch (IOException e){
+			Log.warning("Unable to delete build state", e);
+		}
+	}
+	
+	/**
+	 * Writes the processed sources and the checkpoints of the build inputs and
+	 * outputs to the project's resource directory
+	 */
+	private void saveState(){
+		try {
+			File projectRoot = jrefProject.getProject().getLocation().toFile().getCanonicalFile();
+			List<SourceState> sources = new ArrayList<SourceState>();
+			for(ProcessedSource source : processedSources){
+				File classFile = BuilderUtils.getCorrespondingClassFile(jrefProject, source.getSourceFile());
+				// the hash of the processed class, not of the current class file
+				String classHash = (source.getClassHash() != null) ? source.getClassHash() : BuildState.hash(classFile);
+				sources.add(new SourceState(source.getSourceFile(), classFile, classHash, source.getFingerprint(), source.getSortedPhases()));
+			}
+			
+			// only the files read or written since the last save are hashed again
+			Set<File> checkpointFiles = new HashSet<File>(inputFiles);
+			checkpointFiles.addAll(modifiedFiles);
+			for(File file : checkpointFiles){
+				if(file.getName().endsWith(".jar") && file.exists()){
+					Checkpoint checkpoint = checkpoints.get(file);
+					if(checkpoint == null || !checkpoint.isCurrent()){
+						checkpoints.put(file, Checkpoint.create(file));
+					}
+				}
+			}
+			inputFiles.clear();
+			Iterator<File> checkpointIterator = checkpoints.keySet().iterator();
+			while(checkpointIterator.hasNext()){
+				if(!checkpointIterator.next().exists()){
+					checkpointIterator.remove();
+				}
+			}
+			
+			String buildFileHash = BuildState.hash(jrefProject.getBuildFile().getFile());
+			Set<BuildFile.Target> targets = builtTargets != null ? builtTargets : jrefProject.getBuildFile().getTargets();
+			BuildState state = new BuildState(buildFileHash, currentPhase, targets, sources, provenance, new ArrayList<Checkpoint>(checkpoints.values()));
+			File stateFile = getStateFile();
+			state.write(stateFile, projectRoot);
+			modifiedFiles.add(stateFile);
+		} catch (Exception e){
+			Log.warning("Unable to save build state", e);
+			clearState();
+		}
+	}
+	
+	private File getStateFile() throws IOException {
+		return new File(jrefProject.getProject().getLocation().toFile().getCanonicalPath() 
+				+ File.separatorChar + JReFrameworker.JREF_PROJECT_RESOURCE_DIRECTORY 
+				+ File.separatorChar + BUILD_STATE_FILENAME);
+	}
+	
+	/**
+	 * Writes the spans recorded during the build to the project's resource
+	 * directory if build tracing is enabled
+	 * @param trace
+	 */
+	private void writeBuildTrace(Trace trace){
+		if(!trace.isEnabled()){
+			return;
+		}
+		try {
+			File traceFile = new File(jrefProject.getProject().getLocation().toFile().getCanonicalPath() 
+					+ File.separatorChar + JReFrameworker.JREF_PROJECT_RESOURCE_DIRECTORY 
+					+ File.separatorChar + BUILD_TRACE_FILENAME);
+			traceFile.getParentFile().mkdirs();
+			trace.write(traceFile);
+			modifiedFiles.add(traceFile);
+			Log.info("Wrote build trace of " + trace.size() + " spans to " + traceFile.getPath());
+		} catch (IOException e){
+			Log.warning("Unable to write build trace", e);
+		}
+	}
+
+	private void buildPhase(Set<Source> phaseSources, Set<BuildFile.Target> targets, int currentPhase, boolean isFirstPhase, boolean isLastPhase, IProgressMonitor monitor) throws JarException, SAXException, IOException, ParserConfigurationException, CoreException, IncrementalBuilderException {
+		// map class entries to and initial modification engine sets
+		Map<String, Set<Engine>> engineMap = new HashMap<String, Set<Engine>>();
+		Set<Engine> allEngines = new HashSet<Engine>();
+		createEngines(targets, currentPhase, isFirstPhase, engineMap, allEngines);
+		
+		// engines of the same phase share the transformations of identical target classes
+		TransformationCache transformationCache = new TransformationCache();
+		for(Engine engine : allEngines){
+			engine.setTransformationCache(transformationCache);
+		}
+		
+		// record the inputs of each engine to rebuild its output with the reference pipeline
+		engineInputs = PreferencesPage.isOutputVerificationEnabled() ? new HashMap<Engine,List<byte[]>>() : null;
+		
+		// the footprints of the phase sources in these jars are recorded again
+		for(Source source : phaseSources){
+			for(Engine engine : allEngines){
+				provenance.reset(source.getSourceFile(), currentPhase, engine.getJarName());
+			}
 		}
 		
 		// make library modifications
@@ -377,26 +1099,328 @@ public class IncrementalBuilder {
 			File modifiedLibrary = BuilderUtils.getBuildPhaseJar(engine.getJarName(), jrefProject, currentPhase);
 			modifiedLibrary.getParentFile().mkdirs();
 			engine.save(modifiedLibrary);
+			completeOutput(engine, currentPhase, modifiedLibrary, isLastPhase);
+		}
+		engineInputs = null;
+	}
+	
+	/**
+	 * Rebuilds a phase by reprocessing only the sources reachable from the
+	 * changed sources through the classes they touched. In each jar the
+	 * affected classes are rebuilt from the previous phase output and every
+	 * other entry is carried forward from the existing output of the phase,
+	 * jars without affected classes keep their output.
+	 * @param phaseSources the sources of the phase
+	 * @param changedSources the added and modified sources of the build
+	 * @param staleFootprints the footprints of the modified and removed sources before the build
+	 * @param invalidatedClasses the classes rebuilt in each jar in the previous phase, or null
+	 * for a jar that was rebuilt entirely, updated with the classes rebuilt in this phase
+	 * @param targets
+	 * @param currentPhase
+	 * @param isFirstPhase
+	 * @param isLastPhase
+	 * @param monitor
+	 */
+	private void buildPhaseIncrementally(Set<Source> phaseSources, Set<Source> changedSources, Map<File,Map<Integer,Map<String,Set<String>>>> staleFootprints, Map<String,Set<String>> invalidatedClasses, Set<BuildFile.Target> targets, int currentPhase, boolean isFirstPhase, boolean isLastPhase, IProgressMonitor monitor) throws JarException, SAXException, IOException, ParserConfigurationException, CoreException, IncrementalBuilderException {
+		Map<String, Set<Engine>> engineMap = new HashMap<String, Set<Engine>>();
+		Set<Engine> allEngines = new HashSet<Engine>();
+		createEngines(targets, currentPhase, isFirstPhase, engineMap, allEngines);
+		
+		Set<File> unchangedSources = new HashSet<File>();
+		for(Source source : phaseSources){
+			if(!changedSources.contains(source)){
+				unchangedSources.add(source.getSourceFile());
+			}
+		}
+		Map<Source,Set<Engine>> sourceEngines = new HashMap<Source,Set<Engine>>();
+		
+		File projectBuildDirectory = jrefProject.getBuildDirectory();
+		if (!projectBuildDirectory.exists()) {
+			projectBuildDirectory.mkdirs();
+		}
+		
+		TransformationCache transformationCache = new TransformationCache();
+		for(Engine targetEngine : allEngines){
+			String jarName = targetEngine.getJarName();
+			File modifiedLibrary = BuilderUtils.getBuildPhaseJar(jarName, jrefProject, currentPhase);
+			Set<String> previousClasses = invalidatedClasses.containsKey(jarName) ? invalidatedClasses.get(jarName) : new HashSet<String>();
+			
+			// without a previous output of the phase the jar is rebuilt entirely
+			boolean rebuildAll = previousClasses == null || !modifiedLibrary.exists();
+			Set<String> affectedClasses = new HashSet<String>();
+			Set<File> affectedSources = new HashSet<File>();
+			if(!rebuildAll){
+				// classes rebuilt in the previous phase and classes touched by the changed sources before the change
+				affectedClasses.addAll(previousClasses);
+				for(Map<Integer,Map<String,Set<String>>> footprint : staleFootprints.values()){
+					Map<String,Set<String>> jarFootprints = footprint.get(currentPhase);
+					if(jarFootprints != null && jarFootprints.containsKey(jarName)){
+						affectedClasses.addAll(jarFootprints.get(jarName));
+					}
+				}
+				for(Source source : phaseSources){
+					if(changedSources.contains(source) && getTargetEngines(source, currentPhase, engineMap, allEngines, sourceEngines).contains(targetEngine)){
+						affectedSources.add(source.getSourceFile());
+					}
+				}
+				if(affectedClasses.isEmpty() && affectedSources.isEmpty()){
+					// the output of the phase is still current
+					invalidatedClasses.put(jarName, affectedClasses);
+					targetEngine.close();
+					continue;
+				}
+			}
+			
+			Engine engine = targetEngine;
+			while(true){
+				if(monitor.isCanceled()){
+					throw new IncrementalBuilderException("Modification process was cancelled.");
+				}
+				if(!rebuildAll){
+					provenance.close(currentPhase, jarName, unchangedSources, affectedClasses, affectedSources);
+				}
+				engine.setTransformationCache(transformationCache);
+				Set<String> touchedClasses = new HashSet<String>();
+				for(Source source : phaseSources){
+					if(rebuildAll || affectedSources.contains(source.getSourceFile())){
+						provenance.reset(source.getSourceFile(), currentPhase, jarName);
+						if(getTargetEngines(source, currentPhase, engineMap, allEngines, sourceEngines).contains(engine)){
+							Trace.Span sourceSpan = Trace.begin(source.getClassName(), Trace.SOURCE).arg("phase", currentPhase);
+							try {
+								processTargetEngines(source, currentPhase, Collections.singleton(engine));
+							} finally {
+								sourceSpan.end();
+							}
+							touchedClasses.addAll(provenance.getClasses(source.getSourceFile(), currentPhase, jarName));
+						}
+					}
+				}
+				if(rebuildAll || affectedClasses.containsAll(touchedClasses)){
+					break;
+				}
+				// a reprocessed source touched a class outside of the affected
+				// classes, start over with the larger set of affected classes
+				affectedClasses.addAll(touchedClasses);
+				engine.close();
+				engine = createEngine(targetEngine.getOriginalJar());
+			}
+			
+			modifiedLibrary.getParentFile().mkdirs();
+			if(rebuildAll){
+				engine.save(modifiedLibrary);
+				invalidatedClasses.put(jarName, null);
+			} else {
+				// the existing output is the base of the new output
+				File previousLibrary = new File(modifiedLibrary.getParentFile(), modifiedLibrary.getName() + ".previous");
+				if(previousLibrary.exists()){
+					previousLibrary.delete();
+				}
+				if(!modifiedLibrary.renameTo(previousLibrary)){
+					throw new IOException("Unable to move " + modifiedLibrary.getName());
+				}
+				try {
+					engine.save(modifiedLibrary, previousLibrary, affectedClasses);
+				} finally {
+					previousLibrary.delete();
+				}
+				invalidatedClasses.put(jarName, affectedClasses);
+				Log.info("Rebuilt " + affectedClasses.size() + " affected class" + (affectedClasses.size() == 1 ? "" : "es") + " of " + jarName + " from " + affectedSources.size() + " source" + (affectedSources.size() == 1 ? "" : "s") + ".");
+			}
+			completeOutput(engine, currentPhase, modifiedLibrary, isLastPhase);
+		}
+	}
+	
+	/**
+	 * Returns the engines of the jars containing the targets of a source,
+	 * resolved once per phase
+	 * @param source
+	 * @param phase
+	 * @param engineMap
+	 * @param allEngines
+	 * @param sourceEngines the resolved target engines of the phase sources
+	 * @return
+	 */
+	private Set<Engine> getTargetEngines(Source source, int phase, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines, Map<Source,Set<Engine>> sourceEngines) throws IOException {
+		Set<Engine> targetEngines = sourceEngines.get(source);
+		if(targetEngines == null){
+			targetEngines = getTargetEngines(source, phase, engineMap, allEngines);
+			sourceEngines.put(source, targetEngines);
+		}
+		return targetEngines;
+	}
+	
+	/**
+	 * Creates the engines of the targets for a phase
+	 * if its the first phase then we are just initializing with the original jars
+	 * if its after the first phase then we are initializing with the last build phase jars
+	 * @param targets
+	 * @param currentPhase
+	 * @param isFirstPhase
+	 * @param engineMap the engines of the jars containing each class entry
+	 * @param allEngines
+	 * @throws IOException
+	 */
+	private void createEngines(Set<BuildFile.Target> targets, int currentPhase, boolean isFirstPhase, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines) throws IOException {
+		for(BuildFile.Target target : targets) {
+			File jar;
+			if(isFirstPhase){
+				// classpath has been restored, these are all the original jars
+				jar = RuntimeUtils.getClasspathJar(target.getName(), jrefProject);
+			} else {
+				jar = BuilderUtils.getBuildPhaseJar(target.getName(), jrefProject, currentPhase-1);
+				if(!jar.exists()){
+					jar = RuntimeUtils.getClasspathJar(target.getName(), jrefProject);
+				}
+			}
+			if (jar != null && jar.exists()) {
+				if(isFirstPhase){
+					inputFiles.add(jar);
+				}
+				Engine engine = createEngine(jar);
+				allEngines.add(engine);
+				for(String entry : engine.getOriginalEntries()){
+					entry = entry.replace(".class", "");
+					if(engineMap.containsKey(entry)){
+						engineMap.get(entry).add(engine);
+					} else {
+						Set<Engine> engines = new HashSet<Engine>();
+						engines.add(engine);
+						engineMap.put(entry, engines);
+					}
+				}
+			} else if(isFirstPhase){
+				Log.warning("Original Jar not found: " + target.getName());
+			} else {
+				Log.warning("Phase Jar not found: " + target.getName());
+			}
+		}
+	}
+	
+	private Engine createEngine(File jar) throws IOException {
+		Engine engine = new Engine(jar, PreferencesPage.getMergeRenamingPrefix());
+		engine.setMemoryCeiling(PreferencesPage.getMemoryCeiling());
+		engine.setLogSummaryThreshold(PreferencesPage.getLogSummaryThreshold());
+		return engine;
+	}
+	
+	/**
+	 * Verifies and reports a saved phase output, copies the output of the last
+	 * phase to the build directory and closes the engine
+	 * @param engine
+	 * @param currentPhase
+	 * @param modifiedLibrary
+	 * @param isLastPhase
+	 * @throws IOException
+	 */
+	private void completeOutput(Engine engine, int currentPhase, File modifiedLibrary, boolean isLastPhase) throws IOException {
+		modifiedFiles.add(modifiedLibrary);
+		if(engineInputs != null){
+			verifyOutput(engine, currentPhase, modifiedLibrary);
+		}
+		if(PreferencesPage.isBytecodeVerificationEnabled()){
+			verifyBytecode(engine, currentPhase, modifiedLibrary);
+		}
+		if(PreferencesPage.isDiffReportEnabled()){
+			writeDiffReport(engine, currentPhase, modifiedLibrary);
+		}
 
-			if(isLastPhase){
-				File finalModifiedLibrary = new File(projectBuildDirectory.getCanonicalPath() + File.separatorChar + engine.getJarName());
+		if(isLastPhase){
+			File projectBuildDirectory = jrefProject.getBuildDirectory();
+			File finalModifiedLibrary = new File(projectBuildDirectory.getCanonicalPath() + File.separatorChar + engine.getJarName());
+			if(finalModifiedLibrary.exists() && JarModifier.hasSameContents(modifiedLibrary, finalModifiedLibrary)){
+				// an untouched library is not rewritten and does not trigger a Java rebuild
+				Log.info("Unchanged: " + finalModifiedLibrary.getName());
+			} else {
 				if(finalModifiedLibrary.exists()){
 					// replace the library
 					finalModifiedLibrary.delete();
 				}
 				RuntimeUtils.copyFile(modifiedLibrary, finalModifiedLibrary);
+				modifiedFiles.add(finalModifiedLibrary);
 			}
-			
-			// log the modified runtime
-			String base = jrefProject.getProject().getLocation().toFile().getCanonicalPath();
-			String relativeFilePath = modifiedLibrary.getCanonicalPath().substring(base.length());
-			if(relativeFilePath.charAt(0) == File.separatorChar){
-				relativeFilePath = relativeFilePath.substring(1);
-			}
-			Log.info("Modified: " + relativeFilePath);
 		}
 		
-		jrefProject.refresh();
+		// log the modified runtime
+		String base = jrefProject.getProject().getLocation().toFile().getCanonicalPath();
+		String relativeFilePath = modifiedLibrary.getCanonicalPath().substring(base.length());
+		if(relativeFilePath.charAt(0) == File.separatorChar){
+			relativeFilePath = relativeFilePath.substring(1);
+		}
+		Log.info("Modified: " + relativeFilePath);
+		
+		// release the pending class bytes and scratch files of the engine
+		engine.close();
+	}
+	
+	/**
+	 * Rebuilds the output of an engine with the reference pipeline and logs the
+	 * first divergence of the build output from the reference output
+	 * @param engine
+	 * @param phase
+	 * @param output
+	 * @throws IOException
+	 */
+	private void verifyOutput(Engine engine, int phase, File output) throws IOException {
+		List<byte[]> inputClasses = engineInputs.get(engine);
+		if(inputClasses == null){
+			inputClasses = new LinkedList<byte[]>();
+		}
+		ReferencePipeline reference = new ReferencePipeline(PreferencesPage.getMergeRenamingPrefix(), getClassLoaders(engine));
+		Divergence divergence = new DifferentialVerifier(reference).verifyOutput(engine.getOriginalJar(), inputClasses, phase, output);
+		if(divergence == null){
+			Log.info("Verified phase " + phase + " output of " + engine.getJarName() + " against the reference pipeline.");
+		} else {
+			Log.warning("Phase " + phase + " output of " + engine.getJarName() + " diverges from the reference pipeline: " + divergence);
+		}
+	}
+	
+	/**
+	 * Verifies the classes modified by an engine in its output and logs each
+	 * class that fails to verify
+	 * @param engine
+	 * @param phase
+	 * @param output
+	 * @throws IOException
+	 */
+	private void verifyBytecode(Engine engine, int phase, File output) throws IOException {
+		Set<String> modifiedClasses = engine.getModificationEntries();
+		if(modifiedClasses.isEmpty()){
+			return;
+		}
+		BytecodeVerifier verifier = new BytecodeVerifier();
+		verifier.setClassLoaders(getClassLoaders(engine));
+		List<VerificationError> errors = verifier.verify(engine.getOriginalJar(), output, modifiedClasses);
+		if(PreferencesPage.isIsolatedBytecodeVerificationEnabled()){
+			errors.addAll(verifier.load(output, modifiedClasses, getClass().getClassLoader()));
+		}
+		if(errors.isEmpty()){
+			Log.info("Verified " + modifiedClasses.size() + " modified class" + (modifiedClasses.size() > 1 ? "es" : "") + " of phase " + phase + " output of " + engine.getJarName() + ".");
+		} else {
+			for(VerificationError error : errors){
+				Log.warning("Phase " + phase + " output of " + engine.getJarName() + " failed verification: " + error);
+			}
+		}
+	}
+	
+	/**
+	 * Writes a structural diff report of the changes an engine made to its
+	 * archive next to the phase output
+	 * @param engine
+	 * @param phase
+	 * @param output
+	 * @throws IOException
+	 */
+	private void writeDiffReport(Engine engine, int phase, File output) throws IOException {
+		Report report = ArchiveDiff.diff(engine.getOriginalJar(), output);
+		File reportFile = new File(output.getParentFile(), output.getName() + ".diff");
+		PrintStream reportStream = new PrintStream(new FileOutputStream(reportFile));
+		try {
+			report.write(reportStream);
+		} finally {
+			reportStream.close();
+		}
+		modifiedFiles.add(reportFile);
+		Log.info("Phase " + phase + " diff of " + report.getSummary());
 	}
 	
 	private void modifyTarget(Set<Source> sources, int phase, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines, IProgressMonitor monitor) throws IOException, IncrementalBuilderException {
@@ -409,125 +1433,109 @@ public class IncrementalBuilder {
 				throw new IncrementalBuilderException("Modification process was cancelled.");
 			}
 			
-			ClassNode classNode = source.getClassNode();
-			// TODO: refactor this bit to just save the parsed annotation requests instead of true/false
-			boolean purgeModification = BuilderUtils.hasPurgeModification(classNode);
-			boolean finalityModification = BuilderUtils.hasFinalityModification(classNode);
-			boolean visibilityModification = BuilderUtils.hasVisibilityModification(classNode);
-			boolean mergeModification = BuilderUtils.hasMergeTypeModification(classNode);
-			boolean defineModification = BuilderUtils.hasDefineTypeModification(classNode);
-			
-			if(purgeModification || finalityModification || visibilityModification || mergeModification || defineModification){
-				// get the qualified modification class name
-				String base = jrefProject.getBinaryDirectory().getCanonicalPath();
-				String modificationClassName = source.getSourceFile().getCanonicalPath().substring(base.length());
-				if(modificationClassName.charAt(0) == File.separatorChar){
-					modificationClassName = modificationClassName.substring(1);
-				}
-				modificationClassName = modificationClassName.replace(".java", "");
-			
-				if(purgeModification){
-					Set<String> targets = PurgeIdentifier.getPurgeTargets(classNode, phase);
-					for(String target : targets){
-						// purge target from each jar that contains the purge target
-						if(engineMap.containsKey(target)){
-							for(Engine engine : engineMap.get(target)){
-								if(RuntimeUtils.isRuntimeJar(engine.getOriginalJar())){
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-								} else {
-									URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-								}
-								engine.process(classNode, phase);
-							}
-						} else {
-							Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-						}
-					}
-				} 
-				
-				if(finalityModification){
-					Set<String> targets = DefineFinalityIdentifier.getFinalityTargets(classNode, phase);
-					for(String target : targets){
-						// merge into each target jar that contains the merge target
-						if(engineMap.containsKey(target)){
-							for(Engine engine : engineMap.get(target)){
-								if(RuntimeUtils.isRuntimeJar(engine.getOriginalJar())){
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-								} else {
-									URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-								}
-								engine.process(classNode, phase);
-							}
-						} else {
-							Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-						}
-					}
-				} 
-				
-				if(visibilityModification){
-					Set<String> targets = DefineVisibilityIdentifier.getVisibilityTargets(classNode, phase);
-					for(String target : targets){
-						// merge into each target jar that contains the merge target
-						if(engineMap.containsKey(target)){
-							for(Engine engine : engineMap.get(target)){
-								if(RuntimeUtils.isRuntimeJar(engine.getOriginalJar())){
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-								} else {
-									URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-								}
-								engine.process(classNode, phase);
-							}
-						} else {
-							Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-						}
-					}
+			Trace.Span sourceSpan = Trace.begin(source.getClassName(), Trace.SOURCE).arg("phase", phase);
+			try {
+				processTargetEngines(source, phase, getTargetEngines(source, phase, engineMap, allEngines));
+			} finally {
+				sourceSpan.end();
+			}
+			modificationMonitor.worked(1);
+		}
+		
+	}
+	
+	/**
+	 * Returns the engines of the jars containing the targets of a source
+	 * @param source
+	 * @param phase
+	 * @param engineMap
+	 * @param allEngines
+	 * @return
+	 */
+	private Set<Engine> getTargetEngines(Source source, int phase, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines) throws IOException {
+		// the engine processes every annotation of the source for the phase, so
+		// gather the engines of each jar containing a target and process each once
+		Set<Engine> targetEngines = new HashSet<Engine>();
+		addTargetEngines(source.getTargets(phase), engineMap, allEngines, targetEngines);
+		if(source.isDefineType(phase)){
+			// define or replace in every target jar
+			targetEngines.addAll(allEngines);
+		}
+		return targetEngines;
+	}
+	
+	/**
+	 * Processes the source with the engine of each target jar and records the
+	 * classes the source touched in each jar
+	 * @param source
+	 * @param phase
+	 * @param targetEngines
+	 * @throws IOException
+	 */
+	private void processTargetEngines(Source source, int phase, Set<Engine> targetEngines) throws IOException {
+		if(targetEngines.isEmpty()){
+			return;
+		}
+		// serialize the source once so that jars with identical copies of
+		// a target can share the transformed bytecode
+		byte[] inputClass = BytecodeUtils.writeClass(source.getClassNode());
+		for(Engine engine : targetEngines){
+			engine.setClassLoaders(getClassLoaders(engine));
+			engine.process(inputClass, phase, source.getModificationIndex());
+			provenance.add(source.getSourceFile(), phase, engine.getJarName(), engine.getTouchedEntries());
+			if(engineInputs != null){
+				List<byte[]> inputClasses = engineInputs.get(engine);
+				if(inputClasses == null){
+					inputClasses = new LinkedList<byte[]>();
+					engineInputs.put(engine, inputClasses);
 				}
-				
-				if(mergeModification){
-					MergeIdentifier mergeIdentifier = new MergeIdentifier(classNode);
-					MergeTypeAnnotation mergeTypeAnnotation = mergeIdentifier.getMergeTypeAnnotation();
-					if(mergeTypeAnnotation.getPhase() == phase){
-						String target = mergeTypeAnnotation.getSupertype();
-						// merge into each target jar that contains the merge target
-						if(engineMap.containsKey(target)){
-							for(Engine engine : engineMap.get(target)){
-								if(RuntimeUtils.isRuntimeJar(engine.getOriginalJar())){
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-								} else {
-									URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-									engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-								}
-								engine.process(classNode, phase);
-							}
-						} else {
-							Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
-						}
-					}
-				} 
-				
-				if(defineModification){
-					DefineIdentifier defineIdentifier = new DefineIdentifier(classNode);
-					DefineTypeAnnotation defineTypeAnnotation = defineIdentifier.getDefineTypeAnnotation();
-					if(defineTypeAnnotation.getPhase() == phase){
-						// define or replace in every target jar
-						for(Engine engine : allEngines){
-							if(RuntimeUtils.isRuntimeJar(engine.getOriginalJar())){
-								engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader() });
-							} else {
-								URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
-								engine.setClassLoaders(new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) });
-							}
-							engine.process(classNode, phase);
-						}
+				inputClasses.add(inputClass);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the class loaders the engine resolves common superclasses with
+	 * @param engine
+	 * @return
+	 * @throws IOException
+	 */
+	private ClassLoader[] getClassLoaders(Engine engine) throws IOException {
+		if(RuntimeUtils.isRuntimeJar(engine.getOriginalJar())){
+			return new ClassLoader[]{ getClass().getClassLoader() };
+		} else {
+			URL[] jarURL = { new URL("jar:file:" + engine.getOriginalJar().getCanonicalPath() + "!/") };
+			return new ClassLoader[]{ getClass().getClassLoader(), URLClassLoader.newInstance(jarURL) };
+		}
+	}
+	
+	/**
+	 * Adds the engines of each jar that contains a target class entry, or for
+	 * type patterns at least one class entry matching the pattern
+	 * @param targets
+	 * @param engineMap
+	 * @param allEngines
+	 * @param targetEngines
+	 */
+	private void addTargetEngines(Set<String> targets, Map<String, Set<Engine>> engineMap, Set<Engine> allEngines, Set<Engine> targetEngines) {
+		for(String target : targets){
+			if(ClassNameTrie.isPattern(target)){
+				boolean matched = false;
+				for(Engine engine : allEngines){
+					if(!engine.getMatchingClasses(target).isEmpty()){
+						targetEngines.add(engine);
+						matched = true;
 					}
 				}
+				if(!matched){
+					Log.warning("Class pattern [" + target + "] did not match any entries in the target jars.");
+				}
+			} else if(engineMap.containsKey(target)){
+				targetEngines.addAll(engineMap.get(target));
+			} else {
+				Log.warning("Class entry [" + target + "] could not be found in any of the target jars.");
 			}
-			modificationMonitor.worked(1);
 		}
-		
 	}
 	
 }
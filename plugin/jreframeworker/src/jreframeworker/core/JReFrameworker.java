@@ -56,6 +56,7 @@ public class JReFrameworker {
 	public static final String RAW_DIRECTORY = "raw";
 	public static final String JRE_FRAMEWORKER_ANNOTATIONS_JAR = "jreframeworker-annotations.jar";
 	public static final String ANNOTATIONS_JAR_PATH = "annotations" + "/" + JRE_FRAMEWORKER_ANNOTATIONS_JAR;
+	public static final String FACTORY_PATH_FILENAME = ".factorypath";
 	
 	public static String getBuildPhaseDirectory(int phase){
 		return BUILD_DIRECTORY + "/" + BUILD_PHASE_DIRECTORY_PREFIX + phase;
@@ -172,6 +173,13 @@ public class JReFrameworker {
 		// set the class path
 		jProject.setRawClasspath(entries.toArray(new IClasspathEntry[entries.size()]), null);
 		
+		// run the modification index annotation processor of the annotations jar
+		try {
+			enableAnnotationProcessing(jProject);
+		} catch (Exception e){
+			Log.warning("Could not enable annotation processing, modification sources will be discovered from class files.", e);
+		}
+		
 		Log.info("Successfully created JReFrameworker project: " + jProject.getProject().getName());
 	}
 
@@ -249,6 +257,22 @@ public class JReFrameworker {
 		return annotationsJar;
 	}
 
+	/**
+	 * Enables the annotation processors of the project's annotations jar so
+	 * that the compiler emits the modification index of each source
+	 * @param jProject
+	 * @throws IOException
+	 */
+	private static void enableAnnotationProcessing(IJavaProject jProject) throws IOException {
+		String annotationsJarPath = "/" + jProject.getProject().getName() + "/" + JREF_PROJECT_RESOURCE_DIRECTORY + "/" + JRE_FRAMEWORKER_ANNOTATIONS_JAR;
+		String factoryPath = "<factorypath>\n"
+				+ "    <factorypathentry kind=\"WKSPJAR\" id=\"" + annotationsJarPath + "\" enabled=\"true\" runInBatchMode=\"false\"/>\n"
+				+ "</factorypath>\n";
+		File factoryPathFile = new File(jProject.getProject().getLocation().toFile().getCanonicalPath() + File.separatorChar + FACTORY_PATH_FILENAME);
+		Files.write(factoryPathFile.toPath(), factoryPath.getBytes("UTF-8"));
+		jProject.setOption(JavaCore.COMPILER_PROCESS_ANNOTATIONS, JavaCore.ENABLED);
+	}
+
 	private static URI getProjectLocation(String projectName, IPath projectPath) {
 		URI location = null;
 		if (projectPath != null){
@@ -8,7 +8,10 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -20,6 +23,7 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IProjectDescription;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.jdt.core.IClasspathEntry;
@@ -89,7 +93,7 @@ public class JReFrameworkerProject {
 		} catch (Exception e) {
 			Log.error("Error cleaning " + project.getName(), e);
 		}
-		project.refreshLocal(IResource.DEPTH_INFINITE, new NullProgressMonitor());
+		project.getFolder(JReFrameworker.BUILD_DIRECTORY).refreshLocal(IResource.DEPTH_INFINITE, new NullProgressMonitor());
 	}
 
 	private void clearProjectBuildDirectory(File buildDirectory) throws IOException {
@@ -245,6 +249,47 @@ public class JReFrameworkerProject {
 		jProject.getProject().refreshLocal(IResource.DEPTH_INFINITE, new NullProgressMonitor());
 	}
 	
+	/**
+	 * Refreshes only the given files instead of the whole project. If a file is
+	 * not yet known to the workspace its nearest known parent folder is
+	 * refreshed instead, so newly created build directories are discovered as
+	 * well. Paths are compared canonically, a file that still does not resolve
+	 * into the project refreshes the build folder.
+	 * @param files
+	 * @throws CoreException
+	 */
+	public void refresh(Collection<File> files) throws CoreException {
+		Set<IResource> resources = new HashSet<IResource>();
+		IPath projectLocation = new Path(getCanonicalFile(project.getLocation().toFile()).getPath());
+		for(File file : files){
+			IPath location = new Path(getCanonicalFile(file).getPath());
+			if(!projectLocation.isPrefixOf(location)){
+				Log.warning("Refreshing build folder for output outside of " + project.getName() + ": " + file.getPath());
+				resources.add(project.getFolder(JReFrameworker.BUILD_DIRECTORY));
+				continue;
+			}
+			IPath relativePath = location.makeRelativeTo(projectLocation);
+			IResource resource = project.findMember(relativePath);
+			while(resource == null && relativePath.segmentCount() > 0){
+				relativePath = relativePath.removeLastSegments(1);
+				resource = project.findMember(relativePath);
+			}
+			resources.add(resource != null ? resource : project);
+		}
+		for(IResource resource : resources){
+			// refreshing a folder discovers its new files and directories
+			resource.refreshLocal(resource.getType() == IResource.FILE ? IResource.DEPTH_ZERO : IResource.DEPTH_INFINITE, new NullProgressMonitor());
+		}
+	}
+	
+	private static File getCanonicalFile(File file){
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e){
+			return file.getAbsoluteFile();
+		}
+	}
+	
 	/**
 	 * Copies a library into the project root directory and updates the classpath
 	 * @param jProject
@@ -266,6 +311,53 @@ public class JReFrameworkerProject {
 	 * @throws CoreException 
 	 */
 	public void updateProjectLibrary(String jarName, File updatedLibrary) throws IOException, CoreException {
+		Map<String,File> updatedLibraries = new HashMap<String,File>();
+		updatedLibraries.put(jarName, updatedLibrary);
+		updateProjectLibraries(updatedLibraries);
+	}
+	
+	/**
+	 * Replaces the classpath jar entries with the given jars. The classpath is
+	 * only set once and only if an entry actually changed, since every
+	 * classpath change invalidates the state of the Java builder.
+	 * @param updatedLibraries a map of jar names to updated jars
+	 * @throws IOException 
+	 * @throws CoreException 
+	 */
+	public void updateProjectLibraries(Map<String,File> updatedLibraries) throws IOException, CoreException {
+		if(updatedLibraries.isEmpty()){
+			return;
+		}
+		
+		// search through the classpath's existing entries and replace the corresponding library entries
+		boolean classpathChanged = false;
+		IClasspathEntry[] entries = jProject.getRawClasspath();
+		for(Map.Entry<String,File> updatedLibrary : updatedLibraries.entrySet()){
+			for(int i=0; i< entries.length; i++){
+				if(entries[i].getPath().toFile().getName().equals(updatedLibrary.getKey())){
+					IClasspathEntry updatedLibraryEntry = getLibraryEntry(updatedLibrary.getValue());
+					if(!entries[i].equals(updatedLibraryEntry)){
+						entries[i] = updatedLibraryEntry;
+						classpathChanged = true;
+					}
+					// assuming there is only one library with the same name...
+					break;
+				}
+			}
+		}
+		if(classpathChanged){
+			jProject.setRawClasspath(entries, null);
+		}
+	}
+	
+	/**
+	 * Creates a classpath entry for the library, relative to the project if the
+	 * library is inside the project
+	 * @param updatedLibrary
+	 * @return
+	 * @throws IOException
+	 */
+	private IClasspathEntry getLibraryEntry(File updatedLibrary) throws IOException {
 		updatedLibrary = updatedLibrary.getCanonicalFile();
 		String updatedLibraryPath = updatedLibrary.getCanonicalPath();
 		File projectRoot = project.getLocation().toFile().getCanonicalFile();
@@ -319,20 +411,7 @@ public class JReFrameworkerProject {
 	    	        ClasspathEntry.NO_ACCESS_RULES, false, // no access rules to combine
 	    	        ClasspathEntry.NO_EXTRA_ATTRIBUTES);
 	    }
-		
-		// search through the classpath's existing entries and replace the corresponding library entry
-	    IClasspathEntry[] entries = jProject.getRawClasspath();
-	    for(int i=0; i< entries.length; i++){
-	    	if(entries[i].getPath().toFile().getName().equals(jarName)){
-	    		entries[i] =  updatedLibraryEntry;
-	    		// assuming there is only one library with the same name...
-	    		break;
-	    	}
-	    }
-	    jProject.setRawClasspath(entries, null);
-	    
-	    // refresh project
-	 	jProject.getProject().refreshLocal(IResource.DEPTH_INFINITE, new NullProgressMonitor());
+		return updatedLibraryEntry;
 	}
 	
 	/**
@@ -420,6 +499,7 @@ public class JReFrameworkerProject {
 	 * @throws CoreException
 	 */
 	public void restoreOriginalClasspathEntries() throws SAXException, IOException, ParserConfigurationException, CoreException {
+		Map<String,File> originalLibraries = new HashMap<String,File>();
 		for(BuildFile.Target entry : getBuildFile().getTargets()){
 			if(entry.isRuntime()){
 				// TODO: implement
@@ -430,16 +510,17 @@ public class JReFrameworkerProject {
 				File library = new File(((LibraryTarget) entry).getLibraryPath());
 				if(library.exists()){
 					// absolute path
-					updateProjectLibrary(library.getName(), library);
+					originalLibraries.put(library.getName(), library);
 				} else {
 					// relative path
 					library = project.getFile(((LibraryTarget) entry).getLibraryPath()).getLocation().toFile();
 					if(library.exists()){
-						updateProjectLibrary(library.getName(), library);
+						originalLibraries.put(library.getName(), library);
 					}
 				}
 			}
 		}
+		updateProjectLibraries(originalLibraries);
 	}
 
 }
@@ -0,0 +1,160 @@
+package jreframeworker.core;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records the classes of each target archive that each modification source
+ * touched in each build phase, so that a changed source only invalidates the
+ * classes reachable from its own footprint instead of every later phase of
+ * every target.
+ */
+public class ProvenanceGraph {
+
+	// source file -> phase -> archive name -> touched classes
+	private Map<File,Map<Integer,Map<String,Set<String>>>> footprints = new HashMap<File,Map<Integer,Map<String,Set<String>>>>();
+
+	/**
+	 * Clears the recorded footprint of the source in the given archive and
+	 * phase, marking the source as processed for the phase
+	 * @param sourceFile
+	 * @param phase
+	 * @param archive
+	 */
+	public void reset(File sourceFile, int phase, String archive) {
+		getArchives(sourceFile, phase).put(archive, new HashSet<String>());
+	}
+
+	/**
+	 * Adds classes touched by the source in the given archive and phase
+	 * @param sourceFile
+	 * @param phase
+	 * @param archive
+	 * @param classes
+	 */
+	public void add(File sourceFile, int phase, String archive, Set<String> classes) {
+		Map<String,Set<String>> archives = getArchives(sourceFile, phase);
+		Set<String> touchedClasses = archives.get(archive);
+		if(touchedClasses == null){
+			touchedClasses = new HashSet<String>();
+			archives.put(archive, touchedClasses);
+		}
+		touchedClasses.addAll(classes);
+	}
+
+	private Map<String,Set<String>> getArchives(File sourceFile, int phase) {
+		Map<Integer,Map<String,Set<String>>> phases = footprints.get(sourceFile);
+		if(phases == null){
+			phases = new HashMap<Integer,Map<String,Set<String>>>();
+			footprints.put(sourceFile, phases);
+		}
+		Map<String,Set<String>> archives = phases.get(phase);
+		if(archives == null){
+			archives = new HashMap<String,Set<String>>();
+			phases.put(phase, archives);
+		}
+		return archives;
+	}
+
+	/**
+	 * Returns true if the footprint of the source is known for every given phase
+	 * @param sourceFile
+	 * @param phases
+	 * @return
+	 */
+	public boolean contains(File sourceFile, Collection<Integer> phases) {
+		Map<Integer,Map<String,Set<String>>> recordedPhases = footprints.get(sourceFile);
+		return recordedPhases != null && recordedPhases.keySet().containsAll(phases);
+	}
+
+	/**
+	 * Returns the classes touched by the source in the given archive and phase
+	 * @param sourceFile
+	 * @param phase
+	 * @param archive
+	 * @return
+	 */
+	public Set<String> getClasses(File sourceFile, int phase, String archive) {
+		Map<Integer,Map<String,Set<String>>> phases = footprints.get(sourceFile);
+		if(phases != null && phases.containsKey(phase)){
+			Set<String> classes = phases.get(phase).get(archive);
+			if(classes != null){
+				return new HashSet<String>(classes);
+			}
+		}
+		return new HashSet<String>();
+	}
+
+	/**
+	 * Returns the phases and archives the source touched, or null if the source was not recorded
+	 * @param sourceFile
+	 * @return
+	 */
+	public Map<Integer,Map<String,Set<String>>> getFootprint(File sourceFile) {
+		return footprints.get(sourceFile);
+	}
+
+	public Set<File> getSources() {
+		return new HashSet<File>(footprints.keySet());
+	}
+
+	public void remove(File sourceFile) {
+		footprints.remove(sourceFile);
+	}
+
+	/**
+	 * Removes the footprints in an archive that is no longer a build target
+	 * @param archive
+	 */
+	public void removeArchive(String archive) {
+		for(Map<Integer,Map<String,Set<String>>> phases : footprints.values()){
+			for(Map<String,Set<String>> archives : phases.values()){
+				archives.remove(archive);
+			}
+		}
+	}
+
+	public void clear() {
+		footprints.clear();
+	}
+
+	/**
+	 * Expands the affected classes of an archive in a phase and the sources
+	 * to reprocess until every source touching an affected class is
+	 * reprocessed and every class touched by a reprocessed source is affected.
+	 * Classes outside of the closure keep their previous output.
+	 * @param phase
+	 * @param archive
+	 * @param phaseSources the unchanged sources of the phase
+	 * @param classes the affected classes, expanded in place
+	 * @param sources the sources to reprocess, expanded in place
+	 */
+	public void close(int phase, String archive, Collection<File> phaseSources, Set<String> classes, Set<File> sources) {
+		for(File sourceFile : sources){
+			classes.addAll(getClasses(sourceFile, phase, archive));
+		}
+		boolean changed = true;
+		while(changed){
+			changed = false;
+			for(File sourceFile : phaseSources){
+				if(sources.contains(sourceFile)){
+					continue;
+				}
+				Set<String> touchedClasses = getClasses(sourceFile, phase, archive);
+				for(String touchedClass : touchedClasses){
+					if(classes.contains(touchedClass)){
+						sources.add(sourceFile);
+						classes.addAll(touchedClasses);
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,380 @@
+package jreframeworker.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.JavaCore;
+
+import jreframeworker.engine.identifiers.ModificationIndex;
+import jreframeworker.engine.utils.BytecodeUtils;
+import jreframeworker.log.Log;
+
+/**
+ * Caches the resolution of each source file of a project to its class file
+ * and a summary of its annotations, so that builds only resolve the files
+ * that changed instead of every compilation unit of the project.
+ *
+ * A resolution is only used while the source and class file timestamps are
+ * unchanged. Resolutions are dropped when the problem markers of their source
+ * change, and the cache of a project is dropped when its classpath changes or
+ * the project is closed or removed.
+ *
+ * Sources may be resolved concurrently. Problem markers and the Java model are
+ * workspace state, so the build thread reads them and passes them to
+ * {@link #resolveSource(File, File, boolean)}, which only reads files.
+ */
+public class SourceResolutionCache {
+
+	/**
+	 * The class file and annotation summary of a source file
+	 */
+	public static class Resolution {
+		private File sourceFile;
+		private File classFile;
+		private long sourceModified;
+		private long classModified;
+		private long classLength;
+		private boolean modificationSource;
+		private ModificationIndex modificationIndex;
+
+		private Resolution(File sourceFile, File classFile) {
+			this.sourceFile = sourceFile;
+			this.classFile = classFile;
+			this.sourceModified = sourceFile.lastModified();
+			this.classModified = classFile.lastModified();
+			this.classLength = classFile.length();
+		}
+
+		public File getSourceFile() {
+			return sourceFile;
+		}
+
+		public File getClassFile() {
+			return classFile;
+		}
+
+		/**
+		 * Returns true if the source compiled without severe problems and has a
+		 * top level JReFrameworker annotation
+		 * @return
+		 */
+		public boolean isModificationSource() {
+			return modificationSource;
+		}
+
+		/**
+		 * Returns the compile time modification index of the source or null if
+		 * the source did not have an up to date index
+		 * @return
+		 */
+		public ModificationIndex getModificationIndex() {
+			return modificationIndex;
+		}
+
+		/**
+		 * Returns true if the source and class file were not touched since the source was resolved
+		 * @return
+		 */
+		public boolean isCurrent() {
+			return sourceFile.lastModified() == sourceModified
+					&& classFile.lastModified() == classModified
+					&& classFile.length() == classLength;
+		}
+	}
+
+	private static Map<IProject,SourceResolutionCache> caches = new HashMap<IProject,SourceResolutionCache>();
+	private static IResourceChangeListener resourceChangeListener = null;
+	private static IElementChangedListener elementChangedListener = null;
+	private static ThreadPoolExecutor executor = null;
+
+	/**
+	 * Returns the cache of the project, listening for workspace changes once the first cache is created
+	 * @param jrefProject
+	 * @return
+	 */
+	public static synchronized SourceResolutionCache getCache(JReFrameworkerProject jrefProject) {
+		if(resourceChangeListener == null){
+			addListeners();
+		}
+		IProject project = jrefProject.getProject();
+		SourceResolutionCache cache = caches.get(project);
+		if(cache == null){
+			cache = new SourceResolutionCache(jrefProject);
+			caches.put(project, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the executor full builds resolve sources on, shared by the builds
+	 * of all projects. Idle threads are released between builds.
+	 * @return
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		if(executor == null){
+			int threads = Runtime.getRuntime().availableProcessors();
+			executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "JReFrameworker Source Resolution " + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Drops every cache and stops listening for workspace changes
+	 */
+	public static synchronized void dispose() {
+		if(resourceChangeListener != null){
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(resourceChangeListener);
+			resourceChangeListener = null;
+		}
+		if(elementChangedListener != null){
+			JavaCore.removeElementChangedListener(elementChangedListener);
+			elementChangedListener = null;
+		}
+		if(executor != null){
+			executor.shutdownNow();
+			executor = null;
+		}
+		caches.clear();
+	}
+
+	private static synchronized void removeCache(IProject project) {
+		caches.remove(project);
+	}
+
+	private static synchronized SourceResolutionCache findCache(IProject project) {
+		return caches.get(project);
+	}
+
+	private static void addListeners() {
+		resourceChangeListener = new IResourceChangeListener() {
+			@Override
+			public void resourceChanged(IResourceChangeEvent event) {
+				if(event.getType() == IResourceChangeEvent.PRE_CLOSE || event.getType() == IResourceChangeEvent.PRE_DELETE){
+					if(event.getResource() instanceof IProject){
+						removeCache((IProject) event.getResource());
+					}
+					return;
+				}
+				if(event.getDelta() == null){
+					return;
+				}
+				try {
+					event.getDelta().accept(new IResourceDeltaVisitor() {
+						@Override
+						public boolean visit(IResourceDelta delta) throws CoreException {
+							IResource resource = delta.getResource();
+							if(resource.getType() == IResource.PROJECT){
+								return findCache((IProject) resource) != null;
+							}
+							// removed sources are kept until a build reports them
+							if(resource.getType() == IResource.FILE && delta.getKind() == IResourceDelta.CHANGED
+									&& resource.getName().endsWith(".java") && resource.getLocation() != null){
+								SourceResolutionCache cache = findCache(resource.getProject());
+								if(cache != null){
+									// problem markers are not reflected in the file timestamps
+									if((delta.getFlags() & IResourceDelta.MARKERS) != 0){
+										cache.invalidate(resource.getLocation().toFile());
+									}
+								}
+							}
+							return true;
+						}
+					});
+				} catch (CoreException e){
+					Log.warning("Unable to update source resolutions", e);
+				}
+			}
+		};
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(resourceChangeListener,
+				IResourceChangeEvent.POST_CHANGE | IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+
+		elementChangedListener = new IElementChangedListener() {
+			@Override
+			public void elementChanged(ElementChangedEvent event) {
+				for(IJavaElementDelta delta : event.getDelta().getAffectedChildren()){
+					if(delta.getElement().getElementType() != IJavaElement.JAVA_PROJECT){
+						continue;
+					}
+					// source folders and output locations are resolved from the classpath
+					int flags = IJavaElementDelta.F_CLASSPATH_CHANGED | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED | IJavaElementDelta.F_CLOSED;
+					if(delta.getKind() == IJavaElementDelta.REMOVED || (delta.getFlags() & flags) != 0){
+						removeCache(delta.getElement().getJavaProject().getProject());
+					}
+				}
+			}
+		};
+		JavaCore.addElementChangedListener(elementChangedListener, ElementChangedEvent.POST_CHANGE);
+	}
+
+	private JReFrameworkerProject jrefProject;
+	private Map<File,Resolution> resolutions = new HashMap<File,Resolution>();
+
+	private SourceResolutionCache(JReFrameworkerProject jrefProject) {
+		this.jrefProject = jrefProject;
+	}
+
+	/**
+	 * Returns the current resolution of a source file, resolving the source
+	 * again if it changed since it was last resolved. Reads workspace state
+	 * and must be called from the build thread.
+	 * @param sourceFile the canonical source file
+	 * @return the resolution or null if the source has no class file
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	public Resolution resolveSource(File sourceFile) throws IOException, CoreException {
+		Resolution resolution = getCurrentResolution(sourceFile);
+		if(resolution != null){
+			return resolution;
+		}
+		File classFile = BuilderUtils.getCorrespondingClassFile(jrefProject, sourceFile);
+		return resolveSource(sourceFile, classFile, hasSevereProblems(sourceFile));
+	}
+
+	/**
+	 * Returns the resolution of a source file if neither the source nor its
+	 * class file changed since it was resolved, otherwise null
+	 * @param sourceFile the canonical source file
+	 * @return
+	 */
+	public Resolution getCurrentResolution(File sourceFile) {
+		Resolution resolution;
+		synchronized (this) {
+			resolution = resolutions.get(sourceFile);
+		}
+		if(resolution != null && resolution.isCurrent()){
+			return resolution;
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves a source file again from its class file and modification index.
+	 * Only reads files and may be called from any thread.
+	 * @param sourceFile the canonical source file
+	 * @param classFile the class file of the source
+	 * @param severeProblems true if the source has compilation errors
+	 * @return the resolution or null if the source has no class file
+	 * @throws IOException
+	 */
+	public Resolution resolveSource(File sourceFile, File classFile, boolean severeProblems) throws IOException {
+		Resolution resolution = resolve(sourceFile, classFile, severeProblems);
+		synchronized (this) {
+			if(resolution != null){
+				resolutions.put(sourceFile, resolution);
+			} else {
+				resolutions.remove(sourceFile);
+			}
+		}
+		return resolution;
+	}
+
+	private Resolution resolve(File sourceFile, File classFile, boolean severeProblems) throws IOException {
+		if(!classFile.exists()){
+			return null;
+		}
+		Resolution resolution = new Resolution(sourceFile, classFile);
+		if(!severeProblems){
+			// the compile time index avoids parsing class files without modifications
+			resolution.modificationIndex = BuilderUtils.getModificationIndex(sourceFile, classFile);
+			if(resolution.modificationIndex != null){
+				resolution.modificationSource = resolution.modificationIndex.hasTopLevelAnnotation();
+			} else {
+				resolution.modificationSource = BuilderUtils.hasTopLevelAnnotation(BytecodeUtils.getClassNode(classFile));
+			}
+		}
+		return resolution;
+	}
+
+	/**
+	 * Returns the current resolution of the source of a class file
+	 * @param classFile the canonical class file
+	 * @return the resolution or null if the class file has no source
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	public Resolution resolveClass(File classFile) throws IOException, CoreException {
+		File sourceFile = null;
+		synchronized (this) {
+			for(Resolution resolution : resolutions.values()){
+				if(resolution.classFile.equals(classFile)){
+					sourceFile = resolution.sourceFile;
+					break;
+				}
+			}
+		}
+		if(sourceFile == null){
+			sourceFile = BuilderUtils.getCorrespondingSourceFile(jrefProject, classFile).getCanonicalFile();
+			if(!sourceFile.exists()){
+				return null;
+			}
+		}
+		return resolveSource(sourceFile);
+	}
+
+	/**
+	 * Returns the last resolution of a source file without resolving it again,
+	 * such as the resolution of a source that was since removed
+	 * @param sourceFile
+	 * @return
+	 */
+	public synchronized Resolution getResolution(File sourceFile) {
+		return resolutions.get(sourceFile);
+	}
+
+	public synchronized void invalidate(File sourceFile) {
+		try {
+			sourceFile = sourceFile.getCanonicalFile();
+		} catch (IOException e){
+			// fall back to the given path
+		}
+		resolutions.remove(sourceFile);
+	}
+
+	public synchronized void clear() {
+		resolutions.clear();
+	}
+
+	private boolean hasSevereProblems(File sourceFile) throws CoreException {
+		IFile file = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(sourceFile.getPath()));
+		if(file == null){
+			return false;
+		}
+		ICompilationUnit compilationUnit = JavaCore.createCompilationUnitFrom(file);
+		return compilationUnit != null && BuilderUtils.hasSevereProblems(compilationUnit);
+	}
+
+}
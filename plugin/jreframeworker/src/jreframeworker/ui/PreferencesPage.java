@@ -1,6 +1,8 @@
 package jreframeworker.ui;
 
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
@@ -13,6 +15,29 @@ public class PreferencesPage extends FieldEditorPreferencePage implements IWorkb
 	public static final String MERGE_RENAME_PREFIX_DESCRIPTION = "Merge Renaming Prefix";
 	public static final String MERGE_RENAME_PREFIX_DEFAULT_VALUE = "jref_";
 	
+	public static final String MEMORY_CEILING_STRING = "MEMORY_CEILING";
+	public static final String MEMORY_CEILING_DESCRIPTION = "Pending Class Memory Ceiling (MB per target)";
+	public static final int MEMORY_CEILING_DEFAULT_VALUE = 256;
+	
+	public static final String LOG_SUMMARY_THRESHOLD_STRING = "LOG_SUMMARY_THRESHOLD";
+	public static final String LOG_SUMMARY_THRESHOLD_DESCRIPTION = "Member Modifications Logged per Class (summarized above)";
+	public static final int LOG_SUMMARY_THRESHOLD_DEFAULT_VALUE = 100;
+	
+	public static final String BUILD_TRACE_BOOLEAN = "BUILD_TRACE";
+	public static final String BUILD_TRACE_DESCRIPTION = "Export a build trace timeline (.jref/build-trace.json)";
+	
+	public static final String VERIFY_OUTPUT_BOOLEAN = "VERIFY_OUTPUT";
+	public static final String VERIFY_OUTPUT_DESCRIPTION = "Verify build output against the reference engine pipeline (slow)";
+	
+	public static final String VERIFY_BYTECODE_BOOLEAN = "VERIFY_BYTECODE";
+	public static final String VERIFY_BYTECODE_DESCRIPTION = "Verify the bytecode of modified classes after each phase";
+	
+	public static final String VERIFY_BYTECODE_ISOLATED_BOOLEAN = "VERIFY_BYTECODE_ISOLATED";
+	public static final String VERIFY_BYTECODE_ISOLATED_DESCRIPTION = "Also load modified classes in an isolated class loader during verification";
+	
+	public static final String DIFF_REPORT_BOOLEAN = "DIFF_REPORT";
+	public static final String DIFF_REPORT_DESCRIPTION = "Write a structural diff report of each phase output";
+	
 	/**
 	 * Returns the user preference for the merge renaming prefix
 	 * @return
@@ -26,6 +51,76 @@ public class PreferencesPage extends FieldEditorPreferencePage implements IWorkb
 		return mergeRenamingPrefix;
 	}
 	
+	/**
+	 * Returns the user preference for the maximum number of pending class
+	 * bytes each target keeps in memory before spilling to disk
+	 * @return the memory ceiling in bytes
+	 */
+	public static long getMemoryCeiling(){
+		int memoryCeiling = Activator.getDefault().getPreferenceStore().getInt(MEMORY_CEILING_STRING);
+		if(memoryCeiling <= 0){
+			Activator.getDefault().getPreferenceStore().setValue(MEMORY_CEILING_STRING, MEMORY_CEILING_DEFAULT_VALUE);
+			memoryCeiling = MEMORY_CEILING_DEFAULT_VALUE;
+		}
+		return memoryCeiling * 1024L * 1024L;
+	}
+	
+	/**
+	 * Returns the user preference for the number of member modifications an
+	 * input class may log individually before only per class summaries are logged
+	 * @return
+	 */
+	public static int getLogSummaryThreshold(){
+		int logSummaryThreshold = Activator.getDefault().getPreferenceStore().getInt(LOG_SUMMARY_THRESHOLD_STRING);
+		if(logSummaryThreshold <= 0){
+			Activator.getDefault().getPreferenceStore().setValue(LOG_SUMMARY_THRESHOLD_STRING, LOG_SUMMARY_THRESHOLD_DEFAULT_VALUE);
+			logSummaryThreshold = LOG_SUMMARY_THRESHOLD_DEFAULT_VALUE;
+		}
+		return logSummaryThreshold;
+	}
+	
+	/**
+	 * Returns the user preference for recording a trace of each build
+	 * @return
+	 */
+	public static boolean isBuildTraceEnabled(){
+		return Activator.getDefault().getPreferenceStore().getBoolean(BUILD_TRACE_BOOLEAN);
+	}
+	
+	/**
+	 * Returns the user preference for rebuilding each output with the
+	 * reference pipeline and reporting where the build output diverges
+	 * @return
+	 */
+	public static boolean isOutputVerificationEnabled(){
+		return Activator.getDefault().getPreferenceStore().getBoolean(VERIFY_OUTPUT_BOOLEAN);
+	}
+	
+	/**
+	 * Returns the user preference for verifying the modified classes of each phase output
+	 * @return
+	 */
+	public static boolean isBytecodeVerificationEnabled(){
+		return Activator.getDefault().getPreferenceStore().getBoolean(VERIFY_BYTECODE_BOOLEAN);
+	}
+	
+	/**
+	 * Returns the user preference for linking the verified classes with the
+	 * JVM verifier in an isolated class loader
+	 * @return
+	 */
+	public static boolean isIsolatedBytecodeVerificationEnabled(){
+		return Activator.getDefault().getPreferenceStore().getBoolean(VERIFY_BYTECODE_ISOLATED_BOOLEAN);
+	}
+	
+	/**
+	 * Returns the user preference for writing a structural diff report next to each phase output
+	 * @return
+	 */
+	public static boolean isDiffReportEnabled(){
+		return Activator.getDefault().getPreferenceStore().getBoolean(DIFF_REPORT_BOOLEAN);
+	}
+	
 	public PreferencesPage() {
 		super(GRID);
 	}
@@ -47,6 +142,35 @@ public class PreferencesPage extends FieldEditorPreferencePage implements IWorkb
 			mergeRenamingPrefixStringField.setStringValue(MERGE_RENAME_PREFIX_DEFAULT_VALUE);
 		}
 		addField(mergeRenamingPrefixStringField);
+		
+		IntegerFieldEditor memoryCeilingField = new IntegerFieldEditor(MEMORY_CEILING_STRING, "&" + MEMORY_CEILING_DESCRIPTION, getFieldEditorParent());
+		memoryCeilingField.setValidRange(1, Integer.MAX_VALUE);
+		if(Activator.getDefault().getPreferenceStore().getInt(MEMORY_CEILING_STRING) <= 0){
+			memoryCeilingField.setStringValue(Integer.toString(MEMORY_CEILING_DEFAULT_VALUE));
+		}
+		addField(memoryCeilingField);
+		
+		IntegerFieldEditor logSummaryThresholdField = new IntegerFieldEditor(LOG_SUMMARY_THRESHOLD_STRING, "&" + LOG_SUMMARY_THRESHOLD_DESCRIPTION, getFieldEditorParent());
+		logSummaryThresholdField.setValidRange(1, Integer.MAX_VALUE);
+		if(Activator.getDefault().getPreferenceStore().getInt(LOG_SUMMARY_THRESHOLD_STRING) <= 0){
+			logSummaryThresholdField.setStringValue(Integer.toString(LOG_SUMMARY_THRESHOLD_DEFAULT_VALUE));
+		}
+		addField(logSummaryThresholdField);
+		
+		BooleanFieldEditor buildTraceField = new BooleanFieldEditor(BUILD_TRACE_BOOLEAN, "&" + BUILD_TRACE_DESCRIPTION, getFieldEditorParent());
+		addField(buildTraceField);
+		
+		BooleanFieldEditor verifyOutputField = new BooleanFieldEditor(VERIFY_OUTPUT_BOOLEAN, "&" + VERIFY_OUTPUT_DESCRIPTION, getFieldEditorParent());
+		addField(verifyOutputField);
+		
+		BooleanFieldEditor verifyBytecodeField = new BooleanFieldEditor(VERIFY_BYTECODE_BOOLEAN, "&" + VERIFY_BYTECODE_DESCRIPTION, getFieldEditorParent());
+		addField(verifyBytecodeField);
+		
+		BooleanFieldEditor verifyBytecodeIsolatedField = new BooleanFieldEditor(VERIFY_BYTECODE_ISOLATED_BOOLEAN, "&" + VERIFY_BYTECODE_ISOLATED_DESCRIPTION, getFieldEditorParent());
+		addField(verifyBytecodeIsolatedField);
+		
+		BooleanFieldEditor diffReportField = new BooleanFieldEditor(DIFF_REPORT_BOOLEAN, "&" + DIFF_REPORT_DESCRIPTION, getFieldEditorParent());
+		addField(diffReportField);
 	}
 
 }
\ No newline at end of file
@@ -1,7 +1,9 @@
 package org.objectweb.asm;
 
 /**
- * A class used to specify an ordered list of class loaders to be used by ASM
+ * A class used to specify an ordered list of class loaders to be used by ASM.
+ * The class loaders are set per thread, so engines processing inputs on
+ * different threads do not resolve classes through each others loaders.
  * 
  * @author Ben Holland
  */
@@ -10,22 +12,37 @@ public class ClassLoaders {
 	 /**
      * A set of ordered class loaders to use when loading class definitions
      */
-	private static ClassLoader[] classLoaders = new ClassLoader[]{ ClassLoaders.class.getClassLoader() };
+	private static final ThreadLocal<ClassLoader[]> classLoaders = new ThreadLocal<ClassLoader[]>() {
+		@Override
+		protected ClassLoader[] initialValue() {
+			return new ClassLoader[]{ ClassLoaders.class.getClassLoader() };
+		}
+	};
 	
 	/**
-	 * Returns an ordered set of class loaders to be used by ASM when loading class definitions
+	 * Returns an ordered set of class loaders to be used by ASM when loading
+	 * class definitions on the current thread
 	 * @return
 	 */
 	public static ClassLoader[] getClassLoaders(){
-		return classLoaders;
+		return classLoaders.get();
 	}
 	
 	/**
-	 * Sets an ordered set of class loaders to be used by ASM when loading class definitions
+	 * Sets an ordered set of class loaders to be used by ASM when loading
+	 * class definitions on the current thread
 	 * @return
 	 */
 	public static void setClassLoaders(ClassLoader... classLoaders){
-		ClassLoaders.classLoaders = classLoaders;
+		ClassLoaders.classLoaders.set(classLoaders);
+	}
+	
+	/**
+	 * Restores the default class loaders of the current thread, so a pooled
+	 * thread does not keep the class loaders of a finished transformation
+	 */
+	public static void clearClassLoaders(){
+		ClassLoaders.classLoaders.remove();
 	}
 
 }
@@ -544,6 +544,10 @@ public class ClassReader {
      */
     public void accept(final ClassVisitor classVisitor,
             final Attribute[] attrs, final int flags) {
+        Statistics.current().readerAccepts.incrementAndGet();
+        if ((flags & EXPAND_FRAMES) != 0) {
+            Statistics.current().readerExpandedFramesAccepts.incrementAndGet();
+        }
         int u = header; // current offset in the class file
         char[] c = new char[maxStringLength]; // buffer used to read strings
 
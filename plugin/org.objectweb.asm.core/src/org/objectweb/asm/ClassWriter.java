@@ -507,6 +507,12 @@ public class ClassWriter extends ClassVisitor {
      */
     private int compute;
 
+    /**
+     * Time spent computing the frames of the methods of this class, in
+     * nanoseconds, reported to {@link Statistics} when the class is written.
+     */
+    long frameComputationNanos;
+
     /**
      * <tt>true</tt> if some methods have wide forward jumps using ASM pseudo
      * instructions, which need to be expanded into sequences of standard
@@ -823,6 +829,10 @@ public class ClassWriter extends ClassVisitor {
         if (index > 0xFFFF) {
             throw new RuntimeException("Class file too large!");
         }
+        if (frameComputationNanos > 0) {
+            Statistics.current().recordFrameComputation(frameComputationNanos);
+            frameComputationNanos = 0;
+        }
         // computes the real size of the bytecode of this class
         int size = 24 + 2 * interfaceCount;
         int nbFields = 0;
@@ -1694,11 +1704,14 @@ public class ClassWriter extends ClassVisitor {
         key2.hashCode = 0x7FFFFFFF & (TYPE_MERGED + type1 + type2);
         Item result = get(key2);
         if (result == null) {
+            Statistics.current().commonSuperClassCalls.incrementAndGet();
             String t = typeTable[type1].strVal1;
             String u = typeTable[type2].strVal1;
             key2.intVal = addType(getCommonSuperClass(t, u));
             result = new Item((short) 0, key2);
             put(result);
+        } else {
+            Statistics.current().commonSuperClassCacheHits.incrementAndGet();
         }
         return result.intVal;
     }
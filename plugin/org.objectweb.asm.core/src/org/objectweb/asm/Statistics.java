@@ -0,0 +1,92 @@
+package org.objectweb.asm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the work done by ASM class readers and writers, used to profile
+ * bytecode transformations.
+ *
+ * Readers and writers record into the statistics set for the current thread,
+ * or into shared default statistics if none are set, so that concurrent
+ * transformations can be profiled separately.
+ */
+public class Statistics {
+
+	private static final Statistics DEFAULT_STATISTICS = new Statistics();
+
+	private static final ThreadLocal<Statistics> currentStatistics = new ThreadLocal<Statistics>();
+
+	/**
+	 * Number of ClassReader accept calls
+	 */
+	public final AtomicLong readerAccepts = new AtomicLong();
+
+	/**
+	 * Number of ClassReader accept calls that expanded frames
+	 */
+	public final AtomicLong readerExpandedFramesAccepts = new AtomicLong();
+
+	/**
+	 * Number of ClassWriter getCommonSuperClass calls
+	 */
+	public final AtomicLong commonSuperClassCalls = new AtomicLong();
+
+	/**
+	 * Number of common super class requests answered by a ClassWriter's cache
+	 */
+	public final AtomicLong commonSuperClassCacheHits = new AtomicLong();
+
+	/**
+	 * Number of classes written with computed frames
+	 */
+	public final AtomicLong frameComputedClasses = new AtomicLong();
+
+	/**
+	 * Total time spent computing frames in nanoseconds
+	 */
+	public final AtomicLong frameComputationNanos = new AtomicLong();
+
+	/**
+	 * Longest time spent computing the frames of a single class in nanoseconds
+	 */
+	public final AtomicLong frameComputationMaxNanos = new AtomicLong();
+
+	/**
+	 * Returns the statistics readers and writers on the current thread record into
+	 * @return
+	 */
+	public static Statistics current(){
+		Statistics statistics = currentStatistics.get();
+		return statistics != null ? statistics : DEFAULT_STATISTICS;
+	}
+
+	/**
+	 * Sets the statistics readers and writers on the current thread record
+	 * into, null restores the default statistics
+	 * @param statistics
+	 * @return the statistics that were set before
+	 */
+	public static Statistics setCurrent(Statistics statistics){
+		Statistics previous = currentStatistics.get();
+		if(statistics == null){
+			currentStatistics.remove();
+		} else {
+			currentStatistics.set(statistics);
+		}
+		return previous;
+	}
+
+	/**
+	 * Records the time spent computing the frames of a class
+	 * @param nanos
+	 */
+	void recordFrameComputation(long nanos){
+		frameComputedClasses.incrementAndGet();
+		frameComputationNanos.addAndGet(nanos);
+		long max = frameComputationMaxNanos.get();
+		while(nanos > max && !frameComputationMaxNanos.compareAndSet(max, nanos)){
+			max = frameComputationMaxNanos.get();
+		}
+	}
+
+}
@@ -1451,6 +1451,7 @@ class MethodWriter extends MethodVisitor {
     @Override
     public void visitMaxs(final int maxStack, final int maxLocals) {
         if (ClassReader.FRAMES && compute == FRAMES) {
+            long frameStart = System.nanoTime();
             // completes the control flow graph with exception handler blocks
             Handler handler = firstHandler;
             while (handler != null) {
@@ -1565,6 +1566,7 @@ class MethodWriter extends MethodVisitor {
             }
 
             this.maxStack = max;
+            cw.frameComputationNanos += System.nanoTime() - frameStart;
         } else if (compute == MAXS) {
             // completes the control flow graph with exception handler blocks
             Handler handler = firstHandler;